@@ -29,9 +29,11 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -42,6 +44,7 @@ import dr.evolution.datatype.DataType;
 import dr.evolution.sequence.Sequence;
 import dr.evolution.tree.NodeRef;
 import dr.evolution.util.Taxon;
+import dr.evomodel.tree.TreeModel;
 
 /**
  * @author Filip Bielejec
@@ -102,6 +105,51 @@ public class BeagleSequenceSimulator {
 
 	public SimpleAlignment simulate(boolean parallel, boolean outputAncestralSequences) {
 
+		simulatePartitions(parallel, outputAncestralSequences);
+		alignment = compileAlignment();
+
+		return alignment;
+	}// END: simulate
+
+	/**
+	 * Simulates the sequences and writes them out rather than compiling them
+	 * into an alignment. A single partition covering every site is written
+	 * as it is simulated; the sequences of several partitions are put
+	 * together one taxon at a time.
+	 */
+	public void simulate(boolean parallel, boolean outputAncestralSequences, StreamingAlignmentWriter writer) {
+
+		Partition first = partitions.get(0);
+		if (partitions.size() == 1 && first.from == 0 && first.every == 1 && first.to == siteCount - 1) {
+
+			TreeModel treeModel = first.getTreeModel();
+			int sequenceCount = treeModel.getExternalNodeCount();
+			if (outputAncestralSequences) {
+				// all but the root
+				sequenceCount += treeModel.getInternalNodeCount() - 1;
+			}
+
+			writer.writeHeader(sequenceCount, siteCount);
+			first.setSequenceWriter(writer);
+			try {
+				simulatePartitions(parallel, outputAncestralSequences);
+			} finally {
+				first.setSequenceWriter(null);
+			}
+
+		} else {
+
+			simulatePartitions(parallel, outputAncestralSequences);
+			writeAlignment(writer);
+
+		}// END: partitions check
+
+		writer.close();
+
+	}// END: simulate
+
+	private void simulatePartitions(boolean parallel, boolean outputAncestralSequences) {
+
 		try {
 
 			// Executor for threads
@@ -135,14 +183,11 @@ public class BeagleSequenceSimulator {
 			while (!executor.isTerminated()) {
 			}
 
-			alignment = compileAlignment();
-
 		} catch (Exception e) {
 			e.printStackTrace();
 		}// END: try-catch block
 
-		return alignment;
-	}// END: simulate
+	}// END: simulatePartitions
 
 	private class SimulatePartitionCallable implements Callable<Void> {
 
@@ -252,6 +297,46 @@ public class BeagleSequenceSimulator {
 		return simpleAlignment;
 	}// END: compileAlignment
 
+	// as compileAlignment but one taxon at a time
+	private void writeAlignment(StreamingAlignmentWriter writer) {
+
+		Set<Taxon> taxa = new LinkedHashSet<Taxon>();
+		for (Partition partition : partitions) {
+			taxa.addAll(partition.getTaxonSequencesMap().keySet());
+		}
+
+		writer.writeHeader(taxa.size(), siteCount);
+
+		int[] sequence = new int[siteCount];
+		for (Taxon taxon : taxa) {
+
+			// dirty solution for gaps when taxa between the tree
+			// topologies don't match
+			Arrays.fill(sequence, gapFlag);
+
+			for (Partition partition : partitions) {
+
+				int[] partitionSequence = partition.getTaxonSequencesMap().get(taxon);
+				if (partitionSequence != null) {
+
+					int j = 0;
+					for (int i = partition.from; i <= partition.to; i += partition.every) {
+
+						sequence[i] = partitionSequence[j];
+						j++;
+
+					}// END: i loop
+
+				}// END: taxon check
+
+			}// END: partitions loop
+
+			writer.writeSequence(taxon, sequence);
+
+		}// END: taxa loop
+
+	}// END: writeAlignment
+
 	public LinkedHashMap<Integer, LinkedHashMap<NodeRef, int[]>> getPartitionSequencesMap() {
 		return partitionSequencesMap;
 	}//END: getPartitionSequencesMap
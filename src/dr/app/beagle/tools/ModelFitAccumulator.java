@@ -0,0 +1,165 @@
+/*
+ * ModelFitAccumulator.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.app.beagle.tools;
+
+import java.util.Arrays;
+
+/**
+ * Accumulates the log likelihoods of each pattern over posterior samples to give the conditional
+ * predictive ordinates (CPO), the log pseudo-marginal likelihood (LPML) and the widely applicable
+ * information criterion (WAIC) without keeping the samples.
+ *
+ * For each pattern the log of the sums of the likelihood and of its inverse are kept as running
+ * log-sum-exps and the mean and variance of the log likelihood by Welford's method. The totals
+ * over patterns are weighted by the pattern weights.
+ */
+public class ModelFitAccumulator {
+
+	public ModelFitAccumulator(double[] patternWeights) {
+
+		this.patternWeights = patternWeights;
+
+		final int patternCount = patternWeights.length;
+		logSumInverseLikelihoods = new double[patternCount];
+		logSumLikelihoods = new double[patternCount];
+		meanLogLikelihoods = new double[patternCount];
+		sumSquaredDeviations = new double[patternCount];
+
+		Arrays.fill(logSumInverseLikelihoods, Double.NEGATIVE_INFINITY);
+		Arrays.fill(logSumLikelihoods, Double.NEGATIVE_INFINITY);
+
+	}// END: Constructor
+
+	/**
+	 * Adds a sample of the pattern log likelihoods, which should all be finite.
+	 */
+	public void addSample(double[] patternLogLikelihoods) {
+
+		sampleCount++;
+		final double n = sampleCount;
+
+		for (int i = 0; i < logSumLikelihoods.length; i++) {
+			final double logL = patternLogLikelihoods[i];
+
+			logSumInverseLikelihoods[i] = logSum(logSumInverseLikelihoods[i], -logL);
+			logSumLikelihoods[i] = logSum(logSumLikelihoods[i], logL);
+
+			final double delta = logL - meanLogLikelihoods[i];
+			meanLogLikelihoods[i] += delta / n;
+			sumSquaredDeviations[i] += delta * (logL - meanLogLikelihoods[i]);
+		}
+
+	}// END: addSample
+
+	public int getSampleCount() {
+		return sampleCount;
+	}// END: getSampleCount
+
+	/**
+	 * @return the log of the harmonic mean of the pattern's likelihood over the samples
+	 */
+	public double getLogCPO(int pattern) {
+		return Math.log(sampleCount) - logSumInverseLikelihoods[pattern];
+	}// END: getLogCPO
+
+	/**
+	 * @return the weighted sum of the log CPOs
+	 */
+	public double getLPML() {
+		updateTotals();
+		return lpml;
+	}// END: getLPML
+
+	/**
+	 * @return the log pointwise predictive density, the weighted sum of the log of the mean of
+	 *         each pattern's likelihood
+	 */
+	public double getLogPointwisePredictiveDensity() {
+		updateTotals();
+		return lppd;
+	}// END: getLogPointwisePredictiveDensity
+
+	/**
+	 * @return the effective number of parameters, the weighted sum of the variances of each
+	 *         pattern's log likelihood
+	 */
+	public double getEffectiveParameterCount() {
+		updateTotals();
+		return pWAIC;
+	}// END: getEffectiveParameterCount
+
+	/**
+	 * @return the WAIC on the deviance scale, -2 (lppd - pWAIC)
+	 */
+	public double getWAIC() {
+		updateTotals();
+		return -2.0 * (lppd - pWAIC);
+	}// END: getWAIC
+
+	private void updateTotals() {
+
+		if (totalsSampleCount == sampleCount) {
+			return;
+		}
+
+		final double logN = Math.log(sampleCount);
+		double sumLogCPO = 0.0;
+		double sumLogMean = 0.0;
+		double sumVariance = 0.0;
+		for (int i = 0; i < patternWeights.length; i++) {
+			sumLogCPO += (logN - logSumInverseLikelihoods[i]) * patternWeights[i];
+			sumLogMean += (logSumLikelihoods[i] - logN) * patternWeights[i];
+			if (sampleCount > 1) {
+				sumVariance += sumSquaredDeviations[i] / (sampleCount - 1) * patternWeights[i];
+			}
+		}
+
+		lpml = (sampleCount > 0 ? sumLogCPO : Double.NaN);
+		lppd = (sampleCount > 0 ? sumLogMean : Double.NaN);
+		pWAIC = (sampleCount > 0 ? sumVariance : Double.NaN);
+		totalsSampleCount = sampleCount;
+
+	}// END: updateTotals
+
+	private static double logSum(double x, double y) {
+		return (x > y ? x + Math.log1p(Math.exp(y - x)) : y + Math.log1p(Math.exp(x - y)));
+	}// END: logSum
+
+	private final double[] patternWeights;
+
+	private final double[] logSumInverseLikelihoods;
+	private final double[] logSumLikelihoods;
+	private final double[] meanLogLikelihoods;
+	private final double[] sumSquaredDeviations;
+
+	private int sampleCount = 0;
+
+	private int totalsSampleCount = -1;
+	private double lpml;
+	private double lppd;
+	private double pWAIC;
+
+}// END: class
@@ -25,8 +25,13 @@
 
 package dr.app.beagle.tools;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import dr.evomodel.treedatalikelihood.BufferIndexHelper;
 import org.apache.commons.math.random.MersenneTwister;
@@ -45,7 +50,9 @@ import dr.evolution.tree.NodeRef;
 import dr.evolution.util.Taxon;
 import dr.evomodel.branchratemodel.BranchRateModel;
 import dr.evomodel.tree.TreeModel;
+import dr.math.AliasTable;
 import dr.math.MathUtils;
+import dr.util.ThreadHelpers;
 
 /**
  * @author Filip Bielejec
@@ -55,6 +62,11 @@ public class Partition {
 
 	private static final boolean DEBUG = false;
 
+	public static final String THREAD_COUNT_PROPERTY = "sequence.simulator.threads";
+
+	// sites simulated together with one stream of random numbers
+	private static final int SITE_BLOCK_SIZE = 4096;
+
 	// Constructor fields
 	public int from;
 	public int to;
@@ -94,7 +106,19 @@ public class Partition {
 	private boolean outputAncestralSequences = false;
 
 	// Random number generation
-	private MersenneTwister random;
+	private final MersenneTwister seedGenerator;
+	private MersenneTwister[] random;
+
+	// Site blocks and threads
+	private int blockCount;
+	private int threadCount;
+	private ExecutorService executor;
+
+	// Branch simulation
+	private double[] transitionMatrix;
+	private AliasTable branchTable;
+	private final ArrayDeque<int[]> freeSequences = new ArrayDeque<int[]>();
+	private StreamingAlignmentWriter sequenceWriter = null;
 
 	// Annotating trees
 //	private boolean annotateTree = true;
@@ -132,7 +156,7 @@ public class Partition {
 		loadBeagleInstance();
 
 		alignmentMap = new LinkedHashMap<Taxon, int[]>();
-		random = new MersenneTwister(MathUtils.nextLong());
+		seedGenerator = new MersenneTwister(MathUtils.nextLong());
 
 	}// END: Constructor
 
@@ -209,13 +233,33 @@ public class Partition {
 //			Utils.printArray(categoryRates);
 //			Utils.printArray(categoryProbs);
 
-			int[] category = new int[partitionSiteCount];
-			for (int i = 0; i < partitionSiteCount; i++) {
-
-				category[i] = randomChoicePDF(categoryProbs, partitionNumber,
-						"categories");
+			// each block of sites has its own stream of random numbers so
+			// that the sequences are the same however many threads are used
+			long seed = seedGenerator.nextLong();
+			blockCount = (partitionSiteCount + SITE_BLOCK_SIZE - 1) / SITE_BLOCK_SIZE;
+			random = new MersenneTwister[blockCount];
+			for (int i = 0; i < blockCount; i++) {
+				random[i] = new MersenneTwister(new int[] { (int) (seed >>> 32), (int) seed, i });
+			}
 
+			int threadCount = Math.min(ThreadHelpers.getThreadCount(THREAD_COUNT_PROPERTY, //
+					ThreadHelpers.getProcessorCount()), blockCount);
+			if (threadCount > 1) {
+				executor = ThreadHelpers.newFixedThreadPool(threadCount, "sequence-simulator");
 			}
+			this.threadCount = threadCount;
+
+			final AliasTable categoryTable = new AliasTable(1, categoryProbs.length);
+			categoryTable.setTable(0, categoryProbs, 0);
+
+			final int[] category = new int[partitionSiteCount];
+			simulateSiteBlocks(new SiteBlockSimulation() {
+				public void simulate(int from, int to, MersenneTwister random) {
+					for (int i = from; i < to; i++) {
+						category[i] = categoryTable.sample(0, random.nextDouble());
+					}
+				}
+			});
 
 //			category = new int[] {1, 0, 0, 0, 0, 1, 0, 1, 0, 0 };
 
@@ -224,7 +268,7 @@ public class Partition {
 				Utils.printArray(category);
 			}//END: DEBUG
 
-			int[] parentSequence = new int[partitionSiteCount];
+			final int[] parentSequence;
 
 			// set ancestral sequence for partition if it exists
 			if (hasRootSequence) {
@@ -248,13 +292,17 @@ public class Partition {
 
 			} else {
 
-				double[] frequencies = freqModel.getFrequencies();
-				for (int i = 0; i < partitionSiteCount; i++) {
-
-					parentSequence[i] = randomChoicePDF(frequencies,
-							partitionNumber, "root");
+				final AliasTable rootTable = new AliasTable(1, stateCount);
+				rootTable.setTable(0, freqModel.getFrequencies(), 0);
 
-				}
+				parentSequence = new int[partitionSiteCount];
+				simulateSiteBlocks(new SiteBlockSimulation() {
+					public void simulate(int from, int to, MersenneTwister random) {
+						for (int i = from; i < to; i++) {
+							parentSequence[i] = rootTable.sample(0, random.nextDouble());
+						}
+					}
+				});
 
 			}// END:ancestralSequence check
 
@@ -268,6 +316,9 @@ public class Partition {
 
 			substitutionModelDelegate.updateSubstitutionModels(beagle);
 
+			transitionMatrix = new double[siteRateCategoryCount * stateCount * stateCount];
+			branchTable = new AliasTable(siteRateCategoryCount * stateCount, stateCount);
+
 			traverse(root, parentSequence, category);
 
 			if (DEBUG) {
@@ -284,81 +335,81 @@ public class Partition {
 		} catch (Throwable e) {
 			System.err.println("BeagleException: " + e.getMessage());
 			System.exit(-1);
+		} finally {
+			if (executor != null) {
+				executor.shutdownNow();
+				executor = null;
+			}
+			random = null;
+			transitionMatrix = null;
+			branchTable = null;
+			freeSequences.clear();
 		}
 
 	}// END: simulatePartition
 
-	private void traverse(NodeRef node, //
-						  int[] parentSequence, //
+	private void traverse(NodeRef root, //
+						  int[] rootSequence, //
 						  int[] category //
 	) {
 
-		if (DEBUG) {
-			synchronized (this) {
-				System.out.println();
-				System.out.println("I'm at: " + node.toString());
-				System.out.println();
+		// the tree is walked in the same order as a recursion would, but with
+		// a stack so that deep trees of many taxa cannot overflow the call
+		// stack; only the sequences of the nodes on the stack are kept and
+		// their arrays are reused once all their children have been simulated
+		NodeRef[] nodes = new NodeRef[nodeCount];
+		int[][] sequences = new int[nodeCount][];
+		int[] nextChild = new int[nodeCount];
+		boolean[] reusable = new boolean[nodeCount];
+
+		int depth = 0;
+		nodes[0] = root;
+		sequences[0] = rootSequence;
+		nextChild[0] = 0;
+		reusable[0] = false;
+
+		while (depth >= 0) {
+
+			NodeRef node = nodes[depth];
+
+			if (nextChild[depth] == treeModel.getChildCount(node)) {
+				if (reusable[depth]) {
+					freeSequences.push(sequences[depth]);
+				}
+				sequences[depth] = null;
+				depth--;
+				continue;
 			}
-		}//END: DEBUG
 
-		for (int iChild = 0; iChild < treeModel.getChildCount(node); iChild++) {
+			int iChild = nextChild[depth];
+			nextChild[depth]++;
 
 			NodeRef child = treeModel.getChild(node, iChild);
-			int[] partitionSequence = new int[partitionSiteCount];
-			double[] cProb = new double[stateCount];
-
-			double[][] probabilities = getTransitionProbabilities(child);
 
 			if (DEBUG) {
 				synchronized (this) {
+					System.out.println();
+					System.out.println("I'm at: " + node.toString());
 					System.out.println("Going to child " + iChild + ": " + child.toString());
-					System.out.println("Child finite transition probs matrix:");
-					Utils.print2DArray(probabilities, stateCount);
 					System.out.println();
 				}
-			}// END: DEBUG
-
-			for (int i = 0; i < partitionSiteCount; i++) {
-
-                if (DEBUG) {
-                    System.out.println("length of copy: " + stateCount);
-                    System.out.println("source length: " + probabilities[category[i]].length);
-                    System.out.println("destination length: " + cProb.length);
-                }
-
-				System.arraycopy(probabilities[category[i]], parentSequence[i] * stateCount, cProb, 0, stateCount);
-
-				if (DEBUG) {
-					synchronized (this) {
-						System.out.println("site:" + i);
-						System.out.println("site probs:");
-						Utils.printArray(cProb);
-					}
-				}// END: DEBUG
-
-				partitionSequence[i] = randomChoicePDF(cProb, partitionNumber,
-						"seq");
+			}//END: DEBUG
 
-			}// END: i loop
+			int[] partitionSequence = simulateBranch(child, sequences[depth], category);
 
 			if (DEBUG) {
 				synchronized (this) {
-//					partitionSequence = new int[]{1, 3, 2, 3, 0, 1, 0, 1, 0, 2, 2, 0, 1, 3, 3, 3, 0, 1, 2, 1, 3, 1, 1, 1, 1, 3, 0, 0, 3, 2, 3, 2, 3, 2, 1, 2, 1, 3, 2, 3, 3, 0, 2, 2, 3, 2, 3, 2, 3, 1, 2, 0, 2, 1, 3, 2, 3, 1, 1, 1, 1, 0, 2, 3, 1, 0, 2, 1, 2, 1, 3, 0, 0, 0, 0, 0, 2, 0, 2, 3, 1, 0, 1, 3, 0, 2, 1, 2, 1, 3, 0, 0, 3, 2, 2, 0, 1, 0, 0, 3  };
 					System.out.println("Simulated sequence:");
 					Utils.printArray(partitionSequence);
 				}
 			}// END: if DEBUG
 
-//			if(annotateTree) {
-//				
-//				sequencesMap.put(child, partitionSequence);
-//				
-//			}
-
 			if (treeModel.getChildCount(child) == 0) {
 
 				Taxon taxon = treeModel.getNodeTaxon(child);
-				alignmentMap.put(taxon, partitionSequence);
+				if (outputSequence(taxon, partitionSequence)) {
+					freeSequences.push(partitionSequence);
+				}
 
 				if (DEBUG) {
 					synchronized (this) {
@@ -369,26 +420,123 @@ public class Partition {
 
 			} else {
 
+				boolean reuse = true;
 				if(outputAncestralSequences) {
 
-					alignmentMap.put(new Taxon("internalNodeHeight" + treeModel.getNodeHeight(child)), partitionSequence);
+					reuse = outputSequence(new Taxon("internalNodeHeight" + treeModel.getNodeHeight(child)), partitionSequence);
 
 				}
 
-			} // END: tip node check
+				depth++;
+				nodes[depth] = child;
+				sequences[depth] = partitionSequence;
+				nextChild[depth] = 0;
+				reusable[depth] = reuse;
 
-			traverse(treeModel.getChild(node, iChild), partitionSequence,
-					category);
+			} // END: tip node check
 
-		}// END: child nodes loop
+		}// END: stack loop
 
 	}// END: traverse
 
-	private double[][] getTransitionProbabilities(NodeRef node //
+	/**
+	 * Writes the sequence out if there is a writer or otherwise keeps it.
+	 *
+	 * @return true if the array of the sequence can be reused
+	 */
+	private boolean outputSequence(Taxon taxon, int[] partitionSequence) {
+
+		if (sequenceWriter != null) {
+			sequenceWriter.writeSequence(taxon, partitionSequence);
+			return true;
+		} else {
+			alignmentMap.put(taxon, partitionSequence);
+			return false;
+		}
+
+	}// END: outputSequence
+
+	private int[] simulateBranch(NodeRef child, //
+								 final int[] parentSequence, //
+								 final int[] category //
 	) {
 
-		double[][] probabilities = new double[siteRateCategoryCount][stateCount
-				* stateCount];
+		getTransitionProbabilities(child);
+
+		if (DEBUG) {
+			synchronized (this) {
+				System.out.println("Child finite transition probs matrix:");
+				Utils.printArray(transitionMatrix);
+				System.out.println();
+			}
+		}// END: DEBUG
+
+		// one alias table for each rate category and parent state
+		for (int siteRateCat = 0; siteRateCat < siteRateCategoryCount; siteRateCat++) {
+			for (int state = 0; state < stateCount; state++) {
+				branchTable.setTable(siteRateCat * stateCount + state, transitionMatrix,
+						(siteRateCat * stateCount + state) * stateCount);
+			}
+		}
+
+		final int[] partitionSequence = (freeSequences.isEmpty() ? new int[partitionSiteCount] : freeSequences.pop());
+
+		simulateSiteBlocks(new SiteBlockSimulation() {
+			public void simulate(int from, int to, MersenneTwister random) {
+				for (int i = from; i < to; i++) {
+					partitionSequence[i] = branchTable.sample(category[i] * stateCount + parentSequence[i],
+							random.nextDouble());
+				}
+			}
+		});
+
+		return partitionSequence;
+	}// END: simulateBranch
+
+	private interface SiteBlockSimulation {
+		void simulate(int from, int to, MersenneTwister random);
+	}// END: SiteBlockSimulation
+
+	/**
+	 * Runs the simulation over every block of sites, each with its own random
+	 * numbers, spreading runs of blocks over the threads.
+	 */
+	private void simulateSiteBlocks(final SiteBlockSimulation simulation) {
+
+		if (executor == null) {
+			for (int block = 0; block < blockCount; block++) {
+				simulateSiteBlock(simulation, block);
+			}
+			return;
+		}
+
+		List<Future<?>> futures = new ArrayList<Future<?>>(threadCount);
+		for (int thread = 0; thread < threadCount; thread++) {
+			final int firstBlock = thread * blockCount / threadCount;
+			final int lastBlock = (thread + 1) * blockCount / threadCount;
+			futures.add(executor.submit(new Runnable() {
+				public void run() {
+					for (int block = firstBlock; block < lastBlock; block++) {
+						simulateSiteBlock(simulation, block);
+					}
+				}
+			}));
+		}
+
+		for (Future<?> future : futures) {
+			ThreadHelpers.getResult(future, "simulating sequences");
+		}
+
+	}// END: simulateSiteBlocks
+
+	private void simulateSiteBlock(SiteBlockSimulation simulation, int block) {
+		int from = block * SITE_BLOCK_SIZE;
+		int to = Math.min(from + SITE_BLOCK_SIZE, partitionSiteCount);
+		simulation.simulate(from, to, random[block]);
+	}// END: simulateSiteBlock
+
+	private void getTransitionProbabilities(NodeRef node //
+	) {
 
 		int nodeNum = node.getNumber();
 		matrixBufferHelper.flipOffset(nodeNum);
@@ -411,21 +559,11 @@ public class Partition {
 		substitutionModelDelegate.updateTransitionMatrices(beagle,
 				new int[] { branchIndex }, new double[] { branchTime }, count);
 
-		double transitionMatrix[] = new double[siteRateCategoryCount
-				* stateCount * stateCount];
-
+		// the matrices of the rate categories one after another
 		beagle.getTransitionMatrix(branchIndex, //
 				transitionMatrix //
 		);
 
-		for (int siteRateCat = 0; siteRateCat < siteRateCategoryCount; siteRateCat++) {
-
-			System.arraycopy(transitionMatrix, siteRateCat * stateCount * stateCount,
-					probabilities[siteRateCat], 0, stateCount * stateCount);
-
-		}// END: i loop
-
-		return probabilities;
 	}// END: getTransitionProbabilities
 
 	// ///////////////////////////
@@ -514,25 +652,6 @@ public class Partition {
 		return array;
 	}// END: sequence2intArray
 
-	private int randomChoicePDF(double[] pdf, int partitionNumber, String error) {
-
-		int samplePos = -Integer.MAX_VALUE;
-		double cumProb = 0.0;
-		double u = random.nextDouble();
-
-		for (int i = 0; i < pdf.length; i++) {
-
-			cumProb += pdf[i];
-
-			if (u < cumProb) {
-				samplePos = i;
-				break;
-			}
-		}
-
-		return samplePos;
-	}// END: randomChoicePDF
-
 	// /////////////
 	// --SETTERS--//
 	// /////////////
@@ -550,6 +669,14 @@ public class Partition {
 		this.outputAncestralSequences = outputAncestralSequences;
 	}
 
+	/**
+	 * Sequences are written to the writer as they are simulated instead of
+	 * being kept in the taxon sequences map.
+	 */
+	public void setSequenceWriter(StreamingAlignmentWriter sequenceWriter) {
+		this.sequenceWriter = sequenceWriter;
+	}// END: setSequenceWriter
+
 	// /////////////
 	// --GETTERS--//
 	// /////////////
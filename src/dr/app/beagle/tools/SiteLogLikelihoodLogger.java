@@ -26,45 +26,149 @@
 package dr.app.beagle.tools;
 
 import dr.evomodel.treelikelihood.BeagleTreeLikelihood;
+import dr.evomodel.treelikelihood.PatternLogLikelihoodProvider;
 import dr.inference.loggers.LogColumn;
+import dr.inference.loggers.LoggedStateListener;
 import dr.inference.loggers.Loggable;
 import dr.inference.loggers.NumberColumn;
+import dr.inference.model.Likelihood;
 import dr.xml.Reportable;
 
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Logs the log likelihood of each site pattern and, optionally, the LPML and WAIC accumulated
+ * over the logged states. The pattern log likelihoods are those kept by the likelihood from its
+ * last calculation so logging them does not recalculate or copy them. They are read once for
+ * each logged state, however many logs it is in, and the first burnin logged states are left
+ * out of the LPML and WAIC.
+ */
 public class SiteLogLikelihoodLogger implements Loggable, Reportable {
 
-	BeagleTreeLikelihood beagleTreeLikelihood;
-	int patternCount;
-	private SiteLogLikelihoodColumn[] columns = null;
+	private final Likelihood likelihood;
+	private final PatternLogLikelihoodProvider provider;
+	private final int patternCount;
+	private final boolean logSites;
+	private final ModelFitAccumulator accumulator;
+	private final int burnin;
+
+	private int burninCount = 0;
+	private long lastState = -1;
+	private double[] siteLogLikelihoods = null;
+	private LogColumn[] columns = null;
 
 	public SiteLogLikelihoodLogger(BeagleTreeLikelihood beagleTreeLikelihood) {
-		this.beagleTreeLikelihood = beagleTreeLikelihood;
+		this(beagleTreeLikelihood, beagleTreeLikelihood, true, false, 0);
+	}// END: Constructor
+
+	public SiteLogLikelihoodLogger(Likelihood likelihood, //
+			PatternLogLikelihoodProvider provider, //
+			boolean logSites, //
+			boolean logModelFit, //
+			int burnin //
+	) {
 
-		patternCount = beagleTreeLikelihood.getPatternCount();
+		this.likelihood = likelihood;
+		this.provider = provider;
+		this.logSites = logSites;
+		this.burnin = burnin;
+
+		patternCount = provider.getPatternCount();
+		accumulator = (logModelFit ? new ModelFitAccumulator(provider.getPatternWeights()) : null);
+
+		provider.cachePatternLogLikelihoods();
 
 	}// END: Constructor
 
+	public ModelFitAccumulator getModelFitAccumulator() {
+		return accumulator;
+	}// END: getModelFitAccumulator
+
 	@Override
 	public LogColumn[] getColumns() {
 
 		if (columns == null) {
-			columns = new SiteLogLikelihoodColumn[patternCount];
-			for (int site = 0; site < patternCount; site++) {
+			List<LogColumn> columnList = new ArrayList<LogColumn>();
 
-				columns[site] = new SiteLogLikelihoodColumn(site);
+			if (logSites) {
+				for (int site = 0; site < patternCount; site++) {
+					columnList.add(new SiteLogLikelihoodColumn(site));
+				}
+			}
 
+			if (accumulator != null) {
+				String prefix = (likelihood.getId() != null ? likelihood.getId() + "." : "");
+				columnList.add(new ModelFitColumn(prefix + "LPML") {
+					protected double getValue() {
+						return accumulator.getLPML();
+					}
+				});
+				columnList.add(new ModelFitColumn(prefix + "WAIC") {
+					protected double getValue() {
+						return accumulator.getWAIC();
+					}
+				});
+				columnList.add(new ModelFitColumn(prefix + "pWAIC") {
+					protected double getValue() {
+						return accumulator.getEffectiveParameterCount();
+					}
+				});
 			}
+
+			columns = columnList.toArray(new LogColumn[columnList.size()]);
 		}
 
 		return columns;
 	}// END: getColumns
 
-	private double getSiteLogLikelihood(int site) {
-		double[] siteLikelihoods = beagleTreeLikelihood.getSiteLogLikelihoods();
-		return siteLikelihoods[site];
+	/**
+	 * Reads the pattern log likelihoods of the logged state and adds them to the accumulator,
+	 * unless this state has already been read.
+	 */
+	private void logSample(long state) {
+
+		if (state == lastState) {
+			return;
+		}
+		lastState = state;
+
+		siteLogLikelihoods = getCurrentSiteLogLikelihoods();
+
+		if (accumulator != null) {
+			if (burninCount < burnin) {
+				burninCount++;
+			} else {
+				accumulator.addSample(siteLogLikelihoods);
+			}
+		}
+
+	}// END: logSample
+
+	private double[] getCurrentSiteLogLikelihoods() {
+		// the cached values are only up to date once the likelihood is known
+		likelihood.getLogLikelihood();
+		double[] values = provider.getPatternLogLikelihoods();
+		if (values == null) {
+			// the restored state was stored before caching started
+			likelihood.makeDirty();
+			likelihood.getLogLikelihood();
+			values = provider.getPatternLogLikelihoods();
+		}
+		return values;
+	}// END: getCurrentSiteLogLikelihoods
+
+	private double[] getSiteLogLikelihoods() {
+		if (siteLogLikelihoods == null) {
+			// nothing has been logged yet
+			return getCurrentSiteLogLikelihoods();
+		}
+		return siteLogLikelihoods;
 	}// END: getSiteLogLikelihoods
 
-	private class SiteLogLikelihoodColumn extends NumberColumn {
+	private class SiteLogLikelihoodColumn extends NumberColumn implements LoggedStateListener {
+
+		private static final long serialVersionUID = 1L;
 
 		final int site;
 
@@ -73,21 +177,57 @@ public class SiteLogLikelihoodLogger implements Loggable, Reportable {
 			this.site = site;
 		}
 
+		@Override
+		public void stateLogged(long state) {
+			logSample(state);
+		}
+
 		@Override
 		public double getDoubleValue() {
-			return getSiteLogLikelihood(site);
+			return getSiteLogLikelihoods()[site];
 		}
 
 	}// END: SiteLogLikelihoodColumn class
 
+	private abstract class ModelFitColumn extends NumberColumn implements LoggedStateListener {
+
+		private static final long serialVersionUID = 1L;
+
+		public ModelFitColumn(String label) {
+			super(label);
+		}
+
+		@Override
+		public void stateLogged(long state) {
+			logSample(state);
+		}
+
+		@Override
+		public double getDoubleValue() {
+			return getValue();
+		}
+
+		protected abstract double getValue();
+
+	}// END: ModelFitColumn class
+
 	public String toString() {
+		double[] values = getCurrentSiteLogLikelihoods();
+
 		StringBuilder sb = new StringBuilder();
 		for (int site = 0; site < patternCount; ++site) {
 			if (site > 0) {
 				sb.append(", ");
 			}
 
-			sb.append(getColumns()[site].getFormatted());
+			sb.append(values[site]);
+		}
+
+		if (accumulator != null) {
+			sb.append("\nLPML = ").append(accumulator.getLPML());
+			sb.append(", WAIC = ").append(accumulator.getWAIC());
+			sb.append(", pWAIC = ").append(accumulator.getEffectiveParameterCount());
+			sb.append(" (").append(accumulator.getSampleCount()).append(" samples)");
 		}
 
 		return sb.toString();
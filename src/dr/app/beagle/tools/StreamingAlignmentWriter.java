@@ -0,0 +1,172 @@
+/*
+ * StreamingAlignmentWriter.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.app.beagle.tools;
+
+import dr.app.tools.NexusExporter;
+import dr.evolution.alignment.SimpleAlignment;
+import dr.evolution.datatype.Codons;
+import dr.evolution.datatype.DataType;
+import dr.evolution.datatype.HiddenDataType;
+import dr.evolution.util.Taxon;
+import dr.util.NumberFormatter;
+
+import java.io.PrintWriter;
+
+/**
+ * Writes simulated sequences to a FASTA or NEXUS file one at a time, as they are simulated, in
+ * the same layout as SimpleAlignment's output types, so that the alignment never has to be held
+ * in memory. The NEXUS header gives the number of sequences so it has to be known at the start.
+ */
+public class StreamingAlignmentWriter {
+
+	public StreamingAlignmentWriter(PrintWriter writer, //
+									SimpleAlignment.OutputType outputType, //
+									DataType dataType //
+	) {
+
+		if (outputType != SimpleAlignment.OutputType.FASTA && outputType != SimpleAlignment.OutputType.NEXUS) {
+			throw new IllegalArgumentException("Only " + SimpleAlignment.OutputType.FASTA.getText() + " and "
+					+ SimpleAlignment.OutputType.NEXUS.getText() + " alignments can be written as they are simulated");
+		}
+
+		this.writer = writer;
+		this.outputType = outputType;
+		this.dataType = dataType;
+
+	}// END: Constructor
+
+	public synchronized void writeHeader(int sequenceCount, int siteCount) {
+
+		if (outputType == SimpleAlignment.OutputType.NEXUS) {
+
+			int characterCount = (dataType instanceof Codons ? 3 * siteCount : siteCount);
+
+			writer.print("#NEXUS\n");
+			writer.print("begin data;\n");
+			writer.print("\tdimensions" + " " + "ntax=" + sequenceCount + " " + "nchar=" + characterCount + ";\n");
+			writer.print("\tformat datatype=" + dataType.getDescription()
+					+ " missing=" + DataType.UNKNOWN_CHARACTER + " gap="
+					+ DataType.GAP_CHARACTER + ";\n");
+			writer.print("\tmatrix\n");
+
+		}
+
+	}// END: writeHeader
+
+	/**
+	 * @param taxon  the taxon of the sequence
+	 * @param states the states of the sequence, with BeagleSequenceSimulator.gapFlag for gaps
+	 */
+	public synchronized void writeSequence(Taxon taxon, int[] states) {
+
+		builder.setLength(0);
+
+		if (outputType == SimpleAlignment.OutputType.NEXUS) {
+
+			builder.append("\t");
+			appendTaxonName(taxon);
+			builder.append("\t");
+			appendStates(states);
+			builder.append("\n");
+
+		} else {
+
+			builder.append(">").append(formatter.formatToFieldWidth(taxon.getId(), 10)).append("\n");
+			appendStates(states);
+			builder.append("\n");
+
+		}// END: output type check
+
+		writer.append(builder);
+		sequenceCount++;
+
+	}// END: writeSequence
+
+	public synchronized void close() {
+
+		if (outputType == SimpleAlignment.OutputType.NEXUS) {
+			writer.print(";\nend;\n");
+		}
+		writer.close();
+
+	}// END: close
+
+	public int getSequenceCount() {
+		return sequenceCount;
+	}// END: getSequenceCount
+
+	// as Utils.intArray2Sequence
+	private void appendStates(int[] states) {
+
+		if (dataType instanceof Codons) {
+
+			for (int state : states) {
+				if (state == BeagleSequenceSimulator.gapFlag) {
+					builder.append(dataType.getTriplet(dataType.getGapState()));
+				} else {
+					builder.append(dataType.getTriplet(state));
+				}
+			}// END: sites loop
+
+		} else {
+
+			for (int state : states) {
+				if (state == BeagleSequenceSimulator.gapFlag) {
+					builder.append(dataType.getCode(dataType.getGapState()));
+				} else if (dataType instanceof HiddenDataType) {
+					builder.append(dataType.getCode(state %
+							(dataType.getStateCount() / ((HiddenDataType) dataType).getHiddenClassCount())));
+				} else {
+					builder.append(dataType.getCode(state));
+				}
+			}// END: sites loop
+
+		}// END: dataType check
+
+	}// END: appendStates
+
+	// as NexusExporter, quoted if necessary
+	private void appendTaxonName(Taxon taxon) {
+
+		String name = taxon.getId();
+		if (!name.matches(NexusExporter.SPECIAL_CHARACTERS_REGEX)) {
+			name = name.replace("\'", "\'\'");
+			builder.append("\'").append(name).append("\'");
+		} else {
+			builder.append(name);
+		}
+
+	}// END: appendTaxonName
+
+	private final PrintWriter writer;
+	private final SimpleAlignment.OutputType outputType;
+	private final DataType dataType;
+
+	private final StringBuilder builder = new StringBuilder();
+	private final NumberFormatter formatter = new NumberFormatter(6);
+	private int sequenceCount = 0;
+
+}// END: class
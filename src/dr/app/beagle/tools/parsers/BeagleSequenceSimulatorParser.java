@@ -27,10 +27,12 @@ package dr.app.beagle.tools.parsers;
 
 import dr.app.beagle.tools.BeagleSequenceSimulator;
 import dr.app.beagle.tools.Partition;
+import dr.app.beagle.tools.StreamingAlignmentWriter;
 import dr.evolution.alignment.Alignment;
 import dr.evolution.alignment.SimpleAlignment;
 import dr.evolution.datatype.Codons;
 import dr.evolution.datatype.Nucleotides;
+import dr.util.FileHelpers;
 import dr.xml.*;
 
 import java.util.ArrayList;
@@ -72,6 +74,7 @@ public class BeagleSequenceSimulatorParser extends AbstractXMLObjectParser {
                         
                 		SimpleAlignment.OutputType.values(), //TODO: this should ignore upper/lower cas
                         false),
+                AttributeRule.newStringRule(FileHelpers.FILE_NAME, true, "A file to write the sequences to as they are simulated, in which case the returned alignment is empty. Only for fasta and nexus output."),
                         
                 new ElementRule(Partition.class, 1, Integer.MAX_VALUE)
         };
@@ -163,7 +166,30 @@ public class BeagleSequenceSimulatorParser extends AbstractXMLObjectParser {
         }
 
         BeagleSequenceSimulator s = new BeagleSequenceSimulator(partitionsList);
-        SimpleAlignment alignment = s.simulate(parallel, outputAncestralSequences);
+        SimpleAlignment alignment;
+
+        if (xo.hasAttribute(FileHelpers.FILE_NAME)) {
+
+            StreamingAlignmentWriter writer;
+            try {
+                writer = new StreamingAlignmentWriter(XMLParser.getFilePrintWriter(xo, getParserName()),
+                        output, partitionsList.get(0).getDataType());
+            } catch (IllegalArgumentException iae) {
+                throw new XMLParseException(iae.getMessage());
+            }
+
+            s.simulate(parallel, outputAncestralSequences, writer);
+            Logger.getLogger("dr.app.beagle.tools").info("Wrote " + writer.getSequenceCount()
+                    + " sequences to " + xo.getStringAttribute(FileHelpers.FILE_NAME) + "\n");
+
+            alignment = new SimpleAlignment();
+            alignment.setDataType(partitionsList.get(0).getDataType());
+
+        } else {
+
+            alignment = s.simulate(parallel, outputAncestralSequences);
+
+        }// END: file check
 
         alignment.setOutputType(output);
 
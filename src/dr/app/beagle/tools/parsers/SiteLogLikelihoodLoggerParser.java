@@ -25,37 +25,74 @@
 
 package dr.app.beagle.tools.parsers;
 
-import dr.evomodel.treelikelihood.BeagleTreeLikelihood;
 import dr.app.beagle.tools.SiteLogLikelihoodLogger;
+import dr.evomodel.treedatalikelihood.DataLikelihoodDelegate;
+import dr.evomodel.treedatalikelihood.TreeDataLikelihood;
+import dr.evomodel.treelikelihood.PatternLogLikelihoodProvider;
+import dr.inference.model.Likelihood;
 import dr.xml.AbstractXMLObjectParser;
+import dr.xml.AttributeRule;
 import dr.xml.ElementRule;
 import dr.xml.XMLObject;
 import dr.xml.XMLParseException;
 import dr.xml.XMLSyntaxRule;
+import dr.xml.XORRule;
 
 public class SiteLogLikelihoodLoggerParser extends AbstractXMLObjectParser {
 
 	public static final String SITE_LOGLIKELIHOOD_LOGGER = "siteLogLikelihood";
+	public static final String LOG_SITES = "logSites";
+	public static final String MODEL_FIT = "modelFit";
+	public static final String BURNIN = "burnin";
 
 	@Override
 	public Object parseXMLObject(XMLObject xo) throws XMLParseException {
 
 		SiteLogLikelihoodLogger siteLogLikelihoodLogger;
-		BeagleTreeLikelihood beagleTreeLikelihood = null;
+		Likelihood likelihood = null;
 
 		for (int i = 0; i < xo.getChildCount(); i++) {
-			beagleTreeLikelihood = (BeagleTreeLikelihood) xo.getChild(i);
+			likelihood = (Likelihood) xo.getChild(i);
 		}
 
-		siteLogLikelihoodLogger = new SiteLogLikelihoodLogger(
-				beagleTreeLikelihood);
+		PatternLogLikelihoodProvider provider;
+		if (likelihood instanceof TreeDataLikelihood) {
+			DataLikelihoodDelegate delegate = ((TreeDataLikelihood) likelihood).getDataLikelihoodDelegate();
+			if (!(delegate instanceof PatternLogLikelihoodProvider)) {
+				throw new XMLParseException("The likelihood, " + likelihood.getId()
+						+ ", does not provide site log likelihoods");
+			}
+			provider = (PatternLogLikelihoodProvider) delegate;
+		} else {
+			// the (deprecated) BeagleTreeLikelihood
+			provider = (PatternLogLikelihoodProvider) likelihood;
+		}
+
+		boolean logSites = xo.getAttribute(LOG_SITES, true);
+		boolean modelFit = xo.getAttribute(MODEL_FIT, false);
+		int burnin = xo.getAttribute(BURNIN, 0);
+
+		if (!logSites && !modelFit) {
+			throw new XMLParseException("Either " + LOG_SITES + " or " + MODEL_FIT + " should be true");
+		}
+		if (burnin < 0) {
+			throw new XMLParseException(BURNIN + " should not be negative");
+		}
+
+		siteLogLikelihoodLogger = new SiteLogLikelihoodLogger(likelihood, provider, logSites, modelFit, burnin);
 
 		return siteLogLikelihoodLogger;
 	}// END: parseXMLObject
 
 	@Override
 	public XMLSyntaxRule[] getSyntaxRules() {
-		return new XMLSyntaxRule[] { new ElementRule(BeagleTreeLikelihood.class) };
+		return new XMLSyntaxRule[] {
+				AttributeRule.newBooleanRule(LOG_SITES, true, "Log the log likelihood of each site pattern (default true)"),
+				AttributeRule.newBooleanRule(MODEL_FIT, true,
+						"Log the LPML and WAIC accumulated over the logged states (default false)"),
+				AttributeRule.newIntegerRule(BURNIN, true,
+						"The number of logged states to leave out of the LPML and WAIC (default 0)"),
+				new XORRule(new ElementRule(PatternLogLikelihoodProvider.class), new ElementRule(TreeDataLikelihood.class)) };
 	}// END: getSyntaxRules
 
 	@Override
@@ -32,6 +32,7 @@ import dr.app.plugin.Plugin;
 import dr.app.plugin.PluginLoader;
 import dr.app.util.Arguments;
 import dr.app.util.Utils;
+import dr.inference.loggers.AsyncLogWriter;
 import dr.inference.mcmc.MCMC;
 import dr.inference.mcmcmc.MCMCMC;
 import dr.inference.mcmcmc.MCMCMCOptions;
@@ -81,7 +82,8 @@ public class BeastMain {
 
     public BeastMain(File inputFile, BeastConsoleApp consoleApp, int maxErrorCount, final boolean verbose,
                      boolean parserWarning, boolean strictXML, List<String> additionalParsers,
-                     boolean useMC3, double[] chainTemperatures, int swapChainsEvery) {
+                     boolean useMC3, double[] chainTemperatures, int swapChainsEvery,
+                     int mc3ThreadCount, boolean mc3NeighbourSwaps) {
 
         if (inputFile == null) {
             throw new RuntimeException("Error: no input file specified");
@@ -167,7 +169,8 @@ public class BeastMain {
             } else {
                 int chainCount = chainTemperatures.length;
                 MCMC[] chains = new MCMC[chainCount];
-                MCMCMCOptions options = new MCMCMCOptions(chainTemperatures, swapChainsEvery);
+                MCMCMCOptions options = new MCMCMCOptions(chainTemperatures, swapChainsEvery,
+                        mc3ThreadCount, mc3NeighbourSwaps);
 
                 Logger.getLogger("dr.apps.beast").info("Starting cold chain plus hot chains with temperatures: ");
                 for (int i = 1; i < chainTemperatures.length; i++) {
@@ -351,6 +354,7 @@ public class BeastMain {
                         new Arguments.LongOption("seed", "Specify a random number generator seed"),
                         new Arguments.StringOption("prefix", "PREFIX", "Specify a prefix for all output log filenames"),
                         new Arguments.Option("overwrite", "Allow overwriting of log files"),
+                        new Arguments.Option("async_log", "Format and write the logs on a separate thread"),
                         new Arguments.IntegerOption("errors", "Specify maximum number of numerical errors before stopping"),
                         new Arguments.IntegerOption("threads", "The number of computational threads to use (default auto)"),
                         new Arguments.Option("fail_threads", "Exit with error on uncaught exception in thread."),
@@ -390,6 +394,8 @@ public class BeastMain {
                         new Arguments.RealOption("mc3_delta", 0.0, Double.MAX_VALUE, "temperature increment parameter"),
                         new Arguments.RealArrayOption("mc3_temperatures", -1, "a comma-separated list of the hot chain temperatures"),
                         new Arguments.IntegerOption("mc3_swap", 1, Integer.MAX_VALUE, "frequency at which chains temperatures will be swapped"),
+                        new Arguments.IntegerOption("mc3_threads", 1, Integer.MAX_VALUE, "number of threads to run the chains on (default one per chain up to the number of cores)"),
+                        new Arguments.Option("mc3_neighbour_swaps", "only swap chains adjacent in temperature, without waiting for all chains"),
 
                         new Arguments.StringOption("load_state", "FILENAME", "Specify a filename to load a saved state from"),
                         new Arguments.StringOption("save_stem", "FILENAME", "Specify a stem for the filenames to save states to"),
@@ -397,6 +403,9 @@ public class BeastMain {
                         new Arguments.LongOption("save_every", "Specify a frequency to save the state file"),
                         new Arguments.StringOption("save_state", "FILENAME", "Specify a filename to save state to"),
                         new Arguments.Option("full_checkpoint_precision", "Use hex-encoded doubles in checkpoint files"),
+                        new Arguments.Option("binary_checkpoint", "Write checkpoint files in a binary format"),
+                        new Arguments.Option("compress_checkpoint", "Gzip compress binary checkpoint files"),
+                        new Arguments.Option("delta_checkpoint", "Only write the changes since the previous (binary) checkpoint"),
                         new Arguments.Option("force_resume", "Force resuming from a saved state"),
 
                         new Arguments.StringOption("citations_file", "FILENAME", "Specify a filename to write a citation list to"),
@@ -473,6 +482,8 @@ public class BeastMain {
         boolean usingMC3 = false;
         double[] chainTemperatures = null;
         int swapChainsEvery = DEFAULT_SWAP_CHAIN_EVERY;
+        int mc3ThreadCount = 0;
+        boolean mc3NeighbourSwaps = false;
 
         if (arguments.hasOption("particles")) {
             System.setProperty("smc.particle_folder", arguments.getStringOption("particles"));
@@ -541,6 +552,12 @@ public class BeastMain {
                 swapChainsEvery = arguments.getIntegerOption("mc3_swap");
             }
 
+            if (arguments.hasOption("mc3_threads")) {
+                mc3ThreadCount = arguments.getIntegerOption("mc3_threads");
+            }
+
+            mc3NeighbourSwaps = arguments.hasOption("mc3_neighbour_swaps");
+
             usingMC3 = chainCount > 1;
         }
 
@@ -694,6 +711,19 @@ public class BeastMain {
                 System.setProperty(BeastCheckpointer.FULL_CHECKPOINT_PRECISION, "true");
             }
 
+            if (arguments.hasOption("binary_checkpoint")) {
+                System.setProperty(BeastCheckpointer.BINARY_CHECKPOINT, "true");
+            }
+
+            if (arguments.hasOption("compress_checkpoint")) {
+                System.setProperty(BeastCheckpointer.BINARY_CHECKPOINT, "true");
+                System.setProperty(BeastCheckpointer.COMPRESS_CHECKPOINT, "true");
+            }
+
+            if (arguments.hasOption("delta_checkpoint")) {
+                System.setProperty(BeastCheckpointer.DELTA_CHECKPOINT, "true");
+            }
+
             if (arguments.hasOption("force_resume")) {
                 System.setProperty("force.resume", Boolean.TRUE.toString());
             }
@@ -896,6 +926,10 @@ public class BeastMain {
             System.setProperty("log.allow.overwrite", "true");
         }
 
+        if (arguments.hasOption("async_log")) {
+            System.setProperty(AsyncLogWriter.ASYNC_LOGGING, "true");
+        }
+
         additionalParsers.add("beagle");
 
         if (beagleFlags != 0) {
@@ -913,7 +947,7 @@ public class BeastMain {
 
         try {
             new BeastMain(inputFile, consoleApp, maxErrorCount, verbose, warnings, strictXML, additionalParsers,
-                    usingMC3, chainTemperatures, swapChainsEvery);
+                    usingMC3, chainTemperatures, swapChainsEvery, mc3ThreadCount, mc3NeighbourSwaps);
         } catch (RuntimeException rte) {
             // The stack trace here is not useful
 //            rte.printStackTrace(System.err);
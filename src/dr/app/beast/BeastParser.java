@@ -34,6 +34,7 @@ import dr.xml.XMLObjectParser;
 import dr.xml.XMLParser;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -141,66 +142,145 @@ public class BeastParser extends XMLParser {
         if (stream == null) {
             throw new RuntimeException("Parsers file not found: " + parsersFile);
         }
-        BufferedReader reader = new BufferedReader(new InputStreamReader(stream));
+        final byte[] properties = ParserIndex.readAll(stream);
+
+        // the parsers are only created when they are used if there is an up to date index
+        // (verbose output lists each parser as it is loaded so doesn't use it)
+        List<ParserIndex.Entry> index = null;
+        if (!verbose) {
+            String indexFile = parsersFile.substring(0, parsersFile.length() - PARSER_PROPERTIES_SUFFIX.length())
+                    + ParserIndex.INDEX_SUFFIX;
+            index = ParserIndex.read(c.getResourceAsStream(indexFile), properties);
+        }
+
+        if (index != null) {
+            for (ParserIndex.Entry entry : index) {
+                if (entry.isFailed() || !addLazyParsers(entry, parsersFile, parserWarning, canReplace)) {
+                    loadParser(entry.getClassName(), parsersFile, verbose, parserWarning, canReplace);
+                }
+            }
+            return;
+        }
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(properties)));
         String line = reader.readLine();
 
         while (line != null) {
             if (verbose && line.trim().startsWith("#")) System.out.println(line);
 
             if (line.trim().length() > 0 && !line.trim().startsWith("#")) {
-                try {
-                    if (line.contains("Vector")) {
-                        System.out.println("");
-                    }
-                    Class parser = Class.forName(line);
-                    if (XMLObjectParser.class.isAssignableFrom(parser)) {
-                        // if this class is an XMLObjectParser then create an instance
-                        boolean replaced = addXMLObjectParser((XMLObjectParser) parser.newInstance(), canReplace);
-                        if (verbose) {
-                            System.out.println((replaced ? "Replaced" : "Loaded") + " parser: " + parser.getName());
-                        } else if (parserWarning && replaced) {
-                            System.out.println("WARNING: parser - " + parser.getName() + " in " + parsersFile +" is duplicated, "
-                                    + "which is REPLACING the same parser loaded previously.\n");
-                        }
-                    } else {
-                        boolean parserFound = false;
-                        // otherwise look for a static member which is an instance of XMLObjectParser
-                        Field[] fields = parser.getDeclaredFields();
-                        for (Field field : fields) {
-                            if (XMLObjectParser.class.isAssignableFrom(field.getType())) {
-                                try {
-                                    boolean replaced = addXMLObjectParser((XMLObjectParser) field.get(null), canReplace);
-                                    if (verbose) {
-                                        System.out.println((replaced ? "Replaced" : "Loaded") + " parser: "
-                                                + parser.getName() + "." + field.getName());
-                                    } else if (parserWarning && replaced) {
-                                        System.out.println("WARNING: parser - " + parser.getName() + " in " + parsersFile +" is duplicated, "
-                                                + "which is REPLACING the same parser loaded previously.\n");
-                                    }
-                                } catch (IllegalArgumentException iae) {
-                                    System.err.println("Failed to install parser: " + iae.getMessage());
-                                }
-                                parserFound = true;
-                            }
-                        }
+                loadParser(line, parsersFile, verbose, parserWarning, canReplace);
+            }
+            line = reader.readLine();
+        }
+
+        if (verbose) {
+            System.out.println("load " + parsersFile + " successfully.\n");
+        }
+    }
+
+    /**
+     * Adds the parsers of a line of a parsers file to be created when they are used.
+     *
+     * @return false if the parsers can't be added lazily because one would clash with an
+     * existing parser that it can't replace, so the line should be loaded instead to report it
+     */
+    private boolean addLazyParsers(ParserIndex.Entry entry, String parsersFile, boolean parserWarning, boolean canReplace) {
+        final List<String[]> parserNames = entry.getParserNames();
+
+        Set<String> names = new HashSet<String>();
+        for (String[] memberNames : parserNames) {
+            for (String name : memberNames) {
+                if (!names.add(name) || (!canReplace && hasParser(name))) {
+                    return false;
+                }
+            }
+        }
+
+        for (int i = 0; i < parserNames.size(); i++) {
+            boolean replaced = addLazyXMLObjectParser(parserNames.get(i),
+                    new IndexedParser(entry.getClassName(), entry.getMembers().get(i)));
+            if (parserWarning && replaced) {
+                System.out.println("WARNING: parser - " + entry.getClassName() + " in " + parsersFile +" is duplicated, "
+                        + "which is REPLACING the same parser loaded previously.\n");
+            }
+        }
+        return true;
+    }
 
-                        if (!parserFound) {
-                            throw new IllegalArgumentException(parser.getName() + " is not of type XMLObjectParser " +
-                                    "and doesn't contain any static members of this type");
+    private void loadParser(String line, String parsersFile, boolean verbose, boolean parserWarning, boolean canReplace) {
+        try {
+            Class<?> parser = Class.forName(line);
+            if (XMLObjectParser.class.isAssignableFrom(parser)) {
+                // if this class is an XMLObjectParser then create an instance
+                boolean replaced = addXMLObjectParser((XMLObjectParser) parser.getDeclaredConstructor().newInstance(),
+                        canReplace);
+                if (verbose) {
+                    System.out.println((replaced ? "Replaced" : "Loaded") + " parser: " + parser.getName());
+                } else if (parserWarning && replaced) {
+                    System.out.println("WARNING: parser - " + parser.getName() + " in " + parsersFile +" is duplicated, "
+                            + "which is REPLACING the same parser loaded previously.\n");
+                }
+            } else {
+                boolean parserFound = false;
+                // otherwise look for a static member which is an instance of XMLObjectParser
+                Field[] fields = parser.getDeclaredFields();
+                for (Field field : fields) {
+                    if (XMLObjectParser.class.isAssignableFrom(field.getType())) {
+                        try {
+                            boolean replaced = addXMLObjectParser((XMLObjectParser) field.get(null), canReplace);
+                            if (verbose) {
+                                System.out.println((replaced ? "Replaced" : "Loaded") + " parser: "
+                                        + parser.getName() + "." + field.getName());
+                            } else if (parserWarning && replaced) {
+                                System.out.println("WARNING: parser - " + parser.getName() + " in " + parsersFile +" is duplicated, "
+                                        + "which is REPLACING the same parser loaded previously.\n");
+                            }
+                        } catch (IllegalArgumentException iae) {
+                            System.err.println("Failed to install parser: " + iae.getMessage());
                         }
+                        parserFound = true;
                     }
+                }
 
-                } catch (Exception e) {
-                    System.err.println("\nFailed to load parser: " + e.getMessage());
-                    System.err.println("line = " + line + "\n");
+                if (!parserFound) {
+                    throw new IllegalArgumentException(parser.getName() + " is not of type XMLObjectParser " +
+                            "and doesn't contain any static members of this type");
                 }
             }
-            line = reader.readLine();
+
+        } catch (Exception e) {
+            System.err.println("\nFailed to load parser: " + e.getMessage());
+            System.err.println("line = " + line + "\n");
         }
+    }
 
-        if (verbose) {
-            System.out.println("load " + parsersFile + " successfully.\n");
+    /**
+     * A parser from a parsers file that is loaded the first time it is used.
+     */
+    private static class IndexedParser extends XMLParser.LazyParser {
+
+        IndexedParser(String className, String member) {
+            this.className = className;
+            this.member = member;
         }
+
+        protected XMLObjectParser createParser() {
+            try {
+                Class<?> parser = Class.forName(className);
+                if (member.equals(ParserIndex.INSTANCE)) {
+                    return (XMLObjectParser) parser.getDeclaredConstructor().newInstance();
+                } else {
+                    return (XMLObjectParser) parser.getDeclaredField(member).get(null);
+                }
+            } catch (Exception e) {
+                throw new RuntimeException("Failed to load parser " + className
+                        + (member.equals(ParserIndex.INSTANCE) ? "" : "." + member) + ": " + e.getMessage(), e);
+            }
+        }
+
+        private final String className;
+        private final String member;
     }
 
     @Override
@@ -0,0 +1,263 @@
+/*
+ * ParserIndex.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.app.beast;
+
+import dr.xml.XMLObjectParser;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * An index of the parsers listed in a *_parsers.properties file, generated when BEAST is built,
+ * so that BeastParser can register the parsers' element names without loading the parser
+ * classes. Each line of the index is a line of the properties file: the class name followed by
+ * member:name,name... for each parser it holds (the member is * if the class is itself the
+ * parser, otherwise the static field holding the parser) or by ! if the line failed to load. The
+ * first line is the checksum of the properties file, so an index that is out of date is ignored.
+ */
+public class ParserIndex {
+
+    public static final String INDEX_SUFFIX = "_parsers.index";
+    public static final String INSTANCE = "*";
+    public static final String FAILED = "!";
+
+    private ParserIndex() {
+    }
+
+    /**
+     * A line of the properties file.
+     */
+    public static class Entry {
+
+        Entry(String className, boolean failed) {
+            this.className = className;
+            this.failed = failed;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        /**
+         * @return true if the line failed when the index was generated and should be loaded as before
+         */
+        public boolean isFailed() {
+            return failed;
+        }
+
+        public List<String> getMembers() {
+            return members;
+        }
+
+        public List<String[]> getParserNames() {
+            return parserNames;
+        }
+
+        private final String className;
+        private final boolean failed;
+        private final List<String> members = new ArrayList<String>();
+        private final List<String[]> parserNames = new ArrayList<String[]>();
+    }
+
+    /**
+     * Reads the index of a properties file.
+     *
+     * @param stream     the index or null if there isn't one
+     * @param properties the contents of the properties file
+     * @return the entries for the lines of the properties file or null if there is no index for
+     * this version of the file
+     * @throws IOException if the index can't be read
+     */
+    public static List<Entry> read(InputStream stream, byte[] properties) throws IOException {
+        if (stream == null) {
+            return null;
+        }
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(stream, "UTF-8"));
+        try {
+            String line = reader.readLine();
+            if (line == null || !line.equals(Long.toString(getChecksum(properties)))) {
+                return null;
+            }
+
+            List<Entry> entries = new ArrayList<Entry>();
+            line = reader.readLine();
+            while (line != null) {
+                String[] fields = line.split("\t");
+                if (fields.length == 2 && fields[1].equals(FAILED)) {
+                    entries.add(new Entry(fields[0], true));
+                } else {
+                    Entry entry = new Entry(fields[0], false);
+                    for (int i = 1; i < fields.length; i++) {
+                        int colon = fields[i].indexOf(':');
+                        entry.members.add(fields[i].substring(0, colon));
+                        String names = fields[i].substring(colon + 1);
+                        entry.parserNames.add(names.length() > 0 ? names.split(",") : new String[0]);
+                    }
+                    entries.add(entry);
+                }
+                line = reader.readLine();
+            }
+            return entries;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * @return the lines of a properties file that name parser classes
+     */
+    public static List<String> getParserLines(byte[] properties) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(properties)));
+        String line = reader.readLine();
+        while (line != null) {
+            if (line.trim().length() > 0 && !line.trim().startsWith("#")) {
+                lines.add(line);
+            }
+            line = reader.readLine();
+        }
+        return lines;
+    }
+
+    public static long getChecksum(byte[] properties) {
+        CRC32 crc = new CRC32();
+        crc.update(properties);
+        return crc.getValue();
+    }
+
+    public static byte[] readAll(InputStream stream) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count = stream.read(buffer);
+        while (count >= 0) {
+            bytes.write(buffer, 0, count);
+            count = stream.read(buffer);
+        }
+        stream.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes the index of a properties file, loading the parsers the same way as BeastParser.
+     */
+    static void write(byte[] properties, PrintWriter writer) throws IOException {
+        writer.println(getChecksum(properties));
+
+        for (String line : getParserLines(properties)) {
+            StringBuilder builder = new StringBuilder(line);
+            try {
+                Class<?> parser = Class.forName(line);
+                if (XMLObjectParser.class.isAssignableFrom(parser)) {
+                    appendParser(builder, INSTANCE, (XMLObjectParser) parser.getDeclaredConstructor().newInstance());
+                } else {
+                    boolean parserFound = false;
+                    for (Field field : parser.getDeclaredFields()) {
+                        if (XMLObjectParser.class.isAssignableFrom(field.getType())) {
+                            appendParser(builder, field.getName(), (XMLObjectParser) field.get(null));
+                            parserFound = true;
+                        }
+                    }
+                    if (!parserFound) {
+                        throw new IllegalArgumentException(parser.getName() + " is not a parser");
+                    }
+                }
+            } catch (Throwable t) {
+                // the line is loaded when BEAST starts so the error is reported as before
+                builder.setLength(0);
+                builder.append(line).append('\t').append(FAILED);
+            }
+            writer.println(builder);
+        }
+    }
+
+    private static void appendParser(StringBuilder builder, String member, XMLObjectParser parser) {
+        builder.append('\t').append(member).append(':');
+        String[] names = parser.getParserNames();
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].indexOf(',') >= 0 || names[i].indexOf('\t') >= 0) {
+                throw new IllegalArgumentException("Parser name can't be indexed: " + names[i]);
+            }
+            builder.append(i > 0 ? "," : "").append(names[i]);
+        }
+    }
+
+    /**
+     * Writes an index for each *_parsers.properties file in a directory.
+     *
+     * @param args the directory of the properties files and the directory for the indices
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: ParserIndex <properties-directory> <index-directory>");
+            System.exit(1);
+        }
+
+        File[] files = new File(args[0]).listFiles();
+        if (files == null) {
+            System.err.println("Directory not found: " + args[0]);
+            System.exit(1);
+        }
+
+        File outputDirectory = new File(args[1]);
+        outputDirectory.mkdirs();
+
+        // parsers may write to the console as they are loaded
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        PrintStream quiet = new PrintStream(new OutputStream() {
+            public void write(int b) {
+            }
+        });
+
+        for (File file : files) {
+            final String name = file.getName();
+            if (name.endsWith(BeastParser.PARSER_PROPERTIES_SUFFIX)) {
+                String indexName = name.substring(0, name.length() - BeastParser.PARSER_PROPERTIES_SUFFIX.length())
+                        + INDEX_SUFFIX;
+                byte[] properties = readAll(new FileInputStream(file));
+
+                PrintWriter writer = new PrintWriter(new OutputStreamWriter(
+                        new FileOutputStream(new File(outputDirectory, indexName)), "UTF-8"));
+                System.setOut(quiet);
+                System.setErr(quiet);
+                try {
+                    write(properties, writer);
+                } finally {
+                    System.setOut(out);
+                    System.setErr(err);
+                    writer.close();
+                }
+                out.println("Wrote " + indexName);
+            }
+        }
+
+        System.exit(0);
+    }
+}
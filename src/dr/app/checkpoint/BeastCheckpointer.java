@@ -67,6 +67,10 @@ public class BeastCheckpointer implements StateLoaderSaver {
 
     public final static String FULL_CHECKPOINT_PRECISION = "full.checkpoint.precision";
 
+    public final static String BINARY_CHECKPOINT = "binary.checkpoint";
+    public final static String COMPRESS_CHECKPOINT = "compress.checkpoint";
+    public final static String DELTA_CHECKPOINT = "delta.checkpoint";
+
     private final String loadStateFileName;
     private final String saveStateFileName;
 
@@ -76,6 +80,9 @@ public class BeastCheckpointer implements StateLoaderSaver {
 
     private final boolean useFullPrecision;
 
+    // null if using the text format
+    private final BinaryCheckpoint binaryCheckpoint;
+
     public BeastCheckpointer() {
         loadStateFileName = System.getProperty(LOAD_STATE_FILE, null);
         saveStateFileName = System.getProperty(SAVE_STATE_FILE, null);
@@ -96,6 +103,14 @@ public class BeastCheckpointer implements StateLoaderSaver {
         useFullPrecision = (System.getProperty(FULL_CHECKPOINT_PRECISION) != null) &&
                 System.getProperty(FULL_CHECKPOINT_PRECISION).equalsIgnoreCase("true");
 
+        boolean useDeltas = Boolean.parseBoolean(System.getProperty(DELTA_CHECKPOINT, "false"));
+        if (useDeltas || Boolean.parseBoolean(System.getProperty(BINARY_CHECKPOINT, "false"))) {
+            binaryCheckpoint = new BinaryCheckpoint(
+                    Boolean.parseBoolean(System.getProperty(COMPRESS_CHECKPOINT, "false")), useDeltas);
+        } else {
+            binaryCheckpoint = null;
+        }
+
         Factory.INSTANCE = new Factory() {
             @Override
             public StateLoader getInitialStateLoader() {
@@ -227,11 +242,18 @@ public class BeastCheckpointer implements StateLoaderSaver {
     }
 
     protected boolean writeStateToFile(File file, long state, double lnL, MarkovChain markovChain) {
+        if (binaryCheckpoint != null) {
+            return binaryCheckpoint.write(file, state, lnL, markovChain);
+        }
+
         OperatorSchedule operatorSchedule = markovChain.getSchedule();
 
+        // write to a temporary file and then rename it so a crash never leaves a partial state file
+        File tmpFile = new File(file.getPath() + ".tmp");
+
         OutputStream fileOut = null;
         try {
-            fileOut = new FileOutputStream(file);
+            fileOut = new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 16);
             PrintStream out = useFullPrecision ? new CheckpointPrintStream(fileOut) : new PrintStream(fileOut);
 
             ArrayList<TreeParameterModel> traitModels = new ArrayList<TreeParameterModel>();
@@ -360,6 +382,8 @@ public class BeastCheckpointer implements StateLoaderSaver {
 
             out.close();
             fileOut.close();
+
+            BinaryCheckpoint.moveAtomically(tmpFile, file);
         } catch (IOException ioe) {
             System.err.println("Unable to write file: " + ioe.getMessage());
             return false;
@@ -376,6 +400,11 @@ public class BeastCheckpointer implements StateLoaderSaver {
 
     protected long readStateFromFile(File file, MarkovChain markovChain, double[] lnL) {
 
+        if (BinaryCheckpoint.isBinaryCheckpoint(file)) {
+            return (binaryCheckpoint != null ? binaryCheckpoint : new BinaryCheckpoint(false, false))
+                    .read(file, markovChain, lnL);
+        }
+
         DoubleParser parser = useFullPrecision ? DoubleParser.HEX : DoubleParser.TEXT;
 
         OperatorSchedule operatorSchedule = markovChain.getSchedule();
@@ -0,0 +1,792 @@
+/*
+ * BinaryCheckpoint.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.app.checkpoint;
+
+import dr.evolution.tree.NodeRef;
+import dr.evomodel.tree.TreeModel;
+import dr.evomodel.tree.TreeParameterModel;
+import dr.inference.markovchain.MarkovChain;
+import dr.inference.model.Model;
+import dr.inference.model.Parameter;
+import dr.inference.operators.AdaptableMCMCOperator;
+import dr.inference.operators.MCMCOperator;
+import dr.inference.operators.OperatorSchedule;
+import dr.math.MathUtils;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A binary checkpoint format. Doubles are written as raw IEEE bits (so the state is restored
+ * exactly) and the file can optionally be gzip compressed. Full checkpoints are written to a
+ * temporary file and renamed over the previous one.
+ *
+ * In delta mode only the parameter values and tree nodes that have changed since the previous
+ * checkpoint are written, as a record appended to a '.delta' file next to the full checkpoint.
+ * Each record carries the id of the full checkpoint it applies to, its length and a CRC so
+ * a record torn by a crash is ignored on loading. A new full checkpoint is written every
+ * {@link #FULL_EVERY} deltas.
+ */
+class BinaryCheckpoint {
+
+    static final long MAGIC = 0x4245415354434B50L; // "BEASTCKP"
+    static final int VERSION = 1;
+
+    private static final byte FULL = 0;
+    private static final byte DELTA = 1;
+
+    static final String DELTA_SUFFIX = ".delta";
+
+    public final static String FULL_EVERY = "delta.checkpoint.full.every";
+
+    BinaryCheckpoint(boolean compress, boolean useDeltas) {
+        this.compress = compress;
+        this.useDeltas = useDeltas;
+        this.fullEvery = Integer.parseInt(System.getProperty(FULL_EVERY, "100"));
+    }
+
+    /**
+     * @return true if the file starts with the binary checkpoint magic number (possibly gzip compressed)
+     */
+    static boolean isBinaryCheckpoint(File file) {
+        try {
+            DataInputStream in = new DataInputStream(openInput(file));
+            try {
+                return in.readLong() == MAGIC;
+            } finally {
+                in.close();
+            }
+        } catch (IOException ioe) {
+            return false;
+        }
+    }
+
+    // **************************************************************
+    // Writing
+    // **************************************************************
+
+    boolean write(File file, long state, double lnL, MarkovChain markovChain) {
+        CheckpointState current = CheckpointState.capture(state, lnL, markovChain.getSchedule());
+
+        try {
+            File deltaFile = new File(file.getPath() + DELTA_SUFFIX);
+
+            if (!useDeltas || previous == null || !file.equals(previousFile) || deltaCount >= fullEvery) {
+                baseId = System.nanoTime() ^ Double.doubleToLongBits(lnL);
+
+                File tmpFile = new File(file.getPath() + ".tmp");
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(compress ?
+                        new GZIPOutputStream(new FileOutputStream(tmpFile), BUFFER_SIZE) : new FileOutputStream(tmpFile), BUFFER_SIZE));
+                out.writeLong(MAGIC);
+                out.writeInt(VERSION);
+                out.writeByte(FULL);
+                out.writeLong(baseId);
+                current.writeFull(out);
+                out.close();
+
+                moveAtomically(tmpFile, file);
+
+                // any existing deltas refer to an earlier full checkpoint
+                if (deltaFile.exists() && !deltaFile.delete()) {
+                    System.err.println("Unable to delete stale checkpoint deltas: " + deltaFile);
+                }
+                deltaCount = 0;
+            } else {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(compress ? new GZIPOutputStream(bytes) : bytes);
+                out.writeLong(baseId);
+                current.writeDelta(out, previous);
+                out.close();
+
+                byte[] record = bytes.toByteArray();
+                CRC32 crc = new CRC32();
+                crc.update(record);
+
+                ByteArrayOutputStream framed = new ByteArrayOutputStream(record.length + 16);
+                DataOutputStream frame = new DataOutputStream(framed);
+                frame.writeByte(DELTA);
+                frame.writeInt(record.length);
+                frame.write(record);
+                frame.writeLong(crc.getValue());
+                frame.close();
+
+                FileOutputStream deltaOut = new FileOutputStream(deltaFile, true);
+                deltaOut.write(framed.toByteArray());
+                deltaOut.getFD().sync();
+                deltaOut.close();
+
+                deltaCount++;
+            }
+        } catch (IOException ioe) {
+            System.err.println("Unable to write file: " + ioe.getMessage());
+            return false;
+        }
+
+        previous = current;
+        previousFile = file;
+
+        return true;
+    }
+
+    static void moveAtomically(File from, File to) throws IOException {
+        try {
+            Files.move(from.toPath(), to.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException amnse) {
+            Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // **************************************************************
+    // Reading
+    // **************************************************************
+
+    long read(File file, MarkovChain markovChain, double[] lnL) {
+        CheckpointState state;
+        long id;
+
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(openInput(file), BUFFER_SIZE));
+            if (in.readLong() != MAGIC) {
+                throw new RuntimeException("Not a binary checkpoint file: " + file);
+            }
+            int version = in.readInt();
+            if (version > VERSION) {
+                throw new RuntimeException("Unsupported binary checkpoint version: " + version);
+            }
+            if (in.readByte() != FULL) {
+                throw new RuntimeException("Binary checkpoint file does not contain a full state: " + file);
+            }
+            id = in.readLong();
+            state = CheckpointState.readFull(in);
+            in.close();
+
+            File deltaFile = new File(file.getPath() + DELTA_SUFFIX);
+            if (deltaFile.exists()) {
+                int applied = applyDeltas(deltaFile, id, state);
+                if (applied > 0) {
+                    System.out.println("Applied " + applied + " checkpoint deltas from " + deltaFile);
+                }
+            }
+        } catch (IOException ioe) {
+            throw new RuntimeException("Unable to read file: " + ioe.getMessage());
+        }
+
+        if (lnL != null) {
+            lnL[0] = state.lnL;
+        }
+        state.apply(markovChain.getSchedule());
+
+        // carry on writing deltas against the loaded state
+        previous = state;
+        previousFile = file;
+        baseId = id;
+
+        return state.state;
+    }
+
+    private int applyDeltas(File deltaFile, long id, CheckpointState state) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(deltaFile), BUFFER_SIZE));
+        int applied = 0;
+        try {
+            while (true) {
+                byte[] record;
+                long checksum;
+                try {
+                    if (in.readByte() != DELTA) {
+                        break;
+                    }
+                    record = new byte[in.readInt()];
+                    in.readFully(record);
+                    checksum = in.readLong();
+                } catch (EOFException eof) {
+                    // end of the file or a partially written final record
+                    break;
+                }
+
+                CRC32 crc = new CRC32();
+                crc.update(record);
+                if (crc.getValue() != checksum) {
+                    System.err.println("Ignoring corrupt checkpoint delta record in " + deltaFile);
+                    break;
+                }
+
+                InputStream bytes = new ByteArrayInputStream(record);
+                DataInputStream recordIn = new DataInputStream(compress(record) ? new GZIPInputStream(bytes) : bytes);
+                if (recordIn.readLong() == id) {
+                    state.readDelta(recordIn);
+                    applied++;
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return applied;
+    }
+
+    private static boolean compress(byte[] bytes) {
+        return bytes.length > 2 && (bytes[0] & 0xff) == 0x1f && (bytes[1] & 0xff) == 0x8b;
+    }
+
+    private static InputStream openInput(File file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        in.mark(2);
+        int b1 = in.read();
+        int b2 = in.read();
+        in.reset();
+        if (b1 == 0x1f && b2 == 0x8b) {
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        }
+        return in;
+    }
+
+    /**
+     * An in-memory copy of everything written to a checkpoint.
+     */
+    private static class CheckpointState {
+        int[] rngState;
+        long state;
+        double lnL;
+
+        String[] parameterNames;
+        double[][] parameterValues;
+
+        String[] operatorNames;
+        long[] acceptCounts;
+        long[] rejectCounts;
+        boolean[] adaptable;
+        double[] adaptableParameters;
+        long[] adaptationCounts;
+
+        String[] treeNames;
+        TreeState[] trees;
+
+        static CheckpointState capture(long state, double lnL, OperatorSchedule schedule) {
+            CheckpointState cs = new CheckpointState();
+            cs.rngState = MathUtils.getRandomState();
+            cs.state = state;
+            cs.lnL = lnL;
+
+            List<Parameter> parameters = getParameters();
+            cs.parameterNames = new String[parameters.size()];
+            cs.parameterValues = new double[parameters.size()][];
+            for (int i = 0; i < parameters.size(); i++) {
+                Parameter parameter = parameters.get(i);
+                cs.parameterNames[i] = parameter.getParameterName();
+                double[] values = new double[parameter.getDimension()];
+                for (int dim = 0; dim < values.length; dim++) {
+                    values[dim] = parameter.getParameterUntransformedValue(dim);
+                }
+                cs.parameterValues[i] = values;
+            }
+
+            int operatorCount = schedule.getOperatorCount();
+            cs.operatorNames = new String[operatorCount];
+            cs.acceptCounts = new long[operatorCount];
+            cs.rejectCounts = new long[operatorCount];
+            cs.adaptable = new boolean[operatorCount];
+            cs.adaptableParameters = new double[operatorCount];
+            cs.adaptationCounts = new long[operatorCount];
+            for (int i = 0; i < operatorCount; i++) {
+                MCMCOperator operator = schedule.getOperator(i);
+                cs.operatorNames[i] = operator.getOperatorName();
+                cs.acceptCounts[i] = operator.getAcceptCount();
+                cs.rejectCounts[i] = operator.getRejectCount();
+                if (operator instanceof AdaptableMCMCOperator) {
+                    cs.adaptable[i] = true;
+                    cs.adaptableParameters[i] = ((AdaptableMCMCOperator) operator).getAdaptableParameter();
+                    cs.adaptationCounts[i] = ((AdaptableMCMCOperator) operator).getAdaptationCount();
+                }
+            }
+
+            List<TreeModel> treeModels = getTreeModels();
+            cs.treeNames = new String[treeModels.size()];
+            cs.trees = new TreeState[treeModels.size()];
+            for (int i = 0; i < treeModels.size(); i++) {
+                cs.treeNames[i] = treeModels.get(i).getModelName();
+                cs.trees[i] = TreeState.capture(treeModels.get(i), getTraitModels(treeModels.get(i)));
+            }
+
+            return cs;
+        }
+
+        void writeFull(DataOutputStream out) throws IOException {
+            writeHeader(out);
+
+            out.writeInt(parameterValues.length);
+            for (int i = 0; i < parameterValues.length; i++) {
+                out.writeUTF(parameterNames[i]);
+                writeDoubles(out, parameterValues[i]);
+            }
+
+            writeOperators(out);
+
+            out.writeInt(trees.length);
+            for (int i = 0; i < trees.length; i++) {
+                out.writeUTF(treeNames[i]);
+                trees[i].writeFull(out);
+            }
+        }
+
+        static CheckpointState readFull(DataInputStream in) throws IOException {
+            CheckpointState cs = new CheckpointState();
+            cs.readHeader(in);
+
+            int parameterCount = in.readInt();
+            cs.parameterNames = new String[parameterCount];
+            cs.parameterValues = new double[parameterCount][];
+            for (int i = 0; i < parameterCount; i++) {
+                cs.parameterNames[i] = in.readUTF();
+                cs.parameterValues[i] = readDoubles(in);
+            }
+
+            cs.readOperators(in);
+
+            int treeCount = in.readInt();
+            cs.treeNames = new String[treeCount];
+            cs.trees = new TreeState[treeCount];
+            for (int i = 0; i < treeCount; i++) {
+                cs.treeNames[i] = in.readUTF();
+                cs.trees[i] = TreeState.readFull(in);
+            }
+
+            return cs;
+        }
+
+        /**
+         * Writes the parameter elements and tree nodes which differ from those in previous.
+         */
+        void writeDelta(DataOutputStream out, CheckpointState previous) throws IOException {
+            writeHeader(out);
+
+            if (parameterValues.length != previous.parameterValues.length || trees.length != previous.trees.length) {
+                throw new IOException("Model structure changed between checkpoints");
+            }
+
+            int changedCount = 0;
+            for (int i = 0; i < parameterValues.length; i++) {
+                if (!Arrays.equals(parameterValues[i], previous.parameterValues[i])) {
+                    changedCount++;
+                }
+            }
+            out.writeInt(changedCount);
+
+            for (int i = 0; i < parameterValues.length; i++) {
+                double[] values = parameterValues[i];
+                double[] previousValues = previous.parameterValues[i];
+                if (!Arrays.equals(values, previousValues)) {
+                    out.writeInt(i);
+                    int count = 0;
+                    for (int dim = 0; dim < values.length; dim++) {
+                        if (!sameValue(values[dim], previousValues[dim])) {
+                            count++;
+                        }
+                    }
+                    if (count * 3 > values.length * 2) {
+                        // cheaper to write them all
+                        out.writeInt(-1);
+                        writeDoubles(out, values);
+                    } else {
+                        out.writeInt(count);
+                        for (int dim = 0; dim < values.length; dim++) {
+                            if (!sameValue(values[dim], previousValues[dim])) {
+                                out.writeInt(dim);
+                                out.writeDouble(values[dim]);
+                            }
+                        }
+                    }
+                }
+            }
+
+            writeOperators(out);
+
+            for (int i = 0; i < trees.length; i++) {
+                trees[i].writeDelta(out, previous.trees[i]);
+            }
+        }
+
+        void readDelta(DataInputStream in) throws IOException {
+            readHeader(in);
+
+            int changedCount = in.readInt();
+            for (int k = 0; k < changedCount; k++) {
+                int i = in.readInt();
+                int count = in.readInt();
+                if (count < 0) {
+                    parameterValues[i] = readDoubles(in);
+                } else {
+                    for (int j = 0; j < count; j++) {
+                        int dim = in.readInt();
+                        parameterValues[i][dim] = in.readDouble();
+                    }
+                }
+            }
+
+            readOperators(in);
+
+            for (TreeState tree : trees) {
+                tree.readDelta(in);
+            }
+        }
+
+        private void writeHeader(DataOutputStream out) throws IOException {
+            out.writeInt(rngState.length);
+            for (int value : rngState) {
+                out.writeInt(value);
+            }
+            out.writeLong(state);
+            out.writeDouble(lnL);
+        }
+
+        private void readHeader(DataInputStream in) throws IOException {
+            rngState = new int[in.readInt()];
+            for (int i = 0; i < rngState.length; i++) {
+                rngState[i] = in.readInt();
+            }
+            state = in.readLong();
+            lnL = in.readDouble();
+        }
+
+        private void writeOperators(DataOutputStream out) throws IOException {
+            out.writeInt(operatorNames.length);
+            for (int i = 0; i < operatorNames.length; i++) {
+                out.writeUTF(operatorNames[i]);
+                out.writeLong(acceptCounts[i]);
+                out.writeLong(rejectCounts[i]);
+                out.writeBoolean(adaptable[i]);
+                if (adaptable[i]) {
+                    out.writeDouble(adaptableParameters[i]);
+                    out.writeLong(adaptationCounts[i]);
+                }
+            }
+        }
+
+        private void readOperators(DataInputStream in) throws IOException {
+            int operatorCount = in.readInt();
+            operatorNames = new String[operatorCount];
+            acceptCounts = new long[operatorCount];
+            rejectCounts = new long[operatorCount];
+            adaptable = new boolean[operatorCount];
+            adaptableParameters = new double[operatorCount];
+            adaptationCounts = new long[operatorCount];
+            for (int i = 0; i < operatorCount; i++) {
+                operatorNames[i] = in.readUTF();
+                acceptCounts[i] = in.readLong();
+                rejectCounts[i] = in.readLong();
+                adaptable[i] = in.readBoolean();
+                if (adaptable[i]) {
+                    adaptableParameters[i] = in.readDouble();
+                    adaptationCounts[i] = in.readLong();
+                }
+            }
+        }
+
+        /**
+         * Sets the model state to the values held. This follows the same rules as reading the text format.
+         */
+        void apply(OperatorSchedule schedule) {
+            List<Parameter> parameters = getParameters();
+            if (parameters.size() != parameterValues.length) {
+                throw new RuntimeException("Unable to match state parameters: " + parameterValues.length +
+                        " in file, expecting " + parameters.size());
+            }
+            for (int i = 0; i < parameters.size(); i++) {
+                Parameter parameter = parameters.get(i);
+                double[] values = parameterValues[i];
+
+                if (values.length != parameter.getDimension()) {
+                    System.err.println("Unable to match state parameter dimension: " + values.length + ", expecting " +
+                            parameter.getDimension() + " for parameter: " + parameter.getParameterName());
+                }
+
+                if (parameterNames[i].equals("branchRates.categories.rootNodeNumber")) {
+                    parameter.setParameterValue(0, values[0]);
+                } else {
+                    for (int dim = 0; dim < Math.min(values.length, parameter.getDimension()); dim++) {
+                        try {
+                            parameter.setParameterUntransformedValue(dim, values[dim]);
+                        } catch (RuntimeException rte) {
+                            System.err.println(rte);
+                        }
+                    }
+                }
+            }
+
+            for (int i = 0; i < schedule.getOperatorCount(); i++) {
+                MCMCOperator operator = schedule.getOperator(i);
+                if (i >= operatorNames.length || !operatorNames[i].equals(operator.getOperatorName())) {
+                    throw new RuntimeException("Unable to match " + operator.getOperatorName() + " operator" +
+                            (i < operatorNames.length ? ": " + operatorNames[i] : ""));
+                }
+                operator.setAcceptCount(acceptCounts[i]);
+                operator.setRejectCount(rejectCounts[i]);
+                if (operator instanceof AdaptableMCMCOperator) {
+                    if (!adaptable[i]) {
+                        throw new RuntimeException("Coercable operator missing parameter: " + operatorNames[i]);
+                    }
+                    ((AdaptableMCMCOperator) operator).setAdaptableParameter(adaptableParameters[i]);
+                    ((AdaptableMCMCOperator) operator).setAdaptationCount(adaptationCounts[i]);
+                }
+            }
+
+            // load the tree models last as we get the node heights from the tree (not the parameters which
+            // which may not be associated with the right node
+            Set<String> expectedTreeModelNames = new LinkedHashSet<String>();
+            for (TreeModel treeModel : getTreeModels()) {
+                expectedTreeModelNames.add(treeModel.getModelName());
+            }
+            for (TreeModel treeModel : getTreeModels()) {
+                for (int i = 0; i < treeNames.length; i++) {
+                    if (treeNames[i].equals(treeModel.getModelName())) {
+                        trees[i].adopt(treeModel, getTraitModels(treeModel));
+                        expectedTreeModelNames.remove(treeModel.getModelName());
+                    }
+                }
+            }
+            if (expectedTreeModelNames.size() > 0) {
+                StringBuilder sb = new StringBuilder();
+                for (String notFoundName : expectedTreeModelNames) {
+                    sb.append("Expecting, but unable to match state parameter:").append(notFoundName).append("\n");
+                }
+                throw new RuntimeException("\n" + sb.toString());
+            }
+
+            if (System.getProperty(BeastCheckpointer.CHECKPOINT_SEED) != null) {
+                MathUtils.setSeed(Long.parseLong(System.getProperty(BeastCheckpointer.CHECKPOINT_SEED)));
+            } else {
+                MathUtils.setRandomState(rngState);
+            }
+        }
+    }
+
+    /**
+     * The node heights, taxa, edges and TreeParameterModel values of a tree, indexed by node number.
+     */
+    private static class TreeState {
+        double[] heights;
+        String[] taxa;
+        int[] parents;
+        int[] childOrder;
+        double[][] traits;
+
+        static TreeState capture(TreeModel tree, List<TreeParameterModel> traitModels) {
+            TreeState ts = new TreeState();
+            int nodeCount = tree.getNodeCount();
+            ts.heights = new double[nodeCount];
+            ts.taxa = new String[tree.getExternalNodeCount()];
+            ts.parents = new int[nodeCount];
+            ts.childOrder = new int[nodeCount];
+            ts.traits = new double[traitModels.size()][nodeCount];
+
+            for (int i = 0; i < nodeCount; i++) {
+                NodeRef node = tree.getNode(i);
+                ts.heights[i] = tree.getNodeHeight(node);
+                if (tree.isExternal(node)) {
+                    ts.taxa[i] = tree.getNodeTaxon(node).getId();
+                }
+
+                NodeRef parent = tree.getParent(node);
+                if (parent != null) {
+                    ts.parents[i] = parent.getNumber();
+                    if (tree.getChild(parent, 0) == node) {
+                        ts.childOrder[i] = 0;
+                    } else if (tree.getChild(parent, 1) == node) {
+                        ts.childOrder[i] = 1;
+                    } else {
+                        throw new RuntimeException("Operation currently only supported for nodes with 2 children.");
+                    }
+                    for (int j = 0; j < traitModels.size(); j++) {
+                        ts.traits[j][i] = traitModels.get(j).getNodeValue(tree, node);
+                    }
+                } else {
+                    ts.parents[i] = -1;
+                    ts.childOrder[i] = -1;
+                }
+            }
+            return ts;
+        }
+
+        void writeFull(DataOutputStream out) throws IOException {
+            out.writeInt(heights.length);
+            out.writeInt(taxa.length);
+            out.writeInt(traits.length);
+            for (String taxon : taxa) {
+                out.writeUTF(taxon);
+            }
+            for (int i = 0; i < heights.length; i++) {
+                writeNode(out, i);
+            }
+        }
+
+        static TreeState readFull(DataInputStream in) throws IOException {
+            TreeState ts = new TreeState();
+            int nodeCount = in.readInt();
+            ts.heights = new double[nodeCount];
+            ts.taxa = new String[in.readInt()];
+            ts.parents = new int[nodeCount];
+            ts.childOrder = new int[nodeCount];
+            ts.traits = new double[in.readInt()][nodeCount];
+            for (int i = 0; i < ts.taxa.length; i++) {
+                ts.taxa[i] = in.readUTF();
+            }
+            for (int i = 0; i < nodeCount; i++) {
+                ts.readNode(in, i);
+            }
+            return ts;
+        }
+
+        void writeDelta(DataOutputStream out, TreeState previous) throws IOException {
+            int count = 0;
+            for (int i = 0; i < heights.length; i++) {
+                if (isChanged(i, previous)) {
+                    count++;
+                }
+            }
+            out.writeInt(count);
+            for (int i = 0; i < heights.length; i++) {
+                if (isChanged(i, previous)) {
+                    out.writeInt(i);
+                    writeNode(out, i);
+                }
+            }
+        }
+
+        void readDelta(DataInputStream in) throws IOException {
+            int count = in.readInt();
+            for (int k = 0; k < count; k++) {
+                readNode(in, in.readInt());
+            }
+        }
+
+        private boolean isChanged(int i, TreeState previous) {
+            if (!sameValue(heights[i], previous.heights[i]) || parents[i] != previous.parents[i] ||
+                    childOrder[i] != previous.childOrder[i]) {
+                return true;
+            }
+            for (int j = 0; j < traits.length; j++) {
+                if (!sameValue(traits[j][i], previous.traits[j][i])) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void writeNode(DataOutputStream out, int i) throws IOException {
+            out.writeDouble(heights[i]);
+            out.writeInt(parents[i]);
+            out.writeByte(childOrder[i]);
+            for (double[] trait : traits) {
+                out.writeDouble(trait[i]);
+            }
+        }
+
+        private void readNode(DataInputStream in, int i) throws IOException {
+            heights[i] = in.readDouble();
+            parents[i] = in.readInt();
+            childOrder[i] = in.readByte();
+            for (double[] trait : traits) {
+                trait[i] = in.readDouble();
+            }
+        }
+
+        void adopt(TreeModel tree, ArrayList<TreeParameterModel> traitModels) {
+            String[] taxaNames = taxa.clone();
+
+            tree.beginTreeEdit();
+            tree.adoptTreeStructure(parents.clone(), heights.clone(), childOrder.clone(), taxaNames);
+            if (traitModels.size() > 0) {
+                System.out.println("adopting " + traitModels.size() + " trait models to treeModel " + tree.getId());
+                tree.adoptTraitData(parents.clone(), traitModels, traits, taxaNames);
+            }
+            tree.endTreeEdit();
+        }
+    }
+
+    private static boolean sameValue(double x, double y) {
+        return Double.doubleToLongBits(x) == Double.doubleToLongBits(y);
+    }
+
+    private static void writeDoubles(DataOutputStream out, double[] values) throws IOException {
+        out.writeInt(values.length);
+        for (double value : values) {
+            out.writeDouble(value);
+        }
+    }
+
+    private static double[] readDoubles(DataInputStream in) throws IOException {
+        double[] values = new double[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readDouble();
+        }
+        return values;
+    }
+
+    private static List<Parameter> getParameters() {
+        List<Parameter> parameters = new ArrayList<Parameter>();
+        for (Parameter parameter : Parameter.CONNECTED_PARAMETER_SET) {
+            if (!parameter.isImmutable()) {
+                parameters.add(parameter);
+            }
+        }
+        return parameters;
+    }
+
+    private static List<TreeModel> getTreeModels() {
+        List<TreeModel> treeModels = new ArrayList<TreeModel>();
+        for (Model model : Model.CONNECTED_MODEL_SET) {
+            if (model instanceof TreeModel) {
+                treeModels.add((TreeModel) model);
+            }
+        }
+        return treeModels;
+    }
+
+    private static ArrayList<TreeParameterModel> getTraitModels(TreeModel treeModel) {
+        ArrayList<TreeParameterModel> traitModels = new ArrayList<TreeParameterModel>();
+        for (Model model : Model.CONNECTED_MODEL_SET) {
+            if (model instanceof TreeParameterModel && ((TreeParameterModel) model).getTreeModel() == treeModel) {
+                traitModels.add((TreeParameterModel) model);
+            }
+        }
+        return traitModels;
+    }
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final boolean compress;
+    private final boolean useDeltas;
+    private final int fullEvery;
+
+    private CheckpointState previous = null;
+    private File previousFile = null;
+    private long baseId;
+    private int deltaCount = 0;
+}
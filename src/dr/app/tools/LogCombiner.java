@@ -28,25 +28,21 @@ package dr.app.tools;
 import dr.app.beast.BeastVersion;
 import dr.app.util.Arguments;
 import dr.evolution.io.Importer;
-import dr.evolution.io.NexusImporter;
-import dr.evolution.io.TreeImporter;
+import dr.evolution.io.MappedNexusImporter;
 import dr.evolution.tree.MutableTree;
 import dr.evolution.tree.NodeRef;
 import dr.evolution.tree.Tree;
 import dr.evolution.util.Taxon;
+import dr.util.ThreadHelpers;
 import dr.util.Version;
 import jam.console.ConsoleApplication;
 
 import javax.swing.*;
 import java.io.*;
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Locale;
-import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
 
 /**
  * @author Andrew Rambaut
@@ -57,9 +53,38 @@ public class LogCombiner {
 
     private final static Version version = new BeastVersion();
 
+    // the most lines, and characters in them, passed from a reader to the writer at a time
+    private static final int CHUNK_LINES = 1024;
+    private static final int CHUNK_CHARACTERS = 1 << 20;
+    // the number of chunks a reader can get ahead of the writer
+    private static final int QUEUED_CHUNKS = 8;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final String TREE_PREFIX = "tree STATE_";
+
     public LogCombiner(long[] burnins, long resample, String[] inputFileNames, String outputFileName, boolean treeFiles,
                        boolean convertToDecimal, boolean stripAnnotations,
                        boolean renumberOutput, boolean useScale, double scale) throws IOException {
+        this(burnins, resample, inputFileNames, outputFileName, treeFiles, convertToDecimal, stripAnnotations,
+                renumberOutput, useScale, scale, getDefaultThreadCount(inputFileNames.length));
+    }
+
+    /**
+     * Combines the files. The input files are read at the same time by up to threadCount threads,
+     * which drop the burn-in and check and reformat the lines, while this thread puts the lines back
+     * in order, resamples and renumbers them and writes them.
+     */
+    public LogCombiner(long[] burnins, long resample, String[] inputFileNames, String outputFileName, boolean treeFiles,
+                       boolean convertToDecimal, boolean stripAnnotations,
+                       boolean renumberOutput, boolean useScale, double scale, int threadCount) throws IOException {
+
+        this.treeFiles = treeFiles;
+        this.convertToDecimal = convertToDecimal;
+        this.stripAnnotations = stripAnnotations;
+        this.renumberOutput = renumberOutput;
+        this.useScale = useScale;
+        this.resample = resample;
+        this.stateCount = (renumberOutput ? -1 : 0);
 
         System.out.println("Creating combined " + (treeFiles ? "tree" : "log") + " file: '" + outputFileName + "'");
 
@@ -81,344 +106,590 @@ public class LogCombiner {
 
         System.out.println();
 
-        PrintWriter writer = new PrintWriter(new FileOutputStream(outputFileName));
+        PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(outputFileName), BUFFER_SIZE));
+        ExecutorService executor = null;
+
+        try {
+            for (String inputFileName : inputFileNames) {
+                File inputFile = new File(inputFileName);
+                if (!inputFile.exists()) {
+                    System.err.println(inputFileName + " does not exist!");
+                    return;
+                } else if (inputFile.isDirectory()) {
+                    System.err.println(inputFileName + " is a directory.");
+                    return;
+                }
+            }
 
-        boolean firstFile = true;
-        boolean firstTree = true;
-        long stateCount = (renumberOutput ? -1 : 0);
-        long stateStep = -1;
-        int columnCount = 0;
+            processTrees = treeFiles && (stripAnnotations || convertToDecimal);
 
-        String[] titles = null;
+            if (processTrees) {
+                // the taxa are numbered as in the first tree
+                try {
+                    Tree tree = readFirstTree(inputFileNames);
+                    if (tree != null) {
+                        startLog(tree, writer);
+                    }
+                } catch (Importer.ImportException e) {
+                    System.err.println("Error Parsing Input Tree: " + e.getMessage());
+                    return;
+                }
+            } else if (!treeFiles) {
+                // the columns to rescale are found from the first file's headings
+                String[] titles = readTitles(inputFileNames[0]);
+                columnScales = new double[titles.length];
+                for (int j = 0; j < titles.length; j++) {
+                    if (titles[j].equals("clock.rate") || titles[j].startsWith("skyline.popSize")) {
+                        columnScales[j] = 1.0 / scale;
+                    } else if (titles[j].equals("treeModel.rootHeight")) {
+                        columnScales[j] = scale;
+                    } else {
+                        columnScales[j] = Double.NaN;
+                    }
+                }
+            }
 
-        System.out.println();
-        for (int i = 0; i < inputFileNames.length; i++) {
-            File inputFile = new File(inputFileNames[i]);
+            final int readerCount = Math.max(1, Math.min(threadCount, inputFileNames.length));
+            executor = ThreadHelpers.newFixedThreadPool(readerCount, "logcombiner-reader");
 
-            if (!inputFile.exists()) {
-                System.err.println(inputFileNames[i] + " does not exist!");
-                return;
-            } else if (inputFile.isDirectory()) {
-                System.err.println(inputFileNames[i] + " is a directory.");
-                return;
+            // the readers are started in file order so the file being written is always being read
+            List<BlockingQueue<Chunk>> queues = new ArrayList<BlockingQueue<Chunk>>();
+            for (int i = 0; i < inputFileNames.length; i++) {
+                BlockingQueue<Chunk> queue = new ArrayBlockingQueue<Chunk>(QUEUED_CHUNKS);
+                queues.add(queue);
+                executor.execute(new InputReader(new File(inputFileNames[i]), i, getBurnin(burnins, i), queue));
             }
 
-            long burnin = burnins[0];
-            if (burnins.length > i) {
-                burnin = burnins[i];
+            System.out.println();
+            for (int i = 0; i < inputFileNames.length; i++) {
+                long burnin = getBurnin(burnins, i);
+
+                if (burnin > 0) {
+                    System.out.print("Combining file: '" + inputFileNames[i] + "' removing burnin: " + burnin);
+                } else {
+                    System.out.print("Combining file: '" + inputFileNames[i] + "' without removing burnin");
+                }
+
+                if (resample > 0) {
+                    System.out.print(", resampling with frequency: " + resample);
+                }
+
+                if (useScale) {
+                    System.out.println(", rescaling by: " + scale);
+                } else {
+                    System.out.println();
+                }
+
+                if (!combineFile(inputFileNames[i], i == 0, queues.get(i), writer)) {
+                    return;
+                }
             }
 
-            if (burnin > 0) {
-                System.out.print("Combining file: '" + inputFileNames[i] + "' removing burnin: " + burnin);
-            } else {
-                System.out.print("Combining file: '" + inputFileNames[i] + "' without removing burnin");
+            if (treeFiles) {
+                stopLog(writer);
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
             }
+            writer.close();
+        }
+    }
+
+    private static int getDefaultThreadCount(int fileCount) {
+        return Math.min(fileCount, ThreadHelpers.getProcessorCount());
+    }
+
+    private static long getBurnin(long[] burnins, int index) {
+        return (burnins.length > index ? burnins[index] : burnins[0]);
+    }
 
-            if (resample > 0) {
-                System.out.print(", resampling with frequency: " + resample);
+    private Tree readFirstTree(String[] inputFileNames) throws IOException, Importer.ImportException {
+        for (String inputFileName : inputFileNames) {
+            MappedNexusImporter importer = new MappedNexusImporter(new File(inputFileName), stripAnnotations);
+            try {
+                if (importer.hasTree()) {
+                    return importer.importNextTree();
+                }
+            } finally {
+                importer.close();
             }
+        }
+        return null;
+    }
 
-            if (useScale) {
-                System.out.println(", rescaling by: " + scale);
-            } else {
-                System.out.println();
+    private static String[] readTitles(String inputFileName) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(inputFileName));
+        try {
+            return splitTitles(readTitleLine(reader));
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Skips the comments at the top of a log: lines starting with [ are assumed to be comments in
+     * a MrBayes file and lines starting with # comments in a Migrate or BEAST file.
+     *
+     * @return the line of column headings, or null if there is none
+     */
+    private static String readTitleLine(BufferedReader reader) throws IOException {
+        String line = reader.readLine();
+        while (line != null && (line.startsWith("[") || line.startsWith("#"))) {
+            line = reader.readLine();
+        }
+        return line;
+    }
+
+    private static String[] splitTitles(String line) {
+        return (line == null ? new String[0] : line.split("\t"));
+    }
+
+    /**
+     * Writes the lines of one file as they arrive from its reader.
+     *
+     * @return false if the file could not be combined, in which case an error has been printed
+     */
+    private boolean combineFile(String inputFileName, boolean firstFile, BlockingQueue<Chunk> queue,
+                                PrintWriter writer) throws IOException {
+        while (true) {
+            final Chunk chunk;
+            try {
+                chunk = queue.take();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while combining " + inputFileName);
             }
 
-            boolean processTrees = stripAnnotations || convertToDecimal;
+            if (chunk.header != null) {
+                if (!treeFiles && !checkTitles(inputFileName, firstFile, chunk.header)) {
+                    return false;
+                }
+                if (firstFile) {
+                    for (String line : chunk.header) {
+                        writer.println(line);
+                    }
+                }
+            }
 
-            if (treeFiles) {
+            for (int k = 0; k < chunk.size; k++) {
+                if (!combineLine(chunk.states[k], chunk.fieldCounts[k], chunk.text[k], writer)) {
+                    return false;
+                }
+            }
 
-                if (processTrees) { // then we need to read each tree and write it.
-                    TreeImporter importer = new NexusImporter(new FileReader(inputFile), stripAnnotations);
-                    try {
-                        while (importer.hasTree()) {
-                            Tree tree = importer.importNextTree();
-                            if (firstTree) {
-                                startLog(tree, writer);
-                                firstTree = false;
-                            }
+            if (chunk.error != null) {
+                System.err.println(chunk.error);
+                return false;
+            }
+            if (chunk.exception instanceof IOException) {
+                throw (IOException) chunk.exception;
+            } else if (chunk.exception instanceof RuntimeException) {
+                throw (RuntimeException) chunk.exception;
+            } else if (chunk.exception != null) {
+                throw new RuntimeException(chunk.exception);
+            }
 
-                            String name = tree.getId();
-                            if (name == null) {
-                                System.err.println("ERROR: Trees do not give state numbers as tree attributes.");
-                                return;
-                            }
+            if (chunk.isLast) {
+                return true;
+            }
+        }
+    }
 
-                            // split on underscore in STATE_xxxx
-                            String[] bits = name.split("_");
-                            long state = Long.parseLong(bits[1]);
+    private boolean checkTitles(String inputFileName, boolean firstFile, List<String> header) {
+        if (header.isEmpty()) {
+            System.err.println("ERROR: The file, " + inputFileName + ", has no column headings");
+            return false;
+        }
 
-                            if (stateStep < 0 && state > 0) {
-                                stateStep = state;
-                            }
+        String[] newTitles = splitTitles(header.get(0));
+        if (firstFile) {
+            titles = newTitles;
+            return true;
+        }
 
-                            if (state >= burnin) {
-                                if (stateStep > 0) {
-                                    if (!renumberOutput) {
-                                        stateCount += stateStep;
-                                    } else {
-                                        stateCount += 1;
-                                    }
-                                }
-
-                                if (resample >= 0) {
-                                    if (resample % stateStep != 0) {
-                                        System.err.println("ERROR: Resampling frequency is not a multiple of existing sampling frequency");
-                                        return;
-                                    }
-                                }
-
-                                boolean logThis;
-                                if (resample < 0) {
-                                    // not resampling, log every state
-                                    logThis = true;
-                                } else if (!renumberOutput) {
-                                    // resampling but not renumbering
-                                    logThis = (stateCount % resample == 0);
-                                } else {
-                                    logThis = (stateCount * stateStep % resample == 0);
-                                }
-
-                                long stateLineEntry;
-                                if (!renumberOutput) {
-                                    stateLineEntry = stateCount;
-                                } else {
-                                    stateLineEntry = stateCount / (resample / stateStep);
-                                }
-
-                                if (logThis) {
-                                    writeTree(stateLineEntry, tree, convertToDecimal, writer);
-                                }
+        if (newTitles.length != titles.length) {
+            System.err.println("ERROR: The number of columns in file, " + inputFileName + ", does not match that of the first file");
+            return false;
+        }
+        for (int k = 0; k < newTitles.length; k++) {
+            if (!newTitles[k].equals(titles[k])) {
+                System.err.println("WARNING: The column heading, " + newTitles[k] + " in file, " + inputFileName + ", does not match the first file's heading, " + titles[k]);
+            }
+        }
+        return true;
+    }
 
-                            }
-                        }
-                    } catch (Importer.ImportException e) {
-                        System.err.println("Error Parsing Input Tree: " + e.getMessage());
-                        return;
-                    }
-                } else {
-                    BufferedReader reader = new BufferedReader(new FileReader(inputFile));
+    /**
+     * Counts a line towards the combined states and writes it if it is sampled.
+     *
+     * @param state      the line's state
+     * @param fieldCount the number of columns (logs only)
+     * @param text       what follows the state on the line or null if the line is only passed on for its state
+     * @return false if the resampling frequency does not fit the states
+     */
+    private boolean combineLine(long state, int fieldCount, String text, PrintWriter writer) {
+        if (stateStep < 0 && state > 0) {
+            stateStep = state;
+            columnCount = fieldCount;
+        }
 
-                    String line = reader.readLine();
+        // if the columnCount is not the same then perhaps the line is corrupt so skip it.
+        if (text == null || (!treeFiles && fieldCount != columnCount)) {
+            return true;
+        }
 
-                    // skip (or write) the headers
-                    while (line != null && !line.trim().startsWith("tree ")) {
-                        if (firstFile) {
-                            writer.println(line);
-                        }
-                        line = reader.readLine();
-                    }
+        if (stateStep > 0) {
+            if (!renumberOutput) {
+                stateCount += stateStep;
+            } else {
+                stateCount += 1;
+            }
+        }
 
-                    Pattern pattern = Pattern.compile("tree STATE_(\\d+)(\\s.*)");
-
-                    while (line != null) {
-                        Matcher m = pattern.matcher(line);
-                        if (m.matches()) {
-
-                            long state = Long.parseLong(m.group(1));
-
-                            String treeString = m.group(2);
-
-                            boolean skip = false;
-                            if (!skip) {
-                                if (stateStep < 0 && state > 0) {
-                                    stateStep = state;
-                                }
-
-                                // if the columnCount is not the same then perhaps the line is corrupt so skip it.
-                                if (state >= burnin) {
-                                    if (stateStep > 0) {
-                                        if (!renumberOutput) {
-                                            stateCount += stateStep;
-                                        } else {
-                                            stateCount += 1;
-                                        }
-                                    }
-
-                                    if (resample >= 0) {
-                                        if (resample % stateStep != 0) {
-                                            System.err.println("ERROR: Resampling frequency is not a multiple of existing sampling frequency");
-                                            return;
-                                        }
-                                    }
-
-                                    boolean logThis;
-                                    if (resample < 0) {
-                                        logThis = true;
-                                    } else if (!renumberOutput) {
-                                        logThis = (stateCount % resample == 0);
-                                    } else {
-                                        logThis = ((stateCount * stateStep) % resample == 0);
-                                    }
-
-                                    long stateLineEntry;
-                                    if (!renumberOutput) {
-                                        stateLineEntry = stateCount;
-                                    } else {
-
-//                                	System.out.println("stateCount: " + stateCount);
-//                                	System.out.println("resample: " + resample);
-//                                	System.out.println("stateStep: " + stateStep);
-//                                	System.out.println("resample / stateStep: " + (resample / stateStep));
-
-                                        stateLineEntry = stateCount / (resample / stateStep);
-                                    }
-
-                                    if (logThis) {
-                                        writer.print("tree STATE_");
-                                        writer.print(stateLineEntry);
-                                        writer.println(treeString);
-                                    }
-                                }
-                            }
-                        }
-                        line = reader.readLine();
-                        //lineCount++;
+        if (resample >= 0) {
+            if (resample % stateStep != 0) {
+                System.err.println("ERROR: Resampling frequency is not a multiple of existing sampling frequency");
+                return false;
+            }
+        }
+
+        boolean logThis;
+        if (resample < 0) {
+            // not resampling, log every state
+            logThis = true;
+        } else if (!renumberOutput) {
+            // resampling but not renumbering
+            logThis = (stateCount % resample == 0);
+        } else {
+            logThis = (stateCount * stateStep % resample == 0);
+        }
+
+        long stateLineEntry;
+        if (!renumberOutput) {
+            stateLineEntry = stateCount;
+        } else {
+            stateLineEntry = stateCount / (resample / stateStep);
+        }
+
+        if (logThis) {
+            if (treeFiles) {
+                writer.print(TREE_PREFIX);
+            }
+            writer.print(stateLineEntry);
+            writer.println(text);
+        }
+        return true;
+    }
+
+    /**
+     * The lines of a file passed from its reader to the writer.
+     */
+    private static class Chunk {
+        final long[] states = new long[CHUNK_LINES];
+        final int[] fieldCounts = new int[CHUNK_LINES];
+        final String[] text = new String[CHUNK_LINES];
+        int size = 0;
+        int characterCount = 0;
+
+        // the lines before the states (the first chunk only), written for the first file
+        List<String> header = null;
+        boolean isLast = false;
+        String error = null;
+        Exception exception = null;
+
+        boolean isFull() {
+            return size == CHUNK_LINES || characterCount >= CHUNK_CHARACTERS;
+        }
+    }
+
+    /**
+     * Reads one input file in chunks for the writer. Lines in the burn-in are dropped, apart from
+     * the first with a state after 0, from which the writer may take the sampling frequency, and
+     * only the states of the others are read.
+     */
+    private class InputReader implements Runnable {
+
+        InputReader(File inputFile, int index, long burnin, BlockingQueue<Chunk> queue) {
+            this.inputFile = inputFile;
+            this.index = index;
+            this.burnin = burnin;
+            this.queue = queue;
+            // formats are not thread-safe so each reader has its own
+            this.reformatter = new NumberReformatter(convertToDecimal);
+        }
+
+        public void run() {
+            try {
+                try {
+                    if (!treeFiles) {
+                        readLog();
+                    } else if (processTrees) {
+                        readProcessedTrees();
+                    } else {
+                        readTrees();
                     }
+                } catch (IOException ioe) {
+                    chunk.exception = ioe;
+                } catch (RuntimeException re) {
+                    chunk.exception = re;
                 }
+                chunk.isLast = true;
+                queue.put(chunk);
+            } catch (InterruptedException ie) {
+                // the writer has stopped
+                Thread.currentThread().interrupt();
+            }
+        }
 
-                firstFile = false;
+        private void readLog() throws IOException, InterruptedException {
+            BufferedReader reader = new BufferedReader(new FileReader(inputFile), BUFFER_SIZE);
+            try {
+                String line = readTitleLine(reader);
+                chunk.header = (line == null ? Collections.<String>emptyList() : Collections.singletonList(line));
+                if (line == null) {
+                    return;
+                }
 
+                while ((line = reader.readLine()) != null) {
+                    // trailing tabs do not make columns
+                    int end = line.length();
+                    while (end > 0 && line.charAt(end - 1) == '\t') {
+                        end--;
+                    }
+                    if (end == 0) {
+                        continue;
+                    }
 
-            } else {
-                BufferedReader reader = new BufferedReader(new FileReader(inputFile));
-                //int lineCount = 1;
-                String line = reader.readLine();
+                    int tab = line.indexOf('\t');
+                    if (tab < 0) {
+                        tab = end;
+                    }
 
-                // lines starting with [ are ignored, assuming comments in MrBayes file
-                // lines starting with # are ignored, assuming comments in Migrate or BEAST file
-                while (line.startsWith("[") || line.startsWith("#")) {
+                    final long state;
+                    try {
+                        state = Long.parseLong(line.substring(0, tab));
+                    } catch (NumberFormatException nfe) {
+                        continue;
+                    }
 
-                    line = reader.readLine();
+                    int fieldCount = 1;
+                    for (int i = tab; i >= 0 && i < end; i = line.indexOf('\t', i + 1)) {
+                        fieldCount++;
+                    }
+
+                    final boolean firstStep = isFirstStep(state);
+                    String text = null;
+                    if (state >= burnin) {
+                        text = formatValues(line, tab, end);
+                    }
+                    if (text != null || firstStep) {
+                        add(state, fieldCount, text);
+                    }
                 }
+            } finally {
+                reader.close();
+            }
+        }
 
+        /**
+         * @return the values after the state, each after a tab and reformatted if need be, or null
+         * if one of them is not a number (or a complex value in curly brackets) so the line may be corrupt
+         */
+        private String formatValues(String line, int tab, int end) {
+            final boolean reformat = useScale || convertToDecimal;
+            StringBuilder buffer = (reformat ? new StringBuilder(end - tab + 16) : null);
+
+            int column = 1;
+            for (int i = tab; i < end; column++) {
+                final int start = i + 1;
+                int next = line.indexOf('\t', start);
+                if (next < 0) {
+                    next = end;
+                }
 
-                if (firstFile) {
-                    titles = line.split("\t");
-                    writer.println(line);
-                } else {
-                    String[] newTitles = line.split("\t");
-                    if (newTitles.length != titles.length) {
-                        System.err.println("ERROR: The number of columns in file, " + inputFileNames[i] + ", does not match that of the first file");
-                        return;
-                    }
-                    for (int k = 0; k < newTitles.length; k++) {
-                        if (!newTitles[k].equals(titles[k])) {
-                            System.err.println("WARNING: The column heading, " + newTitles[k] + " in file, " + inputFileNames[i] + ", does not match the first file's heading, " + titles[k]);
+                if (!(start < next && line.charAt(start) == '{') && !isNumber(line, start, next)) {
+                    return null;
+                }
+
+                if (reformat) {
+                    String value = line.substring(start, next);
+                    if (useScale) {
+                        if (column < columnScales.length && !Double.isNaN(columnScales[column])) {
+                            value = reformatter.reformat(value, true, columnScales[column]);
                         }
+                    } else {
+                        value = reformatter.reformat(value, false, 1.0);
                     }
+                    buffer.append('\t').append(value);
                 }
-                line = reader.readLine();
-                //lineCount++;
+                i = next;
+            }
 
-                while (line != null) {
-                    String[] parts = line.split("\t");
+            return (reformat ? buffer.toString() : line.substring(tab, end));
+        }
 
-                    long state = -1;
+        private void readTrees() throws IOException, InterruptedException {
+            BufferedReader reader = new BufferedReader(new FileReader(inputFile), BUFFER_SIZE);
+            try {
+                String line = reader.readLine();
 
-                    boolean skip = false;
-                    try {
-                        state = Long.parseLong(parts[0]);
-                    } catch (NumberFormatException nfe) {
-                        skip = true;
+                // keep the headers for the first file
+                List<String> header = new ArrayList<String>();
+                while (line != null && !line.trim().startsWith("tree ")) {
+                    if (index == 0) {
+                        header.add(line);
                     }
+                    line = reader.readLine();
+                }
+                chunk.header = header;
 
-                    if (!skip) {
-                        if (stateStep < 0 && state > 0) {
-                            stateStep = state;
-                            columnCount = parts.length;
+                while (line != null) {
+                    // the same lines as the pattern "tree STATE_(\d+)(\s.*)" without a regular expression
+                    if (line.startsWith(TREE_PREFIX)) {
+                        final int digitStart = TREE_PREFIX.length();
+                        int digitEnd = digitStart;
+                        while (digitEnd < line.length() && isDigit(line.charAt(digitEnd))) {
+                            digitEnd++;
                         }
 
-                        // if the columnCount is not the same then perhaps the line is corrupt so skip it.
-                        if (state >= burnin && parts.length == columnCount) {
-                            for (int j = 1; j < parts.length; j++) {
-                                try {
-                                    if (!parts[j].startsWith("{")) {
-                                        // complex log values start with a curly bracket - otherwise attempt to parse
-                                        // it as a number. If it fails, skip the line as a possible corruption.
-
-                                        // attempt to convert the column value...
-                                        double value = Double.valueOf(parts[j]);
-                                    }
-                                } catch (NumberFormatException nfe) {
-                                    skip = true;
-                                    break;
-                                }
-                            }
+                        if (digitEnd > digitStart && digitEnd < line.length() && isSpace(line.charAt(digitEnd))) {
+                            final long state = Long.parseLong(line.substring(digitStart, digitEnd));
 
-                            if (!skip) {
-
-                                if (stateStep > 0) {
-                                    if (!renumberOutput) {
-                                        stateCount += stateStep;
-                                    } else {
-                                        stateCount += 1;
-                                    }
-                                }
-
-                                if (resample >= 0) {
-                                    if (resample % stateStep != 0) {
-                                        System.err.println("ERROR: Resampling frequency is not a multiple of existing sampling frequency");
-                                        return;
-                                    }
-                                }
-
-                                boolean logThis;
-                                if (resample < 0) {
-                                    logThis = true;
-                                } else if (!renumberOutput){
-                                    logThis = (stateCount % resample == 0);
-                                } else {
-                                    logThis = ((stateCount * stateStep) % resample == 0);
-                                }
-
-                                long stateLineEntry;
-                                if (!renumberOutput){
-                                    stateLineEntry = stateCount;
-                                } else {
-
-//                                	System.out.println("stateCount: " + stateCount);
-//                                	System.out.println("resample: " + resample);
-//                                	System.out.println("stateStep: " + stateStep);
-//                                	System.out.println("resample / stateStep: " + (resample / stateStep));
-
-                                    stateLineEntry = stateCount / (resample / stateStep);
-                                }
-
-                                if (logThis) {
-                                    writer.print(stateLineEntry);
-                                    for (int j = 1; j < parts.length; j++) {
-                                        String value = parts[j];
-
-                                        if (useScale) {
-                                            if (titles[j].equals("clock.rate") || titles[j].startsWith("skyline.popSize")) {
-                                                value = reformatNumbers(value, convertToDecimal, true, 1.0 / scale);
-                                            } else if (titles[j].equals("treeModel.rootHeight")) {
-                                                value = reformatNumbers(value, convertToDecimal, true, scale);
-                                            }
-                                        } else  if (convertToDecimal) {
-                                            value = reformatNumbers(value, convertToDecimal, false, 1.0);
-                                        }
-                                        writer.print("\t" + value);
-                                    }
-                                    writer.println();
-                                }
+                            final boolean firstStep = isFirstStep(state);
+                            if (state >= burnin) {
+                                add(state, 0, line.substring(digitEnd));
+                            } else if (firstStep) {
+                                add(state, 0, null);
                             }
-
                         }
                     }
                     line = reader.readLine();
-                    //lineCount++;
                 }
+            } finally {
+                reader.close();
+            }
+        }
+
+        private void readProcessedTrees() throws IOException, InterruptedException {
+            // the files are already read on threads of their own so each is parsed on one thread
+            MappedNexusImporter importer = new MappedNexusImporter(inputFile, stripAnnotations);
+            try {
+                while (importer.hasTree()) {
+                    Tree tree = importer.importNextTree();
+
+                    String name = tree.getId();
+                    if (name == null) {
+                        chunk.error = "ERROR: Trees do not give state numbers as tree attributes.";
+                        return;
+                    }
+
+                    // split on underscore in STATE_xxxx
+                    String[] bits = name.split("_");
+                    final long state = Long.parseLong(bits[1]);
+
+                    final boolean firstStep = isFirstStep(state);
+                    if (state >= burnin) {
+                        add(state, 0, formatTree(tree, reformatter));
+                    } else if (firstStep) {
+                        add(state, 0, null);
+                    }
+                }
+            } catch (Importer.ImportException e) {
+                chunk.error = "Error Parsing Input Tree: " + e.getMessage();
+            } finally {
+                importer.close();
+            }
+        }
+
+        /**
+         * @return true for the first state after 0 in the file
+         */
+        private boolean isFirstStep(long state) {
+            if (state > 0 && !stepFound) {
+                stepFound = true;
+                return true;
+            }
+            return false;
+        }
+
+        private void add(long state, int fieldCount, String text) throws InterruptedException {
+            chunk.states[chunk.size] = state;
+            chunk.fieldCounts[chunk.size] = fieldCount;
+            chunk.text[chunk.size] = text;
+            chunk.size++;
+            if (text != null) {
+                chunk.characterCount += text.length();
+            }
+
+            if (chunk.isFull()) {
+                queue.put(chunk);
+                chunk = new Chunk();
             }
+        }
+
+        private final File inputFile;
+        private final int index;
+        private final long burnin;
+        private final BlockingQueue<Chunk> queue;
+        private final NumberReformatter reformatter;
 
-            firstFile = false;
+        private Chunk chunk = new Chunk();
+        private boolean stepFound = false;
+    }
+
+    /**
+     * @return whether Double.valueOf reads the text as a number; the usual forms are checked directly
+     */
+    private static boolean isNumber(String line, int start, int end) {
+        int i = start;
+        if (i < end && (line.charAt(i) == '-' || line.charAt(i) == '+')) {
+            i++;
+        }
+        int digitCount = 0;
+        while (i < end && isDigit(line.charAt(i))) {
+            i++;
+            digitCount++;
+        }
+        if (i < end && line.charAt(i) == '.') {
+            i++;
+            while (i < end && isDigit(line.charAt(i))) {
+                i++;
+                digitCount++;
+            }
+        }
+        if (digitCount > 0 && i < end && (line.charAt(i) == 'E' || line.charAt(i) == 'e')) {
+            i++;
+            if (i < end && (line.charAt(i) == '-' || line.charAt(i) == '+')) {
+                i++;
+            }
+            final int exponentStart = i;
+            while (i < end && isDigit(line.charAt(i))) {
+                i++;
+            }
+            if (i == exponentStart) {
+                digitCount = 0;
+            }
+        }
+        if (digitCount > 0 && i == end) {
+            return true;
         }
 
-        if (treeFiles) {
-            stopLog(writer);
+        try {
+            Double.valueOf(line.substring(start, end));
+            return true;
+        } catch (NumberFormatException nfe) {
+            return false;
         }
-        writer.close();
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    // the characters matched by \s
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
     }
 
     private void rescaleTree(Tree tree, double scale) {
@@ -475,14 +746,12 @@ public class LogCombiner {
         writer.println("\t\t;");
     }
 
-    private void writeTree(long state, Tree tree, boolean convertToDecimal, PrintWriter writer) {
+    /**
+     * @return the tree as it is written after its state number
+     */
+    private String formatTree(Tree tree, NumberReformatter reformatter) {
 
-        StringBuffer buffer = new StringBuffer("tree STATE_");
-        buffer.append(state);
-//        Double lnP = (Double) tree.getAttribute("lnP");
-//        if (lnP != null) {
-//            buffer.append(" [&lnP=").append(lnP).append("]");
-//        }
+        StringBuilder buffer = new StringBuilder();
 
         boolean hasAttribute = false;
         Iterator iter = tree.getAttributeNames();
@@ -506,10 +775,10 @@ public class LogCombiner {
 
         buffer.append(" = [&R] ");
 
-        writeTree(tree, tree.getRoot(), taxonMap, convertToDecimal, buffer);
+        writeTree(tree, tree.getRoot(), taxonMap, reformatter, buffer);
 
         buffer.append(";");
-        writer.println(buffer.toString());
+        return buffer.toString();
     }
 
     private String formatValue(Object value) {
@@ -526,7 +795,7 @@ public class LogCombiner {
         return value.toString();
     }
 
-    private void writeTree(Tree tree, NodeRef node, Map taxonMap, boolean convertToDecimal, StringBuffer buffer) {
+    private void writeTree(Tree tree, NodeRef node, Map taxonMap, NumberReformatter reformatter, StringBuilder buffer) {
 
         NodeRef parent = tree.getParent(node);
 
@@ -539,10 +808,10 @@ public class LogCombiner {
             buffer.append(taxonNo);
         } else {
             buffer.append("(");
-            writeTree(tree, tree.getChild(node, 0), taxonMap, convertToDecimal, buffer);
+            writeTree(tree, tree.getChild(node, 0), taxonMap, reformatter, buffer);
             for (int i = 1; i < tree.getChildCount(node); i++) {
                 buffer.append(",");
-                writeTree(tree, tree.getChild(node, i), taxonMap, convertToDecimal, buffer);
+                writeTree(tree, tree.getChild(node, i), taxonMap, reformatter, buffer);
             }
             buffer.append(")");
         }
@@ -570,7 +839,7 @@ public class LogCombiner {
         if (parent != null) {
             buffer.append(":");
             double length = tree.getBranchLength(node);
-            buffer.append(convertToDecimal ? decimalFormatter.format(length) : scientificFormatter.format(length));
+            buffer.append(reformatter.format(length));
         }
     }
 
@@ -578,33 +847,21 @@ public class LogCombiner {
         writer.println("End;");
     }
 
-    private static final DecimalFormat decimalFormatter = new DecimalFormat("#.############", new DecimalFormatSymbols(Locale.US));
-    private static final DecimalFormat scientificFormatter = new DecimalFormat("#.############E0", new DecimalFormatSymbols(Locale.US));
-
-    private String reformatNumbers(String line, boolean convertDecimal, boolean useScale, double scale) {
-        StringBuffer outLine = new StringBuffer();
-
-        Pattern pattern = Pattern.compile("\\d+\\.\\d+(E[\\-\\d\\.]+)?");
-        Matcher matcher = pattern.matcher(line);
-
-        int lastEnd = 0;
-        while (matcher.find()) {
-            int start = matcher.start();
-            String token = matcher.group();
-            double value = Double.parseDouble(token);
-            if (useScale) {
-                value *= scale;
-            }
-            String outToken = (convertDecimal ? decimalFormatter.format(value) : scientificFormatter.format(value));
+    private final boolean treeFiles;
+    private final boolean convertToDecimal;
+    private final boolean stripAnnotations;
+    private final boolean renumberOutput;
+    private final boolean useScale;
+    private final long resample;
 
-            outLine.append(line.substring(lastEnd, start));
-            outLine.append(outToken);
+    private boolean processTrees = false;
+    // the factor for each log column, or NaN if the column is not rescaled
+    private double[] columnScales = new double[0];
+    private String[] titles = null;
 
-            lastEnd = matcher.end();
-        }
-        outLine.append(line.substring(lastEnd));
-        return outLine.toString();
-    }
+    private long stateCount;
+    private long stateStep = -1;
+    private int columnCount = 0;
 
     public static void printTitle() {
         System.out.println();
@@ -741,6 +998,8 @@ public class LogCombiner {
                             new Arguments.RealOption("scale", "a scaling factor that will multiply any time units by this value"),
                             new Arguments.Option("strip", "strip out all annotations (trees only)"),
                             new Arguments.Option("renumber", "this option renumbers output states consecutively"),
+                            new Arguments.IntegerOption("threads", "the number of input files read at the same time " +
+                                    "(default is the number of processors)"),
                             new Arguments.Option("help", "option to print this message")
                     });
 
@@ -782,6 +1041,11 @@ public class LogCombiner {
                 useScale = true;
             }
 
+            int threadCount = -1;
+            if (arguments.hasOption("threads")) {
+                threadCount = arguments.getIntegerOption("threads");
+            }
+
             String[] args2 = arguments.getLeftoverArguments();
 
             if (args2.length < 2) {
@@ -795,8 +1059,12 @@ public class LogCombiner {
             System.arraycopy(args2, 0, inputFileNames, 0, inputFileNames.length);
             String outputFileName = args2[args2.length - 1];
 
+            if (threadCount < 1) {
+                threadCount = getDefaultThreadCount(inputFileNames.length);
+            }
+
             new LogCombiner(new long[]{burnin}, resample, inputFileNames, outputFileName, treeFiles, convertToDecimal,
-                    stripAnnotations, renumberOutput, useScale, scale);
+                    stripAnnotations, renumberOutput, useScale, scale, threadCount);
 
             System.out.println("Finished.");
         }
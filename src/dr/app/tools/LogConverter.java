@@ -0,0 +1,193 @@
+/*
+ * LogConverter.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.app.tools;
+
+import dr.app.util.Arguments;
+import dr.inference.loggers.BinaryLogFormatter;
+import dr.inference.loggers.LogFormatter;
+import dr.inference.loggers.TabDelimitedFormatter;
+import dr.inference.trace.BinaryLogFile;
+import dr.inference.trace.LogFileTraces;
+import dr.inference.trace.TraceException;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.StringTokenizer;
+
+/**
+ * Converts a log between the tab-delimited text format and the binary columnar format so that
+ * tools which only read one of them can be used with either. The direction is chosen from the
+ * input file: a binary log is written as text and a text log as binary. Both are streamed so
+ * the log is never held in memory.
+ */
+public class LogConverter {
+
+    /**
+     * Writes a binary log as a tab-delimited log.
+     */
+    public static void binaryToText(File inputFile, File outputFile) throws IOException, TraceException {
+        BinaryLogFile log = new BinaryLogFile(inputFile);
+        PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(outputFile)));
+
+        try {
+            LogFormatter formatter = new TabDelimitedFormatter(writer, true);
+
+            for (String heading : log.getHeadings()) {
+                formatter.logHeading(heading);
+            }
+
+            final String[] labels = log.getLabels();
+            String[] row = new String[labels.length + 1];
+            row[0] = "state";
+            System.arraycopy(labels, 0, row, 1, labels.length);
+            formatter.logLabels(row);
+
+            for (int block = 0; block < log.getBlockCount(); block++) {
+                final int rowCount = log.getBlockRowCount(block);
+                final long[] states = log.readBlockStates(block);
+
+                String[][] columns = new String[labels.length][rowCount];
+                for (int i = 0; i < labels.length; i++) {
+                    log.readBlockText(block, i, columns[i], 0);
+                }
+
+                for (int r = 0; r < rowCount; r++) {
+                    row[0] = Long.toString(states[r]);
+                    for (int i = 0; i < labels.length; i++) {
+                        row[i + 1] = columns[i][r];
+                    }
+                    formatter.logValues(row);
+                }
+            }
+
+            formatter.stopLogging();
+        } finally {
+            log.close();
+            writer.close();
+        }
+    }
+
+    /**
+     * Writes a tab-delimited log as a binary log. Comment lines before the labels are kept as
+     * the headings.
+     */
+    public static void textToBinary(File inputFile, File outputFile) throws IOException, TraceException {
+        LogFileTraces.TrimLineReader reader = new LogFileTraces.TrimLineReader(new FileReader(inputFile));
+        LogFormatter formatter = new BinaryLogFormatter(new FileOutputStream(outputFile));
+
+        try {
+            String line = reader.readLine();
+            while (line != null && (line.length() == 0 || line.startsWith("#") || line.startsWith("["))) {
+                if (line.startsWith("#")) {
+                    formatter.logHeading(line.substring(1).trim());
+                }
+                line = reader.readLine();
+            }
+
+            if (line == null) {
+                throw new TraceException("Trace file is empty.");
+            }
+
+            final String[] labels = split(line);
+            formatter.logLabels(labels);
+
+            line = reader.readLine();
+            while (line != null && line.length() > 0) {
+                String[] values = split(line);
+                if (values.length < labels.length) {
+                    throw new TraceException("Missing values at line " + reader.getLineNumber());
+                }
+                formatter.logValues(values);
+                line = reader.readLine();
+            }
+        } finally {
+            formatter.stopLogging();
+            reader.close();
+        }
+    }
+
+    private static String[] split(String line) {
+        List<String> tokens = new ArrayList<String>();
+        StringTokenizer tokenizer = new StringTokenizer(line, "\t");
+        while (tokenizer.hasMoreTokens()) {
+            tokens.add(tokenizer.nextToken());
+        }
+        return tokens.toArray(new String[tokens.size()]);
+    }
+
+    public static void printUsage(Arguments arguments) {
+
+        arguments.printUsage("logconverter", "<input-file-name> <output-file-name>");
+        System.out.println();
+        System.out.println("  Converts a binary log to a tab-delimited log or a tab-delimited log to a binary log.");
+        System.out.println();
+        System.out.println("  Example: logconverter run.blog run.log");
+        System.out.println();
+    }
+
+    //Main method
+    public static void main(String[] args) throws IOException, TraceException {
+
+        // There is a major issue with languages that use the comma as a decimal separator.
+        // To ensure compatibility between programs in the package, enforce the US locale.
+        Locale.setDefault(Locale.US);
+
+        Arguments arguments = new Arguments(
+                new Arguments.Option[]{
+                        new Arguments.Option("help", "option to print this message")
+                });
+
+        try {
+            arguments.parseArguments(args);
+        } catch (Arguments.ArgumentException ae) {
+            System.out.println(ae);
+            printUsage(arguments);
+            System.exit(1);
+        }
+
+        String[] args2 = arguments.getLeftoverArguments();
+
+        if (arguments.hasOption("help") || args2.length != 2) {
+            printUsage(arguments);
+            System.exit(arguments.hasOption("help") ? 0 : 1);
+        }
+
+        File inputFile = new File(args2[0]);
+        File outputFile = new File(args2[1]);
+
+        if (BinaryLogFile.isBinaryLog(inputFile)) {
+            System.out.println("Converting binary log " + inputFile + " to tab-delimited log " + outputFile);
+            binaryToText(inputFile, outputFile);
+        } else {
+            System.out.println("Converting tab-delimited log " + inputFile + " to binary log " + outputFile);
+            textToBinary(inputFile, outputFile);
+        }
+
+        System.exit(0);
+    }
+}
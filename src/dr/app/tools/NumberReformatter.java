@@ -0,0 +1,244 @@
+/*
+ * NumberReformatter.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.app.tools;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * Reformats the real numbers in a line of a log or tree file for LogCombiner, either in decimal
+ * notation or in scientific notation with up to 12 decimal places, optionally scaling them.
+ *
+ * Numbers are those matched by the regular expression \d+\.\d+(E[\-\d\.]+)? but are found by a
+ * scan of the line. A number that needs neither scaling nor rounding is written straight from its
+ * digits, which gives the same text as formatting its value with a DecimalFormat; the others are
+ * parsed and formatted. An instance keeps its own formats so is not thread-safe.
+ */
+public class NumberReformatter {
+
+    // more significant digits than this may not be those of the parsed value
+    private static final int MAX_EXACT_DIGITS = 15;
+    private static final int FRACTION_DIGITS = 12;
+    private static final int MAX_EXPONENT = 290;
+
+    public NumberReformatter(boolean convertToDecimal) {
+        this.convertToDecimal = convertToDecimal;
+        format = (convertToDecimal ?
+                new DecimalFormat("#.############", new DecimalFormatSymbols(Locale.US)) :
+                new DecimalFormat("#.############E0", new DecimalFormatSymbols(Locale.US)));
+    }
+
+    /**
+     * @return the value as LogCombiner formats numbers
+     */
+    public String format(double value) {
+        return format.format(value);
+    }
+
+    /**
+     * @param line     the text
+     * @param useScale whether to multiply the numbers by the scale
+     * @param scale    the scale
+     * @return the text with its numbers reformatted
+     */
+    public String reformat(String line, boolean useScale, double scale) {
+        final int length = line.length();
+        StringBuilder outLine = null;
+
+        int lastEnd = 0;
+        int i = 0;
+        while (i < length) {
+            if (!isDigit(line.charAt(i))) {
+                i++;
+                continue;
+            }
+
+            // a run of digits followed by a point and another run of digits
+            final int start = i;
+            int end = skipDigits(line, i);
+            if (end + 1 < length && line.charAt(end) == '.' && isDigit(line.charAt(end + 1))) {
+                final int point = end;
+                end = skipDigits(line, point + 1);
+                final int fractionEnd = end;
+
+                if (end + 1 < length && line.charAt(end) == 'E' && isExponentChar(line.charAt(end + 1))) {
+                    end += 2;
+                    while (end < length && isExponentChar(line.charAt(end))) {
+                        end++;
+                    }
+                }
+
+                if (outLine == null) {
+                    outLine = new StringBuilder(length + 16);
+                }
+                outLine.append(line, lastEnd, start);
+                if (useScale || !appendDigits(line, start, point, fractionEnd, end, outLine)) {
+                    double value = Double.parseDouble(line.substring(start, end));
+                    if (useScale) {
+                        value *= scale;
+                    }
+                    outLine.append(format.format(value));
+                }
+                lastEnd = end;
+            }
+            i = end;
+        }
+
+        if (outLine == null) {
+            return line;
+        }
+        outLine.append(line, lastEnd, length);
+        return outLine.toString();
+    }
+
+    /**
+     * Writes the number in the line from start to end, with a point at the given position and its
+     * fraction ending at fractionEnd, if that can be done without rounding.
+     *
+     * @return false if the number has to be parsed and formatted instead
+     */
+    private boolean appendDigits(String line, int start, int point, int fractionEnd, int end, StringBuilder out) {
+        int exponent = 0;
+        if (fractionEnd < end) {
+            // an exponent, which must be a small integer to be used here
+            int k = fractionEnd + 1;
+            final boolean negative = (line.charAt(k) == '-');
+            if (negative) {
+                k++;
+            }
+            if (k == end || end - k > 3) {
+                return false;
+            }
+            for (; k < end; k++) {
+                final char c = line.charAt(k);
+                if (!isDigit(c)) {
+                    return false;
+                }
+                exponent = exponent * 10 + (c - '0');
+            }
+            if (negative) {
+                exponent = -exponent;
+            }
+        }
+
+        // the significant digits, skipping the point
+        int first = start;
+        while (first < fractionEnd && (line.charAt(first) == '0' || first == point)) {
+            first++;
+        }
+        if (first == fractionEnd) {
+            out.append(convertToDecimal ? "0" : "0E0");
+            return true;
+        }
+        int last = fractionEnd - 1;
+        while (line.charAt(last) == '0' || last == point) {
+            last--;
+        }
+
+        int digitCount = last - first + 1;
+        if (first < point && last > point) {
+            digitCount--;
+        }
+        if (digitCount > MAX_EXACT_DIGITS) {
+            return false;
+        }
+
+        // the value is d.ddd x 10^magnitude
+        final int magnitude = (first < point ? point - first - 1 : point - first) + exponent;
+        if (Math.abs(magnitude) > MAX_EXPONENT) {
+            return false;
+        }
+
+        if (convertToDecimal) {
+            // the formats write the digits of larger values beyond the significant ones
+            if (magnitude >= MAX_EXACT_DIGITS) {
+                return false;
+            }
+            final int fractionDigits = Math.max(digitCount - 1 - magnitude, 0);
+            if (fractionDigits > FRACTION_DIGITS) {
+                return false;
+            }
+
+            if (magnitude < 0) {
+                out.append("0.");
+                for (int j = -1; j > magnitude; j--) {
+                    out.append('0');
+                }
+                appendSignificant(line, first, last, point, out, -1);
+            } else {
+                appendSignificant(line, first, last, point, out, magnitude + 1);
+                for (int j = digitCount; j <= magnitude; j++) {
+                    out.append('0');
+                }
+            }
+        } else {
+            if (digitCount > FRACTION_DIGITS + 1) {
+                return false;
+            }
+            appendSignificant(line, first, last, point, out, 1);
+            out.append('E').append(magnitude);
+        }
+        return true;
+    }
+
+    /**
+     * Appends the significant digits, putting a point after the given number of them if any
+     * remain.
+     */
+    private void appendSignificant(String line, int first, int last, int point, StringBuilder out, int pointAfter) {
+        int count = 0;
+        for (int j = first; j <= last; j++) {
+            if (j == point) {
+                continue;
+            }
+            if (count == pointAfter) {
+                out.append('.');
+            }
+            out.append(line.charAt(j));
+            count++;
+        }
+    }
+
+    private static int skipDigits(String line, int i) {
+        final int length = line.length();
+        while (i < length && isDigit(line.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isExponentChar(char c) {
+        return (c >= '0' && c <= '9') || c == '-' || c == '.';
+    }
+
+    private final boolean convertToDecimal;
+    private final DecimalFormat format;
+}
@@ -28,8 +28,8 @@ package dr.app.tools;
 import dr.app.beast.BeastVersion;
 import dr.app.util.Arguments;
 import dr.evolution.io.Importer;
+import dr.evolution.io.MappedNexusImporter;
 import dr.evolution.io.NewickImporter;
-import dr.evolution.io.NexusImporter;
 import dr.evolution.io.TreeImporter;
 import dr.evolution.tree.NodeRef;
 import dr.evolution.tree.Tree;
@@ -43,6 +43,7 @@ import dr.inference.trace.TraceDistribution;
 import dr.inference.trace.TraceType;
 import dr.math.distributions.MultivariateNormalDistribution;
 import dr.util.HeapSort;
+import dr.util.ThreadHelpers;
 import dr.util.Version;
 import org.jdom.Element;
 import org.jdom.output.Format;
@@ -52,6 +53,7 @@ import java.awt.geom.Point2D;
 import java.io.*;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * @author Marc A. Suchard
@@ -132,19 +134,24 @@ public class TimeSlicer {
     public static final boolean GREATCIRCLEDISTANCE = true;
     public static final String SUBSTITUTION = "N";
     public static final String DESCENDENTS = "descendents";
+    public static final String THREADS = "threads";
 
     public static final String[] falseTrue = {"false", "true"};
 
     private final static Calendar calendar = GregorianCalendar.getInstance();
     private final static SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
 
+    private final static int DEFAULT_THREAD_COUNT = ThreadHelpers.getProcessorCount();
+
     public TimeSlicer(String treeFileName, int burnin, int skipEvery, String[] traits, double[] sliceHeights, boolean impute,
                       boolean trueNoise, double mrsd, ContourMode contourMode, SliceMode sliceMode,
                       final boolean summarizeRoot, final boolean summarizeTips, Normalization normalize, boolean getSDR, boolean getSNR,
                       String progress, boolean branchNormalization, BranchSet branchset, Set taxaSet, int grid,
-                      double latMin, double latMax, double longMin, double longMax, Set descendentTaxaSet, String rateString) {
+                      double latMin, double latMax, double longMin, double longMax, Set descendentTaxaSet, String rateString,
+                      int threadCount) {
 
         this.traits = traits;
+        this.threadCount = threadCount;
         traitCount = traits.length;
 
         sliceCount = 1;
@@ -192,13 +199,10 @@ public class TimeSlicer {
             }
         }
 
-        values = new ArrayList<List<List<Trait>>>(sliceCount);
+        values = new TraitValues[sliceCount][traitCount];
         for (int i = 0; i < sliceCount; i++) {
-            List<List<Trait>> thisSlice = new ArrayList<List<Trait>>(traitCount);
-            values.add(thisSlice);
             for (int j = 0; j < traitCount; j++) {
-                List<Trait> thisTraitSlice = new ArrayList<Trait>();
-                thisSlice.add(thisTraitSlice);
+                values[i][j] = new TraitValues();
             }
         }
         if (summarizeRoot) {
@@ -368,24 +372,14 @@ public class TimeSlicer {
                 rootElement.addContent(documentElement);
             }
 
-            if (sliceHeights == null) {
-                for (double hpdValue : hpdValues) {
-                    summarizeSlice(0, Double.NaN, contours, points, outputFormat, hpdValue);
-                }
-            } else {
-                if (outputFormat == OutputFormat.TAB) {
-                    if (mostRecentSamplingDate > 0) {
-                        tabOutput.append("trait\t" + "sliceTime\t" + "mean\t" + "stdev\t" + "HPDlow\t" + "HPDup");
-                    } else {
-                        tabOutput.append("trait\t" + "sliceHeight\t" + "mean\t" + "stdev\t" + "HPDlow\t" + "HPDup");
-                    }
-                }
-                for (int i = 0; i < sliceHeights.length; i++) {
-                    for (double hpdValue : hpdValues) {
-                        summarizeSlice(i, sliceHeights[i], contours, points, outputFormat, hpdValue);
-                    }
+            if (sliceHeights != null && outputFormat == OutputFormat.TAB) {
+                if (mostRecentSamplingDate > 0) {
+                    tabOutput.append("trait\t" + "sliceTime\t" + "mean\t" + "stdev\t" + "HPDlow\t" + "HPDup");
+                } else {
+                    tabOutput.append("trait\t" + "sliceHeight\t" + "mean\t" + "stdev\t" + "HPDlow\t" + "HPDup");
                 }
             }
+            summarizeSlices(contours, points, outputFormat, hpdValues);
 
             if (summarizeRoot) {
                 for (double hpdValue : hpdValues) {
@@ -866,7 +860,68 @@ public class TimeSlicer {
 
     }
 
-    private void summarizeSlice(int slice, double sliceValue, boolean contours, boolean points, OutputFormat outputFormat, double hpdValue) {
+    /**
+     * Summarizes the slices in order. The statistics and contours of the slices are worked out on
+     * threadCount threads, a few slices ahead of the one being written, and the samples of each
+     * slice are let go once it has been written. Contouring with R is always done one slice at a time.
+     */
+    private void summarizeSlices(final boolean contours, boolean points, final OutputFormat outputFormat, final double[] hpdValues) {
+
+        ExecutorService executor = null;
+        if (threadCount > 1 && contourMode != ContourMode.R) {
+            executor = ThreadHelpers.newFixedThreadPool(threadCount, "slice-summarizer");
+        }
+
+        ArrayDeque<Future<SliceTraitSummary[]>> pending = new ArrayDeque<Future<SliceTraitSummary[]>>();
+        int nextSlice = 0;
+
+        try {
+            for (int slice = 0; slice < sliceCount; slice++) {
+                SliceTraitSummary[] summaries;
+                if (executor == null) {
+                    summaries = summarizeSliceTraits(slice, contours, outputFormat, hpdValues);
+                } else {
+                    while (nextSlice < sliceCount && pending.size() < threadCount * 2) {
+                        final int thisSlice = nextSlice;
+                        pending.add(executor.submit(new Callable<SliceTraitSummary[]>() {
+                            public SliceTraitSummary[] call() {
+                                return summarizeSliceTraits(thisSlice, contours, outputFormat, hpdValues);
+                            }
+                        }));
+                        nextSlice++;
+                    }
+                    summaries = ThreadHelpers.getResult(pending.poll(), "summarizing slices");
+                }
+
+                double sliceValue = (sliceHeights == null ? Double.NaN : sliceHeights[slice]);
+                for (int hpdIndex = 0; hpdIndex < hpdValues.length; hpdIndex++) {
+                    summarizeSlice(slice, sliceValue, contours, points, outputFormat, hpdValues[hpdIndex], summaries, hpdIndex);
+                }
+                values[slice] = null;
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    private SliceTraitSummary[] summarizeSliceTraits(int slice, boolean contours, OutputFormat outputFormat, double[] hpdValues) {
+        boolean stats = (outputFormat == OutputFormat.XML || outputFormat == OutputFormat.TAB);
+        contours = contours && outputFormat != OutputFormat.TAB;
+
+        SliceTraitSummary[] summaries = new SliceTraitSummary[traitCount];
+        for (int traitIndex = 0; traitIndex < traitCount; traitIndex++) {
+            TraitValues traitValues = values[slice][traitIndex];
+            if (traitValues.size() > 0 && traitValues.isNumber()) {
+                summaries[traitIndex] = new SliceTraitSummary(traitValues, stats, contours, hpdValues);
+            }
+        }
+        return summaries;
+    }
+
+    private void summarizeSlice(int slice, double sliceValue, boolean contours, boolean points, OutputFormat outputFormat, double hpdValue,
+                                SliceTraitSummary[] summaries, int hpdIndex) {
 
         //if (outputFormat == OutputFormat.TAB)
         //    throw new RuntimeException("Only XML/KML output is implemented");
@@ -895,9 +950,6 @@ public class TimeSlicer {
             }
         }
 
-        List<List<Trait>> thisSlice = values.get(slice);
-        int traitCount = thisSlice.size();
-
         for (int traitIndex = 0; traitIndex < traitCount; traitIndex++) {
 
 //            if (outputFormat == OutputFormat.KML) {
@@ -906,9 +958,9 @@ public class TimeSlicer {
 //                        hpdValue);
 //
 //            } else {
-            summarizeSliceTrait(contourElement, pointsElement, slice, thisSlice.get(traitIndex), traitIndex, sliceValue,
+            summarizeSliceTrait(contourElement, pointsElement, slice, values[slice][traitIndex], summaries[traitIndex], traitIndex, sliceValue,
                     outputFormat,
-                    hpdValue);
+                    hpdValue, hpdIndex);
 
 //            }
         }
@@ -932,17 +984,18 @@ public class TimeSlicer {
         }
     }
 
-    private void summarizeSliceTrait(Element contourElement, Element pointsElement, int slice, List<Trait> thisTrait, int traitIndex, double sliceValue,
+    private void summarizeSliceTrait(Element contourElement, Element pointsElement, int slice, TraitValues thisTrait,
+                                     SliceTraitSummary summary, int traitIndex, double sliceValue,
                                      OutputFormat outputFormat,
-                                     double hpdValue) {
+                                     double hpdValue, int hpdIndex) {
 
         if (thisTrait.size() == 0) {
             return;
         }
 
-        boolean isNumber = thisTrait.get(0).isNumber();
-        boolean isMultivariate = thisTrait.get(0).isMultivariate();
-        int dim = thisTrait.get(0).getDim();
+        boolean isNumber = thisTrait.isNumber();
+        boolean isMultivariate = thisTrait.isMultivariate();
+        int dim = thisTrait.getDim();
         boolean isBivariate = isMultivariate && dim == 2;
         if (sliceProgressReport) {
             progressStream.print("slice " + sliceValue + "\t");
@@ -968,27 +1021,12 @@ public class TimeSlicer {
                 }
             }
 
-            int count = thisTrait.size();
-//            System.out.println("count = "+count+", dim = "+dim);
-            double[][] y = new double[dim][count];
-            for (int i = 0; i < count; i++) {
-                Trait trait = thisTrait.get(i);
-                double[] value = trait.getValue();
-
-                for (int j = 0; j < dim; j++) {
-                    y[j][i] = value[j];
-                }
-            }
-//            System.out.println(y.length+"\t"+y[0].length);
+            double[][] y = summary.y;
 
             if (outputFormat == OutputFormat.XML || outputFormat == OutputFormat.TAB) {
-                // Compute marginal means and standard deviations
+                // Marginal means and standard deviations
                 for (int j = 0; j < dim; j++) {
-                    List<Double> x = new ArrayList();
-                    for (int k = 0; k < y[j].length; k++) {
-                        x.add(y[j][k]);
-                    }
-                    TraceDistribution trace = new TraceDistribution(x, TraceType.REAL);
+                    TraceDistribution trace = summary.traces[j];
                     Element statsElement = new Element("stats");
                     addDimInfo(statsElement, j, dim);
                     StringBuffer sb = new StringBuffer();
@@ -1045,7 +1083,7 @@ public class TimeSlicer {
 
                 if (contourElement != null) {
                     String name = "" + date + "_hpd" + hpdValue;
-                    generateContours(name, contourElement, traitElement, y, slice, date, sliceValue, hpdValue);
+                    generateContours(name, contourElement, traitElement, y, summary.paths[hpdIndex], slice, date, sliceValue, hpdValue);
                 }
 
             }
@@ -1117,10 +1155,10 @@ public class TimeSlicer {
     }
 
     private void generateContours(String name, Element sliceElement, Element traitElement, double[][] y, int slice, double date, double height, double hpdValue) {
-        //to test how much points are within the polygons
-        double numberOfPointsInPolygons = 0;
-        double totalArea = 0;
+        generateContours(name, sliceElement, traitElement, y, getContourPaths(y, hpdValue), slice, date, height, hpdValue);
+    }
 
+    private ContourPath[] getContourPaths(double[][] y, double hpdValue) {
         ContourMaker contourMaker;
         if (contourMode == ContourMode.JAVA)
 //            contourMaker = new KernelDensityEstimator2D(y[0], y[1], gridSize);
@@ -1133,7 +1171,15 @@ public class TimeSlicer {
         else
             throw new RuntimeException("Unimplemented ContourModel!");
 
-        ContourPath[] paths = contourMaker.getContourPaths(hpdValue);
+        return contourMaker.getContourPaths(hpdValue);
+    }
+
+    private void generateContours(String name, Element sliceElement, Element traitElement, double[][] y, ContourPath[] paths,
+                                  int slice, double date, double height, double hpdValue) {
+        //to test how much points are within the polygons
+        double numberOfPointsInPolygons = 0;
+        double totalArea = 0;
+
         int pathCounter = 1;
         for (ContourPath path : paths) {
 
@@ -1437,10 +1483,10 @@ public class TimeSlicer {
     private void outputHeader(String[] traits) {
         StringBuffer sb = new StringBuffer("slice");
         for (int i = 0; i < traits.length; i++) {
-            // Load first value to check dimensionality
-            Trait trait = values.get(0).get(i).get(0);
-            if (trait.isMultivariate()) {
-                int dim = trait.getDim();
+            // Use first value to check dimensionality
+            TraitValues traitValues = values[0][i];
+            if (traitValues.isMultivariate()) {
+                int dim = traitValues.getDim();
                 for (int j = 1; j <= dim; j++)
                     sb.append(sep).append(traits[i]).append(j);
             } else
@@ -1506,9 +1552,10 @@ public class TimeSlicer {
         BufferedReader reader1 = new BufferedReader(new FileReader(treeFileName));
 
         String line1 = reader1.readLine();
+        reader1.close();
         TreeImporter importer1;
         if (line1.toUpperCase().startsWith("#NEXUS")) {
-            importer1 = new NexusImporter(new FileReader(treeFileName));
+            importer1 = new MappedNexusImporter(new File(treeFileName), false, threadCount);
         } else {
             importer1 = new NewickImporter(new FileReader(treeFileName));
         }
@@ -1531,6 +1578,9 @@ public class TimeSlicer {
             }
             totalTrees++;
         }
+        if (importer1 instanceof Closeable) {
+            ((Closeable) importer1).close();
+        }
         progressStream.print("\n");
     }
 
@@ -1612,16 +1662,140 @@ public class TimeSlicer {
         }
     }
 
-    private List<List<List<Trait>>> values;
+    /**
+     * The samples of one trait in one slice. Numbers are kept unboxed, dim to a sample, in an array
+     * that grows as trees are read; other values are kept as they are.
+     */
+    private class TraitValues {
+
+        void add(Trait trait) {
+            if (count == 0) {
+                isNumber = trait.isNumber();
+                isMultivariate = trait.isMultivariate();
+                dim = trait.getDim();
+                if (!isNumber) {
+                    traits = new ArrayList<Trait>();
+                }
+            } else if (isNumber && !trait.isNumber()) {
+                keepTraits();
+            }
+
+            if (isNumber) {
+                if ((count + 1) * dim > numbers.length) {
+                    numbers = Arrays.copyOf(numbers, Math.max(numbers.length * 2, (count + 1) * dim));
+                }
+                double[] value = trait.getValue();
+                System.arraycopy(value, 0, numbers, count * dim, dim);
+            } else {
+                traits.add(trait);
+            }
+            count++;
+        }
+
+        int size() {
+            return count;
+        }
+
+        boolean isNumber() {
+            return isNumber;
+        }
+
+        boolean isMultivariate() {
+            return isMultivariate;
+        }
+
+        int getDim() {
+            return dim;
+        }
+
+        /**
+         * @return the samples of each dimension of a number trait
+         */
+        double[][] getValues() {
+            double[][] y = new double[dim][count];
+            for (int i = 0; i < count; i++) {
+                for (int j = 0; j < dim; j++) {
+                    y[j][i] = numbers[i * dim + j];
+                }
+            }
+            return y;
+        }
+
+        String toString(int index) {
+            if (!isNumber) {
+                return traits.get(index).toString();
+            }
+            StringBuilder sb = new StringBuilder(Double.toString(numbers[index * dim]));
+            for (int j = 1; j < dim; j++) {
+                sb.append(sep).append(numbers[index * dim + j]);
+            }
+            return sb.toString();
+        }
+
+        // a trait that is only sometimes a number is kept as it was read
+        private void keepTraits() {
+            traits = new ArrayList<Trait>(count);
+            for (int i = 0; i < count; i++) {
+                Object[] array = new Object[dim];
+                for (int j = 0; j < dim; j++) {
+                    array[j] = numbers[i * dim + j];
+                }
+                traits.add(isMultivariate ? new Trait(array) : new Trait(array[0]));
+            }
+            numbers = null;
+            isNumber = false;
+        }
+
+        private boolean isNumber;
+        private boolean isMultivariate;
+        private int dim;
+        private int count = 0;
+        private double[] numbers = new double[0];
+        private List<Trait> traits = null;
+    }
+
+    /**
+     * The parts of the summary of a number trait in a slice that take the time: the marginal
+     * statistics of each dimension and the HPD contours at each level of a bivariate trait.
+     */
+    private class SliceTraitSummary {
+
+        SliceTraitSummary(TraitValues traitValues, boolean stats, boolean contours, double[] hpdValues) {
+            y = traitValues.getValues();
+
+            if (stats) {
+                traces = new TraceDistribution[y.length];
+                for (int j = 0; j < y.length; j++) {
+                    List<Double> x = new ArrayList<Double>(y[j].length);
+                    for (int k = 0; k < y[j].length; k++) {
+                        x.add(y[j][k]);
+                    }
+                    traces[j] = new TraceDistribution(x, TraceType.REAL);
+                }
+            }
+
+            if (contours && traitValues.isMultivariate() && traitValues.getDim() == 2) {
+                paths = new ContourPath[hpdValues.length][];
+                for (int k = 0; k < hpdValues.length; k++) {
+                    paths[k] = getContourPaths(y, hpdValues[k]);
+                }
+            }
+        }
+
+        final double[][] y;
+        TraceDistribution[] traces = null;
+        ContourPath[][] paths = null;
+    }
+
+    private TraitValues[][] values;
     private List<List<Trait>> rootValues;
     private List<List<List<Trait>>> tipValues;
     private List<String> tipNames;
 
     private void outputSlice(int slice, double sliceValue) {
 
-        List<List<Trait>> thisSlice = values.get(slice);
-        int traitCount = thisSlice.size();
-        int valueCount = thisSlice.get(0).size();
+        TraitValues[] thisSlice = values[slice];
+        int valueCount = thisSlice[0].size();
 
         StringBuffer sb = new StringBuffer();
 
@@ -1632,7 +1806,7 @@ public class TimeSlicer {
                 sb.append(sliceValue);
             for (int t = 0; t < traitCount; t++) {
                 sb.append(sep);
-                sb.append(thisSlice.get(t).get(v));
+                sb.append(thisSlice[t].toString(v));
             }
             sb.append("\n");
         }
@@ -1910,10 +2084,8 @@ public class TimeSlicer {
 
                         if (proceed) {
 
-                            List<List<Trait>> thisSlice = values.get(i);
                             for (int j = 0; j < traitCount; j++) {
 
-                                List<Trait> thisTraitSlice = thisSlice.get(j);
                                 Object tmpTrait = treeTime.getNodeAttribute(node, traits[j]);
                                 if (tmpTrait == null) {
                                     System.err.println("Trait '" + traits[j] + "' not found on branch.");
@@ -1952,7 +2124,7 @@ public class TimeSlicer {
 //                                } else if (impute && (sliceMode == SliceMode.NODES)) {
 //                                    progressStream.println("no imputation for slice mode = nodes");
                                 }
-                                thisTraitSlice.add(trait);
+                                values[i][j].add(trait);
                                 //System.out.println("trees "+treesAnalyzed+"\tslice "+slices[i]+"\t"+trait.toString());
 
                                 treeSliceTime[i] += (parentHeight - slices[i]);
@@ -2017,16 +2189,14 @@ public class TimeSlicer {
                             height = slices[i + 1];
                         }
                         if ((slices[i] < nodeHeight && height >= nodeHeight)){
-                            List<List<Trait>> thisSlice = values.get(i);
                             for (int j = 0; j < traitCount; j++) {
-                                List<Trait> thisTraitSlice = thisSlice.get(j);
                                 Object tmpTrait = treeTime.getNodeAttribute(node, traits[j]);
                                 if (tmpTrait == null) {
                                     System.err.println("Trait '" + traits[j] + "' not found on node.");
                                     System.exit(-1);
                                 }
                                 Trait trait = new Trait(tmpTrait);
-                                thisTraitSlice.add(trait);
+                                values[i][j].add(trait);
 
                             }
 
@@ -2147,6 +2317,7 @@ public class TimeSlicer {
 
     private int traitCount;
     private int sliceCount;
+    private final int threadCount;
     private String[] traits;
     private double[] sliceHeights;
     private boolean sliceProgressReport;
@@ -2656,6 +2827,7 @@ public class TimeSlicer {
         double longMin = -Double.MAX_VALUE;
         String rateString = "location.rate";
         Set descendents = null;
+        int threadCount = DEFAULT_THREAD_COUNT;
 
 //        if (args.length == 0) {
 //          // TODO Make flash GUI
@@ -2708,7 +2880,8 @@ public class TimeSlicer {
                         new Arguments.RealOption(LONGMAX, "specifies the maximum longitude for a child node for a branch to be included in the summary [default=MAX_VALUE]"),
                         new Arguments.RealOption(LONGMIN, "specifies the minimum longitude for a child node for a branch to be included in the summary [default=MIN_VALUE]"),
                         new Arguments.IntegerOption(GRIDSIZE, "the grid size for contouring [default=200]"),
-                        new Arguments.StringOption(DESCENDENTS, "descendent taxa", "specifies a branch based on the descendent taxa [default=all branches]")
+                        new Arguments.StringOption(DESCENDENTS, "descendent taxa", "specifies a branch based on the descendent taxa [default=all branches]"),
+                        new Arguments.IntegerOption(THREADS, "the number of threads used to read the trees and summarize the slices [default is the number of processors]")
 
                 });
 
@@ -2978,6 +3151,10 @@ public class TimeSlicer {
                 grid = arguments.getIntegerOption(GRIDSIZE);
             }
 
+            if (arguments.hasOption(THREADS)) {
+                threadCount = arguments.getIntegerOption(THREADS);
+            }
+
 
 
         } catch (Arguments.ArgumentException e) {
@@ -3009,7 +3186,8 @@ public class TimeSlicer {
 
         TimeSlicer timeSlicer = new TimeSlicer(inputFileName, burnin, skipEvery, traitNames, sliceHeights, impute,
                 trueNoise, mrsd, contourMode, sliceMode,summarizeRoot, summarizeTips, normalize, getSDR, getSNR, progress,
-                branchNormalization, set, taxaSet, grid, latMin, latMax, longMin, longMax, descendents, rateString);
+                branchNormalization, set, taxaSet, grid, latMin, latMax, longMin, longMax, descendents, rateString,
+                threadCount);
         timeSlicer.output(outputFileName, summaryOnly, summarizeRoot, summarizeTips, contours, points, outputFormat, hpdValues, outputFileSDR, outputFileSNR);
 
         System.exit(0);
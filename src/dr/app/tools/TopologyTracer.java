@@ -252,6 +252,15 @@ public class TopologyTracer {
 
                 TreeMetric treeMetric = treeMetrics.get(0);
 
+                // for RF distances only the clades of each tree need to be kept, as sorted
+                // indices into a shared clade store, rather than the trees themselves
+                CladeStore cladeStore = null;
+                List<int[]> treeClades = null;
+                if (treeMetric instanceof RobinsonFouldsMetric) {
+                    cladeStore = new CladeStore(false, false, false);
+                    treeClades = new ArrayList<int[]>();
+                }
+
                 List<Tree> trees = new ArrayList<Tree>();
                 while (importer.hasTree()) {
 
@@ -260,7 +269,11 @@ public class TopologyTracer {
 
                     // one or other of burninTrees and burninStates should be 0
                     if (numberOfTrees >= burninTrees && state >= burninStates) {
-                        trees.add(tree);
+                        if (cladeStore != null) {
+                            treeClades.add(CladeStore.getSortedInternalClades(tree, cladeStore.add(tree)));
+                        } else {
+                            trees.add(tree);
+                        }
                         treeIds.add(tree.getId());
                         treeStates.add(state);
                     }
@@ -284,15 +297,19 @@ public class TopologyTracer {
                 }
                 writer.write("\n");
 
-                for (int i = 0; i < trees.size(); i++) {
+                for (int i = 0; i < treeStates.size(); i++) {
                     writer.write(Long.toString(treeStates.get(i)));
 
-                    Tree tree1 = trees.get(i);
-                    for (int j = 0; j < trees.size(); j++) {
+                    for (int j = 0; j < treeStates.size(); j++) {
                         if (j < i) {
-                            Tree tree2 = trees.get(j);
+                            double distance;
+                            if (cladeStore != null) {
+                                distance = CladeStore.countMissing(treeClades.get(i), treeClades.get(j));
+                            } else {
+                                distance = treeMetric.getMetric(trees.get(i), trees.get(j));
+                            }
 
-                            writer.write("," + treeMetric.getMetric(tree1, tree2));
+                            writer.write("," + distance);
                         } else {
                             writer.write(",");
                         }
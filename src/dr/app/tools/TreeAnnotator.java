@@ -28,11 +28,11 @@ package dr.app.tools;
 import dr.app.beast.BeastVersion;
 import dr.app.util.Arguments;
 import dr.evolution.io.Importer;
+import dr.evolution.io.MappedNexusImporter;
 import dr.evolution.io.NewickImporter;
 import dr.evolution.io.NexusImporter;
 import dr.evolution.io.TreeImporter;
 import dr.evolution.tree.*;
-import dr.evolution.util.Taxon;
 import dr.evolution.util.TaxonList;
 import dr.geo.contouring.ContourMaker;
 import dr.geo.contouring.ContourPath;
@@ -40,8 +40,9 @@ import dr.geo.contouring.ContourWithSynder;
 import dr.inference.trace.TraceCorrelation;
 import dr.inference.trace.TraceType;
 import dr.stats.DiscreteStatistics;
+import dr.stats.SampleReservoir;
 import dr.util.HeapSort;
-import dr.util.Pair;
+import dr.util.ThreadHelpers;
 import dr.util.Version;
 import jam.console.ConsoleApplication;
 import org.rosuda.JRI.REXP;
@@ -49,11 +50,17 @@ import org.rosuda.JRI.RVector;
 import org.rosuda.JRI.Rengine;
 
 import javax.swing.*;
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
 
 /**
  * @author Alexei Drummond
@@ -70,6 +77,19 @@ public class TreeAnnotator {
 
     private double maxState = 1;
 
+    private final static int DEFAULT_THREAD_COUNT = ThreadHelpers.getProcessorCount();
+
+    // the number of parsed trees each worker thread may have waiting
+    private final static int TREES_PER_THREAD = 4;
+
+    // the fraction of the heap that may be used to cache the clades of each tree for the MCC search
+    private final static double CLADE_CACHE_FRACTION = 0.25;
+
+    private final int threadCount;
+
+    // the number of samples of each attribute kept for each clade (zero to keep them all)
+    private final int maxSamples;
+
     enum Target {
         MAX_CLADE_CREDIBILITY("Maximum clade credibility tree"),
         MAX_MARGINAL_CLADE_CREDIBILITY("Maximum marginal clade credibilities"),
@@ -137,7 +157,35 @@ public class TreeAnnotator {
                          String inputFileName,
                          String outputFileName
     ) throws IOException {
+        this(burninTrees, burninStates, heightsOption, posteriorLimit, hpd2D, computeESS, targetOption,
+                targetTreeFileName, inputFileName, outputFileName, DEFAULT_THREAD_COUNT, 0);
+    }
+
+    /**
+     * The trees are parsed on the calling thread and the clades of each tree are counted and
+     * annotated by threadCount worker threads. With a single thread everything is done in
+     * file order on the calling thread.
+     *
+     * If maxSamples is greater than zero, only that many values of each attribute are kept for
+     * each clade (a uniform random subset) so the memory needed doesn't grow with the number of
+     * trees. The medians and HPDs are then estimated from these values.
+     */
+    public TreeAnnotator(final int burninTrees,
+                         final long burninStates,
+                         HeightsSummary heightsOption,
+                         double posteriorLimit,
+                         double[] hpd2D,
+                         boolean computeESS,
+                         Target targetOption,
+                         String targetTreeFileName,
+                         String inputFileName,
+                         String outputFileName,
+                         int threadCount,
+                         int maxSamples
+    ) throws IOException {
 
+        this.threadCount = Math.max(1, threadCount);
+        this.maxSamples = Math.max(0, maxSamples);
         this.posteriorLimit = posteriorLimit;
         this.hpd2D = hpd2D;
         this.computeESS = computeESS;
@@ -160,9 +208,10 @@ public class TreeAnnotator {
         if (stepSize < 1) stepSize = 1;
 
         if (targetOption != Target.USER_TARGET_TREE) {
-            cladeSystem = new CladeSystem();
-            FileReader fileReader = new FileReader(inputFileName);
-            TreeImporter importer = new NexusImporter(fileReader, true);
+            final CladeSystem treeSetCladeSystem = new CladeSystem();
+            cladeSystem = treeSetCladeSystem;
+            MappedNexusImporter importer = new MappedNexusImporter(new File(inputFileName), true, threadCount);
+            TreeWorkers workers = new TreeWorkers(this.threadCount);
             try {
                 totalTrees = 0;
                 while (importer.hasTree()) {
@@ -187,9 +236,12 @@ public class TreeAnnotator {
                             // if this is the first time this point has been reached,
                             // record the number of trees this represents for future use...
                             burnin = totalTrees;
+                            treeSetCladeSystem.setTaxonList(tree);
                         }
 
-                        cladeSystem.add(tree, true);
+                        final Tree usedTree = tree;
+                        final int treeIndex = totalTreesUsed;
+                        workers.execute(() -> treeSetCladeSystem.add(usedTree, treeIndex));
 
                         totalTreesUsed += 1;
                     }
@@ -202,10 +254,13 @@ public class TreeAnnotator {
                 }
 
             } catch (Importer.ImportException e) {
+                workers.finish();
+                importer.close();
                 System.err.println("Error Parsing Input Tree: " + e.getMessage());
                 return;
             }
-            fileReader.close();
+            workers.finish();
+            importer.close();
             progressStream.println();
             progressStream.println();
 
@@ -229,7 +284,7 @@ public class TreeAnnotator {
                 progressStream.println("Ignoring first " + burninStates + " states (" + burnin + " trees).");
             }
 
-            progressStream.println("Total unique clades: " + cladeSystem.getCladeMap().keySet().size());
+            progressStream.println("Total unique clades: " + cladeSystem.getCladeCount());
             progressStream.println();
         }
 
@@ -286,10 +341,10 @@ public class TreeAnnotator {
         FileReader fileReader = new FileReader(inputFileName);
         NexusImporter importer = new NexusImporter(fileReader);
 
-        // this call increments the clade counts and it shouldn't
-        // this is remedied with removeClades call after while loop below
-        cladeSystem = new CladeSystem(targetTree);
+        final CladeSystem targetCladeSystem = new CladeSystem(targetTree);
+        cladeSystem = targetCladeSystem;
         totalTreesUsed = 0;
+        TreeWorkers workers = new TreeWorkers(this.threadCount);
         try {
             boolean firstTree = true;
             int counter = 0;
@@ -302,7 +357,9 @@ public class TreeAnnotator {
                         firstTree = false;
                     }
 
-                    cladeSystem.collectAttributes(tree);
+                    final Tree usedTree = tree;
+                    final int treeIndex = totalTreesUsed;
+                    workers.execute(() -> targetCladeSystem.collectAttributes(usedTree, treeIndex));
                     totalTreesUsed += 1;
                 }
                 if (counter > 0 && counter % stepSize == 0) {
@@ -312,10 +369,13 @@ public class TreeAnnotator {
                 counter++;
 
             }
-            cladeSystem.removeClades(targetTree, targetTree.getRoot(), true);
+            workers.finish();
+            // the workers may have added the values out of order so put them back in file order
+            cladeSystem.sortAttributeValues();
             //progressStream.println("totalTreesUsed=" + totalTreesUsed);
             cladeSystem.calculateCladeCredibilities(totalTreesUsed);
         } catch (Importer.ImportException e) {
+            workers.finish();
             System.err.println("Error Parsing Input Tree: " + e.getMessage());
             return;
         }
@@ -326,7 +386,7 @@ public class TreeAnnotator {
         progressStream.println("Annotating target tree...");
 
         try {
-            cladeSystem.annotateTree(targetTree, targetTree.getRoot(), null, heightsOption);
+            cladeSystem.annotateTree(targetTree, heightsOption);
 
             if( heightsOption == HeightsSummary.CA_HEIGHTS ) {
                 setTreeHeightsByCA(targetTree, inputFileName, burnin);
@@ -369,9 +429,79 @@ public class TreeAnnotator {
         }
     }
 
+    // the width of the progress bar
+    private static final int PROGRESS_STARS = 60;
+
     private Tree getMCCTree(int burnin, CladeSystem cladeSystem, String inputFileName)
             throws IOException {
 
+        if (!cladeSystem.hasTreeCladeCache()) {
+            progressStream.println("Tree clades were not cached (not enough memory), re-reading trees");
+            return scanMCCTree(burnin, cladeSystem, inputFileName);
+        }
+
+        progressStream.println("Analyzing " + totalTreesUsed + " trees...");
+        progressStream.println("0              25             50             75            100");
+        progressStream.println("|--------------|--------------|--------------|--------------|");
+
+        // score each tree from the clades cached when the trees were first read, in one block
+        // of trees for each star of the progress bar
+        final double[] logCredibilities = cladeSystem.getLogCladeCredibilities();
+        final double[] scores = new double[totalTreesUsed];
+        final int blockCount = Math.min(PROGRESS_STARS, scores.length);
+        final ForkJoinPool pool = new ForkJoinPool(threadCount);
+        try {
+            for (int block = 0; block < blockCount; block++) {
+                final int start = (int) ((long) scores.length * block / blockCount);
+                final int end = (int) ((long) scores.length * (block + 1) / blockCount);
+                ThreadHelpers.getResult(pool.submit(() -> IntStream.range(start, end).parallel().forEach(
+                        i -> scores[i] = cladeSystem.getLogCladeCredibility(i, logCredibilities)
+                )), "scoring trees");
+                progressStream.print("*");
+                progressStream.flush();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        progressStream.println();
+
+        // take the first of any trees with the same score, as the sequential search does
+        int bestIndex = 0;
+        for (int i = 1; i < scores.length; i++) {
+            if (scores[i] > scores[bestIndex]) {
+                bestIndex = i;
+            }
+        }
+        final double bestScore = scores[bestIndex];
+        final int bestTreeNumber = burnin + bestIndex + 1;
+
+        // only the best tree itself needs to be read again
+        Tree bestTree = null;
+        TreeImporter importer = new NexusImporter(new FileReader(inputFileName), true);
+        try {
+            int counter = 0;
+            while (bestTree == null && importer.hasTree()) {
+                Tree tree = importer.importNextTree();
+                if (counter == bestTreeNumber - 1) {
+                    bestTree = tree;
+                }
+                counter++;
+            }
+        } catch (Importer.ImportException e) {
+            System.err.println("Error Parsing Input Tree: " + e.getMessage());
+            return null;
+        }
+
+        progressStream.println();
+        progressStream.println("Best tree: " + bestTree.getId() + " (tree number " + bestTreeNumber + ")");
+        progressStream.println("Highest Log Clade Credibility: " + bestScore);
+
+        return bestTree;
+    }
+
+    private Tree scanMCCTree(int burnin, CladeSystem cladeSystem, String inputFileName)
+            throws IOException {
+
         Tree bestTree = null;
         double bestScore = Double.NEGATIVE_INFINITY;
 
@@ -384,7 +514,7 @@ public class TreeAnnotator {
 
         int counter = 0;
         int bestTreeNumber = 0;
-        TreeImporter importer = new NexusImporter(new FileReader(inputFileName), true);
+        MappedNexusImporter importer = new MappedNexusImporter(new File(inputFileName), true, threadCount);
         try {
             while (importer.hasTree()) {
                 Tree tree = importer.importNextTree();
@@ -407,6 +537,8 @@ public class TreeAnnotator {
         } catch (Importer.ImportException e) {
             System.err.println("Error Parsing Input Tree: " + e.getMessage());
             return null;
+        } finally {
+            importer.close();
         }
         progressStream.println();
         progressStream.println();
@@ -418,13 +550,18 @@ public class TreeAnnotator {
 
     private Tree getMMCCTree(CladeSystem cladeSystem) {
 
-        CladeSystem.Clade rootClade = cladeSystem.getRootClade();
+        final CladeStore cladeStore = cladeSystem.getCladeStore();
+        final int rootClade = cladeSystem.getRootClade();
 
-        credibilityCache.clear();
+        final int cladeCount = cladeStore.getCladeCount();
+        bestSubTreeCredibilities = new double[cladeCount];
+        Arrays.fill(bestSubTreeCredibilities, Double.NaN);
+        bestLeftClades = new int[cladeCount];
+        bestRightClades = new int[cladeCount];
 
         double score = findMMCCTree(cladeSystem, rootClade);
 
-        SimpleTree tree = new SimpleTree(buildMCCTree(cladeSystem, rootClade));
+        SimpleTree tree = new SimpleTree(buildMCCTree(cladeStore, rootClade));
 
         progressStream.println();
         progressStream.println("Highest Log Marginal Clade Credibility: " + score);
@@ -433,65 +570,62 @@ public class TreeAnnotator {
         return tree;
     }
 
-    private Map<CladeSystem.Clade, Double> credibilityCache = new HashMap<>();
+    // the best subtree of each clade, indexed by its number in the clade store
+    private double[] bestSubTreeCredibilities;
+    private int[] bestLeftClades;
+    private int[] bestRightClades;
 
-    private double findMMCCTree(CladeSystem cladeSystem, CladeSystem.Clade clade) {
+    private double findMMCCTree(CladeSystem cladeSystem, int clade) {
 
-        double logCredibility = Math.log(clade.credibility);
+        final CladeStore cladeStore = cladeSystem.getCladeStore();
 
-        if (clade.size > 1) {
-            double bestLogCredibility = Double.NEGATIVE_INFINITY;
+        double logCredibility = Math.log(cladeSystem.getCredibility(clade));
 
-            for (Pair<BitSet, BitSet> subClade : clade.subClades) {
+        if (cladeStore.getSize(clade) > 1) {
+            double bestLogCredibility = Double.NEGATIVE_INFINITY;
 
-                CladeSystem.Clade left = cladeSystem.getCladeMap().get(subClade.fst);
-                if (left == null) {
-                    throw new IllegalArgumentException("no clade found");
-                }
+            for (int split = 0; split < cladeStore.getSplitCount(clade); split++) {
 
-                double leftLogCredibility = credibilityCache.getOrDefault(left, Double.NaN);
+                final int left = cladeStore.getSplitLeft(clade, split);
+                double leftLogCredibility = bestSubTreeCredibilities[left];
                 if (Double.isNaN(leftLogCredibility)) {
                     leftLogCredibility = findMMCCTree(cladeSystem, left);
-                    credibilityCache.put(left, leftLogCredibility);
                 }
-                CladeSystem.Clade right = cladeSystem.getCladeMap().get(subClade.snd);
-                if (right == null) {
-                    throw new IllegalArgumentException("no clade found");
-                }
-                double rightLogCredibility = credibilityCache.getOrDefault(right, Double.NaN);
+
+                final int right = cladeStore.getSplitRight(clade, split);
+                double rightLogCredibility = bestSubTreeCredibilities[right];
                 if (Double.isNaN(rightLogCredibility)) {
                     rightLogCredibility = findMMCCTree(cladeSystem, right);
-                    credibilityCache.put(right, rightLogCredibility);
                 }
 
                 if (leftLogCredibility + rightLogCredibility > bestLogCredibility) {
                     bestLogCredibility = leftLogCredibility + rightLogCredibility;
-                    clade.bestLeft = left;
-                    clade.bestRight = right;
+                    bestLeftClades[clade] = left;
+                    bestRightClades[clade] = right;
                 }
             }
 
             logCredibility += bestLogCredibility;
-            clade.bestSubTreeCredibility = logCredibility;
-
         }
 
+        bestSubTreeCredibilities[clade] = logCredibility;
+
         return logCredibility;
     }
 
-    private SimpleNode buildMCCTree(CladeSystem cladeSystem, CladeSystem.Clade clade) {
+    private SimpleNode buildMCCTree(CladeStore cladeStore, int clade) {
         SimpleNode newNode = new SimpleNode();
-        if (clade.size == 1) {
-            newNode.setTaxon(clade.taxon);
+        if (cladeStore.getSize(clade) == 1) {
+            newNode.setTaxon(cladeStore.getTaxon(clade));
         } else {
-            newNode.addChild(buildMCCTree(cladeSystem, clade.bestLeft));
-            newNode.addChild(buildMCCTree(cladeSystem, clade.bestRight));
+            newNode.addChild(buildMCCTree(cladeStore, bestLeftClades[clade]));
+            newNode.addChild(buildMCCTree(cladeStore, bestRightClades[clade]));
         }
         return newNode;
     }
 
     private double scoreTree(Tree tree, CladeSystem cladeSystem) {
-        return cladeSystem.getLogCladeCredibility(tree, tree.getRoot(), null);
+        return cladeSystem.getLogCladeCredibility(tree);
     }
 
     private class CladeSystem {
@@ -500,283 +634,191 @@ public class TreeAnnotator {
         //
 
         /**
+         * a clade system for the whole tree set, counting the clades of the trees added and
+         * recording their subclades for the MMCC tree.
          */
         public CladeSystem() {
+            cladeStore = new CladeStore(true, true, false);
         }
 
         /**
+         * a clade system for collecting the attributes of the clades in the target tree.
          */
         public CladeSystem(Tree targetTree) {
             this.targetTree = targetTree;
-            add(targetTree, true);
+            cladeStore = new CladeStore(targetTree, true, false, false);
+            targetClades = cladeStore.add(targetTree);
+            clades = new Clade[cladeStore.getCladeCount()];
+            for (int i = 0; i < clades.length; i++) {
+                clades[i] = new Clade(cladeStore.getSize(i));
+            }
+            rootClade = targetClades[targetTree.getRoot().getNumber()];
+        }
+
+        public void setTaxonList(TaxonList taxonList) {
+            cladeStore.setTaxa(taxonList);
         }
 
         /**
-         * adds all the clades in the tree
+         * adds all the clades in the tree, including the tips, and caches the clades of the
+         * internal nodes so the tree can be scored without reading it again. This may be called
+         * from several threads at once once the taxon list has been set.
          */
-        public void add(Tree tree, boolean includeTips) {
-            if (taxonList == null) {
-                taxonList = tree;
+        public void add(Tree tree, int treeIndex) {
+            final int[] treeClades = cladeStore.add(tree);
+            rootClade = treeClades[tree.getRoot().getNumber()];
+
+            if (!cacheOverflow) {
+                if (cachedCladeCount.addAndGet(tree.getInternalNodeCount()) > maxCachedCladeCount) {
+                    cacheOverflow = true;
+                    treeCladeIndices.clear();
+                } else {
+                    // sorted so that trees with the same topology get exactly the same score
+                    treeCladeIndices.put(treeIndex, CladeStore.getSortedInternalClades(tree, treeClades));
+                }
             }
+        }
 
-            // Recurse over the tree and add all the clades (or increment their
-            // frequency if already present). The root clade is added too (for
-            // annotation purposes).
-            BitSet rootBits = addClades(tree, tree.getRoot(), includeTips);
-            rootClade = cladeMap.get(rootBits);
+        public CladeStore getCladeStore() {
+            return cladeStore;
         }
 
-        public Clade getRootClade() {
+        public int getRootClade() {
             return rootClade;
         }
 
-        private BitSet addClades(Tree tree, NodeRef node, boolean includeTips) {
-
-            BitSet bits = new BitSet();
-
-            if (tree.isExternal(node)) {
-
-                int index = taxonList.getTaxonIndex(tree.getNodeTaxon(node).getId());
-                bits.set(index);
-
-                if (includeTips) {
-                    Clade clade = addClade(bits);
-                    clade.taxon = tree.getNodeTaxon(node);
-                }
-
-            } else {
+        public int getCladeCount() {
+            return cladeStore.getCladeCount();
+        }
 
-                List<BitSet> subClades = new ArrayList<BitSet>();
+        public boolean hasTreeCladeCache() {
+            return !cacheOverflow && treeCladeIndices.size() == totalTreesUsed;
+        }
 
-                for (int i = 0; i < tree.getChildCount(node); i++) {
+        /**
+         * @return the log credibility of each clade indexed by its number in the clade store
+         */
+        public double[] getLogCladeCredibilities() {
+            double[] logCredibilities = new double[cladeStore.getCladeCount()];
+            for (int i = 0; i < logCredibilities.length; i++) {
+                logCredibilities[i] = Math.log(getCredibility(i));
+            }
+            return logCredibilities;
+        }
 
-                    NodeRef node1 = tree.getChild(node, i);
-                    BitSet subClade = addClades(tree, node1, includeTips);
-                    bits.or(subClade);
-                    subClades.add(subClade);
-                }
+        public double getLogCladeCredibility(int treeIndex, double[] logCredibilities) {
+            double logCladeCredibility = 0.0;
+            for (int cladeIndex : treeCladeIndices.get(treeIndex)) {
+                logCladeCredibility += logCredibilities[cladeIndex];
+            }
+            return logCladeCredibility;
+        }
 
-                Clade clade = addClade(bits);
+        public double getLogCladeCredibility(Tree tree) {
+            final int[] treeClades = cladeStore.getCladeIndices(tree);
 
-                if (subClades.size() != 2) {
-                    throw new IllegalArgumentException("TreeAnnotator requires strictly bifurcating trees");
-                }
-                clade.addSubclades(subClades.get(0), subClades.get(1));
+            double logCladeCredibility = 0.0;
+            for (int i = 0; i < tree.getInternalNodeCount(); i++) {
+                final int clade = treeClades[tree.getInternalNode(i).getNumber()];
+                logCladeCredibility += Math.log(clade < 0 ? 0.0 : getCredibility(clade));
             }
-
-            return bits;
+            return logCladeCredibility;
         }
 
-        private Clade addClade(BitSet bits) {
-            Clade clade = cladeMap.get(bits);
-            if (clade == null) {
-                clade = new Clade(bits);
-                cladeMap.put(bits, clade);
+        public double getCredibility(int clade) {
+            if (clades != null) {
+                return clades[clade].getCredibility();
             }
-            clade.setCount(clade.getCount() + 1);
-
-            return clade;
+            return ((double) cladeStore.getCount(clade)) / treesUsed;
         }
 
-        public void collectAttributes(Tree tree) {
-            collectAttributes(tree, tree.getRoot());
+        /**
+         * collects the attributes of the nodes in the tree, recording the index of the tree
+         * so the values can be put back in file order when several threads are collecting.
+         */
+        public void collectAttributes(Tree tree, int treeIndex) {
+            final int[] treeClades = cladeStore.getCladeIndices(tree);
+            for (int i = 0; i < tree.getNodeCount(); i++) {
+                final NodeRef node = tree.getNode(i);
+                final int clade = treeClades[node.getNumber()];
+                if (clade >= 0) {
+                    collectAttributesForClade(clades[clade], tree, node, treeIndex);
+                }
+            }
         }
 
-        private BitSet collectAttributes(Tree tree, NodeRef node) {
-
-            BitSet bits = new BitSet();
-
-            if (tree.isExternal(node)) {
-
-                int index = taxonList.getTaxonIndex(tree.getNodeTaxon(node).getId());
-                if (index < 0) {
-                    throw new IllegalArgumentException("Taxon, " + tree.getNodeTaxon(node).getId() + ", not found in target tree");
+        private void collectAttributesForClade(Clade clade, Tree tree, NodeRef node, int treeIndex) {
+            int i = 0;
+            Object[] values = new Object[attributeNames.size()];
+            for (String attributeName : attributeNames) {
+                Object value;
+                if (attributeName.equals("height")) {
+                    value = tree.getNodeHeight(node);
+                } else if (attributeName.equals("length")) {
+                    value = tree.getBranchLength(node);
+                } else {
+                    value = tree.getNodeAttribute(node, attributeName);
+                    if (value instanceof String && ((String) value).startsWith("\"")) {
+                        value = ((String) value).replaceAll("\"", "");
+                    }
                 }
-                bits.set(index);
-
-            } else {
-
-                for (int i = 0; i < tree.getChildCount(node); i++) {
-
-                    NodeRef node1 = tree.getChild(node, i);
 
-                    bits.or(collectAttributes(tree, node1));
-                }
+                values[i] = value;
+                i++;
             }
 
-            collectAttributesForClade(bits, tree, node);
-
-            return bits;
+            synchronized (clade) {
+                clade.addAttributeValues(values, treeIndex);
+                clade.setCount(clade.getCount() + 1);
+            }
         }
 
-        private void collectAttributesForClade(BitSet bits, Tree tree, NodeRef node) {
-            Clade clade = cladeMap.get(bits);
-            if (clade != null) {
-
-                if (clade.attributeValues == null) {
-                    clade.attributeValues = new ArrayList<Object[]>();
-                }
-
-                int i = 0;
-                Object[] values = new Object[attributeNames.size()];
-                for (String attributeName : attributeNames) {
-                    boolean processed = false;
-
-                    if (!processed) {
-                        Object value;
-                        if (attributeName.equals("height")) {
-                            value = tree.getNodeHeight(node);
-                        } else if (attributeName.equals("length")) {
-                            value = tree.getBranchLength(node);
-// AR - we deal with this once everything                             
-//                        } else if (attributeName.equals(location1Attribute)) {
-//                            // If this is one of the two specified bivariate location names then
-//                            // merge this and the other one into a single array.
-//                            Object value1 = tree.getNodeAttribute(node, attributeName);
-//                            Object value2 = tree.getNodeAttribute(node, location2Attribute);
-//
-//                            value = new Object[]{value1, value2};
-//                        } else if (attributeName.equals(location2Attribute)) {
-//                            // do nothing - already dealt with this...
-//                            value = null;
-                        } else {
-                            value = tree.getNodeAttribute(node, attributeName);
-                            if (value instanceof String && ((String) value).startsWith("\"")) {
-                                value = ((String) value).replaceAll("\"", "");
-                            }
+        /**
+         * puts the attribute values of each clade in the order of the trees they came from.
+         */
+        public void sortAttributeValues() {
+            for (Clade clade : clades) {
+                if (clade.attributeSamples != null) {
+                    for (AttributeSamples samples : clade.attributeSamples) {
+                        if (samples != null) {
+                            samples.sortByTree();
                         }
-
-                        //if (value == null) {
-                        //    progressStream.println("attribute " + attributeNames[i] + " is null.");
-                        //}
-
-                        values[i] = value;
                     }
-                    i++;
                 }
-                clade.attributeValues.add(values);
-
-                //progressStream.println(clade + " " + clade.getValuesSize());
-                clade.setCount(clade.getCount() + 1);
             }
         }
 
-        public Map<BitSet, Clade> getCladeMap() {
-            return cladeMap;
-        }
-
-        public Clade getClade(BitSet bitSet) {
-            return cladeMap.get(bitSet);
-        }
-
         public void calculateCladeCredibilities(int totalTreesUsed) {
-            for (Clade clade : cladeMap.values()) {
-
-                if (clade.getCount() > totalTreesUsed) {
-
-                    throw new AssertionError("clade.getCount=(" + clade.getCount() +
-                            ") should be <= totalTreesUsed = (" + totalTreesUsed + ")");
-                }
+            treesUsed = totalTreesUsed;
 
-                clade.setCredibility(((double) clade.getCount()) / (double) totalTreesUsed);
-            }
-        }
-
-//        public double getSumCladeCredibility(Tree tree, NodeRef node, BitSet bits) {
-//
-//            double sum = 0.0;
-//
-//            if (tree.isExternal(node)) {
-//
-//                int index = taxonList.getTaxonIndex(tree.getNodeTaxon(node).getId());
-//                bits.set(index);
-//            } else {
-//
-//                BitSet bits2 = new BitSet();
-//                for (int i = 0; i < tree.getChildCount(node); i++) {
-//
-//                    NodeRef node1 = tree.getChild(node, i);
-//
-//                    sum += getSumCladeCredibility(tree, node1, bits2);
-//                }
-//
-//                sum += getCladeCredibility(bits2);
-//
-//                if (bits != null) {
-//                    bits.or(bits2);
-//                }
-//            }
-//
-//            return sum;
-//        }
-
-        public double getLogCladeCredibility(Tree tree, NodeRef node, BitSet bits) {
+            if (clades != null) {
+                for (Clade clade : clades) {
 
-            double logCladeCredibility = 0.0;
+                    if (clade.getCount() > totalTreesUsed) {
 
-            if (tree.isExternal(node)) {
-
-                int index = taxonList.getTaxonIndex(tree.getNodeTaxon(node).getId());
-                bits.set(index);
-            } else {
-
-                BitSet bits2 = new BitSet();
-                for (int i = 0; i < tree.getChildCount(node); i++) {
-
-                    NodeRef node1 = tree.getChild(node, i);
-
-                    logCladeCredibility += getLogCladeCredibility(tree, node1, bits2);
-                }
-
-                logCladeCredibility += Math.log(getCladeCredibility(bits2));
+                        throw new AssertionError("clade.getCount=(" + clade.getCount() +
+                                ") should be <= totalTreesUsed = (" + totalTreesUsed + ")");
+                    }
 
-                if (bits != null) {
-                    bits.or(bits2);
+                    clade.setCredibility(((double) clade.getCount()) / (double) totalTreesUsed);
                 }
             }
-
-            return logCladeCredibility;
         }
 
-        private double getCladeCredibility(BitSet bits) {
-            Clade clade = cladeMap.get(bits);
-            if (clade == null) {
-                return 0.0;
-            }
-            return clade.getCredibility();
+        public void annotateTree(MutableTree tree, HeightsSummary heightsOption) {
+            annotateTree(tree, tree.getRoot(), heightsOption);
         }
 
-        public void annotateTree(MutableTree tree, NodeRef node, BitSet bits, HeightsSummary heightsOption) {
-
-            BitSet bits2 = new BitSet();
-
-            if (tree.isExternal(node)) {
-
-                int index = taxonList.getTaxonIndex(tree.getNodeTaxon(node).getId());
-                bits2.set(index);
-
-                annotateNode(tree, node, bits2, true, heightsOption);
-            } else {
-
-                for (int i = 0; i < tree.getChildCount(node); i++) {
-
-                    NodeRef node1 = tree.getChild(node, i);
-
-                    annotateTree(tree, node1, bits2, heightsOption);
-                }
-
-                annotateNode(tree, node, bits2, false, heightsOption);
+        private void annotateTree(MutableTree tree, NodeRef node, HeightsSummary heightsOption) {
+            for (int i = 0; i < tree.getChildCount(node); i++) {
+                annotateTree(tree, tree.getChild(node, i), heightsOption);
             }
 
-            if (bits != null) {
-                bits.or(bits2);
-            }
+            final Clade clade = clades[targetClades[node.getNumber()]];
+            annotateNode(tree, node, clade, tree.isExternal(node), heightsOption);
         }
 
-        private void annotateNode(MutableTree tree, NodeRef node, BitSet bits, boolean isTip, HeightsSummary heightsOption) {
-            Clade clade = cladeMap.get(bits);
-            assert clade != null : "Clade missing?";
-
+        private void annotateNode(MutableTree tree, NodeRef node, Clade clade, boolean isTip, HeightsSummary heightsOption) {
             boolean filter = false;
             if (!isTip) {
                 final double posterior = clade.getCredibility();
@@ -789,172 +831,138 @@ public class TreeAnnotator {
             int i = 0;
             for (String attributeName : attributeNames) {
 
-                if (clade.attributeValues != null && clade.attributeValues.size() > 0) {
-                    double[] values = new double[clade.attributeValues.size()];
+                final AttributeSamples samples = (clade.attributeSamples != null ? clade.attributeSamples[i] : null);
+                if (samples != null) {
 
-                    HashMap<Object, Integer> hashMap = new HashMap<Object, Integer>();
+                    final boolean isHeight = attributeName.equals("height");
+                    final boolean isBoolean = samples.isBoolean;
+                    final boolean isDiscrete = samples.isDiscrete;
+                    final boolean isDoubleArray = samples.isDoubleArray;
+                    final int lenArray = samples.arrayLength;
 
-                    Object[] v = clade.attributeValues.get(0);
-                    if (v[i] != null) {
+                    // the median and HPD come from the values kept but the mean and range are exact
+                    final boolean isSubsampled = samples.isSubsampled();
 
-                        final boolean isHeight = attributeName.equals("height");
-                        boolean isBoolean = v[i] instanceof Boolean;
+                    double[] values;
+                    HashMap<Object, Integer> hashMap = samples.frequencies;
 
-                        boolean isDiscrete = v[i] instanceof String;
+                    double minValue = Double.MAX_VALUE;
+                    double maxValue = -Double.MAX_VALUE;
 
-                        if (forceIntegerToDiscrete && v[i] instanceof Integer) isDiscrete = true;
+                    double[][] valuesArray = null;
+                    double[] minValueArray = null;
+                    double[] maxValueArray = null;
 
-                        double minValue = Double.MAX_VALUE;
-                        double maxValue = -Double.MAX_VALUE;
-
-                        final boolean isArray = v[i] instanceof Object[];
-                        boolean isDoubleArray = isArray && ((Object[]) v[i])[0] instanceof Double;
-                        // This is Java, friends - first value type does not imply all.
-                        if (isDoubleArray) {
-                            for (Object n : (Object[]) v[i]) {
-                                if (!(n instanceof Double)) {
-                                    isDoubleArray = false;
-                                    break;
-                                }
-                            }
-                        }
-                        // todo Handle other types of arrays
+                    if (isDiscrete) {
+                        values = new double[samples.getCount()];
+                    } else if (isDoubleArray) {
+                        values = new double[samples.reservoir.getSampleCount()];
 
-                        double[][] valuesArray = null;
-                        double[] minValueArray = null;
-                        double[] maxValueArray = null;
-                        int lenArray = 0;
+                        valuesArray = new double[lenArray][];
+                        minValueArray = new double[lenArray];
+                        maxValueArray = new double[lenArray];
 
-                        if (isDoubleArray) {
-                            lenArray = ((Object[]) v[i]).length;
+                        for (int k = 0; k < lenArray; k++) {
+                            valuesArray[k] = samples.reservoir.getValues(k);
+                            minValueArray[k] = samples.reservoir.getMin(k);
+                            maxValueArray[k] = samples.reservoir.getMax(k);
+                        }
+                    } else {
+                        values = samples.reservoir.getValues(0);
+                        if (!isBoolean) {
+                            minValue = samples.reservoir.getMin(0);
+                            maxValue = samples.reservoir.getMax(0);
+                        }
+                    }
 
-                            valuesArray = new double[lenArray][clade.attributeValues.size()];
-                            minValueArray = new double[lenArray];
-                            maxValueArray = new double[lenArray];
+                    if (isHeight) {
+                        if (heightsOption == HeightsSummary.MEAN_HEIGHTS) {
+                            final double mean = getMean(samples, 0, values);
+                            tree.setNodeHeight(node, mean);
+                        } else if (heightsOption == HeightsSummary.MEDIAN_HEIGHTS) {
+                            final double median = DiscreteStatistics.median(values);
+                            tree.setNodeHeight(node, median);
+                        } else {
+                            // keep the existing height
+                        }
+                    }
 
-                            for (int k = 0; k < lenArray; k++) {
-                                minValueArray[k] = Double.MAX_VALUE;
-                                maxValueArray[k] = -Double.MAX_VALUE;
+                    if (!filter) {
+                        boolean processed = false;
+                        for (TreeAnnotationPlugin plugin : plugins) {
+                            if (plugin.handleAttribute(tree, node, attributeName, values)) {
+                                processed = true;
                             }
                         }
 
-                        for (int j = 0; j < clade.attributeValues.size(); j++) {
-                            Object value = clade.attributeValues.get(j)[i];
-                            if (isDiscrete) {
-                                final Object s = value;
-                                if (hashMap.containsKey(s)) {
-                                    hashMap.put(s, hashMap.get(s) + 1);
-                                } else {
-                                    hashMap.put(s, 1);
-                                }
-                            } else if (isBoolean) {
-                                values[j] = (((Boolean) value) ? 1.0 : 0.0);
-                            } else if (isDoubleArray) {
-                                // Forcing to Double[] causes a cast exception. MAS
-                                Object[] array = (Object[]) value;
-                                for (int k = 0; k < lenArray; k++) {
-                                    valuesArray[k][j] = ((Double) array[k]);
-                                    if (valuesArray[k][j] < minValueArray[k]) minValueArray[k] = valuesArray[k][j];
-                                    if (valuesArray[k][j] > maxValueArray[k]) maxValueArray[k] = valuesArray[k][j];
-                                }
-                            } else {
-                                // Ignore other (unknown) types
-                                if (value instanceof Number) {
-                                    values[j] = ((Number) value).doubleValue();
-                                    if (values[j] < minValue) minValue = values[j];
-                                    if (values[j] > maxValue) maxValue = values[j];
+                        if (!processed) {
+                            if (!isDiscrete) {
+                                if (!isDoubleArray)
+                                    tree.setNodeAttribute(node, attributeName, getMean(samples, 0, values));
+                                else {
+                                    for (int k = 0; k < lenArray; k++) {
+                                        tree.setNodeAttribute(node, attributeName + (k + 1), getMean(samples, k, valuesArray[k]));
+                                    }
                                 }
-                            }
-                        }
-                        if (isHeight) {
-                            if (heightsOption == HeightsSummary.MEAN_HEIGHTS) {
-                                final double mean = DiscreteStatistics.mean(values);
-                                tree.setNodeHeight(node, mean);
-                            } else if (heightsOption == HeightsSummary.MEDIAN_HEIGHTS) {
-                                final double median = DiscreteStatistics.median(values);
-                                tree.setNodeHeight(node, median);
                             } else {
-                                // keep the existing height
+                                annotateModeAttribute(tree, node, attributeName, hashMap);
+                                annotateFrequencyAttribute(tree, node, attributeName, hashMap);
                             }
-                        }
-
-                        if (!filter) {
-                            boolean processed = false;
-                            for (TreeAnnotationPlugin plugin : plugins) {
-                                if (plugin.handleAttribute(tree, node, attributeName, values)) {
-                                    processed = true;
+                            if (!isBoolean && minValue < maxValue && !isDiscrete && !isDoubleArray) {
+                                // Basically, if it is a boolean (0, 1) then we don't need the distribution information
+                                // Likewise if it doesn't vary.
+                                annotateMedianAttribute(tree, node, attributeName + "_median", values);
+                                annotateHPDAttribute(tree, node, attributeName + "_95%_HPD", 0.95, values);
+                                annotateRangeAttribute(tree, node, attributeName + "_range", minValue, maxValue);
+                                annotateSignAttribute(tree, node, attributeName + "_signDistribution", values);
+                                if (computeESS == true && !isSubsampled) {
+                                    annotateESSAttribute(tree, node, attributeName + "_ESS", values);
                                 }
                             }
 
-                            if (!processed) {
-                                if (!isDiscrete) {
-                                    if (!isDoubleArray)
-                                        annotateMeanAttribute(tree, node, attributeName, values);
-                                    else {
-                                        for (int k = 0; k < lenArray; k++) {
-                                            annotateMeanAttribute(tree, node, attributeName + (k + 1), valuesArray[k]);
-                                        }
-                                    }
-                                } else {
-                                    annotateModeAttribute(tree, node, attributeName, hashMap);
-                                    annotateFrequencyAttribute(tree, node, attributeName, hashMap);
-                                }
-                                if (!isBoolean && minValue < maxValue && !isDiscrete && !isDoubleArray) {
-                                    // Basically, if it is a boolean (0, 1) then we don't need the distribution information
-                                    // Likewise if it doesn't vary.
-                                    annotateMedianAttribute(tree, node, attributeName + "_median", values);
-                                    annotateHPDAttribute(tree, node, attributeName + "_95%_HPD", 0.95, values);
-                                    annotateRangeAttribute(tree, node, attributeName + "_range", values);
-                                    annotateSignAttribute(tree, node, attributeName + "_signDistribution", values);
-                                    if (computeESS == true) {
-                                        annotateESSAttribute(tree, node, attributeName + "_ESS", values);
-                                    }
-                                }
-
-                                if (isDoubleArray) {
-                                    String name = attributeName;
-                                    // todo
+                            if (isDoubleArray) {
+                                String name = attributeName;
+                                // todo
 //                                    if (name.equals(location1Attribute)) {
 //                                        name = locationOutputAttribute;
 //                                    }
-                                    boolean want2d = processBivariateAttributes && lenArray == 2;
-                                    if (name.equals("dmv")) {  // terrible hack
-                                        want2d = false;
-                                    }
-                                    for (int k = 0; k < lenArray; k++) {
-                                        if (minValueArray[k] < maxValueArray[k]) {
-                                            annotateMedianAttribute(tree, node, name + (k + 1) + "_median", valuesArray[k]);
-                                            annotateRangeAttribute(tree, node, name + (k + 1) + "_range", valuesArray[k]);
-                                            annotatePositiveProbability(tree, node, name + (k + 1) + "_positiveProb", valuesArray[k]);
-                                            if (!want2d)
-                                                annotateHPDAttribute(tree, node, name + (k + 1) + "_95%_HPD", 0.95, valuesArray[k]);
-                                        }
+                                boolean want2d = processBivariateAttributes && lenArray == 2;
+                                if (name.equals("dmv")) {  // terrible hack
+                                    want2d = false;
+                                }
+                                for (int k = 0; k < lenArray; k++) {
+                                    if (minValueArray[k] < maxValueArray[k]) {
+                                        annotateMedianAttribute(tree, node, name + (k + 1) + "_median", valuesArray[k]);
+                                        annotateRangeAttribute(tree, node, name + (k + 1) + "_range", minValueArray[k], maxValueArray[k]);
+                                        annotatePositiveProbability(tree, node, name + (k + 1) + "_positiveProb", valuesArray[k]);
+                                        if (!want2d)
+                                            annotateHPDAttribute(tree, node, name + (k + 1) + "_95%_HPD", 0.95, valuesArray[k]);
                                     }
-                                    // 2D contours
-                                    if (want2d) {
-
-                                        boolean variationInFirst = (minValueArray[0] < maxValueArray[0]);
-                                        boolean variationInSecond = (minValueArray[1] < maxValueArray[1]);
+                                }
+                                // 2D contours
+                                if (want2d) {
 
-                                        if (variationInFirst && !variationInSecond)
-                                            annotateHPDAttribute(tree, node, name + "1" + "_95%_HPD", 0.95, valuesArray[0]);
+                                    boolean variationInFirst = (minValueArray[0] < maxValueArray[0]);
+                                    boolean variationInSecond = (minValueArray[1] < maxValueArray[1]);
 
-                                        if (variationInSecond && !variationInFirst)
-                                            annotateHPDAttribute(tree, node, name + "2" + "_95%_HPD", 0.95, valuesArray[1]);
+                                    if (variationInFirst && !variationInSecond)
+                                        annotateHPDAttribute(tree, node, name + "1" + "_95%_HPD", 0.95, valuesArray[0]);
 
-                                        if (variationInFirst && variationInSecond){
+                                    if (variationInSecond && !variationInFirst)
+                                        annotateHPDAttribute(tree, node, name + "2" + "_95%_HPD", 0.95, valuesArray[1]);
 
-                                            for (int l = 0; l < hpd2D.length; l++) {
+                                    if (variationInFirst && variationInSecond){
 
-                                                if (hpd2D[l] > 1) {
-                                                    System.err.println("no HPD for proportion > 1 (" + hpd2D[l] + ")");
-                                                } else if (hpd2D[l] < 0){
-                                                    System.err.println("no HPD for proportion < 0 (" + hpd2D[l] + ")");
-                                                }  else {
-                                                    annotate2DHPDAttribute(tree, node, name, "_" + (int) (100 * hpd2D[l]) + "%HPD", hpd2D[l], valuesArray);
-                                                }
+                                        for (int l = 0; l < hpd2D.length; l++) {
 
+                                            if (hpd2D[l] > 1) {
+                                                System.err.println("no HPD for proportion > 1 (" + hpd2D[l] + ")");
+                                            } else if (hpd2D[l] < 0){
+                                                System.err.println("no HPD for proportion < 0 (" + hpd2D[l] + ")");
+                                            }  else {
+                                                annotate2DHPDAttribute(tree, node, name, "_" + (int) (100 * hpd2D[l]) + "%HPD", hpd2D[l], valuesArray);
                                             }
+
                                         }
                                     }
                                 }
@@ -966,9 +974,11 @@ public class TreeAnnotator {
             }
         }
 
-        private void annotateMeanAttribute(MutableTree tree, NodeRef node, String label, double[] values) {
-            double mean = DiscreteStatistics.mean(values);
-            tree.setNodeAttribute(node, label, mean);
+        private double getMean(AttributeSamples samples, int dim, double[] values) {
+            if (samples.isSubsampled()) {
+                return samples.reservoir.getMean(dim);
+            }
+            return DiscreteStatistics.mean(values);
         }
 
         private void annotateMedianAttribute(MutableTree tree, NodeRef node, String label, double[] values) {
@@ -1032,9 +1042,7 @@ public class TreeAnnotator {
             tree.setNodeAttribute(node, label, positivePortion);
         }
 
-        private void annotateRangeAttribute(MutableTree tree, NodeRef node, String label, double[] values) {
-            double min = DiscreteStatistics.min(values);
-            double max = DiscreteStatistics.max(values);
+        private void annotateRangeAttribute(MutableTree tree, NodeRef node, String label, double min, double max) {
             tree.setNodeAttribute(node, label, new Object[]{min, max});
         }
 
@@ -1222,42 +1230,6 @@ public class TreeAnnotator {
             }
         }
 
-        public BitSet removeClades(Tree tree, NodeRef node, boolean includeTips) {
-
-            BitSet bits = new BitSet();
-
-            if (tree.isExternal(node)) {
-
-                int index = taxonList.getTaxonIndex(tree.getNodeTaxon(node).getId());
-                bits.set(index);
-
-                if (includeTips) {
-                    removeClade(bits);
-                }
-
-            } else {
-
-                for (int i = 0; i < tree.getChildCount(node); i++) {
-
-                    NodeRef node1 = tree.getChild(node, i);
-
-                    bits.or(removeClades(tree, node1, includeTips));
-                }
-
-                removeClade(bits);
-            }
-
-            return bits;
-        }
-
-        private void removeClade(BitSet bits) {
-            Clade clade = cladeMap.get(bits);
-            if (clade != null) {
-                clade.setCount(clade.getCount() - 1);
-            }
-
-        }
-
         // Get tree clades as bitSets on target taxa
         // codes is an array of existing BitSet objects, which are reused
 
@@ -1269,7 +1241,7 @@ public class TreeAnnotator {
             final int inode = node.getNumber();
             codes[inode].clear();
             if (tree.isExternal(node)) {
-                int index = taxonList.getTaxonIndex(tree.getNodeTaxon(node).getId());
+                int index = cladeStore.getTaxonIndex(tree.getNodeTaxon(node).getId());
                 codes[inode].set(index);
             } else {
                 for (int i = 0; i < tree.getChildCount(node); i++) {
@@ -1282,12 +1254,14 @@ public class TreeAnnotator {
             return inode;
         }
 
+        /**
+         * A clade of the target tree and the attribute values collected for it.
+         */
         class Clade {
-            public Clade(BitSet bits) {
-                this.bits = bits;
+            public Clade(int size) {
                 count = 0;
                 credibility = 0.0;
-                size = bits.cardinality();
+                this.size = size;
             }
 
             public int getCount() {
@@ -1306,58 +1280,159 @@ public class TreeAnnotator {
                 this.credibility = credibility;
             }
 
-            public void addSubclades(BitSet subClade1, BitSet subClade2) {
-                if (this.subClades == null) {
-                    this.subClades = new HashSet<>();
+            void addAttributeValues(Object[] values, int treeIndex) {
+                if (attributeSamples == null) {
+                    attributeSamples = new AttributeSamples[values.length];
+                }
+                for (int i = 0; i < values.length; i++) {
+                    if (attributeSamples[i] == null) {
+                        if (values[i] == null) {
+                            continue;
+                        }
+                        attributeSamples[i] = new AttributeSamples(values[i]);
+                    }
+                    attributeSamples[i].add(values[i], treeIndex);
+                }
+            }
+
+            int count;
+            double credibility;
+            final int size;
+            AttributeSamples[] attributeSamples = null;
+        }
+
+        /**
+         * The values of one attribute at a clade. The kind of attribute is decided by the first
+         * value. Discrete values are counted and everything else is kept as doubles in a
+         * SampleReservoir (which only keeps maxSamples values if that is set).
+         */
+        class AttributeSamples {
+            AttributeSamples(Object value) {
+                isBoolean = value instanceof Boolean;
+                isDiscrete = value instanceof String || (forceIntegerToDiscrete && value instanceof Integer);
+
+                // This is Java, friends - first value type does not imply all.
+                boolean isArrayOfDoubles = value instanceof Object[] && ((Object[]) value).length > 0;
+                if (isArrayOfDoubles) {
+                    for (Object n : (Object[]) value) {
+                        if (!(n instanceof Double)) {
+                            isArrayOfDoubles = false;
+                            break;
+                        }
+                    }
                 }
-                // Store the subclade with lowest first set bit index as the first of the pair to make
-                // sure the order is the same if the pair is the same.
-                if (subClade1.nextSetBit(0) < subClade2.nextSetBit(0)) {
-                    this.subClades.add(new Pair<>(subClade1, subClade2));
+                // todo Handle other types of arrays
+                isDoubleArray = isArrayOfDoubles;
+                arrayLength = (isDoubleArray ? ((Object[]) value).length : 0);
+
+                if (isDiscrete) {
+                    frequencies = new HashMap<Object, Integer>();
+                    reservoir = null;
                 } else {
-                    this.subClades.add(new Pair<>(subClade2, subClade1));
+                    frequencies = null;
+                    reservoir = new SampleReservoir(isDoubleArray ? arrayLength : 1, maxSamples);
+                    if (threadCount > 1 && maxSamples == 0) {
+                        treeIndices = new int[16];
+                    }
                 }
             }
 
-            public boolean equals(Object o) {
-                if (this == o) return true;
-                if (o == null || getClass() != o.getClass()) return false;
+            void add(Object value, int treeIndex) {
+                if (isDiscrete) {
+                    if (frequencies.containsKey(value)) {
+                        frequencies.put(value, frequencies.get(value) + 1);
+                    } else {
+                        frequencies.put(value, 1);
+                    }
+                    discreteCount++;
+                    return;
+                }
 
-                final Clade clade = (Clade) o;
+                if (isDoubleArray) {
+                    // Forcing to Double[] causes a cast exception. MAS
+                    Object[] array = (Object[]) value;
+                    double[] sample = new double[arrayLength];
+                    for (int k = 0; k < arrayLength; k++) {
+                        sample[k] = ((Double) array[k]);
+                    }
+                    reservoir.add(sample);
+                } else if (isBoolean) {
+                    reservoir.add(value != null && (Boolean) value ? 1.0 : 0.0);
+                } else {
+                    // Ignore other (unknown) types
+                    reservoir.add(value instanceof Number ? ((Number) value).doubleValue() : 0.0);
+                }
 
-                return !(bits != null ? !bits.equals(clade.bits) : clade.bits != null);
+                if (treeIndices != null) {
+                    final int n = (int) reservoir.getCount() - 1;
+                    if (n == treeIndices.length) {
+                        treeIndices = Arrays.copyOf(treeIndices, n * 2);
+                    }
+                    treeIndices[n] = treeIndex;
+                }
+            }
 
+            int getCount() {
+                return (isDiscrete ? discreteCount : (int) reservoir.getCount());
             }
 
-            public int hashCode() {
-                return (bits != null ? bits.hashCode() : 0);
+            boolean isSubsampled() {
+                return !isDiscrete && reservoir.isSubsampled();
             }
 
-            public String toString() {
-                return "clade " + bits.toString();
+            /**
+             * puts the values in the order of the trees they came from.
+             */
+            void sortByTree() {
+                if (treeIndices == null) {
+                    return;
+                }
+                final int[] indices = treeIndices;
+                Integer[] order = new Integer[reservoir.getSampleCount()];
+                for (int i = 0; i < order.length; i++) {
+                    order[i] = i;
+                }
+                Arrays.sort(order, Comparator.comparingInt(i -> indices[i]));
+
+                int[] sorted = new int[order.length];
+                for (int i = 0; i < order.length; i++) {
+                    sorted[i] = order[i];
+                }
+                reservoir.reorder(sorted);
+                treeIndices = null;
             }
 
-            int count;
-            double credibility;
-            final int size;
-            final BitSet bits;
-            Taxon taxon = null;
-            List<Object[]> attributeValues = null;
-            Set<Pair<BitSet, BitSet>> subClades = null;
-            Clade bestLeft = null;
-            Clade bestRight = null;
-            double bestSubTreeCredibility;
+            final boolean isBoolean;
+            final boolean isDiscrete;
+            final boolean isDoubleArray;
+            final int arrayLength;
+
+            final SampleReservoir reservoir;
+            final HashMap<Object, Integer> frequencies;
+            int discreteCount = 0;
+
+            int[] treeIndices = null;
         }
 
         //
         // Private stuff
         //
-        TaxonList taxonList = null;
-        Map<BitSet, Clade> cladeMap = new HashMap<>();
+        final CladeStore cladeStore;
 
-        Clade rootClade;
+        // the clade of each node of the target tree and the clades with the attributes
+        int[] targetClades = null;
+        Clade[] clades = null;
+
+        int rootClade;
+        int treesUsed = 0;
 
         Tree targetTree;
+
+        // the clades of each tree indexed by the order the trees were added
+        final Map<Integer, int[]> treeCladeIndices = new ConcurrentHashMap<>();
+        final AtomicLong cachedCladeCount = new AtomicLong();
+        final long maxCachedCladeCount = (long) (Runtime.getRuntime().maxMemory() * CLADE_CACHE_FRACTION) / 4;
+        volatile boolean cacheOverflow = false;
     }
 
     int totalTrees = 0;
@@ -1561,7 +1636,9 @@ public class TreeAnnotator {
                         new Arguments.Option("help", "option to print this message"),
                         new Arguments.Option("forceDiscrete", "forces integer traits to be treated as discrete traits."),
                         new Arguments.StringOption("hpd2D", "the HPD interval to be used for the bivariate traits", "specifies a (vector of comma separated) HPD proportion(s)"),
-                        new Arguments.Option("ess", "compute ess for branch parameters")
+                        new Arguments.Option("ess", "compute ess for branch parameters"),
+                        new Arguments.IntegerOption("threads", "the number of threads used to process the trees (default is the number of processors)"),
+                        new Arguments.IntegerOption("maxSamples", "keep at most this many values of each attribute for each clade, estimating medians and HPDs from a random subset")
                 });
 
         try {
@@ -1639,6 +1716,16 @@ public class TreeAnnotator {
             targetTreeFileName = arguments.getStringOption("target");
         }
 
+        int threadCount = DEFAULT_THREAD_COUNT;
+        if (arguments.hasOption("threads")) {
+            threadCount = arguments.getIntegerOption("threads");
+        }
+
+        int maxSamples = 0;
+        if (arguments.hasOption("maxSamples")) {
+            maxSamples = arguments.getIntegerOption("maxSamples");
+        }
+
         final String[] args2 = arguments.getLeftoverArguments();
 
         switch (args2.length) {
@@ -1656,7 +1743,7 @@ public class TreeAnnotator {
             }
         }
 
-        new TreeAnnotator(burninTrees, burninStates, heights, posteriorLimit, hpd2D, computeESS, target, targetTreeFileName, inputFileName, outputFileName);
+        new TreeAnnotator(burninTrees, burninStates, heights, posteriorLimit, hpd2D, computeESS, target, targetTreeFileName, inputFileName, outputFileName, threadCount, maxSamples);
 
         System.exit(0);
     }
@@ -1680,6 +1767,75 @@ public class TreeAnnotator {
         return y.equals(x);
     }
 
+    /**
+     * Runs the per-tree work handed over by the thread reading the tree file. The number of
+     * trees waiting is bounded so the trees don't pile up in memory if the workers fall
+     * behind. With a single thread the work is done in place, in file order.
+     */
+    private static class TreeWorkers {
+        TreeWorkers(int threadCount) {
+            if (threadCount > 1) {
+                executor = ThreadHelpers.newFixedThreadPool(threadCount, "TreeAnnotator worker");
+                permits = new Semaphore(threadCount * TREES_PER_THREAD);
+            } else {
+                executor = null;
+                permits = null;
+            }
+        }
+
+        void execute(Runnable task) {
+            if (executor == null) {
+                task.run();
+                return;
+            }
+
+            checkFailure();
+            permits.acquireUninterruptibly();
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                } finally {
+                    permits.release();
+                }
+            });
+        }
+
+        /**
+         * waits for all the work to complete and rethrows the first failure of any worker.
+         */
+        void finish() {
+            if (executor != null) {
+                executor.shutdown();
+                try {
+                    while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                        // keep waiting
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted waiting for tree workers");
+                }
+            }
+            checkFailure();
+        }
+
+        private void checkFailure() {
+            Throwable t = failure.get();
+            if (t instanceof RuntimeException) {
+                throw (RuntimeException) t;
+            } else if (t instanceof Error) {
+                throw (Error) t;
+            } else if (t != null) {
+                throw new RuntimeException(t);
+            }
+        }
+
+        private final ExecutorService executor;
+        private final Semaphore permits;
+        private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    }
+
     boolean setTreeHeightsByCA(MutableTree targetTree, final String inputFileName, final int burnin)
             throws IOException, Importer.ImportException {
         progressStream.println("Setting node heights...");
@@ -1689,52 +1845,58 @@ public class TreeAnnotator {
         int reportStepSize = totalTrees / 60;
         if (reportStepSize < 1) reportStepSize = 1;
 
-        final FileReader fileReader = new FileReader(inputFileName);
-        final NexusImporter importer = new NexusImporter(fileReader, true);
+        final MappedNexusImporter importer = new MappedNexusImporter(new File(inputFileName), true, threadCount);
 
-        // this call increments the clade counts and it shouldn't
-        // this is remedied with removeClades call after while loop below
         CladeSystem cladeSystem = new CladeSystem(targetTree);
-        final int nClades = cladeSystem.getCladeMap().size();
+        final int nClades = cladeSystem.getCladeCount();
 
-        // allocate posterior tree nodes order once
-        int[] postOrderList = new int[nClades];
-        BitSet[] ctarget = new BitSet[nClades];
-        BitSet[] ctree = new BitSet[nClades];
+        final BitSet[] ctarget = new BitSet[nClades];
 
         for (int k = 0; k < nClades; ++k) {
             ctarget[k] = new BitSet();
-            ctree[k] = new BitSet();
         }
 
         cladeSystem.getTreeCladeCodes(targetTree, ctarget);
 
-        // temp collecting heights inside loop allocated once
-        double[] hs = new double[nClades];
+        // the heights from each posterior tree, in file order
+        final List<double[]> treeHeights = new ArrayList<double[]>();
 
-        // heights total sum from posterior trees
-        double[] ths = new double[nClades];
+        // the posterior tree node order and clade codes used inside the loop, allocated once for
+        // each worker thread
+        final ThreadLocal<int[]> postOrderLists = ThreadLocal.withInitial(() -> new int[nClades]);
+        final ThreadLocal<BitSet[]> ctrees = ThreadLocal.withInitial(() -> {
+            BitSet[] ctree = new BitSet[nClades];
+            for (int k = 0; k < nClades; ++k) {
+                ctree[k] = new BitSet();
+            }
+            return ctree;
+        });
 
         totalTreesUsed = 0;
 
+        TreeWorkers workers = new TreeWorkers(threadCount);
         int counter = 0;
         while (importer.hasTree()) {
             final Tree tree = importer.importNextTree();
 
             if (counter >= burnin) {
-                TreeUtils.preOrderTraversalList(tree, postOrderList);
-                cladeSystem.getTreeCladeCodes(tree, ctree);
-                for (int k = 0; k < nClades; ++k) {
-                    int j = postOrderList[k];
-                    for (int i = 0; i < nClades; ++i) {
-                        if( isSubSet(ctarget[i], ctree[j]) ) {
-                            hs[i] = tree.getNodeHeight(tree.getNode(j));
+                final double[] hs = new double[nClades];
+                treeHeights.add(hs);
+                workers.execute(() -> {
+                    final int[] postOrderList = postOrderLists.get();
+                    final BitSet[] ctree = ctrees.get();
+
+                    TreeUtils.preOrderTraversalList(tree, postOrderList);
+                    cladeSystem.getTreeCladeCodes(tree, ctree);
+                    for (int k = 0; k < nClades; ++k) {
+                        int j = postOrderList[k];
+                        for (int i = 0; i < nClades; ++i) {
+                            if( isSubSet(ctarget[i], ctree[j]) ) {
+                                hs[i] = tree.getNodeHeight(tree.getNode(j));
+                            }
                         }
                     }
-                }
-                for (int k = 0; k < nClades; ++k) {
-                    ths[k] += hs[k];
-                }
+                });
                 totalTreesUsed += 1;
             }
             if (counter > 0 && counter % reportStepSize == 0) {
@@ -1744,13 +1906,21 @@ public class TreeAnnotator {
             counter++;
 
         }
-        cladeSystem.removeClades(targetTree, targetTree.getRoot(), true);
+        workers.finish();
+
+        // sum the heights in file order so the result does not depend on the worker scheduling
+        final double[] ths = new double[nClades];
+        for (double[] hs : treeHeights) {
+            for (int k = 0; k < nClades; ++k) {
+                ths[k] += hs[k];
+            }
+        }
         for (int k = 0; k < nClades; ++k) {
             ths[k] /= totalTreesUsed;
             final NodeRef node = targetTree.getNode(k);
             targetTree.setNodeHeight(node, ths[k]);
         }
-        fileReader.close();
+        importer.close();
 
         progressStream.println();
         progressStream.println();
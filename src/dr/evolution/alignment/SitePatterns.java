@@ -33,8 +33,10 @@ import dr.evolution.util.Taxon;
 import dr.evolution.util.TaxonList;
 import dr.inference.model.Parameter;
 import dr.inference.model.Variable;
+import dr.util.ThreadHelpers;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Stores a set of site patterns. This differs from the simple Patterns
@@ -97,6 +99,22 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
 
     private boolean uncertainSites = false;
 
+    /**
+     * the system property giving the number of threads used to read the sites of large alignments
+     * (by default they are read on the calling thread)
+     */
+    public static final String THREAD_COUNT_PROPERTY = "site.patterns.threads";
+
+    /**
+     * the number of sites read by each thread at a time
+     */
+    private static final int CHUNK_SIZE = 4096;
+
+    /**
+     * unique pattern -> index in patterns, only kept while the patterns are being set up
+     */
+    private Map<PatternKey, Integer> patternIndexMap = null;
+
     /**
      * Constructor
      */
@@ -268,6 +286,8 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
             uncertainPatterns = new double[siteCount][][];
         }
 
+        patternIndexMap = (unique ? new HashMap<PatternKey, Integer>() : null);
+
         if (constantSiteCounts != null) {
             if (constantSiteCounts.length != siteList.getStateCount()) {
                 throw new IllegalArgumentException("Constant site count array length doesn't equal the number of states");
@@ -277,32 +297,18 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
                 for (int j = 0; j < siteList.getPatternLength(); j++) {
                     pattern[j] = i;
                 }
-                addPattern(pattern, constantSiteCounts[i], null);
+                addPattern(pattern, Arrays.hashCode(pattern), constantSiteCounts[i], null);
             }
         }
 
+        int[] siteIndices = new int[siteCount];
         int site = 0;
-
         for (int i = from; i <= to; i += every) {
-            int[] pattern = siteList.getSitePattern(i);
-            double[][] probs = null;
-
-            if (uncertainSites) {
-                probs = siteList.getUncertainSitePattern(i);
-            }
-
-            if (!strip || !isInvariant(pattern) ||
-                    (!isGapped(pattern) &&
-                            !isAmbiguous(pattern) &&
-                            !isUnknown(pattern))) {
-
-                sitePatternIndices[site] = addPattern(pattern, probs);
-
-            }  else {
-                sitePatternIndices[site] = -1;
-            }
+            siteIndices[site] = i;
             site++;
         }
+
+        addSitePatterns(siteIndices);
     }
 
     /**
@@ -335,58 +341,168 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
         }
 
         invariantCount = 0;
-        int[] pattern;
 
-        int site = 0;
+        patternIndexMap = (unique ? new HashMap<PatternKey, Integer>() : null);
 
+        int maskedCount = 0;
         for (int i = from; i <= to; i += every) {
-            pattern = siteList.getSitePattern(i);
+            if (mask[i]) {
+                maskedCount++;
+            }
+        }
 
+        int[] siteIndices = new int[maskedCount];
+        int site = 0;
+        for (int i = from; i <= to; i += every) {
             if (mask[i]) {
-                if (!strip || !isInvariant(pattern) ||
-                        (!isGapped(pattern) &&
-                                !isAmbiguous(pattern) &&
-                                !isUnknown(pattern))
-                        ) {
-
-                    double[][] probs = null;
-                    if (uncertainSites) {
-                        probs = siteList.getUncertainSitePattern(i);
+                siteIndices[site] = i;
+                site++;
+            }
+        }
+
+        addSitePatterns(siteIndices);
+    }
+
+    /**
+     * Adds the patterns of the given sites of the site list in order, setting the pattern index
+     * of each. The sites of large alignments are read and hashed in chunks by several threads
+     * but the patterns are still added one site at a time so the patterns, their order and their
+     * weights are the same however many threads are used.
+     */
+    private void addSitePatterns(int[] siteIndices) {
+        final int chunkCount = (siteIndices.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        final int threadCount = Math.min(ThreadHelpers.getThreadCount(THREAD_COUNT_PROPERTY, 1), chunkCount);
+
+        try {
+            if (threadCount <= 1) {
+                for (int i = 0; i < chunkCount; i++) {
+                    addChunk(readChunk(siteIndices, i * CHUNK_SIZE));
+                }
+                return;
+            }
+
+            ExecutorService executor = ThreadHelpers.newFixedThreadPool(threadCount, "site-patterns");
+
+            try {
+                // only a few chunks are read ahead so the patterns of the whole alignment are
+                // never held at once
+                ArrayDeque<Future<SiteChunk>> pending = new ArrayDeque<Future<SiteChunk>>();
+                int nextChunk = 0;
+                while (nextChunk < chunkCount || !pending.isEmpty()) {
+                    while (nextChunk < chunkCount && pending.size() < 2 * threadCount) {
+                        final int start = nextChunk * CHUNK_SIZE;
+                        pending.add(executor.submit(new Callable<SiteChunk>() {
+                            public SiteChunk call() {
+                                return readChunk(siteIndices, start);
+                            }
+                        }));
+                        nextChunk++;
                     }
-                    sitePatternIndices[site] = addPattern(pattern, probs);
+                    addChunk(ThreadHelpers.getResult(pending.remove(), "reading site patterns"));
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        } finally {
+            patternIndexMap = null;
+        }
+    }
+
+    /**
+     * Reads the patterns of a chunk of sites, leaving out those that are to be stripped.
+     */
+    private SiteChunk readChunk(int[] siteIndices, int start) {
+        SiteChunk chunk = new SiteChunk(start, Math.min(CHUNK_SIZE, siteIndices.length - start));
+
+        for (int k = 0; k < chunk.patterns.length; k++) {
+            final int i = siteIndices[start + k];
+            int[] pattern = siteList.getSitePattern(i);
 
-                }  else {
-                    sitePatternIndices[site] = -1;
+            if (!strip || !isInvariant(pattern) ||
+                    (!isGapped(pattern) &&
+                            !isAmbiguous(pattern) &&
+                            !isUnknown(pattern))) {
+
+                chunk.patterns[k] = pattern;
+                chunk.hashes[k] = Arrays.hashCode(pattern);
+                if (uncertainSites) {
+                    chunk.probs[k] = siteList.getUncertainSitePattern(i);
                 }
-                site++;
+            }
+        }
+
+        return chunk;
+    }
+
+    private void addChunk(SiteChunk chunk) {
+        for (int k = 0; k < chunk.patterns.length; k++) {
+            if (chunk.patterns[k] != null) {
+                sitePatternIndices[chunk.start + k] = addPattern(chunk.patterns[k], chunk.hashes[k], 1,
+                        uncertainSites ? chunk.probs[k] : null);
+            } else {
+                sitePatternIndices[chunk.start + k] = -1;
             }
         }
     }
 
+    /**
+     * The patterns read from a chunk of sites.
+     */
+    private static class SiteChunk {
+
+        SiteChunk(int start, int length) {
+            this.start = start;
+            patterns = new int[length][];
+            hashes = new int[length];
+            probs = new double[length][][];
+        }
+
+        final int start;
+        final int[][] patterns;
+        final int[] hashes;
+        final double[][][] probs;
+    }
 
     /**
-     * adds a pattern to the pattern list
-     *
-     * @return the index of the pattern in the pattern list
+     * A pattern with its hash code, so it can be looked up without comparing it to every
+     * pattern found so far.
      */
-    private int addPattern(int[] pattern, double[][] uncertainty) {
-        return addPattern(pattern, 1, uncertainty);
+    private static class PatternKey {
+
+        PatternKey(int[] pattern, int hash) {
+            this.pattern = pattern;
+            this.hash = hash;
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object obj) {
+            return obj instanceof PatternKey && Arrays.equals(pattern, ((PatternKey) obj).pattern);
+        }
+
+        private final int[] pattern;
+        private final int hash;
     }
 
+
     /**
      * adds a pattern to the pattern list with the given weight
      *
+     * @param hash the hash code of the pattern from Arrays.hashCode
      * @return the index of the pattern in the pattern list
      */
-    private int addPattern(int[] pattern, int weight, double[][] uncertainty) {
-
-        for (int i = 0; i < patternCount; i++) {
-
-            if (unique && comparePatterns(patterns[i], pattern)) {
+    private int addPattern(int[] pattern, int hash, int weight, double[][] uncertainty) {
 
-                weights[i] += weight;
-                return i;
+        if (unique) {
+            PatternKey key = new PatternKey(pattern, hash);
+            Integer existing = patternIndexMap.get(key);
+            if (existing != null) {
+                weights[existing] += weight;
+                return existing;
             }
+            patternIndexMap.put(key, patternCount);
         }
 
         if (isInvariant(pattern)) {
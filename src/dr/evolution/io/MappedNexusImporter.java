@@ -0,0 +1,892 @@
+/*
+ * MappedNexusImporter.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+
+package dr.evolution.io;
+
+import dr.evolution.tree.FlexibleNode;
+import dr.evolution.tree.FlexibleTree;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.Taxon;
+import dr.evolution.util.TaxonList;
+import dr.util.ThreadHelpers;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A tree importer for large NEXUS tree files. The file is memory mapped and the 'TREE'
+ * commands of the TREES block are found by scanning the bytes. Each tree is then parsed from
+ * its bytes, on a pool of threads when more than one is requested, while the trees are
+ * returned in file order.
+ *
+ * Everything before the first tree (the TAXA block and the TRANSLATE command) is read by
+ * NexusImporter, and the trees are parsed with the same tokenizing rules, so the trees,
+ * their translated taxa and the [&...] annotations are the same as NexusImporter gives.
+ * Only the first TREES block in the file is read.
+ */
+public class MappedNexusImporter implements TreeImporter, Closeable {
+
+    // the size of the part of the file mapped at one time
+    private static final int WINDOW_SIZE = 1 << 26;
+
+    // the number of trees read ahead for each thread
+    private static final int TREES_PER_THREAD = 4;
+
+    public MappedNexusImporter(File file, boolean ignoreMetaComments) throws IOException {
+        this(file, ignoreMetaComments, 1);
+    }
+
+    public MappedNexusImporter(File file, boolean ignoreMetaComments, int threadCount) throws IOException {
+        this.channel = new RandomAccessFile(file, "r").getChannel();
+        this.fileLength = channel.size();
+        this.ignoreMetaComments = ignoreMetaComments;
+        this.threadCount = Math.max(1, threadCount);
+    }
+
+    /**
+     * return whether another tree is available.
+     */
+    public boolean hasTree() throws IOException, Importer.ImportException {
+        if (!isReadingTrees) {
+            startReadingTrees(null);
+        }
+
+        if (nextTree == null) {
+            nextTree = readNextTree();
+        }
+
+        return (nextTree != null);
+    }
+
+    /**
+     * import the next tree.
+     * return the tree or null if no more trees are available
+     */
+    public Tree importNextTree() throws IOException, Importer.ImportException {
+        if (!hasTree()) {
+            return null;
+        }
+
+        Tree tree = nextTree;
+        nextTree = null;
+
+        return tree;
+    }
+
+    /**
+     * import a single tree.
+     */
+    public Tree importTree(TaxonList taxonList) throws IOException, Importer.ImportException {
+        if (!isReadingTrees) {
+            startReadingTrees(taxonList);
+        }
+        return importNextTree();
+    }
+
+    /**
+     * import an array of all trees.
+     */
+    public Tree[] importTrees(TaxonList taxonList) throws IOException, Importer.ImportException {
+        if (!isReadingTrees) {
+            startReadingTrees(taxonList);
+        }
+
+        List<Tree> trees = new ArrayList<Tree>();
+        Tree tree = importNextTree();
+        while (tree != null) {
+            trees.add(tree);
+            tree = importNextTree();
+        }
+
+        if (trees.size() == 0) {
+            throw new Importer.BadFormatException("No trees defined in TREES block");
+        }
+
+        return trees.toArray(new Tree[trees.size()]);
+    }
+
+    /**
+     * Stops the parsing threads and closes the file.
+     */
+    public void close() throws IOException {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        pending.clear();
+        window = null;
+        channel.close();
+    }
+
+    /**
+     * Finds the TREES block and reads the part of the file before the first tree with a
+     * NexusImporter to get the translation of the taxon labels.
+     */
+    private void startReadingTrees(TaxonList taxonList) throws IOException, Importer.ImportException {
+        isReadingTrees = true;
+        position = 0;
+
+        long treesStart = findTreesBlock();
+        if (treesStart < 0) {
+            // no trees block
+            position = fileLength;
+            isFinished = true;
+            return;
+        }
+
+        // the header ends at the end of the TRANSLATE command if there is one
+        position = treesStart;
+        long headerEnd = treesStart;
+        if (findToken() && tokenMatches("TRANSLATE")) {
+            if (skipCommand()) {
+                headerEnd = position;
+            }
+        }
+        position = headerEnd;
+
+        // the header is followed by an empty command so that the importer stops at its end
+        NexusImporter importer = new NexusImporter(new StringReader(readText(0, headerEnd) + "\n;"),
+                ignoreMetaComments);
+        TaxonList[] taxa = new TaxonList[]{taxonList};
+        if (!importer.startReadingTrees(taxa)) {
+            throw new NexusImporter.MissingBlockException("TREES block is missing");
+        }
+
+        translationList = importer.readTranslationList(taxa[0], new String[1]);
+        taxonNumberMap = NexusImporter.getTaxonNumberMap(translationList, null);
+
+        if (threadCount > 1) {
+            executor = ThreadHelpers.newFixedThreadPool(threadCount, "tree-parser");
+        }
+    }
+
+    private Tree readNextTree() throws IOException, Importer.ImportException {
+        if (executor == null) {
+            if (isFinished) {
+                return null;
+            }
+            final TreeParser parser = nextCommand();
+            if (parser == null) {
+                return null;
+            }
+            Tree tree = parser.parse();
+            if (tree == null) {
+                isFinished = true;
+            }
+            return tree;
+        }
+
+        // keep the pool busy with the trees that follow
+        while (!isFinished && pending.size() < threadCount * TREES_PER_THREAD) {
+            final TreeParser parser = nextCommand();
+            if (parser == null) {
+                break;
+            }
+            pending.add(executor.submit(new Callable<Tree>() {
+                public Tree call() throws Exception {
+                    return parser.parse();
+                }
+            }));
+        }
+
+        Future<Tree> future = pending.poll();
+        if (future == null) {
+            return null;
+        }
+
+        Tree tree;
+        try {
+            tree = future.get();
+        } catch (InterruptedException ie) {
+            throw new IOException("Interrupted while reading trees");
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof Importer.ImportException) {
+                throw (Importer.ImportException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw ThreadHelpers.getUncheckedCause(ee);
+        }
+
+        if (tree == null) {
+            // the end of the block: drop anything read beyond it
+            isFinished = true;
+            for (Future<Tree> f : pending) {
+                f.cancel(true);
+            }
+            pending.clear();
+        }
+        return tree;
+    }
+
+    /**
+     * Cuts out the next command of the TREES block, from the end of the last one to its ';'.
+     * @return a parser for the command or null if there are no more
+     */
+    private TreeParser nextCommand() throws IOException, Importer.BadFormatException {
+        final long start = position;
+
+        if (!findToken()) {
+            isFinished = true;
+            return null;
+        }
+
+        if (tokenMatches("END") || tokenMatches("ENDBLOCK")) {
+            isFinished = true;
+            return null;
+        }
+
+        final boolean isTree = tokenMatches("TREE") || tokenMatches("UTREE");
+        boolean complete = skipCommand();
+
+        if (!isTree) {
+            // the parser reports the unknown command
+            isFinished = true;
+            return new TreeParser(readBytes(start, position), translationList, taxonNumberMap, ignoreMetaComments);
+        }
+
+        final long end = position;
+
+        // NexusImporter reads the command that follows each tree and ends without the tree if
+        // there isn't one
+        if (complete && !findToken()) {
+            isFinished = true;
+            return null;
+        }
+        position = end;
+
+        return new TreeParser(readBytes(start, end), translationList, taxonNumberMap, ignoreMetaComments);
+    }
+
+    /**
+     * Finds 'BEGIN TREES;' outside comments.
+     * @return the position after the ';' or -1 if there is no TREES block
+     */
+    private long findTreesBlock() throws IOException {
+        while (findToken()) {
+            if (tokenMatches("BEGIN")) {
+                position = findTokenEnd();
+                if (findToken() && tokenMatches("TREES")) {
+                    if (skipCommand()) {
+                        return position;
+                    }
+                    return -1;
+                }
+            } else {
+                position = findTokenEnd();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Moves the position to the start of the next token, skipping white space and comments.
+     * @return false if the end of the file is reached
+     */
+    private boolean findToken() throws IOException {
+        while (position < fileLength) {
+            final int ch = byteAt(position);
+            if (ch == '[') {
+                skipComment();
+            } else if (ch == ' ' || ch == '\t' || ch == '\r' || ch == '\n') {
+                position++;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the position of the first delimiter after the token at the current position (a
+     * delimiter on its own is taken as the token)
+     */
+    private long findTokenEnd() throws IOException {
+        long p = position + 1;
+        while (p < fileLength) {
+            final int ch = byteAt(p);
+            if (ch <= ' ' || ch == ';' || ch == '[') {
+                break;
+            }
+            p++;
+        }
+        return p;
+    }
+
+    private boolean tokenMatches(String token) throws IOException {
+        final int length = token.length();
+        if (position + length > fileLength) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (Character.toUpperCase((char) byteAt(position + i)) != token.charAt(i)) {
+                return false;
+            }
+        }
+        if (position + length == fileLength) {
+            return true;
+        }
+        final int ch = byteAt(position + length);
+        return ch <= ' ' || ch == ';' || ch == '[';
+    }
+
+    /**
+     * Moves the position past the ';' that ends the current command, skipping over comments and
+     * quoted labels.
+     * @return false if the file ends first
+     */
+    private boolean skipCommand() throws IOException {
+        boolean tokenStart = true;
+        while (position < fileLength) {
+            final int ch = byteAt(position);
+            if (ch == '[') {
+                skipComment();
+                tokenStart = true;
+            } else if (tokenStart && (ch == '\'' || ch == '"')) {
+                skipQuoted(ch);
+                tokenStart = false;
+            } else {
+                position++;
+                if (ch == ';') {
+                    return true;
+                }
+                tokenStart = (ch <= ' ' || "(),:=]".indexOf(ch) >= 0);
+            }
+        }
+        return false;
+    }
+
+    private void skipComment() throws IOException {
+        int depth = 0;
+        do {
+            final int ch = byteAt(position);
+            if (ch == '[') {
+                depth++;
+            } else if (ch == ']') {
+                depth--;
+            }
+            position++;
+        } while (depth > 0 && position < fileLength);
+    }
+
+    private void skipQuoted(int quote) throws IOException {
+        position++;
+        while (position < fileLength) {
+            final int ch = byteAt(position);
+            position++;
+            if (ch == quote) {
+                if (position < fileLength && byteAt(position) == quote) {
+                    // a repeated quote is part of the label
+                    position++;
+                } else {
+                    return;
+                }
+            }
+        }
+    }
+
+    private int byteAt(long p) throws IOException {
+        if (p < windowStart || p >= windowStart + windowLength) {
+            mapWindow(p, 1);
+        }
+        return window.get((int) (p - windowStart)) & 0xFF;
+    }
+
+    private byte[] readBytes(long start, long end) throws IOException {
+        final int length = (int) (end - start);
+        if (start < windowStart || end > windowStart + windowLength) {
+            mapWindow(start, length);
+        }
+        byte[] bytes = new byte[length];
+        window.position((int) (start - windowStart));
+        window.get(bytes);
+        return bytes;
+    }
+
+    private String readText(long start, long end) throws IOException {
+        return new String(readBytes(start, end), StandardCharsets.UTF_8);
+    }
+
+    private void mapWindow(long start, int minimumLength) throws IOException {
+        windowStart = start;
+        windowLength = (int) Math.min(Math.max(WINDOW_SIZE, minimumLength), fileLength - start);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowLength);
+    }
+
+    /**
+     * Parses one command of a TREES block from its bytes. This follows NexusImporter.readNextTree
+     * and the tokenizing of Importer character for character.
+     */
+    private static class TreeParser {
+
+        TreeParser(byte[] bytes, HashMap<String, Taxon> translationList, Map<Taxon, Integer> taxonNumberMap,
+                   boolean ignoreMetaComments) {
+            this.bytes = bytes;
+            this.translationList = translationList;
+            this.taxonNumberMap = taxonNumberMap;
+            this.ignoreMetaComments = ignoreMetaComments;
+        }
+
+        /**
+         * @return the tree or null if the block ends or the tree is incomplete
+         */
+        Tree parse() throws IOException, Importer.ImportException {
+            try {
+                String token = readToken(";");
+                Tree tree = null;
+
+                if (token.equalsIgnoreCase("UTREE") || token.equalsIgnoreCase("TREE")) {
+
+                    if (nextCharacter() == '*') {
+                        // Star is used to specify a default tree - ignore it
+                        readCharacter();
+                    }
+
+                    String token2 = readToken("=;");
+                    // Save tree comment and attach it later
+                    final String comment = lastMetaComment;
+                    lastMetaComment = null;
+
+                    if (lastDelimiter != '=') {
+                        throw new Importer.BadFormatException("Missing label for tree'" + token2 + "' or missing '=' in TREE command of TREES block");
+                    }
+
+                    try {
+                        if (nextCharacter() != '(') {
+                            throw new Importer.BadFormatException("Missing tree definition in TREE command of TREES block");
+                        }
+
+                        // tree special comments
+                        final String scomment = lastMetaComment;
+                        lastMetaComment = null;
+
+                        FlexibleNode root = readInternalNode();
+
+                        if (translationList != null) {
+                            tree = new FlexibleTree(root, false, true, taxonNumberMap);
+                        } else {
+                            tree = new FlexibleTree(root, false, true, null);
+                        }
+
+                        tree.setId(token2);
+
+                        if (lastDelimiter == ':') {
+                            // in case the root has a branch length, skip it
+                            readToken(";");
+
+                            if (lastMetaComment != null) {
+                                try {
+                                    NexusImporter.parseMetaCommentPairs(lastMetaComment, root);
+                                } catch (Importer.BadFormatException bfe) {
+                                    // ignore it
+                                }
+                                lastMetaComment = null;
+                            }
+                        }
+
+                        if (lastDelimiter != ';') {
+                            throw new Importer.BadFormatException("Expecting ';' after tree, '" + token2 + "', TREE command of TREES block");
+                        }
+
+                        if (scomment != null) {
+                            parseSpecialComment(scomment, tree);
+                        }
+
+                        if (comment != null) {
+                            try {
+                                NexusImporter.parseMetaCommentPairs(comment, tree);
+                            } catch (Importer.BadFormatException e) {
+                                // set generic comment attribute
+                                tree.setAttribute("comment", comment);
+                            }
+                        }
+
+                    } catch (EOFException e) {
+                        // If we reach EOF we may as well return what we have?
+                        return tree;
+                    }
+
+                } else if (token.equalsIgnoreCase("ENDBLOCK") || token.equalsIgnoreCase("END")) {
+                    return null;
+                } else {
+                    throw new Importer.BadFormatException("Unknown command '" + token + "' in TREES block");
+                }
+
+                return tree;
+
+            } catch (EOFException e) {
+                return null;
+            }
+        }
+
+        private void parseSpecialComment(String scomment, Tree tree) {
+            // below is correct only if [&W] appears on it own
+            String c = scomment;
+            while (c.length() > 0) {
+                final char ch = c.charAt(0);
+                if (ch == ';') {
+                    c = c.substring(1);
+                    continue;
+                }
+                if (ch == 'R') {
+                    // we only have rooted trees anyway
+                    c = c.substring(1);
+                } else if (ch == 'W') {
+                    int e = c.indexOf(';');
+                    if (e < 0) e = c.length();
+
+                    try {
+                        final Float value = Float.valueOf(c.substring(2, e));
+                        tree.setAttribute("weight", value);
+                    } catch (NumberFormatException ex) {
+                        // don't fail, ignore
+                    }
+                    c = c.substring(e);
+                } else {
+                    c = c.substring(1);
+                }
+            }
+        }
+
+        private FlexibleNode readBranch() throws IOException, Importer.ImportException {
+            double length = 0.0;
+            FlexibleNode branch;
+
+            lastMetaComment = null;
+
+            if (nextCharacter() == '(') {
+                // is an internal node
+                branch = readInternalNode();
+
+            } else {
+                // is an external node
+                branch = readExternalNode();
+            }
+
+            if (lastDelimiter != ':' && lastDelimiter != ',' && lastDelimiter != ')') {
+                String label = readToken(",():;");
+                if (label.length() > 0) {
+                    branch.setAttribute("label", label);
+                }
+            }
+
+            if (lastDelimiter == ':') {
+                String token = readToken(",():;");
+                try {
+                    length = Double.parseDouble(token);
+                } catch (NumberFormatException nfe) {
+                    throw new Importer.ImportException("Number format error: " + nfe.getMessage());
+                }
+
+                parseMetaComment(branch);
+            }
+
+            branch.setLength(length);
+
+            return branch;
+        }
+
+        private FlexibleNode readInternalNode() throws IOException, Importer.ImportException {
+            FlexibleNode node = new FlexibleNode();
+
+            // read the opening '('
+            readCharacter();
+
+            // read the first child
+            node.addChild(readBranch());
+
+            if (lastDelimiter != ',' && !NexusImporter.suppressWarnings) {
+                java.util.logging.Logger.getLogger("dr.evolution.io").warning("Internal node only has a single child.");
+            }
+
+            // this allows one or more children
+            while (lastDelimiter == ',') {
+                node.addChild(readBranch());
+            }
+
+            // should have had a closing ')'
+            if (lastDelimiter != ')') {
+                throw new Importer.BadFormatException("Missing closing ')' in tree in TREES block");
+            }
+
+            readToken(":(),;");
+
+            parseMetaComment(node);
+
+            return node;
+        }
+
+        private FlexibleNode readExternalNode() throws IOException, Importer.ImportException {
+            FlexibleNode node = new FlexibleNode();
+
+            String label = readToken(":(),;");
+
+            Taxon taxon;
+
+            if (translationList.size() > 0) {
+                taxon = translationList.get(label);
+
+                if (taxon == null) {
+                    // taxon not found in taxon list...
+                    throw new Importer.UnknownTaxonException("Taxon in tree, '" + label + "' is unknown");
+                }
+            } else {
+                taxon = new Taxon(label);
+            }
+
+            parseMetaComment(node);
+
+            node.setTaxon(taxon);
+            return node;
+        }
+
+        private void parseMetaComment(FlexibleNode node) {
+            if (lastMetaComment != null) {
+                if (!ignoreMetaComments) {
+                    // There was a meta-comment which should be in the form:
+                    // \[&label[=value][,label[=value]>[,/..]]\]
+                    try {
+                        NexusImporter.parseMetaCommentPairs(lastMetaComment, node);
+                    } catch (Importer.BadFormatException bfe) {
+                        // ignore it
+                    }
+                }
+                lastMetaComment = null;
+            }
+        }
+
+        // The tokenizer of Importer working on bytes
+
+        private char nextCharacter() throws IOException {
+            if (lastChar == '\0') {
+                lastChar = readCharacter();
+            }
+            return (char) lastChar;
+        }
+
+        private char readCharacter() throws IOException {
+            skipSpace();
+            char ch = read();
+            while (ch == '[') {
+                skipComments();
+                skipSpace();
+                ch = read();
+            }
+            return ch;
+        }
+
+        private char read() throws IOException {
+            int ch;
+            if (lastChar == '\0') {
+                if (position >= bytes.length) {
+                    throw new EOFException();
+                }
+                ch = bytes[position++] & 0xFF;
+                if (ch == 0) {
+                    throw new EOFException();
+                }
+            } else {
+                ch = lastChar;
+                lastChar = '\0';
+            }
+            return (char) ch;
+        }
+
+        private void skipSpace() throws IOException {
+            char ch;
+            do {
+                ch = read();
+            } while (ch == ' ' || ch == '\t' || ch == '\r' || ch == '\n');
+            lastChar = ch;
+        }
+
+        private String readToken(String delimiters) throws IOException {
+            int space = 0;
+            char ch, ch2, quoteChar = '\0';
+            boolean done = false, first = true, quoted = false, isSpace;
+
+            nextCharacter();
+
+            tokenLength = 0;
+
+            while (!done) {
+                ch = read();
+                try {
+                    isSpace = Character.isWhitespace(ch);
+
+                    if (quoted && ch == quoteChar) { // Found the closing quote
+                        ch2 = read();
+
+                        if (ch == ch2) {
+                            // A repeated quote character so add this to the token
+                            append(ch);
+                        } else {
+                            // otherwise it terminates the token
+
+                            lastDelimiter = ' ';
+                            lastChar = ch2;
+                            done = true;
+                            quoted = false;
+                        }
+                    } else if (first && (ch == '\'' || ch == '"')) {
+                        // if the opening character is a quote
+                        // read everything up to the closing quote
+                        quoted = true;
+                        quoteChar = ch;
+                        first = false;
+                        space = 0;
+                    } else if (ch == '[') {
+                        skipComments();
+                        lastDelimiter = ' ';
+                        done = true;
+                    } else {
+                        if (quoted) {
+                            // compress multiple spaces into one
+                            if (isSpace) {
+                                space++;
+                                ch = ' ';
+                            } else {
+                                space = 0;
+                            }
+
+                            if (space < 2) {
+                                append(ch);
+                            }
+                        } else if (isSpace) {
+                            lastDelimiter = ' ';
+                            done = true;
+                        } else if (delimiters.indexOf(ch) != -1) {
+                            done = true;
+                            lastDelimiter = ch;
+                        } else {
+                            append(ch);
+                            first = false;
+                        }
+                    }
+                } catch (EOFException e) {
+                    // We catch an EOF and return the token we have so far
+                    done = true;
+                }
+            }
+
+            if (Character.isWhitespace((char) lastDelimiter)) {
+                ch = nextCharacter();
+                while (Character.isWhitespace(ch)) {
+                    read();
+                    ch = nextCharacter();
+                }
+
+                if (delimiters.indexOf(ch) != -1) {
+                    lastDelimiter = readCharacter();
+                }
+            }
+
+            return new String(token, 0, tokenLength, StandardCharsets.UTF_8);
+        }
+
+        private void append(char ch) {
+            if (tokenLength == token.length) {
+                token = Arrays.copyOf(token, token.length * 2);
+            }
+            token[tokenLength++] = (byte) ch;
+        }
+
+        private void skipComments() throws IOException {
+            char ch;
+            int n = 1;
+            String previous = null;
+            boolean meta = false;
+
+            if (nextCharacter() == '&') {
+                read();
+                // combine two consecutive meta comments
+                previous = lastMetaComment;
+                meta = true;
+            }
+
+            lastMetaComment = null;
+
+            final int start = tokenLength;
+            do {
+                ch = read();
+                if (ch == '[') {
+                    n++;
+                } else if (ch == ']') {
+                    n--;
+                } else if (meta) {
+                    append(ch);
+                }
+            } while (n > 0);
+
+            if (meta) {
+                // the comment is collected after any partly read token and removed again
+                String comment = new String(token, start, tokenLength - start, StandardCharsets.UTF_8);
+                lastMetaComment = (previous != null ? previous + ";" + comment : comment);
+            }
+            tokenLength = start;
+        }
+
+        private final byte[] bytes;
+        private int position = 0;
+
+        private final HashMap<String, Taxon> translationList;
+        private final Map<Taxon, Integer> taxonNumberMap;
+        private final boolean ignoreMetaComments;
+
+        private int lastChar = '\0';
+        private int lastDelimiter = '\0';
+        private String lastMetaComment = null;
+
+        private byte[] token = new byte[64];
+        private int tokenLength;
+    }
+
+    private final FileChannel channel;
+    private final long fileLength;
+    private final boolean ignoreMetaComments;
+    private final int threadCount;
+
+    private MappedByteBuffer window = null;
+    private long windowStart = 0;
+    private int windowLength = 0;
+
+    private long position = 0;
+    private boolean isReadingTrees = false;
+    private boolean isFinished = false;
+
+    private HashMap<String, Taxon> translationList = null;
+    private Map<Taxon, Integer> taxonNumberMap = null;
+
+    private ExecutorService executor = null;
+    private final ArrayDeque<Future<Tree>> pending = new ArrayDeque<Future<Tree>>();
+
+    private Tree nextTree = null;
+}
@@ -839,7 +839,7 @@ public class NexusImporter extends Importer implements SequenceImporter, TreeImp
         return treeArray;
     }
 
-    private HashMap<String, Taxon> readTranslationList(TaxonList taxonList, String[] lastToken) throws ImportException, IOException {
+    HashMap<String, Taxon> readTranslationList(TaxonList taxonList, String[] lastToken) throws ImportException, IOException {
         HashMap<String, Taxon> translationList = new HashMap<String, Taxon>();
 
         String token = readToken(";");
@@ -927,30 +927,7 @@ public class NexusImporter extends Importer implements SequenceImporter, TreeImp
                     FlexibleNode root = readInternalNode(translationList);
 
                     if (translationList != null) {
-                        // this ensures that if a translation list is used, the external node numbers
-                        // of the trees correspond as well.
-
-                        Map<Taxon, Integer> taxonNumberMap = new HashMap<Taxon, Integer>();
-                        int count = 0;
-                        for (String label : translationList.keySet()) {
-                            Taxon taxon = translationList.get(label);
-                            int number;
-
-                            if (taxonList != null) { // Map back to original numbering from TaxonList
-                                number =  taxonList.getTaxonIndex(taxon);
-                            } else { // Old functionality
-                                try {
-                                    number = Integer.parseInt(label) - 1;
-                                } catch (NumberFormatException nfe) {
-                                    number = count;
-                                }
-                            }
-
-                            taxonNumberMap.put(taxon, number);
-                            count++;
-                        }
-
-                        tree = new FlexibleTree(root, false, true, taxonNumberMap);
+                        tree = new FlexibleTree(root, false, true, getTaxonNumberMap(translationList, taxonList));
                     } else {
                         tree = new FlexibleTree(root, false, true, null);
                     }
@@ -1037,6 +1014,33 @@ public class NexusImporter extends Importer implements SequenceImporter, TreeImp
         }
     }
 
+    /**
+     * This ensures that if a translation list is used, the external node numbers
+     * of the trees correspond as well.
+     */
+    static Map<Taxon, Integer> getTaxonNumberMap(HashMap<String, Taxon> translationList, TaxonList taxonList) {
+        Map<Taxon, Integer> taxonNumberMap = new HashMap<Taxon, Integer>();
+        int count = 0;
+        for (String label : translationList.keySet()) {
+            Taxon taxon = translationList.get(label);
+            int number;
+
+            if (taxonList != null) { // Map back to original numbering from TaxonList
+                number =  taxonList.getTaxonIndex(taxon);
+            } else { // Old functionality
+                try {
+                    number = Integer.parseInt(label) - 1;
+                } catch (NumberFormatException nfe) {
+                    number = count;
+                }
+            }
+
+            taxonNumberMap.put(taxon, number);
+            count++;
+        }
+        return taxonNumberMap;
+    }
+
     /**
      * Reads a branch in. This could be a node or a tip (calls readNode or readTip
      * accordingly). It then reads the branch length and SimpleNode that will
@@ -1318,6 +1322,10 @@ public class NexusImporter extends Importer implements SequenceImporter, TreeImp
         return dateArray;
     }
 
+    // TODO MAS Minor change in line below for nested arrays may cause other unforeseen bugs
+    private static final Pattern META_COMMENT_PAIR =
+            Pattern.compile("(\"[^\"]*\"+|[^,=\\s]+)\\s*(=\\s*(\\{[^=]*\\}|\"[^\"]*\"+|[^,]+))?");
+
     static void parseMetaCommentPairs(String meta, Attributable item) throws Importer.BadFormatException {
         if (meta.startsWith("B ")) {
             // a MrBayes annotation
@@ -1337,9 +1345,7 @@ public class NexusImporter extends Importer implements SequenceImporter, TreeImp
         // value=number, value="string", value={item1, item2, item3}
         // (label must be quoted if it contains spaces (i.e. "my label"=label)
 
-        // TODO MAS Minor change in line below for nested arrays may cause other unforeseen bugs
-        Pattern pattern = Pattern.compile("(\"[^\"]*\"+|[^,=\\s]+)\\s*(=\\s*(\\{[^=]*\\}|\"[^\"]*\"+|[^,]+))?");
-        Matcher matcher = pattern.matcher(meta);
+        Matcher matcher = META_COMMENT_PAIR.matcher(meta);
 
         while (matcher.find()) {
             String label = matcher.group(1);
@@ -30,6 +30,8 @@ import dr.util.Identifiable;
 
 import java.io.BufferedReader;
 import java.io.EOFException;
+import java.io.File;
+import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
 import java.util.ArrayList;
@@ -122,21 +124,7 @@ public class TreeTrace implements Identifiable {
 
         if (line.toUpperCase().startsWith("#NEXUS")) {
             NexusImporter importer = new NexusImporter(reader);
-            Tree[] trees = importer.importTrees(null);
-
-            if (trees.length < 2) {
-                throw new Importer.ImportException("Less than two trees in the trace file");
-            }
-
-            String id1 = trees[0].getId();
-            String id2 = trees[1].getId();
-
-            minState = getStateNumber(id1);
-            stepSize = getStateNumber(id2) - minState;
-
-            for (Tree tree : trees) {
-                trace.add(tree);
-            }
+            return createTreeTrace(importer.importTrees(null));
         } else {
             NewickImporter importer = new NewickImporter(reader);
 
@@ -179,6 +167,60 @@ public class TreeTrace implements Identifiable {
         return trace;
     }
 
+    /**
+     * Loads the trace with trees from a file. A NEXUS file is read with a MappedNexusImporter,
+     * which is quicker for the large files of long runs.
+     *
+     * @param file the file to load the trees from
+     * @return the TreeTrace
+     * @throws dr.evolution.io.Importer.ImportException
+     *                             thrown when tree file is not correctly formatted
+     * @throws java.io.IOException if general I/O error occurs
+     */
+    public static TreeTrace loadTreeTrace(File file) throws IOException, Importer.ImportException {
+
+        final String line;
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            line = reader.readLine();
+        } finally {
+            reader.close();
+        }
+
+        if (line == null || !line.toUpperCase().startsWith("#NEXUS")) {
+            Reader fileReader = new FileReader(file);
+            try {
+                return loadTreeTrace(fileReader);
+            } finally {
+                fileReader.close();
+            }
+        }
+
+        MappedNexusImporter importer = new MappedNexusImporter(file, false);
+        try {
+            return createTreeTrace(importer.importTrees(null));
+        } finally {
+            importer.close();
+        }
+    }
+
+    private static TreeTrace createTreeTrace(Tree[] trees) throws Importer.ImportException {
+        if (trees.length < 2) {
+            throw new Importer.ImportException("Less than two trees in the trace file");
+        }
+
+        TreeTrace trace = new TreeTrace();
+        for (Tree tree : trees) {
+            trace.add(tree);
+        }
+
+        final int minState = getStateNumber(trees[0].getId());
+        trace.setMinimumState(minState);
+        trace.setStepSize(getStateNumber(trees[1].getId()) - minState);
+
+        return trace;
+    }
+
     private static int getStateNumber(String id) throws Importer.ImportException {
         try {
             if (id.indexOf('_') != -1) { // probably BEAST tree file
@@ -45,7 +45,7 @@ public class Sequence implements Identifiable, Attributable {
      * Empty constructor.
      */
     public Sequence() {
-        sequenceString = new StringBuffer();
+        sequenceString = new SequenceCharacters();
     }
 
     /**
@@ -54,7 +54,7 @@ public class Sequence implements Identifiable, Attributable {
      * @param sequence a string representing the sequence
      */
     public Sequence(String sequence) {
-        sequenceString = new StringBuffer();
+        sequenceString = new SequenceCharacters();
         setSequenceString(sequence);
     }
 
@@ -75,7 +75,7 @@ public class Sequence implements Identifiable, Attributable {
      * @param sequence the sequence's symbol string
      */
     public Sequence(Taxon taxon, String sequence) {
-        sequenceString = new StringBuffer();
+        sequenceString = new SequenceCharacters();
         setTaxon(taxon);
         setSequenceString(sequence);
     }
@@ -164,7 +164,7 @@ public class Sequence implements Identifiable, Attributable {
      * Set the sequences using a string.
      */
     public void setSequenceString(String sequence) {
-        sequenceString.setLength(0);
+        sequenceString.clear();
         sequenceString.append(sequence.toUpperCase());
     }
 
@@ -262,7 +262,8 @@ public class Sequence implements Identifiable, Attributable {
     // **************************************************************
 
     protected Taxon taxon = null;
-    protected StringBuffer sequenceString = null;
+    // one byte per character, see SequenceCharacters
+    private SequenceCharacters sequenceString = null;
     protected DataType dataType = null;
 }
 
@@ -0,0 +1,155 @@
+/*
+ * SequenceCharacters.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.evolution.sequence;
+
+import java.util.Arrays;
+
+/**
+ * The characters of a sequence. On Java 8 a String or StringBuilder takes two bytes for each
+ * character, so the characters are kept as one byte each while they are all in the range of
+ * Latin-1, as the symbols of every data type are. If a wider character is stored, the rest of
+ * the sequence's life is spent at two bytes a character.
+ */
+final class SequenceCharacters implements CharSequence {
+
+    public int length() {
+        return length;
+    }
+
+    public char charAt(int index) {
+        checkIndex(index, length);
+        return (chars != null ? chars[index] : (char) (bytes[index] & 0xFF));
+    }
+
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    public String toString() {
+        if (chars != null) {
+            return new String(chars, 0, length);
+        }
+        char[] value = new char[length];
+        getChars(0, length, value, 0);
+        return new String(value);
+    }
+
+    void setCharAt(int index, char c) {
+        checkIndex(index, length);
+        if (chars == null && c > MAX_BYTE_CHAR) {
+            widen(bytes.length);
+        }
+        if (chars != null) {
+            chars[index] = c;
+        } else {
+            bytes[index] = (byte) c;
+        }
+    }
+
+    void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+        if (srcBegin < 0 || srcEnd > length || srcBegin > srcEnd) {
+            throw new StringIndexOutOfBoundsException("begin " + srcBegin + ", end " + srcEnd + ", length " + length);
+        }
+        if (chars != null) {
+            System.arraycopy(chars, srcBegin, dst, dstBegin, srcEnd - srcBegin);
+        } else {
+            for (int i = srcBegin; i < srcEnd; i++) {
+                dst[dstBegin++] = (char) (bytes[i] & 0xFF);
+            }
+        }
+    }
+
+    void clear() {
+        bytes = EMPTY;
+        chars = null;
+        length = 0;
+    }
+
+    void append(String string) {
+        insert(length, string);
+    }
+
+    void insert(int offset, String string) {
+        if (offset < 0 || offset > length) {
+            throw new StringIndexOutOfBoundsException("offset " + offset + ", length " + length);
+        }
+        final int count = string.length();
+        final int newLength = length + count;
+        final int capacity = (chars != null ? chars.length : bytes.length);
+        final int newCapacity = (newLength > capacity ? Math.max(newLength, capacity * 2) : capacity);
+
+        if (chars == null && !isByteString(string)) {
+            widen(newCapacity);
+        }
+
+        if (chars != null) {
+            if (newCapacity > chars.length) {
+                chars = Arrays.copyOf(chars, newCapacity);
+            }
+            System.arraycopy(chars, offset, chars, offset + count, length - offset);
+            string.getChars(0, count, chars, offset);
+        } else {
+            if (newCapacity > bytes.length) {
+                bytes = Arrays.copyOf(bytes, newCapacity);
+            }
+            System.arraycopy(bytes, offset, bytes, offset + count, length - offset);
+            for (int i = 0; i < count; i++) {
+                bytes[offset + i] = (byte) string.charAt(i);
+            }
+        }
+        length = newLength;
+    }
+
+    private void widen(int capacity) {
+        char[] wide = new char[capacity];
+        getChars(0, length, wide, 0);
+        chars = wide;
+        bytes = null;
+    }
+
+    private static boolean isByteString(String string) {
+        for (int i = 0; i < string.length(); i++) {
+            if (string.charAt(i) > MAX_BYTE_CHAR) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void checkIndex(int index, int length) {
+        if (index < 0 || index >= length) {
+            throw new StringIndexOutOfBoundsException("index " + index + ", length " + length);
+        }
+    }
+
+    private static final char MAX_BYTE_CHAR = 0xFF;
+    private static final byte[] EMPTY = new byte[0];
+
+    // the characters as bytes, until a character doesn't fit in one
+    private byte[] bytes = EMPTY;
+    private char[] chars = null;
+    private int length = 0;
+}
@@ -0,0 +1,789 @@
+/*
+ * CladeStore.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.evolution.tree;
+
+import dr.evolution.util.Taxon;
+import dr.evolution.util.TaxonList;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A compact store of the clades in a set of trees.
+ *
+ * Each taxon is given a random 128-bit key and a clade is identified by the exclusive-or of
+ * the keys of its taxa. The fingerprint of a node is found from those of its children in
+ * constant time and only two longs are kept per clade rather than a BitSet over all the taxa.
+ * Clades are numbered in the order they are first seen and their counts, sizes and (optionally)
+ * node heights and subclade splits are kept in primitive arrays indexed by that number.
+ *
+ * The taxa of a clade are recovered from the first split it was seen with, so they don't need
+ * to be stored.
+ *
+ * Trees can be added from several threads at once. A tree whose clades (and splits) are all in
+ * the store already, as most are once a sample of trees has been running for a while, only
+ * takes a shared lock and updates the counts and heights of its clades atomically. Only a tree
+ * with a new clade or split takes the lock exclusively to add it.
+ */
+public class CladeStore {
+
+    /**
+     * @param includeTips    add a clade for each tip as well as the internal nodes
+     * @param recordSplits   record the distinct pairs of subclades of each clade
+     * @param recordHeights  keep the sum of the node heights of each clade
+     */
+    public CladeStore(boolean includeTips, boolean recordSplits, boolean recordHeights) {
+        this.includeTips = includeTips;
+        this.recordSplits = recordSplits;
+        this.recordHeights = recordHeights;
+
+        table = new int[INITIAL_CAPACITY * 2];
+        fingerprintsHi = new long[INITIAL_CAPACITY];
+        fingerprintsLo = new long[INITIAL_CAPACITY];
+        counts = new AtomicIntegerArray(INITIAL_CAPACITY);
+        sizes = new int[INITIAL_CAPACITY];
+        firstLeft = new int[INITIAL_CAPACITY];
+        firstRight = new int[INITIAL_CAPACITY];
+        heightSums = (recordHeights ? new AtomicLongArray(INITIAL_CAPACITY) : null);
+
+        if (recordSplits) {
+            splitTable = new int[INITIAL_CAPACITY * 2];
+            splitParents = new int[INITIAL_CAPACITY];
+            splitChildren = new long[INITIAL_CAPACITY];
+        }
+    }
+
+    /**
+     * @param taxa the taxa used to label the tips. If this isn't set the taxa of the first tree
+     *             added are used.
+     */
+    public CladeStore(TaxonList taxa, boolean includeTips, boolean recordSplits, boolean recordHeights) {
+        this(includeTips, recordSplits, recordHeights);
+        setTaxa(taxa);
+    }
+
+    public void setTaxa(TaxonList taxa) {
+        lock.writeLock().lock();
+        try {
+            if (this.taxa != null) {
+                throw new IllegalArgumentException("The taxa have already been set");
+            }
+            Map<String, Integer> indices = new HashMap<String, Integer>();
+            for (int i = 0; i < taxa.getTaxonCount(); i++) {
+                indices.putIfAbsent(taxa.getTaxonId(i), i);
+            }
+            this.taxonIndices = indices;
+            this.taxa = taxa;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * removes all the clades and trees, and the taxa, keeping the space allocated for reuse
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            taxa = null;
+            taxonIndices = null;
+            treeCount.set(0);
+            for (int clade = 0; clade < cladeCount; clade++) {
+                counts.set(clade, 0);
+                if (recordHeights) {
+                    heightSums.set(clade, 0L);
+                }
+            }
+            cladeCount = 0;
+            Arrays.fill(table, 0);
+            multifurcationTaxa.clear();
+            if (recordSplits) {
+                Arrays.fill(splitTable, 0);
+                splitCount = 0;
+            }
+            splitIndex = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public TaxonList getTaxa() {
+        return taxa;
+    }
+
+    public int getTaxonIndex(String id) {
+        Integer index = taxonIndices.get(id);
+        return (index != null ? index : -1);
+    }
+
+    /**
+     * adds the clades of the tree (incrementing the count of any already present).
+     *
+     * @return the clade of each node, indexed by node number (-1 for tips if they aren't included)
+     */
+    public int[] add(Tree tree) {
+        if (taxa == null) {
+            synchronized (this) {
+                if (taxa == null) {
+                    setTaxa(tree);
+                }
+            }
+        }
+
+        // the fingerprints are found without holding the lock
+        final Fingerprints fingerprints = new Fingerprints(tree);
+
+        final int[] clades = new int[tree.getNodeCount()];
+
+        boolean added;
+        lock.readLock().lock();
+        try {
+            added = addKnownClades(tree, fingerprints, clades);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        if (!added) {
+            lock.writeLock().lock();
+            try {
+                addClades(tree, tree.getRoot(), fingerprints, clades);
+                splitIndex = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        treeCount.incrementAndGet();
+
+        return clades;
+    }
+
+    /**
+     * finds the clades of the tree without adding them.
+     *
+     * @return the clade of each node, indexed by node number (-1 if the clade is not present)
+     */
+    public int[] getCladeIndices(Tree tree) {
+        final Fingerprints fingerprints = new Fingerprints(tree);
+
+        final int[] clades = new int[tree.getNodeCount()];
+
+        lock.readLock().lock();
+        try {
+            for (int i = 0; i < clades.length; i++) {
+                final NodeRef node = tree.getNode(i);
+                final int n = node.getNumber();
+                if (tree.isExternal(node) && !includeTips) {
+                    clades[n] = -1;
+                } else {
+                    clades[n] = find(fingerprints.hi[n], fingerprints.lo[n]);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return clades;
+    }
+
+    /**
+     * @return the clades of the internal nodes of the tree in ascending order, suitable for
+     * comparing the topologies of trees with countMissing.
+     */
+    public static int[] getSortedInternalClades(Tree tree, int[] clades) {
+        int[] internal = new int[tree.getInternalNodeCount()];
+        for (int i = 0; i < internal.length; i++) {
+            internal[i] = clades[tree.getInternalNode(i).getNumber()];
+        }
+        Arrays.sort(internal);
+        return internal;
+    }
+
+    /**
+     * @return the number of the clades in the sorted array clades1 that aren't in clades2.
+     * Clades that were not found in the store (-1) are always counted as missing.
+     */
+    public static int countMissing(int[] clades1, int[] clades2) {
+        int missing = 0;
+        int j = 0;
+        for (int clade : clades1) {
+            while (j < clades2.length && clades2[j] < clade) {
+                j++;
+            }
+            if (clade < 0 || j == clades2.length || clades2[j] != clade) {
+                missing++;
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * sets an attribute of each internal node of the tree to the frequency of its clade
+     *
+     * @return the sum of the log frequencies of the clades
+     */
+    public double annotate(MutableTree tree, String attributeName) {
+        final int[] clades = getCladeIndices(tree);
+
+        double logFrequency = 0.0;
+        for (int i = 0; i < tree.getInternalNodeCount(); i++) {
+            final NodeRef node = tree.getInternalNode(i);
+            final int clade = clades[node.getNumber()];
+            final double frequency = (clade >= 0 ? getFrequency(clade) : 0.0);
+            tree.setNodeAttribute(node, attributeName, frequency);
+            logFrequency += Math.log(frequency);
+        }
+        return logFrequency;
+    }
+
+    /**
+     * @return the number of unique clades
+     */
+    public int getCladeCount() {
+        return cladeCount;
+    }
+
+    /**
+     * @return the number of trees added
+     */
+    public int getTreeCount() {
+        return treeCount.get();
+    }
+
+    public int getCount(int clade) {
+        return counts.get(clade);
+    }
+
+    public double getFrequency(int clade) {
+        return ((double) counts.get(clade)) / treeCount.get();
+    }
+
+    public int getSize(int clade) {
+        return sizes[clade];
+    }
+
+    public double getMeanHeight(int clade) {
+        if (!recordHeights) {
+            throw new UnsupportedOperationException("Heights are not being recorded");
+        }
+        return Double.longBitsToDouble(heightSums.get(clade)) / counts.get(clade);
+    }
+
+    /**
+     * @return the clades in order of descending count (ties in the order they were first seen)
+     */
+    public int[] getCladesByCount() {
+        Integer[] order = new Integer[cladeCount];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer clade1, Integer clade2) {
+                return counts.get(clade2) - counts.get(clade1);
+            }
+        });
+
+        int[] clades = new int[order.length];
+        for (int i = 0; i < clades.length; i++) {
+            clades[i] = order[i];
+        }
+        return clades;
+    }
+
+    /**
+     * @return the taxon of a tip clade
+     */
+    public Taxon getTaxon(int clade) {
+        if (sizes[clade] != 1) {
+            throw new IllegalArgumentException("Clade " + clade + " is not a tip");
+        }
+        return taxa.getTaxon(-firstLeft[clade] - 1);
+    }
+
+    /**
+     * @return the indices (in the taxon list) of the taxa in the clade
+     */
+    public BitSet getTaxa(int clade) {
+        BitSet bits = new BitSet();
+        collectTaxa(clade, bits);
+        return bits;
+    }
+
+    /**
+     * @return the ids of the taxa in the clade, in alphabetical order, formatted as {A, B, C}
+     */
+    public String getCladeString(int clade) {
+        SortedSet<String> taxonIds = new TreeSet<String>();
+        BitSet bits = getTaxa(clade);
+        for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+            taxonIds.add(taxa.getTaxonId(i));
+        }
+
+        StringBuilder builder = new StringBuilder("{");
+        boolean first = true;
+        for (String taxonId : taxonIds) {
+            if (!first) {
+                builder.append(", ");
+            }
+            first = false;
+            builder.append(taxonId);
+        }
+        builder.append("}");
+        return builder.toString();
+    }
+
+    /**
+     * @return the number of distinct pairs of subclades the clade has been seen with
+     */
+    public int getSplitCount(int clade) {
+        buildSplitIndex();
+        return splitIndex[clade + 1] - splitIndex[clade];
+    }
+
+    public int getSplitLeft(int clade, int split) {
+        buildSplitIndex();
+        return (int) (splitIndexChildren[splitIndex[clade] + split] >> 32);
+    }
+
+    public int getSplitRight(int clade, int split) {
+        buildSplitIndex();
+        return (int) splitIndexChildren[splitIndex[clade] + split];
+    }
+
+    //
+    // Private stuff
+    //
+
+    /**
+     * The fingerprints and sizes of the clades of each node of a tree.
+     */
+    private class Fingerprints {
+        Fingerprints(Tree tree) {
+            final int nodeCount = tree.getNodeCount();
+            hi = new long[nodeCount];
+            lo = new long[nodeCount];
+            size = new int[nodeCount];
+            taxon = new int[nodeCount];
+            minTaxon = new int[nodeCount];
+            setFingerprints(tree, tree.getRoot());
+        }
+
+        private void setFingerprints(Tree tree, NodeRef node) {
+            final int i = node.getNumber();
+            if (tree.isExternal(node)) {
+                final String id = tree.getNodeTaxon(node).getId();
+                final int index = getTaxonIndex(id);
+                if (index < 0) {
+                    throw new IllegalArgumentException("Taxon, " + id + ", not found in taxon list");
+                }
+                hi[i] = taxonKey(index, 0);
+                lo[i] = taxonKey(index, 1);
+                size[i] = 1;
+                taxon[i] = index;
+                minTaxon[i] = index;
+            } else {
+                minTaxon[i] = Integer.MAX_VALUE;
+                for (int j = 0; j < tree.getChildCount(node); j++) {
+                    NodeRef child = tree.getChild(node, j);
+                    setFingerprints(tree, child);
+                    final int c = child.getNumber();
+                    hi[i] ^= hi[c];
+                    lo[i] ^= lo[c];
+                    size[i] += size[c];
+                    minTaxon[i] = Math.min(minTaxon[i], minTaxon[c]);
+                }
+                taxon[i] = -1;
+            }
+        }
+
+        final long[] hi;
+        final long[] lo;
+        final int[] size;
+        final int[] taxon;
+        final int[] minTaxon;
+    }
+
+    /**
+     * counts the clades of the tree if they and their splits are all in the store already. This
+     * only needs the shared lock.
+     *
+     * @return false, without changing anything, if the tree has a clade or split that isn't
+     * in the store
+     */
+    private boolean addKnownClades(Tree tree, Fingerprints fingerprints, int[] clades) {
+        final int nodeCount = tree.getNodeCount();
+        for (int n = 0; n < nodeCount; n++) {
+            if (tree.isExternal(tree.getNode(n)) && !includeTips) {
+                clades[n] = -1;
+            } else {
+                clades[n] = find(fingerprints.hi[n], fingerprints.lo[n]);
+                if (clades[n] < 0) {
+                    return false;
+                }
+            }
+        }
+
+        if (recordSplits) {
+            for (int i = 0; i < tree.getInternalNodeCount(); i++) {
+                final NodeRef node = tree.getInternalNode(i);
+                if (tree.getChildCount(node) != 2) {
+                    return false;
+                }
+                final int n = node.getNumber();
+                if (splitTable[findSplit(clades[n], getSplit(tree, node, fingerprints, clades))] == 0) {
+                    return false;
+                }
+            }
+        }
+
+        for (int n = 0; n < nodeCount; n++) {
+            if (clades[n] >= 0) {
+                counts.incrementAndGet(clades[n]);
+                if (recordHeights && !tree.isExternal(tree.getNode(n))) {
+                    addHeight(clades[n], tree.getNodeHeight(tree.getNode(n)));
+                }
+            }
+        }
+        return true;
+    }
+
+    private void addClades(Tree tree, NodeRef node, Fingerprints fingerprints, int[] clades) {
+        final int i = node.getNumber();
+
+        if (tree.isExternal(node)) {
+            if (includeTips) {
+                final int tipRef = -fingerprints.taxon[i] - 1;
+                clades[i] = addClade(fingerprints.hi[i], fingerprints.lo[i], 1, tipRef, tipRef, null);
+            } else {
+                clades[i] = -1;
+            }
+            return;
+        }
+
+        final int childCount = tree.getChildCount(node);
+        for (int j = 0; j < childCount; j++) {
+            addClades(tree, tree.getChild(node, j), fingerprints, clades);
+        }
+
+        if (childCount == 2) {
+            final long split = getSplit(tree, node, fingerprints, clades);
+            final int left = (int) (split >> 32);
+            final int right = (int) split;
+
+            final int clade = addClade(fingerprints.hi[i], fingerprints.lo[i], fingerprints.size[i], left, right, null);
+            if (recordSplits) {
+                addSplit(clade, split);
+            }
+            clades[i] = clade;
+        } else {
+            if (recordSplits) {
+                throw new IllegalArgumentException("Recording splits requires strictly bifurcating trees");
+            }
+            clades[i] = addClade(fingerprints.hi[i], fingerprints.lo[i], fingerprints.size[i], -1, -1,
+                    getNodeTaxa(tree, node));
+        }
+
+        if (recordHeights) {
+            addHeight(clades[i], tree.getNodeHeight(node));
+        }
+    }
+
+    /**
+     * @return the subclades of a bifurcating node, packed into a long with the one with the
+     * lowest taxon in the high word so a split is always in the same order
+     */
+    private long getSplit(Tree tree, NodeRef node, Fingerprints fingerprints, int[] clades) {
+        NodeRef child1 = tree.getChild(node, 0);
+        NodeRef child2 = tree.getChild(node, 1);
+        if (fingerprints.minTaxon[child2.getNumber()] < fingerprints.minTaxon[child1.getNumber()]) {
+            NodeRef tmp = child1;
+            child1 = child2;
+            child2 = tmp;
+        }
+        final int left = childRef(child1, fingerprints, clades);
+        final int right = childRef(child2, fingerprints, clades);
+        return ((long) left << 32) | (right & 0xFFFFFFFFL);
+    }
+
+    private void addHeight(int clade, double height) {
+        long sum;
+        do {
+            sum = heightSums.get(clade);
+        } while (!heightSums.compareAndSet(clade, sum,
+                Double.doubleToRawLongBits(Double.longBitsToDouble(sum) + height)));
+    }
+
+    /**
+     * @return the clade of a child node, or if tips are not included, minus one minus its taxon index
+     */
+    private int childRef(NodeRef child, Fingerprints fingerprints, int[] clades) {
+        final int c = child.getNumber();
+        if (clades[c] < 0) {
+            return -fingerprints.taxon[c] - 1;
+        }
+        return clades[c];
+    }
+
+    private int[] getNodeTaxa(Tree tree, NodeRef node) {
+        Set<String> leaves = TreeUtils.getDescendantLeaves(tree, node);
+        int[] indices = new int[leaves.size()];
+        int k = 0;
+        for (String id : leaves) {
+            indices[k] = getTaxonIndex(id);
+            k++;
+        }
+        return indices;
+    }
+
+    private int addClade(long hi, long lo, int size, int left, int right, int[] nodeTaxa) {
+        int clade = find(hi, lo);
+        if (clade < 0) {
+            clade = cladeCount;
+            if (clade == fingerprintsHi.length) {
+                growClades();
+            }
+            fingerprintsHi[clade] = hi;
+            fingerprintsLo[clade] = lo;
+            sizes[clade] = size;
+            firstLeft[clade] = left;
+            firstRight[clade] = right;
+            if (nodeTaxa != null) {
+                multifurcationTaxa.put(clade, nodeTaxa);
+            }
+            cladeCount++;
+
+            insert(table, (int) lo, clade);
+            if (cladeCount * 2 > table.length) {
+                rehash();
+            }
+        }
+        counts.incrementAndGet(clade);
+        return clade;
+    }
+
+    private int find(long hi, long lo) {
+        final int mask = table.length - 1;
+        int slot = mix((int) lo) & mask;
+        while (table[slot] != 0) {
+            final int clade = table[slot] - 1;
+            if (fingerprintsLo[clade] == lo && fingerprintsHi[clade] == hi) {
+                return clade;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private static void insert(int[] table, int hash, int value) {
+        final int mask = table.length - 1;
+        int slot = mix(hash) & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = value + 1;
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        for (int clade = 0; clade < cladeCount; clade++) {
+            insert(table, (int) fingerprintsLo[clade], clade);
+        }
+    }
+
+    private void growClades() {
+        final int capacity = fingerprintsHi.length * 2;
+        fingerprintsHi = Arrays.copyOf(fingerprintsHi, capacity);
+        fingerprintsLo = Arrays.copyOf(fingerprintsLo, capacity);
+        counts = copyOf(counts, capacity);
+        sizes = Arrays.copyOf(sizes, capacity);
+        firstLeft = Arrays.copyOf(firstLeft, capacity);
+        firstRight = Arrays.copyOf(firstRight, capacity);
+        if (recordHeights) {
+            heightSums = copyOf(heightSums, capacity);
+        }
+    }
+
+    private static AtomicIntegerArray copyOf(AtomicIntegerArray array, int capacity) {
+        AtomicIntegerArray copy = new AtomicIntegerArray(capacity);
+        for (int i = 0; i < array.length(); i++) {
+            copy.set(i, array.get(i));
+        }
+        return copy;
+    }
+
+    private static AtomicLongArray copyOf(AtomicLongArray array, int capacity) {
+        AtomicLongArray copy = new AtomicLongArray(capacity);
+        for (int i = 0; i < array.length(); i++) {
+            copy.set(i, array.get(i));
+        }
+        return copy;
+    }
+
+    /**
+     * @return the slot of the split table holding the split, or the empty slot it would go in
+     */
+    private int findSplit(int parent, long children) {
+        final int hash = parent * 31 + (int) (children ^ (children >>> 32));
+        final int mask = splitTable.length - 1;
+        int slot = mix(hash) & mask;
+        while (splitTable[slot] != 0) {
+            final int split = splitTable[slot] - 1;
+            if (splitParents[split] == parent && splitChildren[split] == children) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void addSplit(int parent, long children) {
+        final int slot = findSplit(parent, children);
+        if (splitTable[slot] != 0) {
+            return;
+        }
+
+        if (splitCount == splitParents.length) {
+            splitParents = Arrays.copyOf(splitParents, splitCount * 2);
+            splitChildren = Arrays.copyOf(splitChildren, splitCount * 2);
+        }
+        splitParents[splitCount] = parent;
+        splitChildren[splitCount] = children;
+        splitTable[slot] = splitCount + 1;
+        splitCount++;
+
+        if (splitCount * 2 > splitTable.length) {
+            splitTable = new int[splitTable.length * 2];
+            for (int split = 0; split < splitCount; split++) {
+                final long c = splitChildren[split];
+                insert(splitTable, splitParents[split] * 31 + (int) (c ^ (c >>> 32)), split);
+            }
+        }
+    }
+
+    /**
+     * sorts the splits by parent clade so the splits of a clade can be found directly
+     */
+    private void buildSplitIndex() {
+        if (!recordSplits) {
+            throw new UnsupportedOperationException("Splits are not being recorded");
+        }
+        if (splitIndex != null) {
+            return;
+        }
+        lock.readLock().lock();
+        try {
+            int[] index = new int[cladeCount + 1];
+            for (int split = 0; split < splitCount; split++) {
+                index[splitParents[split] + 1]++;
+            }
+            for (int clade = 0; clade < cladeCount; clade++) {
+                index[clade + 1] += index[clade];
+            }
+            int[] next = Arrays.copyOf(index, cladeCount);
+            long[] children = new long[splitCount];
+            for (int split = 0; split < splitCount; split++) {
+                children[next[splitParents[split]]++] = splitChildren[split];
+            }
+            splitIndexChildren = children;
+            splitIndex = index;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void collectTaxa(int clade, BitSet bits) {
+        if (clade < 0) {
+            bits.set(-clade - 1);
+        } else if (sizes[clade] == 1) {
+            bits.set(-firstLeft[clade] - 1);
+        } else if (multifurcationTaxa.containsKey(clade)) {
+            for (int index : multifurcationTaxa.get(clade)) {
+                bits.set(index);
+            }
+        } else {
+            collectTaxa(firstLeft[clade], bits);
+            collectTaxa(firstRight[clade], bits);
+        }
+    }
+
+    /**
+     * @return a random key for the taxon, the same for every store
+     */
+    private static long taxonKey(int index, int word) {
+        // splitmix64 of the taxon index
+        long z = (2L * index + word + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static int mix(int hash) {
+        hash ^= (hash >>> 16);
+        hash *= 0x85EBCA6B;
+        return hash ^ (hash >>> 13);
+    }
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final boolean includeTips;
+    private final boolean recordSplits;
+    private final boolean recordHeights;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private volatile TaxonList taxa = null;
+    private Map<String, Integer> taxonIndices = null;
+
+    private final AtomicInteger treeCount = new AtomicInteger();
+    private int cladeCount = 0;
+
+    // open addressing hash table of clade numbers (plus one, so zero is empty)
+    private int[] table;
+
+    private long[] fingerprintsHi;
+    private long[] fingerprintsLo;
+    private AtomicIntegerArray counts;
+    private int[] sizes;
+    private int[] firstLeft;
+    private int[] firstRight;
+    // the sums of the heights as the bits of doubles so they can be added to atomically
+    private AtomicLongArray heightSums;
+
+    // the taxa of clades that were first seen at a multifurcating node
+    private final Map<Integer, int[]> multifurcationTaxa = new HashMap<Integer, int[]>();
+
+    private int[] splitTable;
+    private int[] splitParents;
+    private long[] splitChildren;
+    private int splitCount = 0;
+
+    private volatile int[] splitIndex = null;
+    private long[] splitIndexChildren = null;
+}
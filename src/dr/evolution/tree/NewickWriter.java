@@ -0,0 +1,287 @@
+/*
+ * NewickWriter.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.evolution.tree;
+
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes trees in newick format, giving the same text as TreeUtils.newick, into a buffer that can
+ * be reused from one tree to the next.
+ *
+ * The loggable node and branch traits are found once for each tree rather than once for each
+ * node, and those that override TreeTrait.appendTraitString write their values straight into
+ * the buffer. Branch lengths are written without the NumberFormat when it only limits the number of
+ * decimal places.
+ */
+public class NewickWriter {
+
+    // the largest number of decimal places and the limit on the values formatted directly
+    private static final int MAX_DECIMAL_PLACES = 9;
+    private static final double MAX_DIRECT_VALUE = 1000.0;
+
+    private static final long[] POWERS_OF_TEN = new long[MAX_DECIMAL_PLACES + 1];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    /**
+     * @param idMap              numbers for the taxa, used in place of the labels if not null
+     * @param labels             whether taxon labels rather than numbers are written
+     * @param lengths            the type of branch lengths
+     * @param format             the format of branch lengths or null for full precision
+     * @param branchRates        the rates that make times into substitutions (if lengths are substitutions)
+     * @param treeTraitProviders the providers of traits to annotate the nodes with (or null)
+     */
+    public NewickWriter(Map<String, Integer> idMap, boolean labels, TreeUtils.BranchLengthType lengths,
+                        NumberFormat format, BranchRates branchRates, TreeTraitProvider[] treeTraitProviders) {
+        if (lengths == TreeUtils.BranchLengthType.LENGTHS_AS_SUBSTITUTIONS && branchRates == null) {
+            throw new IllegalArgumentException("No BranchRates provided");
+        }
+
+        this.idMap = idMap;
+        this.labels = labels;
+        this.lengths = lengths;
+        this.format = format;
+        this.decimalPlaces = getDecimalPlaces(format);
+        this.branchRates = branchRates;
+        this.treeTraitProviders = treeTraitProviders;
+    }
+
+    /**
+     * Appends the tree, without the closing semicolon.
+     */
+    public void write(Tree tree, StringBuilder buffer) {
+        findTraits();
+        writeNode(tree, tree.getRoot(), buffer);
+    }
+
+    /**
+     * Appends a branch length as the format would write it.
+     */
+    public void appendBranchLength(double length, StringBuilder buffer) {
+        if (format == null) {
+            // the same text as String.valueOf
+            buffer.append(length);
+            return;
+        }
+
+        // -0.0 is written with a sign so is left to the format
+        if (decimalPlaces >= 0 && length < MAX_DIRECT_VALUE && (length > 0.0 || (length == 0.0 && 1.0 / length > 0.0))) {
+            final double scaled = length * POWERS_OF_TEN[decimalPlaces];
+            final double floor = Math.floor(scaled);
+            final double fraction = scaled - floor;
+
+            // values within rounding error of half way are left to the format's half-even rounding
+            if (Math.abs(fraction - 0.5) > 4.0 * Math.ulp(scaled)) {
+                final long rounded = (long) floor + (fraction > 0.5 ? 1 : 0);
+                if (rounded < MAX_DIRECT_VALUE * POWERS_OF_TEN[decimalPlaces]) {
+                    appendFixed(rounded, decimalPlaces, buffer);
+                    return;
+                }
+            }
+        }
+
+        buffer.append(format.format(length));
+    }
+
+    /**
+     * Appends the value of a trait for a node.
+     *
+     * @return false if the node has no value, in which case nothing is appended
+     */
+    public boolean appendTraitString(TreeTrait<?> trait, Tree tree, NodeRef node, StringBuilder buffer) {
+        return trait.appendTraitString(tree, node, buffer);
+    }
+
+    private void writeNode(Tree tree, NodeRef node, StringBuilder buffer) {
+        NodeRef parent = tree.getParent(node);
+
+        if (tree.isExternal(node)) {
+            buffer.append(getTaxonLabel(tree, node.getNumber()));
+        } else {
+            buffer.append("(");
+            writeNode(tree, tree.getChild(node, 0), buffer);
+            for (int i = 1; i < tree.getChildCount(node); i++) {
+                buffer.append(",");
+                writeNode(tree, tree.getChild(node, i), buffer);
+            }
+            buffer.append(")");
+        }
+
+        writeTraits(tree, node, nodeTraits, buffer);
+
+        if (parent != null && lengths != TreeUtils.BranchLengthType.NO_BRANCH_LENGTHS) {
+            buffer.append(":");
+            writeTraits(tree, node, branchTraits, buffer);
+
+            double length = tree.getNodeHeight(parent) - tree.getNodeHeight(node);
+            if (lengths == TreeUtils.BranchLengthType.LENGTHS_AS_SUBSTITUTIONS) {
+                length *= branchRates.getBranchRate(tree, node);
+            }
+            appendBranchLength(length, buffer);
+        }
+    }
+
+    private void writeTraits(Tree tree, NodeRef node, List<TreeTrait<?>> traits, StringBuilder buffer) {
+        boolean hasAttribute = false;
+        for (TreeTrait<?> trait : traits) {
+            // the name is written first and taken back if the node has no value
+            final int mark = buffer.length();
+            buffer.append(hasAttribute ? "," : "[&");
+            buffer.append(trait.getTraitName());
+            buffer.append("=");
+
+            if (appendTraitString(trait, tree, node, buffer)) {
+                hasAttribute = true;
+            } else {
+                buffer.setLength(mark);
+            }
+        }
+        if (hasAttribute) {
+            buffer.append("]");
+        }
+    }
+
+    private void findTraits() {
+        nodeTraits.clear();
+        branchTraits.clear();
+        if (treeTraitProviders != null) {
+            for (TreeTraitProvider ttp : treeTraitProviders) {
+                for (TreeTrait<?> treeTrait : ttp.getTreeTraits()) {
+                    if (treeTrait.getLoggable()) {
+                        if (treeTrait.getIntent() == TreeTrait.Intent.NODE) {
+                            nodeTraits.add(treeTrait);
+                        } else if (treeTrait.getIntent() == TreeTrait.Intent.BRANCH) {
+                            branchTraits.add(treeTrait);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private String getTaxonLabel(Tree tree, int number) {
+        // the labels are kept for as long as the nodes have the same taxa
+        final String id = tree.getTaxonId(number);
+        if (taxonIds == null || taxonIds.length <= number) {
+            final int count = Math.max(tree.getExternalNodeCount(), number + 1);
+            taxonIds = new String[count];
+            taxonLabels = new String[count];
+        }
+        if (taxonIds[number] != id) {
+            taxonIds[number] = id;
+            taxonLabels[number] = formatTaxonLabel(id, number);
+        }
+        return taxonLabels[number];
+    }
+
+    private String formatTaxonLabel(String id, int number) {
+        if (!labels) {
+            if (idMap != null) {
+                return String.valueOf(idMap.get(id));
+            } else {
+                return Integer.toString(number + 1);
+            }
+        } else if (id.contains(" ") || id.contains(":") || id.contains(";") || id.contains(",")) {
+            return "\"" + id + "\"";
+        } else {
+            return id;
+        }
+    }
+
+    /**
+     * @return the number of decimal places if the format only rounds to a number of decimal places
+     * (as the number instance for an English locale with a maximum number of fraction digits does),
+     * otherwise -1
+     */
+    private static int getDecimalPlaces(NumberFormat format) {
+        if (!(format instanceof DecimalFormat)) {
+            return -1;
+        }
+
+        DecimalFormat decimalFormat = (DecimalFormat) format;
+        DecimalFormatSymbols symbols = decimalFormat.getDecimalFormatSymbols();
+        final int places = decimalFormat.getMaximumFractionDigits();
+        if (places > MAX_DECIMAL_PLACES ||
+                decimalFormat.getMinimumFractionDigits() != 0 ||
+                decimalFormat.getMinimumIntegerDigits() != 1 ||
+                decimalFormat.getMaximumIntegerDigits() < 3 ||
+                decimalFormat.getMultiplier() != 1 ||
+                decimalFormat.getRoundingMode() != RoundingMode.HALF_EVEN ||
+                decimalFormat.isDecimalSeparatorAlwaysShown() ||
+                (decimalFormat.isGroupingUsed() && decimalFormat.getGroupingSize() > 0 && decimalFormat.getGroupingSize() < 3) ||
+                decimalFormat.getPositivePrefix().length() > 0 ||
+                decimalFormat.getPositiveSuffix().length() > 0 ||
+                symbols.getDecimalSeparator() != '.' ||
+                symbols.getZeroDigit() != '0') {
+            return -1;
+        }
+        return places;
+    }
+
+    /**
+     * Appends value / 10^places, dropping trailing zeros from the fraction.
+     */
+    private static void appendFixed(long value, int places, StringBuilder buffer) {
+        while (places > 0 && value % 10 == 0) {
+            value /= 10;
+            places--;
+        }
+
+        buffer.append(value / POWERS_OF_TEN[places]);
+        if (places > 0) {
+            buffer.append('.');
+            final long fraction = value % POWERS_OF_TEN[places];
+            for (int i = places - 1; i >= 0; i--) {
+                buffer.append((char) ('0' + (fraction / POWERS_OF_TEN[i]) % 10));
+            }
+        }
+    }
+
+    private final Map<String, Integer> idMap;
+    private final boolean labels;
+    private final TreeUtils.BranchLengthType lengths;
+    private final NumberFormat format;
+    private final int decimalPlaces;
+    private final BranchRates branchRates;
+    private final TreeTraitProvider[] treeTraitProviders;
+
+    private final List<TreeTrait<?>> nodeTraits = new ArrayList<TreeTrait<?>>();
+    private final List<TreeTrait<?>> branchTraits = new ArrayList<TreeTrait<?>>();
+
+    private String[] taxonIds = null;
+    private String[] taxonLabels = null;
+}
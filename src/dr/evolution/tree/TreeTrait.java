@@ -87,6 +87,25 @@ public interface TreeTrait<T> {
     boolean getLoggable();
 
 
+    /**
+     * Appends the trait string for the given node, as used by NewickWriter in place of
+     * getTraitString. A trait that can write its value straight into the buffer (so numbers need
+     * not be boxed or made into strings first) may override this to give the same text.
+     *
+     * @param tree   a reference to a tree
+     * @param node   a reference to a node
+     * @param buffer the buffer to append to
+     * @return false if the trait has no value for the node, in which case nothing is appended
+     */
+    default boolean appendTraitString(final Tree tree, final NodeRef node, StringBuilder buffer) {
+        String value = getTraitString(tree, node);
+        if (value == null) {
+            return false;
+        }
+        buffer.append(value);
+        return true;
+    }
+
     interface TraitInfo<T> {
         String getTraitName();
 
@@ -1,10 +1,8 @@
 package dr.evolution.tree.treemetrics;
 
-import dr.evolution.tree.Clade;
+import dr.evolution.tree.CladeStore;
 import dr.evolution.tree.Tree;
 
-import java.util.*;
-
 import static dr.evolution.tree.treemetrics.TreeMetric.Utils.checkTreeTaxa;
 
 /**
@@ -14,24 +12,28 @@ import static dr.evolution.tree.treemetrics.TreeMetric.Utils.checkTreeTaxa;
 public class RobinsonFouldsMetric implements TreeMetric {
 	public static Type TYPE = Type.ROBINSON_FOULDS;
 
+	// reused by each comparison so its tables are only allocated once
+	private final CladeStore cladeStore = new CladeStore(false, false, false);
+
 	public RobinsonFouldsMetric() {
 
 	}
 
 	@Override
-	public double getMetric(Tree tree1, Tree tree2) {
+	public synchronized double getMetric(Tree tree1, Tree tree2) {
 
 		checkTreeTaxa(tree1, tree2);
 
-		Set<Clade> clades1 = Clade.getCladeSet(tree1);
-		Set<Clade> clades2 = Clade.getCladeSet(tree2);
+		cladeStore.clear();
+		cladeStore.setTaxa(tree1);
 
-		clades1.removeAll(clades2);
+		int[] clades1 = CladeStore.getSortedInternalClades(tree1, cladeStore.add(tree1));
+		int[] clades2 = CladeStore.getSortedInternalClades(tree2, cladeStore.getCladeIndices(tree2));
 
 		// Technically RF would be twice this because it doesn't assume
 		// the same set of tips in both trees (so may have a different
 		// number of clades missing from each).
-		return clades1.size();
+		return CladeStore.countMissing(clades1, clades2);
 	}
 
 	@Override
@@ -73,6 +73,11 @@ public abstract class AbstractBranchRateModel extends AbstractModelLikelihood im
         return Double.toString(getBranchRate(tree, node));
     }
 
+    public boolean appendTraitString(final Tree tree, final NodeRef node, StringBuilder buffer) {
+        buffer.append(getBranchRate(tree, node));
+        return true;
+    }
+
     public Model getModel() {
         return this;
     }
@@ -157,7 +157,7 @@ public class DiscretizedBranchRates extends AbstractBranchRateModel implements C
         //for each branch, log the rate and the rate catogory, i.e. dimension = 2
         this.traits = new TreeTrait[2];
 
-        TreeTrait<Double> branchRate = new TreeTrait<Double>() {
+        TreeTrait<Double> branchRate = new TreeTrait.D() {
             @Override
             public String getTraitName() {
                 return RATE;
@@ -183,6 +183,12 @@ public class DiscretizedBranchRates extends AbstractBranchRateModel implements C
                 return Double.toString(getBranchRate(tree, node));
             }
 
+            @Override
+            public boolean appendTraitString(Tree tree, NodeRef node, StringBuilder buffer) {
+                buffer.append(getBranchRate(tree, node));
+                return true;
+            }
+
             @Override
             public boolean getLoggable() {
                 return true;
@@ -194,7 +200,7 @@ public class DiscretizedBranchRates extends AbstractBranchRateModel implements C
             }
         };
 
-        TreeTrait<Integer> rateCategory = new TreeTrait<Integer>() {
+        TreeTrait<Integer> rateCategory = new TreeTrait.I() {
             @Override
             public String getTraitName() {
                 return RATE_CATEGORY;
@@ -220,6 +226,12 @@ public class DiscretizedBranchRates extends AbstractBranchRateModel implements C
                 return Integer.toString(getBranchRateCategory(tree, node));
             }
 
+            @Override
+            public boolean appendTraitString(Tree tree, NodeRef node, StringBuilder buffer) {
+                buffer.append(getBranchRateCategory(tree, node));
+                return true;
+            }
+
             @Override
             public boolean getLoggable() {
                 return true;
@@ -454,8 +454,9 @@ public class GMRFMultilocusSkyrideLikelihood extends OldGMRFSkyrideLikelihood
             TreeModel treeModel = (TreeModel) model;
             int tn = treeList.indexOf(treeModel);
             if (tn >= 0) {
-                //   intervalsList.get(tn).setIntervalsUnknown();  // TODO Why is this slower (?) than remaking whole list?
-                makeTreeIntervalList(treeList, false);
+                // only the changed tree's intervals are recalculated; the intervals are stored and restored
+                // with this likelihood so the other trees' intervals are never left from a rejected move
+                intervalsList.get(tn).setIntervalsUnknown();
                 intervalsKnown = false;
                 likelihoodKnown = false;
             } else {
@@ -908,6 +909,7 @@ public class GMRFMultilocusSkyrideLikelihood extends OldGMRFSkyrideLikelihood
     protected void storeState() {
         // System.arraycopy(numCoalEvents, 0, storedNumCoalEvents, 0, numCoalEvents.length);
         super.storeState();
+        storeTheState();
         System.arraycopy(numCoalEvents, 0, storedNumCoalEvents, 0, numCoalEvents.length);
         // storedPrecMatrix = precMatrix.copy();
         System.arraycopy(ploidySums, 0, storedPloidySums, 0, ploidySums.length);
@@ -916,6 +918,7 @@ public class GMRFMultilocusSkyrideLikelihood extends OldGMRFSkyrideLikelihood
 
     protected void restoreState() {
         super.restoreState();
+        restoreTheState();
 
         // Swap pointers
         double[] tmp = numCoalEvents;
@@ -33,15 +33,22 @@ import dr.inference.model.Likelihood;
 import dr.inference.model.MatrixParameter;
 import dr.inference.model.Model;
 import dr.inference.model.Parameter;
+import dr.inference.model.Variable;
 import dr.util.Author;
 import dr.util.Citable;
 import dr.util.Citation;
+import dr.util.ThreadHelpers;
 import no.uib.cipr.matrix.DenseVector;
 import no.uib.cipr.matrix.SymmTridiagMatrix;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * @author Mandev Gill
@@ -53,6 +60,12 @@ public class GMRFSkygridLikelihood extends GMRFSkyrideLikelihood
 
     public static final boolean DEBUG = false;
 
+    /**
+     * The system property that sets the number of threads used to recalculate the loci whose trees have changed.
+     * This is done on the calling thread unless it is set, as the chain may already be running on every processor.
+     */
+    public static final String THREAD_COUNT_PROPERTY = "skygrid.threads";
+
     private final double cutOff;
     private final int numGridPoints;
     private final int oldFieldLength;
@@ -72,6 +85,20 @@ public class GMRFSkygridLikelihood extends GMRFSkyrideLikelihood
     private double[] ploidySums;
     private double[] storedPloidySums;
 
+    // the contributions of each locus to the grid cells and whether each locus adds to the ploidy sum of a cell
+    private double[][] locusCoalEvents;
+    private double[][] locusSufficientStatistics;
+    private boolean[][] locusPloidyCells;
+    private double[][] storedLocusCoalEvents;
+    private double[][] storedLocusSufficientStatistics;
+    private boolean[][] storedLocusPloidyCells;
+    private boolean[] locusKnown;
+    private boolean[] storedLocusKnown;
+    // whether a locus has been recalculated since the last store, in which case its stored contributions are kept
+    private boolean[] locusChanged;
+
+    private ExecutorService executor = null;
+
 //    protected SymmTridiagMatrix precMatrix;
 //    protected SymmTridiagMatrix storedPrecMatrix;
 
@@ -465,6 +492,9 @@ public class GMRFSkygridLikelihood extends GMRFSkyrideLikelihood
             IntervalList intervalList = (IntervalList) model;
             int tn = intervalsList.indexOf(intervalList);
             if (tn >= 0) {
+                if (locusKnown != null) {
+                    locusKnown[tn] = false;
+                }
                 intervalsKnown = false;
                 likelihoodKnown = false;
             } else {
@@ -475,6 +505,15 @@ public class GMRFSkygridLikelihood extends GMRFSkyrideLikelihood
         }
     }
 
+    protected void handleVariableChangedEvent(Variable variable, int index, Parameter.ChangeType type) {
+        if (variable == ploidyFactors && locusKnown != null) {
+            // the ploidy factors scale every locus's statistics
+            Arrays.fill(locusKnown, false);
+            intervalsKnown = false;
+        }
+        super.handleVariableChangedEvent(variable, index, type);
+    }
+
     public void initializationReport() {
         System.out.println("Creating a GMRF smoothed skyride model for multiple loci (SkyGrid)");
         System.out.println("\tPopulation sizes: " + popSizeParameter.getDimension());
@@ -496,14 +535,143 @@ public class GMRFSkygridLikelihood extends GMRFSkyrideLikelihood
         }
     }
 
+    /**
+     * Sums the sufficient statistics over the loci. Each locus keeps its own contributions to the grid cells,
+     * which are only recalculated when that locus's intervals have changed, so a move on one tree of a
+     * multilocus analysis does not rescan the others.
+     */
     protected void setupSufficientStatistics() {
 
+        if (locusCoalEvents == null) {
+            locusCoalEvents = new double[numTrees][fieldLength];
+            locusSufficientStatistics = new double[numTrees][fieldLength];
+            locusPloidyCells = new boolean[numTrees][fieldLength];
+            storedLocusCoalEvents = new double[numTrees][fieldLength];
+            storedLocusSufficientStatistics = new double[numTrees][fieldLength];
+            storedLocusPloidyCells = new boolean[numTrees][fieldLength];
+            locusKnown = new boolean[numTrees];
+            storedLocusKnown = new boolean[numTrees];
+            locusChanged = new boolean[numTrees];
+        }
+
+        updateLocusStatistics();
+
         //numCoalEvents = new double[fieldLength];
         //sufficientStatistics = new double[fieldLength];
 
         Arrays.fill(numCoalEvents, 0);
         Arrays.fill(sufficientStatistics, 0);
         Arrays.fill(ploidySums, 0);
+
+        for (int i = 0; i < numTrees; i++) {
+            final double logPloidyFactor = Math.log(1 / getPopulationFactor(i));
+            final double[] coalEvents = locusCoalEvents[i];
+            final double[] statistics = locusSufficientStatistics[i];
+            final boolean[] ploidyCells = locusPloidyCells[i];
+            for (int j = 0; j < fieldLength; j++) {
+                numCoalEvents[j] += coalEvents[j];
+                sufficientStatistics[j] += statistics[j];
+                // the ploidy sum of a cell takes the coalescent events of this and all the earlier loci
+                if (ploidyCells[j]) {
+                    ploidySums[j] = ploidySums[j] + logPloidyFactor * numCoalEvents[j];
+                }
+            }
+        }
+    }
+
+    /**
+     * Recalculates the contributions of the loci whose intervals have changed, in parallel if there are
+     * several of them. The contributions from before the last store are kept until it is accepted.
+     */
+    private void updateLocusStatistics() {
+
+        int changedCount = 0;
+        final int[] changedLoci = new int[numTrees];
+        for (int i = 0; i < numTrees; i++) {
+            if (!locusKnown[i]) {
+                if (!locusChanged[i]) {
+                    swapLocusStatistics(i);
+                    locusChanged[i] = true;
+                }
+                changedLoci[changedCount] = i;
+                changedCount++;
+            }
+        }
+
+        final int threadCount = Math.min(ThreadHelpers.getThreadCount(THREAD_COUNT_PROPERTY, 1), changedCount);
+
+        if (threadCount <= 1 || !distinctIntervals()) {
+            for (int k = 0; k < changedCount; k++) {
+                setupLocusStatistics(changedLoci[k]);
+            }
+        } else {
+            if (executor == null) {
+                executor = ThreadHelpers.newFixedThreadPool(threadCount, "skygrid-loci");
+            }
+
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int k = 0; k < changedCount; k++) {
+                final int i = changedLoci[k];
+                futures.add(executor.submit(new Runnable() {
+                    public void run() {
+                        setupLocusStatistics(i);
+                    }
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                ThreadHelpers.getResult(future, "calculating the skygrid statistics");
+            }
+        }
+
+        for (int k = 0; k < changedCount; k++) {
+            locusKnown[changedLoci[k]] = true;
+        }
+    }
+
+    /**
+     * @return true if no interval list is used for more than one locus, so the loci can be set up at once
+     */
+    private boolean distinctIntervals() {
+        Set<IntervalList> seen = Collections.newSetFromMap(new IdentityHashMap<IntervalList, Boolean>());
+        for (IntervalList intervalList : intervalsList) {
+            if (!seen.add(intervalList)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void swapLocusStatistics(int i) {
+        double[] tmp = locusCoalEvents[i];
+        locusCoalEvents[i] = storedLocusCoalEvents[i];
+        storedLocusCoalEvents[i] = tmp;
+
+        tmp = locusSufficientStatistics[i];
+        locusSufficientStatistics[i] = storedLocusSufficientStatistics[i];
+        storedLocusSufficientStatistics[i] = tmp;
+
+        boolean[] tmp2 = locusPloidyCells[i];
+        locusPloidyCells[i] = storedLocusPloidyCells[i];
+        storedLocusPloidyCells[i] = tmp2;
+    }
+
+    /**
+     * Scans the intervals of one locus against the grid points.
+     */
+    private void setupLocusStatistics(int i) {
+
+        final IntervalList intervals = intervalsList.get(i);
+        intervals.calculateIntervals();
+
+        final double[] coalEvents = locusCoalEvents[i];
+        final double[] statistics = locusSufficientStatistics[i];
+        final boolean[] ploidyCells = locusPloidyCells[i];
+        Arrays.fill(coalEvents, 0);
+        Arrays.fill(statistics, 0);
+        Arrays.fill(ploidyCells, false);
+
+
         //index of smallest grid point greater than at least one sampling/coalescent time in current tree
         int minGridIndex;
         //index of greatest grid point less than at least one sampling/coalescent time in current tree
@@ -516,212 +684,209 @@ public class GMRFSkygridLikelihood extends GMRFSkyrideLikelihood
 
         double currentTime;
         double nextTime;
-        double ploidyFactor;
 
         //time of last coalescent event in tree
         double lastCoalescentTime;
 
-        for (int i = 0; i < numTrees; i++) {
-            ploidyFactor = 1 / getPopulationFactor(i);
-            currentTimeIndex = 0;
-            currentTime = intervalsList.get(i).getIntervalTime(currentTimeIndex);
-            nextTime = intervalsList.get(i).getIntervalTime(currentTimeIndex + 1);
-            while (nextTime <= currentTime) {
-                currentTimeIndex++;
-                currentTime = intervalsList.get(i).getIntervalTime(currentTimeIndex);
-                nextTime = intervalsList.get(i).getIntervalTime(currentTimeIndex + 1);
-            }
-            // need to reduce currentTimeIndex on getLineages
 
-            //  numLineages = intervalsList.get(i).getLineageCount(currentTimeIndex + 1);
-            numLineages = intervalsList.get(i).getLineageCount(currentTimeIndex);
-            minGridIndex = 0;
-            while (minGridIndex < numGridPoints - 1 && gridPoints[minGridIndex] <= currentTime) { // MAS: Unclear about need for -1
-                minGridIndex++;
-            }
-            currentGridIndex = minGridIndex;
+        final double ploidyFactor = 1 / getPopulationFactor(i);
+        currentTimeIndex = 0;
+        currentTime = intervals.getIntervalTime(currentTimeIndex);
+        nextTime = intervals.getIntervalTime(currentTimeIndex + 1);
+        while (nextTime <= currentTime) {
+            currentTimeIndex++;
+            currentTime = intervals.getIntervalTime(currentTimeIndex);
+            nextTime = intervals.getIntervalTime(currentTimeIndex + 1);
+        }
+        // need to reduce currentTimeIndex on getLineages
+
+        //  numLineages = intervals.getLineageCount(currentTimeIndex + 1);
+        numLineages = intervals.getLineageCount(currentTimeIndex);
+        minGridIndex = 0;
+        while (minGridIndex < numGridPoints - 1 && gridPoints[minGridIndex] <= currentTime) { // MAS: Unclear about need for -1
+            minGridIndex++;
+        }
+        currentGridIndex = minGridIndex;
 
-            lastCoalescentTime = currentTime + intervalsList.get(i).getTotalDuration();
+        lastCoalescentTime = currentTime + intervals.getTotalDuration();
 
 //            theLastTime = lastCoalescentTime;
 
-            maxGridIndex = numGridPoints - 1;
-            while ((maxGridIndex >= 0) && (gridPoints[maxGridIndex] >= lastCoalescentTime)) {
-                maxGridIndex = maxGridIndex - 1;
-            }
+        maxGridIndex = numGridPoints - 1;
+        while ((maxGridIndex >= 0) && (gridPoints[maxGridIndex] >= lastCoalescentTime)) {
+            maxGridIndex = maxGridIndex - 1;
+        }
 
-            if (maxGridIndex >= 0 && minGridIndex < numGridPoints) {
+        if (maxGridIndex >= 0 && minGridIndex < numGridPoints) {
 
 
-                //from likelihood of interval between first sampling time and gridPoints[minGridIndex]
+            //from likelihood of interval between first sampling time and gridPoints[minGridIndex]
 
-                while (nextTime < gridPoints[currentGridIndex]) {
+            while (nextTime < gridPoints[currentGridIndex]) {
 
-                    //check to see if interval ends with coalescent event
-                    //if (intervalsList.get(i).getCoalescentEvents(currentTimeIndex + 1) > 0) {
-                    if (intervalsList.get(i).getCoalescentEvents(currentTimeIndex) > 0) {
-                        numCoalEvents[currentGridIndex]++;
-                    }
-                    sufficientStatistics[currentGridIndex] = sufficientStatistics[currentGridIndex] + (nextTime - currentTime) * numLineages * (numLineages - 1) * 0.5 * ploidyFactor;
-                    currentTime = nextTime;
+                //check to see if interval ends with coalescent event
+                //if (intervals.getCoalescentEvents(currentTimeIndex + 1) > 0) {
+                if (intervals.getCoalescentEvents(currentTimeIndex) > 0) {
+                    coalEvents[currentGridIndex]++;
+                }
+                statistics[currentGridIndex] = statistics[currentGridIndex] + (nextTime - currentTime) * numLineages * (numLineages - 1) * 0.5 * ploidyFactor;
+                currentTime = nextTime;
+                currentTimeIndex++;
+                nextTime = intervals.getIntervalTime(currentTimeIndex + 1);
+
+                while (nextTime <= currentTime) {
                     currentTimeIndex++;
-                    nextTime = intervalsList.get(i).getIntervalTime(currentTimeIndex + 1);
+                    currentTime = intervals.getIntervalTime(currentTimeIndex);
+                    nextTime = intervals.getIntervalTime(currentTimeIndex + 1);
+                }
 
-                    while (nextTime <= currentTime) {
-                        currentTimeIndex++;
-                        currentTime = intervalsList.get(i).getIntervalTime(currentTimeIndex);
-                        nextTime = intervalsList.get(i).getIntervalTime(currentTimeIndex + 1);
-                    }
+                //numLineages = intervals.getLineageCount(currentTimeIndex + 1);
+                numLineages = intervals.getLineageCount(currentTimeIndex);
 
-                    //numLineages = intervalsList.get(i).getLineageCount(currentTimeIndex + 1);
-                    numLineages = intervalsList.get(i).getLineageCount(currentTimeIndex);
 
+            }
 
-                }
+            statistics[currentGridIndex] = statistics[currentGridIndex] + (gridPoints[currentGridIndex] - currentTime) * numLineages * (numLineages - 1) * 0.5 * ploidyFactor;
+            ploidyCells[currentGridIndex] = true;
 
-                sufficientStatistics[currentGridIndex] = sufficientStatistics[currentGridIndex] + (gridPoints[currentGridIndex] - currentTime) * numLineages * (numLineages - 1) * 0.5 * ploidyFactor;
-                ploidySums[currentGridIndex] = ploidySums[currentGridIndex] + Math.log(ploidyFactor) * numCoalEvents[currentGridIndex];
+            currentGridIndex++;
 
-                currentGridIndex++;
 
+            //from likelihood of intervals between gridPoints[minGridIndex] and gridPoints[maxGridIndex]
 
-                //from likelihood of intervals between gridPoints[minGridIndex] and gridPoints[maxGridIndex]
+            while (currentGridIndex <= maxGridIndex) {
+                if (nextTime >= gridPoints[currentGridIndex]) {
+                    statistics[currentGridIndex] = statistics[currentGridIndex] + (gridPoints[currentGridIndex] - gridPoints[currentGridIndex - 1]) * numLineages * (numLineages - 1) * 0.5 * ploidyFactor;
+                    ploidyCells[currentGridIndex] = true;
 
-                while (currentGridIndex <= maxGridIndex) {
-                    if (nextTime >= gridPoints[currentGridIndex]) {
-                        sufficientStatistics[currentGridIndex] = sufficientStatistics[currentGridIndex] + (gridPoints[currentGridIndex] - gridPoints[currentGridIndex - 1]) * numLineages * (numLineages - 1) * 0.5 * ploidyFactor;
-                        ploidySums[currentGridIndex] = ploidySums[currentGridIndex] + Math.log(ploidyFactor) * numCoalEvents[currentGridIndex];
+                    currentGridIndex++;
+                } else {
 
-                        currentGridIndex++;
-                    } else {
+                    statistics[currentGridIndex] = statistics[currentGridIndex] + (nextTime - gridPoints[currentGridIndex - 1]) * numLineages * (numLineages - 1) * 0.5 * ploidyFactor;
 
-                        sufficientStatistics[currentGridIndex] = sufficientStatistics[currentGridIndex] + (nextTime - gridPoints[currentGridIndex - 1]) * numLineages * (numLineages - 1) * 0.5 * ploidyFactor;
+                    //check to see if interval ends with coalescent event
+                    //if (intervals.getCoalescentEvents(currentTimeIndex + 1) > 0) {
+                    if (intervals.getCoalescentEvents(currentTimeIndex) > 0) {
+                        coalEvents[currentGridIndex]++;
+                    }
+                    currentTime = nextTime;
+                    currentTimeIndex++;
+                    nextTime = intervals.getIntervalTime(currentTimeIndex + 1);
+                    while (nextTime <= currentTime) {
+                        currentTimeIndex++;
+                        currentTime = intervals.getIntervalTime(currentTimeIndex);
+                        nextTime = intervals.getIntervalTime(currentTimeIndex + 1);
+                    }
+
+                    // numLineages = intervals.getLineageCount(currentTimeIndex + 1);
+                    numLineages = intervals.getLineageCount(currentTimeIndex);
 
-                        //check to see if interval ends with coalescent event
-                        //if (intervalsList.get(i).getCoalescentEvents(currentTimeIndex + 1) > 0) {
-                        if (intervalsList.get(i).getCoalescentEvents(currentTimeIndex) > 0) {
-                            numCoalEvents[currentGridIndex]++;
+
+                    while (nextTime < gridPoints[currentGridIndex]) {
+                        //check to see if interval is coalescent interval or sampling interval
+                        //if (intervals.getCoalescentEvents(currentTimeIndex + 1) > 0) {
+                        if (intervals.getCoalescentEvents(currentTimeIndex) > 0) {
+
+                            coalEvents[currentGridIndex]++;
                         }
+                        statistics[currentGridIndex] = statistics[currentGridIndex] + (nextTime - currentTime) * numLineages * (numLineages - 1) * 0.5 * ploidyFactor;
+
                         currentTime = nextTime;
                         currentTimeIndex++;
-                        nextTime = intervalsList.get(i).getIntervalTime(currentTimeIndex + 1);
+                        nextTime = intervals.getIntervalTime(currentTimeIndex + 1);
                         while (nextTime <= currentTime) {
                             currentTimeIndex++;
-                            currentTime = intervalsList.get(i).getIntervalTime(currentTimeIndex);
-                            nextTime = intervalsList.get(i).getIntervalTime(currentTimeIndex + 1);
+                            currentTime = intervals.getIntervalTime(currentTimeIndex);
+                            nextTime = intervals.getIntervalTime(currentTimeIndex + 1);
                         }
 
-                        // numLineages = intervalsList.get(i).getLineageCount(currentTimeIndex + 1);
-                        numLineages = intervalsList.get(i).getLineageCount(currentTimeIndex);
-
+                        //numLineages = intervals.getLineageCount(currentTimeIndex + 1);
+                        numLineages = intervals.getLineageCount(currentTimeIndex);
 
-                        while (nextTime < gridPoints[currentGridIndex]) {
-                            //check to see if interval is coalescent interval or sampling interval
-                            //if (intervalsList.get(i).getCoalescentEvents(currentTimeIndex + 1) > 0) {
-                            if (intervalsList.get(i).getCoalescentEvents(currentTimeIndex) > 0) {
 
-                                numCoalEvents[currentGridIndex]++;
-                            }
-                            sufficientStatistics[currentGridIndex] = sufficientStatistics[currentGridIndex] + (nextTime - currentTime) * numLineages * (numLineages - 1) * 0.5 * ploidyFactor;
+                    }
+                    statistics[currentGridIndex] = statistics[currentGridIndex] + (gridPoints[currentGridIndex] - currentTime) * numLineages * (numLineages - 1) * 0.5 * ploidyFactor;
+                    ploidyCells[currentGridIndex] = true;
 
-                            currentTime = nextTime;
-                            currentTimeIndex++;
-                            nextTime = intervalsList.get(i).getIntervalTime(currentTimeIndex + 1);
-                            while (nextTime <= currentTime) {
-                                currentTimeIndex++;
-                                currentTime = intervalsList.get(i).getIntervalTime(currentTimeIndex);
-                                nextTime = intervalsList.get(i).getIntervalTime(currentTimeIndex + 1);
-                            }
+                    currentGridIndex++;
+                }
+            }
 
-                            //numLineages = intervalsList.get(i).getLineageCount(currentTimeIndex + 1);
-                            numLineages = intervalsList.get(i).getLineageCount(currentTimeIndex);
+            //from likelihood of interval between gridPoints[maxGridIndex] and lastCoalescentTime
 
+            statistics[currentGridIndex] = statistics[currentGridIndex] + (nextTime - gridPoints[currentGridIndex - 1]) * numLineages * (numLineages - 1) * 0.5 * ploidyFactor;
 
-                        }
-                        sufficientStatistics[currentGridIndex] = sufficientStatistics[currentGridIndex] + (gridPoints[currentGridIndex] - currentTime) * numLineages * (numLineages - 1) * 0.5 * ploidyFactor;
-                        ploidySums[currentGridIndex] = ploidySums[currentGridIndex] + Math.log(ploidyFactor) * numCoalEvents[currentGridIndex];
+            //check to see if interval ends with coalescent event
+            // if (intervals.getCoalescentEvents(currentTimeIndex + 1) > 0) {
+            if (intervals.getCoalescentEvents(currentTimeIndex) > 0) {
 
-                        currentGridIndex++;
-                    }
-                }
-
-                //from likelihood of interval between gridPoints[maxGridIndex] and lastCoalescentTime
+                coalEvents[currentGridIndex]++;
+            }
 
-                sufficientStatistics[currentGridIndex] = sufficientStatistics[currentGridIndex] + (nextTime - gridPoints[currentGridIndex - 1]) * numLineages * (numLineages - 1) * 0.5 * ploidyFactor;
+            currentTime = nextTime;
+            currentTimeIndex++;
 
-                //check to see if interval ends with coalescent event
-                // if (intervalsList.get(i).getCoalescentEvents(currentTimeIndex + 1) > 0) {
-                if (intervalsList.get(i).getCoalescentEvents(currentTimeIndex) > 0) {
+            while ((currentTimeIndex + 1) < intervals.getIntervalCount()) {
+                // currentTime = nextTime;
+                // currentTimeIndex++;
 
-                    numCoalEvents[currentGridIndex]++;
+                nextTime = intervals.getIntervalTime(currentTimeIndex + 1);
+                while (nextTime <= currentTime) {
+                    currentTimeIndex++;
+                    currentTime = intervals.getIntervalTime(currentTimeIndex);
+                    nextTime = intervals.getIntervalTime(currentTimeIndex + 1);
                 }
 
-                currentTime = nextTime;
-                currentTimeIndex++;
+                //numLineages = intervals.getLineageCount(currentTimeIndex + 1);
+                numLineages = intervals.getLineageCount(currentTimeIndex);
 
-                while ((currentTimeIndex + 1) < intervalsList.get(i).getIntervalCount()) {
-                    // currentTime = nextTime;
-                    // currentTimeIndex++;
 
-                    nextTime = intervalsList.get(i).getIntervalTime(currentTimeIndex + 1);
-                    while (nextTime <= currentTime) {
-                        currentTimeIndex++;
-                        currentTime = intervalsList.get(i).getIntervalTime(currentTimeIndex);
-                        nextTime = intervalsList.get(i).getIntervalTime(currentTimeIndex + 1);
-                    }
+                //check to see if interval is coalescent interval or sampling interval
 
-                    //numLineages = intervalsList.get(i).getLineageCount(currentTimeIndex + 1);
-                    numLineages = intervalsList.get(i).getLineageCount(currentTimeIndex);
 
+                //if (intervals.getCoalescentEvents(currentTimeIndex + 1) > 0) {
+                if (intervals.getCoalescentEvents(currentTimeIndex) > 0) {
+                    coalEvents[currentGridIndex]++;
+                }
+                statistics[currentGridIndex] = statistics[currentGridIndex] + (nextTime - currentTime) * numLineages * (numLineages - 1) * 0.5 * ploidyFactor;
+                currentTime = nextTime;
+                currentTimeIndex++;
 
-                    //check to see if interval is coalescent interval or sampling interval
+            }
 
+            // if tree does not overlap with any gridpoints/change-points, in which case logpopsize is constant
 
-                    //if (intervalsList.get(i).getCoalescentEvents(currentTimeIndex + 1) > 0) {
-                    if (intervalsList.get(i).getCoalescentEvents(currentTimeIndex) > 0) {
-                        numCoalEvents[currentGridIndex]++;
-                    }
-                    sufficientStatistics[currentGridIndex] = sufficientStatistics[currentGridIndex] + (nextTime - currentTime) * numLineages * (numLineages - 1) * 0.5 * ploidyFactor;
-                    currentTime = nextTime;
-                    currentTimeIndex++;
+        } else {
+            while ((currentTimeIndex + 1) < intervals.getIntervalCount()) {
+                //check to see if interval is coalescent interval or sampling interval
+                //if (intervals.getCoalescentEvents(currentTimeIndex + 1) > 0) {
+                if (intervals.getCoalescentEvents(currentTimeIndex) > 0) {
 
+                    coalEvents[currentGridIndex]++;
                 }
+                statistics[currentGridIndex] = statistics[currentGridIndex] + (nextTime - currentTime) * numLineages * (numLineages - 1) * 0.5 * ploidyFactor;
 
-                // if tree does not overlap with any gridpoints/change-points, in which case logpopsize is constant
-
-            } else {
-                while ((currentTimeIndex + 1) < intervalsList.get(i).getIntervalCount()) {
-                    //check to see if interval is coalescent interval or sampling interval
-                    //if (intervalsList.get(i).getCoalescentEvents(currentTimeIndex + 1) > 0) {
-                    if (intervalsList.get(i).getCoalescentEvents(currentTimeIndex) > 0) {
+                currentTime = nextTime;
+                currentTimeIndex++;
+                if ((currentTimeIndex + 1) < intervals.getIntervalCount()) {
+                    nextTime = intervals.getIntervalTime(currentTimeIndex + 1);
 
-                        numCoalEvents[currentGridIndex]++;
+                    while (nextTime <= currentTime) {
+                        currentTimeIndex++;
+                        currentTime = intervals.getIntervalTime(currentTimeIndex);
+                        nextTime = intervals.getIntervalTime(currentTimeIndex + 1);
                     }
-                    sufficientStatistics[currentGridIndex] = sufficientStatistics[currentGridIndex] + (nextTime - currentTime) * numLineages * (numLineages - 1) * 0.5 * ploidyFactor;
-
-                    currentTime = nextTime;
-                    currentTimeIndex++;
-                    if ((currentTimeIndex + 1) < intervalsList.get(i).getIntervalCount()) {
-                        nextTime = intervalsList.get(i).getIntervalTime(currentTimeIndex + 1);
-
-                        while (nextTime <= currentTime) {
-                            currentTimeIndex++;
-                            currentTime = intervalsList.get(i).getIntervalTime(currentTimeIndex);
-                            nextTime = intervalsList.get(i).getIntervalTime(currentTimeIndex + 1);
-                        }
 
-                        // numLineages = intervalsList.get(i).getLineageCount(currentTimeIndex + 1);
-                        numLineages = intervalsList.get(i).getLineageCount(currentTimeIndex);
+                    // numLineages = intervals.getLineageCount(currentTimeIndex + 1);
+                    numLineages = intervals.getLineageCount(currentTimeIndex);
 
 
-                    }
-
                 }
-                ploidySums[currentGridIndex] = ploidySums[currentGridIndex] + Math.log(ploidyFactor) * numCoalEvents[currentGridIndex];
 
             }
-        }
+            ploidyCells[currentGridIndex] = true;
 
+        }
     }
 
     public double[] getNumCoalEvents() {
@@ -772,10 +937,8 @@ public class GMRFSkygridLikelihood extends GMRFSkyrideLikelihood
 
         if (!intervalsKnown) {
             // intervalsKnown -> false when handleModelChanged event occurs in super.
+            // only the changed loci's intervals are recalculated, by setupSufficientStatistics
             wrapSetupIntervals();
-            for(IntervalList intervalList : intervalsList){
-                intervalList.calculateIntervals();
-            }
             setupSufficientStatistics();
             intervalsKnown = true;
         }
@@ -956,6 +1119,11 @@ public class GMRFSkygridLikelihood extends GMRFSkyrideLikelihood
         System.arraycopy(numCoalEvents, 0, storedNumCoalEvents, 0, numCoalEvents.length);
         // storedPrecMatrix = precMatrix.copy();
         System.arraycopy(ploidySums, 0, storedPloidySums, 0, ploidySums.length);
+
+        if (locusKnown != null) {
+            System.arraycopy(locusKnown, 0, storedLocusKnown, 0, numTrees);
+            Arrays.fill(locusChanged, false);
+        }
     }
 
 
@@ -969,6 +1137,16 @@ public class GMRFSkygridLikelihood extends GMRFSkyrideLikelihood
         double[] tmp2 = ploidySums;
         ploidySums = storedPloidySums;
         storedPloidySums = tmp2;
+
+        if (locusKnown != null) {
+            for (int i = 0; i < numTrees; i++) {
+                if (locusChanged[i]) {
+                    swapLocusStatistics(i);
+                    locusChanged[i] = false;
+                }
+            }
+            System.arraycopy(storedLocusKnown, 0, locusKnown, 0, numTrees);
+        }
     }
 
     // Implementation of GradientWrtParameterProvider
@@ -1058,9 +1236,6 @@ public class GMRFSkygridLikelihood extends GMRFSkyrideLikelihood
             if (!intervalsKnown) {
                 //intervalsKnown -> false when handleModelChanged event occurs in super.
                 wrapSetupIntervals();
-                for(IntervalList intervalList : intervalsList){
-                    intervalList.calculateIntervals();
-                }
                 setupSufficientStatistics();
                 intervalsKnown = true;
             }
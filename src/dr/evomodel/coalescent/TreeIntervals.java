@@ -22,20 +22,21 @@
  * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
  * Boston, MA  02110-1301  USA
  */
-
 package dr.evomodel.coalescent;
 
 import dr.evolution.coalescent.IntervalList;
 import dr.evolution.coalescent.IntervalType;
-import dr.evolution.coalescent.Intervals;
 import dr.evolution.tree.NodeRef;
 import dr.evolution.tree.Tree;
 import dr.evolution.tree.TreeUtils;
 import dr.evolution.util.TaxonList;
 import dr.evolution.util.Units;
+import dr.evomodel.tree.DefaultTreeModel;
+import dr.evomodel.tree.TreeChangedEvent;
 import dr.evomodel.tree.TreeModel;
 import dr.inference.model.*;
 
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -44,6 +45,12 @@ import java.util.Set;
 /**
  * Forms a base class for a number of coalescent likelihood calculators.
  *
+ * The events are kept sorted by time along with the node that made each one. When only some node heights
+ * have changed, each of those nodes is moved to its new place in the order by a binary search and only the
+ * intervals and lineage counts between its old and new places are recalculated. The whole list is collected
+ * and sorted again after changes to the whole tree or, when subtrees are included or excluded, to its topology.
+ * This is only done for a DefaultTreeModel; the events of any other tree are collected again after every change.
+ *
  * @author Andrew Rambaut
  * @author Alexei Drummond
  * @version $Id: CoalescentLikelihood.java,v 1.43 2006/07/28 11:27:32 rambaut Exp $
@@ -78,8 +85,20 @@ public class TreeIntervals extends AbstractModel implements Units, IntervalList
             addModel((TreeModel) tree);
         }
 
-        intervals = new Intervals(tree.getNodeCount());
-        storedIntervals = new Intervals(tree.getNodeCount());
+        // other trees may not report each changed node height as its own event
+        incremental = (tree.getClass() == DefaultTreeModel.class);
+
+        final int nodeCount = tree.getNodeCount();
+        events = new Events(nodeCount);
+        storedEvents = new Events(nodeCount);
+        sortedEvents = new Event[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            sortedEvents[i] = new Event();
+        }
+
+        changedNodes = new int[nodeCount];
+        storedChangedNodes = new int[nodeCount];
+        nodeChanged = new boolean[nodeCount];
         eventsKnown = false;
 
         addStatistic(new DeltaStatistic());
@@ -91,8 +110,28 @@ public class TreeIntervals extends AbstractModel implements Units, IntervalList
 
     protected void handleModelChangedEvent(Model model, Object object, int index) {
         if (model == tree) {
-            // treeModel has changed so recalculate the intervals
-            eventsKnown = false;
+            if (!incremental) {
+                eventsKnown = false;
+            } else if (eventsKnown && object instanceof TreeChangedEvent) {
+                TreeChangedEvent treeChangedEvent = (TreeChangedEvent) object;
+                if (treeChangedEvent.isNodeChanged()) {
+                    if (treeChangedEvent.isHeightChanged()) {
+                        nodeHeightChanged(treeChangedEvent.getNode().getNumber());
+                    } else if (treeChangedEvent.getParameter() == null && isSubtreeRestricted()) {
+                        // a topology change can move the MRCAs of the included and excluded subtrees
+                        eventsKnown = false;
+                    }
+                    // other node changes (rates and traits) and topology changes of the whole tree leave the
+                    // events alone
+                } else if (treeChangedEvent.isTreeChanged()) {
+                    eventsKnown = false;
+                }
+            } else if (eventsKnown && object instanceof Variable) {
+                // the tree's node parameters also report their changes as tree changed events
+            } else {
+                // treeModel has changed so recalculate the intervals
+                eventsKnown = false;
+            }
         }
 
         fireModelChanged();
@@ -110,24 +149,38 @@ public class TreeIntervals extends AbstractModel implements Units, IntervalList
     // **************************************************************
 
     /**
-     * Stores the precalculated state: in this case the intervals
+     * Stores the precalculated state: in this case the intervals along with the nodes that have changed
+     * since they were calculated
      */
     protected void storeState() {
-        // copy the intervals into the storedIntervals
-        storedIntervals.copyIntervals(intervals);
         storedEventsKnown = eventsKnown;
+        if (eventsKnown) {
+            storedEvents.copyEvents(events);
+            System.arraycopy(changedNodes, 0, storedChangedNodes, 0, changedNodeCount);
+            storedChangedNodeCount = changedNodeCount;
+        }
     }
 
     /**
      * Restores the precalculated state: that is the intervals of the tree.
      */
     protected void restoreState() {
-        // swap the intervals back
-        Intervals tmp = storedIntervals;
-        storedIntervals = intervals;
-        intervals = tmp;
+        for (int i = 0; i < changedNodeCount; i++) {
+            nodeChanged[changedNodes[i]] = false;
+        }
+        changedNodeCount = 0;
 
         eventsKnown = storedEventsKnown;
+        if (eventsKnown) {
+            // swap the intervals back
+            Events tmp = storedEvents;
+            storedEvents = events;
+            events = tmp;
+
+            for (int i = 0; i < storedChangedNodeCount; i++) {
+                nodeHeightChanged(storedChangedNodes[i]);
+            }
+        }
     }
 
     protected final void acceptState() {
@@ -167,43 +220,97 @@ public class TreeIntervals extends AbstractModel implements Units, IntervalList
         return excludeNodesBelow;
     }
 
+    private boolean isSubtreeRestricted() {
+        return includedLeafSet != null || excludedLeafSets != null;
+    }
+
     public Tree getTree() {
         return tree;
     }
 
     public IntervalList getIntervals() {
-        return intervals;
+        return this;
     }
 
     /**
-     * Recalculates all the intervals from the tree model.
+     * Brings the intervals up to date with the tree model: the nodes whose heights have changed are moved
+     * if that is all that has happened, otherwise all the intervals are recalculated.
      */
     public final void calculateIntervals() {
 
-        intervals.resetEvents();
-        if (includedLeafSet != null || excludedLeafSets != null) {
-            collectTimes(tree, getIncludedMRCA(tree), getExcludedMRCAs(tree), intervals);
+        if (!eventsKnown || changedNodeCount > events.eventCount / 4) {
+            collectEvents();
+        } else if (changedNodeCount > 0) {
+            updateEvents();
+        }
+
+        eventsKnown = true;
+    }
+
+    /**
+     * Recalculates all the intervals from the tree model.
+     */
+    private void collectEvents() {
+
+        for (int i = 0; i < changedNodeCount; i++) {
+            nodeChanged[changedNodes[i]] = false;
+        }
+        changedNodeCount = 0;
+
+        collectedEventCount = 0;
+        if (isSubtreeRestricted()) {
+            collectTimes(tree, getIncludedMRCA(tree), getExcludedMRCAs(tree));
         } else {
-            collectTimes(tree, intervals);
+            collectTimes(tree);
         }
 
-        // force a calculation of the intervals...
-        intervals.getIntervalCount();
+        Arrays.sort(sortedEvents, 0, collectedEventCount);
+        events.setEvents(sortedEvents, collectedEventCount, tree.getNodeCount());
+    }
 
-        eventsKnown = true;
+    /**
+     * Moves the events of the nodes whose heights have changed.
+     */
+    private void updateEvents() {
+
+        int first = events.eventCount;
+        int last = -1;
+        for (int i = 0; i < changedNodeCount; i++) {
+            final int nodeNumber = changedNodes[i];
+            nodeChanged[nodeNumber] = false;
+
+            final int oldPosition = events.positions[nodeNumber];
+            if (oldPosition >= 0) {
+                final int newPosition = events.moveEvent(oldPosition,
+                        tree.getNodeHeight(tree.getNode(nodeNumber)));
+                first = Math.min(first, Math.min(oldPosition, newPosition));
+                last = Math.max(last, Math.max(oldPosition, newPosition));
+            }
+        }
+        changedNodeCount = 0;
+
+        if (last >= 0) {
+            events.updateIntervals(first, last);
+        }
     }
 
+    private void nodeHeightChanged(int nodeNumber) {
+        if (!nodeChanged[nodeNumber]) {
+            nodeChanged[nodeNumber] = true;
+            changedNodes[changedNodeCount] = nodeNumber;
+            changedNodeCount++;
+        }
+    }
 
     /**
-     * extract coalescent times and tip information into ArrayList times from tree.
+     * extract coalescent times and tip information into the events from tree.
      *
-     * @param tree      the tree
-     * @param node      the node to start from
-     * @param intervals the intervals object to store the events
+     * @param tree the tree
+     * @param node the node to start from
      */
-    private void collectTimes(Tree tree, NodeRef node, Set<NodeRef> excludeNodesBelow, Intervals intervals) {
+    private void collectTimes(Tree tree, NodeRef node, Set<NodeRef> excludeNodesBelow) {
 
-        intervals.addCoalescentEvent(tree.getNodeHeight(node));
+        addEvent(tree, node, IntervalType.COALESCENT);
 
         for (int i = 0; i < tree.getChildCount(node); i++) {
             NodeRef child = tree.getChild(node, i);
@@ -216,9 +323,9 @@ public class TreeIntervals extends AbstractModel implements Units, IntervalList
             }
 
             if (!include || tree.isExternal(child)) {
-                intervals.addSampleEvent(tree.getNodeHeight(child));
+                addEvent(tree, child, IntervalType.SAMPLE);
             } else {
-                collectTimes(tree, child, excludeNodesBelow, intervals);
+                collectTimes(tree, child, excludeNodesBelow);
             }
         }
 
@@ -227,113 +334,121 @@ public class TreeIntervals extends AbstractModel implements Units, IntervalList
     /**
      * An alternative non-recursive version (doesn't exclude nodes).
      *
-     * @param tree      the tree
-     * @param intervals the intervals object to store the events
+     * @param tree the tree
      */
-    private void collectTimes(Tree tree, Intervals intervals) {
+    private void collectTimes(Tree tree) {
 
         for (int i = 0; i < tree.getExternalNodeCount(); i++) {
-            intervals.addSampleEvent(tree.getNodeHeight(tree.getExternalNode(i)));
+            addEvent(tree, tree.getExternalNode(i), IntervalType.SAMPLE);
         }
         for (int i = 0; i < tree.getInternalNodeCount(); i++) {
-            intervals.addCoalescentEvent(tree.getNodeHeight(tree.getInternalNode(i)));
+            addEvent(tree, tree.getInternalNode(i), IntervalType.COALESCENT);
         }
     }
 
+    private void addEvent(Tree tree, NodeRef node, IntervalType type) {
+        Event event = sortedEvents[collectedEventCount];
+        event.time = tree.getNodeHeight(node);
+        event.type = type;
+        event.node = node.getNumber();
+        collectedEventCount++;
+    }
+
     @Override
     public double getStartTime() {
-        return intervals.getStartTime();
+        if (!eventsKnown || changedNodeCount > 0) {
+            calculateIntervals();
+        }
+        return events.times[0];
     }
 
     @Override
     public int getIntervalCount() {
-        if (!eventsKnown) {
+        if (!eventsKnown || changedNodeCount > 0) {
             calculateIntervals();
         }
-        return intervals.getIntervalCount();
+        return events.eventCount - 1;
     }
 
     @Override
     public int getSampleCount() {
-        if (!eventsKnown) {
+        if (!eventsKnown || changedNodeCount > 0) {
             calculateIntervals();
         }
-        return intervals.getSampleCount();
+        return events.sampleCount;
     }
 
     @Override
     public double getInterval(int i) {
-        if (!eventsKnown) {
+        if (!eventsKnown || changedNodeCount > 0) {
             calculateIntervals();
         }
-        return intervals.getInterval(i);
+        return events.intervals[i];
     }
 
     @Override
     public double getIntervalTime(int i) {
-        if(!eventsKnown){
+        if (!eventsKnown || changedNodeCount > 0) {
             calculateIntervals();
         }
-        return intervals.getIntervalTime(i);
+        return events.times[i];
     }
 
     @Override
     public int getLineageCount(int i) {
-        if (!eventsKnown) {
+        if (!eventsKnown || changedNodeCount > 0) {
             calculateIntervals();
         }
         if (i >= getIntervalCount()) throw new IllegalArgumentException();
-        return intervals.getLineageCount(i);
+        return events.lineageCounts[i];
     }
 
     @Override
     public int getCoalescentEvents(int i) {
-        if (!eventsKnown) {
+        if (!eventsKnown || changedNodeCount > 0) {
             calculateIntervals();
         }
-        return intervals.getCoalescentEvents(i);
+        if (i < events.eventCount - 2) {
+            return events.lineageCounts[i] - events.lineageCounts[i + 1];
+        } else {
+            return events.lineageCounts[i] - 1;
+        }
     }
 
     @Override
     public IntervalType getIntervalType(int i) {
-        if (!eventsKnown) {
+        if (!eventsKnown || changedNodeCount > 0) {
             calculateIntervals();
         }
-        return intervals.getIntervalType(i);
+        return events.types[i + 1];
     }
 
     @Override
     public double getTotalDuration() {
-        if (!eventsKnown) {
+        if (!eventsKnown || changedNodeCount > 0) {
             calculateIntervals();
         }
-        return intervals.getTotalDuration();
+        return events.times[events.eventCount - 1];
     }
 
     @Override
     public boolean isBinaryCoalescent() {
-        if (!eventsKnown) {
-            calculateIntervals();
-        }
-        return intervals.isBinaryCoalescent();
+        return true;
     }
 
     @Override
     public boolean isCoalescentOnly() {
-        if (!eventsKnown) {
-            calculateIntervals();
-        }
-        return intervals.isCoalescentOnly();
+        return true;
     }
 
     @Override
     public Type getUnits() {
-        return intervals.getUnits();
+        return units;
     }
 
     @Override
     public void setUnits(Type units) {
-        intervals.setUnits(units);
+        this.units = units;
     }
 
     // ****************************************************************
@@ -357,6 +472,168 @@ public class TreeIntervals extends AbstractModel implements Units, IntervalList
 
     }
 
+    /**
+     * An event collected from the tree for a full sort.
+     */
+    private static class Event implements Comparable<Event> {
+
+        public int compareTo(Event o) {
+            return compareEvents(time, type, o.time, o.type);
+        }
+
+        double time;
+        IntervalType type;
+        int node;
+    }
+
+    /**
+     * Events are ordered by time and events at exactly the same time by type.
+     */
+    private static int compareEvents(double time1, IntervalType type1, double time2, IntervalType type2) {
+        if (time1 < time2) {
+            return -1;
+        } else if (time1 > time2) {
+            return 1;
+        } else {
+            return type1.compareTo(type2);
+        }
+    }
+
+    /**
+     * The sorted events along with the interval before each one and the number of lineages in it.
+     */
+    private static class Events {
+
+        Events(int maxEventCount) {
+            times = new double[maxEventCount];
+            types = new IntervalType[maxEventCount];
+            nodes = new int[maxEventCount];
+            positions = new int[maxEventCount];
+            intervals = new double[maxEventCount - 1];
+            lineageCounts = new int[maxEventCount - 1];
+        }
+
+        void copyEvents(Events source) {
+            eventCount = source.eventCount;
+            sampleCount = source.sampleCount;
+            System.arraycopy(source.times, 0, times, 0, eventCount);
+            System.arraycopy(source.types, 0, types, 0, eventCount);
+            System.arraycopy(source.nodes, 0, nodes, 0, eventCount);
+            System.arraycopy(source.positions, 0, positions, 0, positions.length);
+            System.arraycopy(source.intervals, 0, intervals, 0, eventCount - 1);
+            System.arraycopy(source.lineageCounts, 0, lineageCounts, 0, eventCount - 1);
+        }
+
+        void setEvents(Event[] sortedEvents, int eventCount, int nodeCount) {
+            if (eventCount < 2) {
+                throw new IllegalArgumentException("Too few events to construct intervals");
+            }
+
+            this.eventCount = eventCount;
+            sampleCount = 0;
+            Arrays.fill(positions, 0, nodeCount, -1);
+            for (int i = 0; i < eventCount; i++) {
+                times[i] = sortedEvents[i].time;
+                types[i] = sortedEvents[i].type;
+                nodes[i] = sortedEvents[i].node;
+                positions[nodes[i]] = i;
+                if (types[i] == IntervalType.SAMPLE) {
+                    sampleCount++;
+                }
+            }
+            updateIntervals(0, eventCount - 1);
+        }
+
+        /**
+         * Moves an event to its place for a new time, shifting the events in between along by one.
+         *
+         * @return the new position of the event
+         */
+        int moveEvent(int position, double time) {
+            final IntervalType type = types[position];
+            final int node = nodes[position];
+
+            int newPosition;
+            if (compareEvents(time, type, times[position], type) > 0) {
+                // the last event that comes before the new time
+                int low = position + 1;
+                int high = eventCount;
+                while (low < high) {
+                    int mid = (low + high) >>> 1;
+                    if (compareEvents(times[mid], types[mid], time, type) <= 0) {
+                        low = mid + 1;
+                    } else {
+                        high = mid;
+                    }
+                }
+                newPosition = low - 1;
+                for (int i = position; i < newPosition; i++) {
+                    setEvent(i, times[i + 1], types[i + 1], nodes[i + 1]);
+                }
+            } else {
+                // the first event that comes after the new time
+                int low = 0;
+                int high = position;
+                while (low < high) {
+                    int mid = (low + high) >>> 1;
+                    if (compareEvents(times[mid], types[mid], time, type) <= 0) {
+                        low = mid + 1;
+                    } else {
+                        high = mid;
+                    }
+                }
+                newPosition = low;
+                for (int i = position; i > newPosition; i--) {
+                    setEvent(i, times[i - 1], types[i - 1], nodes[i - 1]);
+                }
+            }
+            setEvent(newPosition, time, type, node);
+
+            return newPosition;
+        }
+
+        private void setEvent(int position, double time, IntervalType type, int node) {
+            times[position] = time;
+            types[position] = type;
+            nodes[position] = node;
+            positions[node] = position;
+        }
+
+        /**
+         * Recalculates the intervals and lineage counts that follow the events from first to last.
+         */
+        void updateIntervals(int first, int last) {
+            if (types[0] != IntervalType.SAMPLE) {
+                throw new IllegalArgumentException("First event is not a sample event");
+            }
+
+            // the lineages before the first event are not changed
+            int lineages = (first == 0 ? 1 : lineageCounts[first - 1]);
+
+            final int end = Math.min(last + 1, eventCount - 1);
+            for (int i = Math.max(first, 1); i <= end; i++) {
+                intervals[i - 1] = times[i] - times[i - 1];
+                lineageCounts[i - 1] = lineages;
+                if (types[i] == IntervalType.SAMPLE) {
+                    lineages++;
+                } else if (types[i] == IntervalType.COALESCENT) {
+                    lineages--;
+                }
+            }
+        }
+
+        int eventCount = 0;
+        int sampleCount = 0;
+
+        final double[] times;
+        final IntervalType[] types;
+        final int[] nodes;
+        final int[] positions;
+
+        final double[] intervals;
+        final int[] lineageCounts;
+    }
+
     // ****************************************************************
     // Private and protected stuff
     // ****************************************************************
@@ -365,19 +642,38 @@ public class TreeIntervals extends AbstractModel implements Units, IntervalList
      * The tree.
      */
     private Tree tree = null;
+    private final boolean incremental;
     private Set<String> includedLeafSet = null;
     private Set[] excludedLeafSets = null;
 
     /**
      * The intervals.
      */
-    private Intervals intervals = null;
+    private Events events = null;
 
     /**
      * The stored values for intervals.
      */
-    private Intervals storedIntervals = null;
+    private Events storedEvents = null;
+
+    /**
+     * The events collected from the tree before they are sorted.
+     */
+    private final Event[] sortedEvents;
+    private int collectedEventCount = 0;
+
+    /**
+     * The nodes whose heights have changed since the intervals were calculated.
+     */
+    private final int[] changedNodes;
+    private final boolean[] nodeChanged;
+    private int changedNodeCount = 0;
+
+    private final int[] storedChangedNodes;
+    private int storedChangedNodeCount = 0;
 
     private boolean eventsKnown = false;
     private boolean storedEventsKnown = false;
+
+    private Type units = Type.GENERATIONS;
 }
@@ -98,6 +98,8 @@ public class DefaultTreeModel extends TreeModel {
 
         nodes = new Node[nodeCount];
         storedNodes = new Node[nodeCount];
+        journal = new int[nodeCount];
+        isJournaled = new boolean[nodeCount];
 
         int i = 0;
         int j = externalNodeCount;
@@ -474,12 +476,14 @@ public class DefaultTreeModel extends TreeModel {
     // *****************************************************************
 
     /**
-     * Store current state
+     * Store current state. Rather than copying the whole node structure, the nodes are
+     * journaled: the links of a node are saved the first time it is changed after a store
+     * so a restore only has to put back the nodes that changed.
      */
     protected void storeState() {
 
-        copyNodeStructure(storedNodes);
-        storedRootNumber = root.getNumber();
+        clearJournal();
+        storedRoot = root;
 
     }
 
@@ -488,59 +492,64 @@ public class DefaultTreeModel extends TreeModel {
      */
     protected void restoreState() {
 
-        Node[] tmp = storedNodes;
-        storedNodes = nodes;
-        nodes = tmp;
+        for (int i = 0; i < journalSize; i++) {
+            final int number = journal[i];
+            Node node = nodes[number];
+            Node stored = storedNodes[number];
 
-        root = nodes[storedRootNumber];
+            // the parameter values are automatically stored and restored
+            // just need to put back the links
+            node.parent = stored.parent;
+            node.leftChild = stored.leftChild;
+            node.rightChild = stored.rightChild;
+            node.heightParameter = stored.heightParameter;
+            node.rateParameter = stored.rateParameter;
+            node.traitParameters = stored.traitParameters;
+        }
+        clearJournal();
+
+        root = storedRoot;
     }
 
     /**
      * accept the stored state
      */
     protected void acceptState() {
-    } // nothing to do
+        clearJournal();
+    }
 
     /**
-     * Copies the node connections from this TreeModel's nodes array to the
-     * destination array. Basically it connects up the nodes in destination
-     * in the same way as this TreeModel is set up. This method is package
-     * private.
+     * Saves the links of a node before it is changed, if they have not been saved since the
+     * last store.
      */
-    private void copyNodeStructure(Node[] destination) {
+    private void journalNode(Node node) {
 
-        if (nodes.length != destination.length) {
-            throw new IllegalArgumentException("Node arrays are of different lengths");
+        // nodes are linked up while the tree is being constructed, before there is a journal
+        if (journal == null) {
+            return;
         }
 
-        for (int i = 0, n = nodes.length; i < n; i++) {
-            Node node0 = nodes[i];
-            Node node1 = destination[i];
-
-            // the parameter values are automatically stored and restored
-            // just need to keep the links
-            node1.heightParameter = node0.heightParameter;
-            node1.rateParameter = node0.rateParameter;
-            node1.traitParameters = node0.traitParameters;
-
-            if (node0.parent != null) {
-                node1.parent = storedNodes[node0.parent.getNumber()];
-            } else {
-                node1.parent = null;
-            }
+        final int number = node.getNumber();
+        if (!isJournaled[number]) {
+            Node stored = storedNodes[number];
+            stored.parent = node.parent;
+            stored.leftChild = node.leftChild;
+            stored.rightChild = node.rightChild;
+            stored.heightParameter = node.heightParameter;
+            stored.rateParameter = node.rateParameter;
+            stored.traitParameters = node.traitParameters;
 
-            if (node0.leftChild != null) {
-                node1.leftChild = storedNodes[node0.leftChild.getNumber()];
-            } else {
-                node1.leftChild = null;
-            }
+            isJournaled[number] = true;
+            journal[journalSize] = number;
+            journalSize++;
+        }
+    }
 
-            if (node0.rightChild != null) {
-                node1.rightChild = storedNodes[node0.rightChild.getNumber()];
-            } else {
-                node1.rightChild = null;
-            }
+    private void clearJournal() {
+        for (int i = 0; i < journalSize; i++) {
+            isJournaled[journal[i]] = false;
         }
+        journalSize = 0;
     }
 
     /**
@@ -952,6 +961,9 @@ public class DefaultTreeModel extends TreeModel {
      */
     private void swapParameterObjects(Node n1, Node n2) {
 
+        journalNode(n1);
+        journalNode(n2);
+
         double height1 = n1.getHeight();
         double height2 = n2.getHeight();
 
@@ -1198,6 +1210,8 @@ public class DefaultTreeModel extends TreeModel {
          * @param node new child node
          */
         public void addChild(Node node) {
+            journalNode(this);
+            journalNode(node);
             if (leftChild == null) {
                 leftChild = node;
             } else if (rightChild == null) {
@@ -1214,6 +1228,8 @@ public class DefaultTreeModel extends TreeModel {
          * @param node child to be removed
          */
         public Node removeChild(Node node) {
+            journalNode(this);
+            journalNode(node);
             if (leftChild == node) {
                 leftChild = null;
             } else if (rightChild == node) {
@@ -1234,13 +1250,18 @@ public class DefaultTreeModel extends TreeModel {
             Node node;
             if (n == 0) {
                 node = leftChild;
-                leftChild = null;
             } else if (n == 1) {
                 node = rightChild;
-                rightChild = null;
             } else {
                 throw new IllegalArgumentException("TreeModel.Nodes can only have 2 children");
             }
+            journalNode(this);
+            journalNode(node);
+            if (n == 0) {
+                leftChild = null;
+            } else {
+                rightChild = null;
+            }
             node.parent = null;
             return node;
         }
@@ -1317,13 +1338,17 @@ public class DefaultTreeModel extends TreeModel {
      * root node
      */
     private Node root = null;
-    private int storedRootNumber;
+    private Node storedRoot = null;
 
     /**
      * list of internal nodes (including root)
      */
     private Node[] nodes = null;
+    // the links of the nodes changed since the last store, saved in storedNodes
     private Node[] storedNodes = null;
+    private int[] journal = null;
+    private boolean[] isJournaled = null;
+    private int journalSize = 0;
 
     /**
      * number of nodes (including root and tips)
@@ -27,12 +27,14 @@ package dr.evomodel.tree;
 
 import dr.app.tools.NexusExporter;
 import dr.evolution.tree.*;
+import dr.inference.loggers.AsyncLogWriter;
 import dr.inference.loggers.LogFormatter;
 import dr.inference.loggers.MCLogger;
 import dr.util.Keywordable;
 
 import java.text.NumberFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * A logger that logs tree and clade frequencies.
@@ -62,6 +64,11 @@ public class TreeLogger extends MCLogger {
     private NumberFormat format;
     private LogUpon condition = null;
 
+    private final Queue<TreeRecord> freeRecords = new ConcurrentLinkedQueue<TreeRecord>();
+
+    private NewickWriter newickWriter = null;
+    private final StringBuilder lineBuffer = new StringBuilder();
+
     /**
      * Interface to indicate when to log a tree
      */
@@ -205,10 +212,90 @@ public class TreeLogger extends MCLogger {
         final boolean doIt = condition != null ? condition.logNow(state) :
                     (logEvery < 0 || ((state % logEvery) == 0));
 
-        if ( doIt ) {
-            StringBuffer buffer = new StringBuffer("tree STATE_");
-            buffer.append(state);
+        if ( doIt && getAsyncWriter() != null) {
+            TreeRecord record = freeRecords.poll();
+            if (record == null) {
+                record = new TreeRecord();
+            }
+            record.capture(state);
+            getAsyncWriter().submit(record);
+        } else if ( doIt ) {
+            // the buffer is reused from one state to the next
+            lineBuffer.setLength(0);
+            lineBuffer.append("tree STATE_");
+            lineBuffer.append(state);
+            if (treeAttributeProviders != null) {
+                boolean hasAttribute = false;
+                for (TreeAttributeProvider tap : treeAttributeProviders) {
+                    String[] attributeLabel = tap.getTreeAttributeLabel();
+                    String[] attributeValue = tap.getAttributeForTree(tree);
+                    for (int i = 0; i < attributeLabel.length; i++) {
+                        if (!hasAttribute) {
+                            lineBuffer.append(" [&");
+                            hasAttribute = true;
+                        } else {
+                            lineBuffer.append(",");
+                        }
+                        lineBuffer.append(attributeLabel[i]);
+                        lineBuffer.append("=");
+                        lineBuffer.append(attributeValue[i]);
+                    }
+                }
+                if (hasAttribute) {
+                    lineBuffer.append("]");
+                }
+            }
+
+            lineBuffer.append(" = [&R] ");
+
+            getNewickWriter().write(tree, lineBuffer);
+
+            lineBuffer.append(";");
+            logLine(lineBuffer);
+        }
+    }
+
+    /**
+     * @return the writer for the trees, which writes them as TreeUtils.newick would
+     */
+    private NewickWriter getNewickWriter() {
+        if (newickWriter == null) {
+            if (substitutions) {
+                newickWriter = new NewickWriter(idMap, false, TreeUtils.BranchLengthType.LENGTHS_AS_SUBSTITUTIONS,
+                        format, branchRates, treeTraitProviders);
+            } else {
+                newickWriter = new NewickWriter(idMap, !mapNames, TreeUtils.BranchLengthType.LENGTHS_AS_TIME,
+                        format, null, treeTraitProviders);
+            }
+        }
+        return newickWriter;
+    }
+
+    public void stopLogging() {
+        flushAsyncWriter();
+        logLine("End;");
+        super.stopLogging();
+    }
+
+    public boolean supportsAsyncLogging() {
+        return getClass() == TreeLogger.class;
+    }
+
+    /**
+     * A snapshot of the tree at one state for writing on the AsyncLogWriter's thread. The topology,
+     * branch lengths and taxon labels are copied into arrays and the trait strings into one buffer
+     * (all reused from one state to the next) in the same order that TreeUtils.newick reads them
+     * from the tree, and the newick string is then built from them exactly as TreeUtils.newick
+     * would build it.
+     */
+    private final class TreeRecord implements AsyncLogWriter.Task {
+
+        void capture(long state) {
+            this.state = state;
+
+            attributes = null;
             if (treeAttributeProviders != null) {
+                StringBuffer buffer = new StringBuffer();
                 boolean hasAttribute = false;
                 for (TreeAttributeProvider tap : treeAttributeProviders) {
                     String[] attributeLabel = tap.getTreeAttributeLabel();
@@ -227,28 +314,174 @@ public class TreeLogger extends MCLogger {
                 }
                 if (hasAttribute) {
                     buffer.append("]");
+                    attributes = buffer.toString();
                 }
             }
 
-            buffer.append(" = [&R] ");
+            final int nodeCount = tree.getNodeCount();
+            if (childCounts == null || childCounts.length < nodeCount) {
+                childCounts = new int[nodeCount];
+                children = new int[nodeCount][];
+                labels = new String[nodeCount];
+                lengths = new double[nodeCount];
+            }
 
-            if (substitutions) {
-                TreeUtils.newick(tree, tree.getRoot(), false, TreeUtils.BranchLengthType.LENGTHS_AS_SUBSTITUTIONS,
-                        format, branchRates, treeTraitProviders, idMap, buffer);
+            traits.clear();
+            if (treeTraitProviders != null) {
+                for (TreeTraitProvider ttp : treeTraitProviders) {
+                    for (TreeTrait treeTrait : ttp.getTreeTraits()) {
+                        if (treeTrait.getLoggable() && (treeTrait.getIntent() == TreeTrait.Intent.NODE ||
+                                treeTrait.getIntent() == TreeTrait.Intent.BRANCH)) {
+                            traits.add(treeTrait);
+                        }
+                    }
+                }
+            }
+            if (traitStarts == null || traitStarts.length < traits.size() ||
+                    (traitStarts.length > 0 && traitStarts[0].length < nodeCount)) {
+                traitStarts = new int[traits.size()][nodeCount];
+                traitEnds = new int[traits.size()][nodeCount];
+            }
+            traitText.setLength(0);
+
+            root = tree.getRoot().getNumber();
+            captureNode(tree.getRoot());
+        }
+
+        private void captureNode(NodeRef node) {
+            final int number = node.getNumber();
+            NodeRef parent = tree.getParent(node);
+
+            if (tree.isExternal(node)) {
+                childCounts[number] = 0;
+                labels[number] = tree.getTaxonId(number);
             } else {
-                //System.out.println(treeTraitProviders.length);
-                TreeUtils.newick(tree, tree.getRoot(), !mapNames, TreeUtils.BranchLengthType.LENGTHS_AS_TIME,
-                        format, null, treeTraitProviders, idMap, buffer);
+                final int childCount = tree.getChildCount(node);
+                if (children[number] == null || children[number].length < childCount) {
+                    children[number] = new int[childCount];
+                }
+                childCounts[number] = childCount;
+                for (int i = 0; i < childCount; i++) {
+                    NodeRef child = tree.getChild(node, i);
+                    children[number][i] = child.getNumber();
+                    captureNode(child);
+                }
             }
 
+            captureTraits(node, TreeTrait.Intent.NODE);
+
+            if (parent != null) {
+                captureTraits(node, TreeTrait.Intent.BRANCH);
+
+                double length = tree.getNodeHeight(parent) - tree.getNodeHeight(node);
+                if (substitutions) {
+                    length *= branchRates.getBranchRate(tree, node);
+                }
+                lengths[number] = length;
+            }
+        }
+
+        private void captureTraits(NodeRef node, TreeTrait.Intent intent) {
+            final int number = node.getNumber();
+            for (int i = 0; i < traits.size(); i++) {
+                TreeTrait treeTrait = traits.get(i);
+                if (treeTrait.getIntent() == intent) {
+                    final int start = traitText.length();
+                    if (getNewickWriter().appendTraitString(treeTrait, tree, node, traitText)) {
+                        traitStarts[i][number] = start;
+                        traitEnds[i][number] = traitText.length();
+                    } else {
+                        traitStarts[i][number] = -1;
+                    }
+                }
+            }
+        }
+
+        public void write() {
+            buffer.setLength(0);
+            buffer.append("tree STATE_");
+            buffer.append(state);
+            if (attributes != null) {
+                buffer.append(attributes);
+            }
+            buffer.append(" = [&R] ");
+            writeNode(root, true);
             buffer.append(";");
-            logLine(buffer.toString());
+            logLine(buffer);
+
+            freeRecords.offer(this);
         }
-    }
 
-    public void stopLogging() {
-        logLine("End;");
-        super.stopLogging();
+        private void writeNode(int node, boolean isRoot) {
+            if (childCounts[node] == 0) {
+                String label = labels[node];
+                if (substitutions || mapNames) {
+                    buffer.append(idMap.get(label));
+                } else if (label.contains(" ") || label.contains(":") || label.contains(";") || label.contains(",")) {
+                    buffer.append("\"");
+                    buffer.append(label);
+                    buffer.append("\"");
+                } else {
+                    buffer.append(label);
+                }
+            } else {
+                buffer.append("(");
+                for (int i = 0; i < childCounts[node]; i++) {
+                    if (i > 0) {
+                        buffer.append(",");
+                    }
+                    writeNode(children[node][i], false);
+                }
+                buffer.append(")");
+            }
+
+            writeTraits(node, TreeTrait.Intent.NODE);
+
+            if (!isRoot) {
+                buffer.append(":");
+                writeTraits(node, TreeTrait.Intent.BRANCH);
+
+                getNewickWriter().appendBranchLength(lengths[node], buffer);
+            }
+        }
+
+        private void writeTraits(int node, TreeTrait.Intent intent) {
+            boolean hasAttribute = false;
+            for (int i = 0; i < traits.size(); i++) {
+                TreeTrait treeTrait = traits.get(i);
+                if (treeTrait.getIntent() == intent && traitStarts[i][node] >= 0) {
+                    if (!hasAttribute) {
+                        buffer.append("[&");
+                        hasAttribute = true;
+                    } else {
+                        buffer.append(",");
+                    }
+                    buffer.append(treeTrait.getTraitName());
+                    buffer.append("=");
+                    buffer.append(traitText, traitStarts[i][node], traitEnds[i][node]);
+                }
+            }
+            if (hasAttribute) {
+                buffer.append("]");
+            }
+        }
+
+        private long state;
+        private String attributes;
+        private int root;
+
+        private int[] childCounts = null;
+        private int[][] children = null;
+        private String[] labels = null;
+        private double[] lengths = null;
+
+        private final List<TreeTrait> traits = new ArrayList<TreeTrait>();
+        // where each trait's string for each node is in the text, or a start of -1 if it has none
+        private int[][] traitStarts = null;
+        private int[][] traitEnds = null;
+        private final StringBuilder traitText = new StringBuilder();
+
+        private final StringBuilder buffer = new StringBuilder();
     }
 
     public Tree getTree() {
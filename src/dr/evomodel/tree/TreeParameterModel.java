@@ -316,4 +316,9 @@ public class TreeParameterModel extends AbstractModel implements TreeTrait<Doubl
     public String getTraitString(Tree tree, NodeRef node) {
         return Double.toString(getNodeValue(tree, node));
     }
+
+    public boolean appendTraitString(Tree tree, NodeRef node, StringBuilder buffer) {
+        buffer.append(getNodeValue(tree, node));
+        return true;
+    }
 }
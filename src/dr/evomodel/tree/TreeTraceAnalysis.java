@@ -34,6 +34,7 @@ import dr.util.FrequencySet;
 import dr.util.NumberFormatter;
 import jebl.evolution.treemetrics.RobinsonsFouldMetric;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.Reader;
@@ -104,7 +105,8 @@ public class TreeTraceAnalysis {
         double[] rateConditionalOnChange = new double[tree0.getNodeCount()];
         boolean changesFound = false;
 
-        cladeSet = new CladeSet(tree0);
+        cladeStore = new CladeStore(tree0, false, false, true);
+        cladeStore.add(tree0);
         treeSet = new FrequencySet<String>();
         treeSet.add(TreeUtils.uniqueNewick(tree0, tree0.getRoot()));
 
@@ -143,7 +145,7 @@ public class TreeTraceAnalysis {
                     }
                 }
 
-                cladeSet.add(tree);
+                cladeStore.add(tree);
                 treeSet.add(TreeUtils.uniqueNewick(tree, tree.getRoot()));
 
                 if (verbose && i >= (int) Math.round(counter * stepSize) && counter <= reportRate) {
@@ -335,16 +337,15 @@ public class TreeTraceAnalysis {
 
         System.out.println();
         System.out.println(Math.round(minCladeProbability * 100.0) +
-                "%-rule clades (" + cladeSet.size() + " unique clades):");
-        final int nCladeSet = cladeSet.size();
-        for (int i = 0; i < nCladeSet; i++) {
-            final int freq = cladeSet.getFrequency(i);
+                "%-rule clades (" + cladeStore.getCladeCount() + " unique clades):");
+        for (int clade : cladeStore.getCladesByCount()) {
+            final int freq = cladeStore.getCount(clade);
             final double prop = ((double) freq) / totalTrees;
             if (prop >= minCladeProbability) {
                 System.out.print(freq);
                 System.out.print("\t" + nf.formatDecimal(prop * 100.0, 2) + "%");
-                System.out.print("\t" + cladeSet.getMeanNodeHeight(i));
-                System.out.println("\t" + cladeSet.getClade(i));
+                System.out.print("\t" + cladeStore.getMeanHeight(clade));
+                System.out.println("\t" + cladeStore.getCladeString(clade));
             }
         }
 
@@ -358,7 +359,7 @@ public class TreeTraceAnalysis {
         sumFreq = 0;
         assert nTreeSet == treeSet.size();
 
-        final CladeSet tempCladeSet = new CladeSet();
+        final CladeStore tempCladeStore = new CladeStore(false, false, false);
         for (int nt = 0; nt < nTreeSet; nt++) {
 
             sumFreq += treeSet.getFrequency(nt);
@@ -369,21 +370,21 @@ public class TreeTraceAnalysis {
             try {
                 Tree tree = importer.importNextTree();
 
-                tempCladeSet.add(tree);
+                tempCladeStore.add(tree);
             } catch (Importer.ImportException e) {
                 System.err.println("Err");
             }
 
             if (sumFreq >= fiveCredSet) {
                 System.out.println();
-                System.out.println("5% credible set has " + tempCladeSet.getCladeCount() + " clades.");
+                System.out.println("5% credible set has " + tempCladeStore.getCladeCount() + " clades.");
                 // don't do it more than once
                 fiveCredSet = totalTrees + 1;
             }
 
             if (sumFreq >= halfCredSet) {
                 System.out.println();
-                System.out.println("50% credible set has " + tempCladeSet.getCladeCount() + " clades.");
+                System.out.println("50% credible set has " + tempCladeStore.getCladeCount() + " clades.");
                 // don't do it more than once
                 halfCredSet = totalTrees + 1;
             }
@@ -477,7 +478,7 @@ public class TreeTraceAnalysis {
             // calculate conditional average node heights
             final MutableTree tree = analyzeTree(newickTree);
             tree.setAttribute("weight", prop);
-            double p = cladeSet.annotate(tree, "posterior");
+            double p = cladeStore.annotate(tree, "posterior");
             tree.setNodeAttribute(tree.getRoot(), "posterior", Math.exp(p / tree.getInternalNodeCount()));
             trees.add(tree);
 
@@ -522,9 +523,30 @@ public class TreeTraceAnalysis {
         return new TreeTraceAnalysis(trace, burnin, verbose);
     }
 
+    /**
+     * @param files   the tree files to be analyzed
+     * @param burnin  the burnin in states
+     * @param verbose true if progress should be logged to stdout
+     * @return an analyses of the trees in the log files.
+     * @throws java.io.IOException if general I/O error occurs
+     */
+    public static TreeTraceAnalysis analyzeLogFile(File[] files, int burnin, boolean verbose) throws IOException {
+
+        TreeTrace[] trace = new TreeTrace[files.length];
+        for (int i = 0; i < files.length; i++) {
+            try {
+                trace[i] = TreeTrace.loadTreeTrace(files[i]);
+            } catch (Importer.ImportException ie) {
+                throw new RuntimeException(ie.toString());
+            }
+        }
+
+        return new TreeTraceAnalysis(trace, burnin, verbose);
+    }
+
     private int burnin = -1;
     private final TreeTrace[] traces;
 
-    private CladeSet cladeSet;
+    private CladeStore cladeStore;
     private FrequencySet<String> treeSet;
 }
\ No newline at end of file
@@ -35,6 +35,8 @@ import dr.evomodel.branchmodel.BranchModel;
 import dr.evomodel.siteratemodel.SiteRateModel;
 import dr.evomodel.tipstatesmodel.TipStatesModel;
 import dr.evomodel.treelikelihood.PartialsRescalingScheme;
+import dr.evomodel.treelikelihood.PatternLogLikelihoodBuffers;
+import dr.evomodel.treelikelihood.PatternLogLikelihoodProvider;
 import dr.inference.model.*;
 import dr.util.Citable;
 import dr.util.Citation;
@@ -56,7 +58,8 @@ import static dr.evomodel.treedatalikelihood.BeagleFunctionality.*;
  * @version $Id$
  */
 
-public class BeagleDataLikelihoodDelegate extends AbstractModel implements DataLikelihoodDelegate, Citable {
+public class BeagleDataLikelihoodDelegate extends AbstractModel implements DataLikelihoodDelegate,
+        PatternLogLikelihoodProvider, Citable {
 
     private static final boolean COUNT_CALCULATIONS = true; // keep a cumulative total of number of computations
 
@@ -550,6 +553,33 @@ public class BeagleDataLikelihoodDelegate extends AbstractModel implements DataL
         return this.patternList;
     }
 
+    public int getPatternCount() {
+        return patternCount;
+    }
+
+    public double[] getPatternWeights() {
+        return patternWeights;
+    }
+
+    /**
+     * Keeps the pattern log likelihoods from each calculation of the likelihood. This costs a copy
+     * from BEAGLE for every calculation so is only done once something asks for them.
+     */
+    public void cachePatternLogLikelihoods() {
+        if (patternLogLikelihoods == null) {
+            patternLogLikelihoods = new PatternLogLikelihoodBuffers(patternCount);
+            // recalculate so the current state has its values
+            makeDirty();
+        }
+    }
+
+    public double[] getPatternLogLikelihoods() {
+        if (patternLogLikelihoods == null) {
+            throw new IllegalStateException("The pattern log likelihoods are not being cached");
+        }
+        return patternLogLikelihoods.getValues();
+    }
+
     public Beagle getBeagleInstance() { return beagle; }
 
     private int getSingleScaleBufferCount() {
@@ -928,11 +958,9 @@ public class BeagleDataLikelihoodDelegate extends AbstractModel implements DataL
         updateRootFrequency = false;
         //********************************************************************
 
-        // If these are needed...
-        //if (patternLogLikelihoods == null) {
-        //    patternLogLikelihoods = new double[patternCount];
-        //}
-        //beagle.getSiteLogLikelihoods(patternLogLikelihoods);
+        if (patternLogLikelihoods != null) {
+            beagle.getSiteLogLikelihoods(patternLogLikelihoods.getBufferForCalculation());
+        }
 
         return logL;
     }
@@ -987,6 +1015,10 @@ public class BeagleDataLikelihoodDelegate extends AbstractModel implements DataL
 //            storedRescalingCount = rescalingCount;
         }
 
+        if (patternLogLikelihoods != null) {
+            patternLogLikelihoods.storeState();
+        }
+
         // turn on double buffering flipping (may have been turned off to enable a rescale)
         flip = true;
 
@@ -1012,6 +1044,10 @@ public class BeagleDataLikelihoodDelegate extends AbstractModel implements DataL
 //            rescalingCount = storedRescalingCount;
         }
 
+        if (patternLogLikelihoods != null) {
+            patternLogLikelihoods.restoreState();
+        }
+
         isRestored = true;
 
     }
@@ -1197,9 +1233,9 @@ public class BeagleDataLikelihoodDelegate extends AbstractModel implements DataL
     private final SiteRateModel siteRateModel;
 
     /**
-     * the pattern likelihoods
+     * the pattern likelihoods, only kept once cachePatternLogLikelihoods has been called
      */
-    private double[] patternLogLikelihoods = null;
+    private PatternLogLikelihoodBuffers patternLogLikelihoods = null;
 
     /**
      * the number of rate categories
@@ -56,6 +56,9 @@ public final class LikelihoodTreeTraversal extends TreeTraversal {
             case REVERSE_LEVEL_ORDER:
                 traverseReverseLevelOrder(treeModel);
                 break;
+            case DEPENDENCY_LEVEL_ORDER:
+                traverseDependencyLevelOrder(treeModel);
+                break;
             default:
                 assert false : "Unknown traversal type";
         }
@@ -201,6 +204,71 @@ public final class LikelihoodTreeTraversal extends TreeTraversal {
         return update;
     }
 
+    /**
+     * Traverse the tree in post order but add the operations grouped by dependency level: each node
+     * is one level above the highest of its children that is recomputed, so all the operations of a
+     * level can be done at the same time once the levels below are done.
+     *
+     * @param tree tree
+     */
+    private void traverseDependencyLevelOrder(final Tree tree) {
+
+        List<List<DataLikelihoodDelegate.NodeOperation>> operationLevels =
+                new ArrayList<List<DataLikelihoodDelegate.NodeOperation>>();
+
+        traverseDependencyLevelOrder(tree, tree.getRoot(), operationLevels);
+
+        for (List<DataLikelihoodDelegate.NodeOperation> opList : operationLevels) {
+            nodeOperations.addAll(opList);
+        }
+    }
+
+    /**
+     * Traverse the tree in post order collecting the node operations by dependency level.
+     *
+     * @param tree tree
+     * @param node node
+     * @return -1 if nothing below the node (including its branch) was updated, otherwise the level
+     * of the node's operation (0 if its partials are unchanged)
+     */
+    private int traverseDependencyLevelOrder(final Tree tree, final NodeRef node,
+                                             List<List<DataLikelihoodDelegate.NodeOperation>> operationLevels) {
+        int level = -1;
+
+        int nodeNum = node.getNumber();
+
+        // First update the transition probability matrix(ices) for this branch
+        if (tree.getParent(node) != null && updateNode[nodeNum]) {
+            addBranchUpdateOperation(tree, node);
+
+            level = 0;
+        }
+
+        // If the node is internal, update the partial likelihoods.
+        if (!tree.isExternal(node)) {
+
+            NodeRef child1 = tree.getChild(node, 0);
+            final int level1 = traverseDependencyLevelOrder(tree, child1, operationLevels);
+
+            NodeRef child2 = tree.getChild(node, 1);
+            final int level2 = traverseDependencyLevelOrder(tree, child2, operationLevels);
+
+            // If either child node was updated then update this node too
+            if (level1 >= 0 || level2 >= 0) {
+
+                level = Math.max(level1, level2) + 1;
+
+                while (operationLevels.size() < level) {
+                    operationLevels.add(new ArrayList<DataLikelihoodDelegate.NodeOperation>());
+                }
+                operationLevels.get(level - 1).add(
+                        new DataLikelihoodDelegate.NodeOperation(nodeNum, child1.getNumber(), child2.getNumber()));
+            }
+        }
+
+        return level;
+    }
+
     /**
      * Add this node to the branchOperation list for updating of the transition probability matrix.
      *
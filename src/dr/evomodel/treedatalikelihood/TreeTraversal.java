@@ -41,6 +41,7 @@ public abstract class TreeTraversal {
     public enum TraversalType {
         POST_ORDER,          // likelihood
         REVERSE_LEVEL_ORDER, // likelihood
+        DEPENDENCY_LEVEL_ORDER, // likelihood, nodes grouped by height above their tips
         PRE_ORDER            // simulation
     }
 
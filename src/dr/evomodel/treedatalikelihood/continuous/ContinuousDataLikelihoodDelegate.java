@@ -225,7 +225,7 @@ public class ContinuousDataLikelihoodDelegate extends AbstractModel implements D
                             );
                         } else {
                             if (allowSingular) {
-                                base = new SafeMultivariateIntegrator(
+                                base = CDIFactory.createSafeMultivariateIntegrator(
                                         precisionType,
                                         numTraits,
                                         dimTrait,
@@ -745,6 +745,10 @@ public class ContinuousDataLikelihoodDelegate extends AbstractModel implements D
 
     @Override
     public TreeTraversal.TraversalType getOptimalTraversalType() {
+        if (cdi instanceof ParallelSafeMultivariateIntegrator) {
+            // independent nodes are updated together
+            return TreeTraversal.TraversalType.DEPENDENCY_LEVEL_ORDER;
+        }
         return TreeTraversal.TraversalType.POST_ORDER;
     }
 
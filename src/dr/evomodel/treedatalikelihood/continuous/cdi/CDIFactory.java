@@ -36,6 +36,8 @@ import java.util.logging.Logger;
  */
 public class CDIFactory {
 
+    public static final String THREAD_COUNT = "cdi.thread.count";
+
     private static Map<Integer, ResourceDetails> resourceDetailsMap = new HashMap<Integer, ResourceDetails>();
 
     public static String getVersionInformation() {
@@ -117,6 +119,40 @@ public class CDIFactory {
         );
     }
 
+    /**
+     * @return the number of threads to use to update the traits in the Java integrators, as given by
+     * the cdi.thread.count property (1 if it isn't set and all the available processors if it is 0 or less)
+     */
+    public static int getThreadCount() {
+        final String property = System.getProperty(THREAD_COUNT);
+        if (property == null) {
+            return 1;
+        }
+        final int threadCount = Integer.parseInt(property.trim());
+        return (threadCount > 0 ? threadCount : Runtime.getRuntime().availableProcessors());
+    }
+
+    public static SafeMultivariateIntegrator createSafeMultivariateIntegrator(
+            final PrecisionType precisionType,
+            final int numTraits,
+            final int dimTrait,
+            final int dimProcess,
+            final int bufferCount,
+            final int diffusionCount
+    ) {
+        final int threadCount = getThreadCount();
+
+        if (threadCount > 1) {
+            return new ParallelSafeMultivariateIntegrator(
+                    precisionType, numTraits, dimTrait, dimProcess, bufferCount, diffusionCount, threadCount
+            );
+        }
+
+        return new SafeMultivariateIntegrator(
+                precisionType, numTraits, dimTrait, dimProcess, bufferCount, diffusionCount
+        );
+    }
+
     private static CDIJNIWrapper getCDIJNIWrapper() {
         if (CDIJNIWrapper.INSTANCE == null) {
             try {
@@ -87,7 +87,6 @@ public interface ContinuousDiffusionIntegrator extends Reportable {
     void updatePostOrderPartials(final int[] operations, int operationCount, int precisionIndex,
                                  boolean computeRemainders, boolean incrementOuterProducts);
 
-    @SuppressWarnings("unused")
     void updatePreOrderPartials(final int[] operations, int operationCount);
 
     InstanceDetails getDetails();
@@ -537,8 +536,28 @@ public interface ContinuousDiffusionIntegrator extends Reportable {
                 System.err.println("Pre-order operations:");
             }
 
+            int offset = 0;
+            for (int op = 0; op < operationCount; ++op) {
+
+                if (DEBUG) {
+                    System.err.println("\t" + getOperationString(operations, offset));
+                }
+
+                updatePreOrderPartial(
+                        operations[offset    ],
+                        operations[offset + 1],
+                        operations[offset + 2],
+                        operations[offset + 3],
+                        operations[offset + 4]
+                );
+
+                offset += ContinuousDiffusionIntegrator.OPERATION_TUPLE_SIZE;
+            }
 
-            throw new RuntimeException("Not yet implemented");
+            if (DEBUG) {
+                System.err.println("End");
+                System.err.println("");
+            }
         }
 
         @Override
@@ -0,0 +1,274 @@
+package dr.evomodel.treedatalikelihood.continuous.cdi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A SafeMultivariateIntegrator that runs its updates in parallel.
+ *
+ * The post-order and pre-order operations are grouped into dependency levels: a node is in the
+ * level after the last of the nodes it depends on (its children in post-order, its parent in
+ * pre-order). All the nodes of a level, and all the traits of each node, are then independent so
+ * the (node, trait) updates of a level are split into contiguous blocks, one per thread, and each
+ * block has its own workspace so no scratch storage is shared between threads. The operations are
+ * best given already grouped by level (e.g., by a DEPENDENCY_LEVEL_ORDER traversal) but are
+ * regrouped here if they are not.
+ *
+ * If the integrator is called from a fork-join worker (e.g., by a CompoundLikelihood using work
+ * stealing) the blocks are run in that pool, otherwise in a pool shared by all instances with the
+ * same number of threads.
+ */
+
+public class ParallelSafeMultivariateIntegrator extends SafeMultivariateIntegrator {
+
+    public ParallelSafeMultivariateIntegrator(PrecisionType precisionType, int numTraits, int dimTrait, int dimProcess,
+                                              int bufferCount, int diffusionCount, int threadCount) {
+        super(precisionType, numTraits, dimTrait, dimProcess, bufferCount, diffusionCount);
+
+        if (threadCount < 1) {
+            threadCount = Runtime.getRuntime().availableProcessors();
+        }
+
+        workspaces = new Workspace[threadCount];
+        for (int block = 0; block < threadCount; ++block) {
+            workspaces[block] = (block == 0 ? workspace : new Workspace(dimTrait));
+        }
+
+        bufferLevels = new int[bufferCount];
+
+        pool = getSharedPool(threadCount);
+    }
+
+    @Override
+    public void updatePostOrderPartials(final int[] operations, int operationCount, int precisionIndex,
+                                        boolean computeRemainders, boolean incrementOuterProducts) {
+
+        if (incrementOuterProducts) {
+            throw new RuntimeException("Outer-products are not supported.");
+        }
+
+        updatePrecisionOffsetAndDeterminant(precisionIndex);
+
+        final int[] sorted = groupByLevel(operations, operationCount, true);
+
+        for (int level = 0; level < levelCount; ++level) {
+            final int start = levelStarts[level];
+            final int count = levelStarts[level + 1] - start;
+
+            final TraitUpdate[] updates = getUpdates(count);
+            for (int op = 0; op < count; ++op) {
+                final int offset = (start + op) * OPERATION_TUPLE_SIZE;
+                updates[op] = getPostOrderUpdate(
+                        sorted[offset    ],
+                        sorted[offset + 1],
+                        sorted[offset + 2],
+                        sorted[offset + 3],
+                        sorted[offset + 4],
+                        computeRemainders);
+            }
+
+            runUpdates(updates, count);
+        }
+    }
+
+    @Override
+    public void updatePreOrderPartials(final int[] operations, int operationCount) {
+
+        final int[] sorted = groupByLevel(operations, operationCount, false);
+
+        for (int level = 0; level < levelCount; ++level) {
+            final int start = levelStarts[level];
+            final int count = levelStarts[level + 1] - start;
+
+            final TraitUpdate[] updates = getUpdates(count);
+            for (int op = 0; op < count; ++op) {
+                final int offset = (start + op) * OPERATION_TUPLE_SIZE;
+                updates[op] = getPreOrderUpdate(
+                        sorted[offset    ],
+                        sorted[offset + 1],
+                        sorted[offset + 2],
+                        sorted[offset + 3],
+                        sorted[offset + 4]);
+            }
+
+            runUpdates(updates, count);
+        }
+    }
+
+    @Override
+    void updateTraits(final TraitUpdate update) {
+        runUpdates(new TraitUpdate[]{update}, 1);
+    }
+
+    /**
+     * Finds the dependency level of each operation and, unless they are already in level order,
+     * sorts the operations by level (keeping their order within a level).
+     *
+     * @return the operations in level order, with the levels starting at levelStarts
+     */
+    private int[] groupByLevel(final int[] operations, final int operationCount, final boolean postOrder) {
+
+        if (operationLevels == null || operationLevels.length < operationCount) {
+            operationLevels = new int[operationCount];
+        }
+
+        int maxLevel = 0;
+        boolean ordered = true;
+
+        for (int op = 0; op < operationCount; ++op) {
+            final int offset = op * OPERATION_TUPLE_SIZE;
+            final int level;
+            final int destination;
+            if (postOrder) {
+                // k <- (i, j)
+                destination = operations[offset];
+                level = Math.max(bufferLevels[operations[offset + 1]], bufferLevels[operations[offset + 3]]) + 1;
+            } else {
+                // i <- (k, j) where j is a post-order partial
+                destination = operations[offset + 1];
+                level = bufferLevels[operations[offset]] + 1;
+            }
+            bufferLevels[destination] = level;
+            operationLevels[op] = level;
+
+            if (level < maxLevel) {
+                ordered = false;
+            }
+            maxLevel = Math.max(maxLevel, level);
+        }
+
+        // buffers not written in a traversal are ready from the start
+        for (int op = 0; op < operationCount; ++op) {
+            bufferLevels[operations[op * OPERATION_TUPLE_SIZE + (postOrder ? 0 : 1)]] = 0;
+        }
+
+        levelCount = maxLevel;
+        if (levelStarts == null || levelStarts.length < maxLevel + 1) {
+            levelStarts = new int[maxLevel + 1];
+        } else {
+            Arrays.fill(levelStarts, 0, maxLevel + 1, 0);
+        }
+
+        for (int op = 0; op < operationCount; ++op) {
+            levelStarts[operationLevels[op]]++; // levels are 1-based so this counts into the next start
+        }
+        for (int level = 1; level <= maxLevel; ++level) {
+            levelStarts[level] += levelStarts[level - 1];
+        }
+
+        if (ordered) {
+            return operations;
+        }
+
+        if (sortedOperations == null || sortedOperations.length < operationCount * OPERATION_TUPLE_SIZE) {
+            sortedOperations = new int[operationCount * OPERATION_TUPLE_SIZE];
+        }
+
+        final int[] next = new int[maxLevel];
+        System.arraycopy(levelStarts, 0, next, 0, maxLevel);
+
+        for (int op = 0; op < operationCount; ++op) {
+            final int position = next[operationLevels[op] - 1]++;
+            System.arraycopy(operations, op * OPERATION_TUPLE_SIZE,
+                    sortedOperations, position * OPERATION_TUPLE_SIZE, OPERATION_TUPLE_SIZE);
+        }
+
+        return sortedOperations;
+    }
+
+    private TraitUpdate[] getUpdates(int count) {
+        if (levelUpdates == null || levelUpdates.length < count) {
+            levelUpdates = new TraitUpdate[count];
+        }
+        return levelUpdates;
+    }
+
+    /**
+     * Applies each of the updates to every trait, splitting the (update, trait) pairs into
+     * contiguous blocks with a workspace each.
+     */
+    private void runUpdates(final TraitUpdate[] updates, final int count) {
+
+        final int itemCount = count * numTraits;
+        final int blockCount = Math.max(1, Math.min(workspaces.length, itemCount / MIN_UPDATES_PER_BLOCK));
+
+        if (blockCount == 1) {
+            new UpdateBlock(updates, 0, itemCount, workspace).compute();
+            return;
+        }
+
+        final List<UpdateBlock> blocks = new ArrayList<UpdateBlock>(blockCount);
+        for (int block = 0; block < blockCount; ++block) {
+            blocks.add(new UpdateBlock(updates,
+                    (int) ((long) itemCount * block / blockCount),
+                    (int) ((long) itemCount * (block + 1) / blockCount),
+                    workspaces[block]));
+        }
+
+        if (ForkJoinTask.inForkJoinPool()) {
+            ForkJoinTask.invokeAll(blocks);
+        } else {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(blocks);
+                }
+            });
+        }
+    }
+
+    private class UpdateBlock extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        UpdateBlock(TraitUpdate[] updates, int start, int end, Workspace blockWorkspace) {
+            this.updates = updates;
+            this.start = start;
+            this.end = end;
+            this.blockWorkspace = blockWorkspace;
+        }
+
+        @Override
+        protected void compute() {
+            for (int item = start; item < end; ++item) {
+                updates[item / numTraits].update(item % numTraits, blockWorkspace);
+            }
+        }
+
+        private final TraitUpdate[] updates;
+        private final int start;
+        private final int end;
+        private final Workspace blockWorkspace;
+    }
+
+    private static synchronized ForkJoinPool getSharedPool(int threadCount) {
+        ForkJoinPool pool = sharedPools.get(threadCount);
+        if (pool == null) {
+            pool = new ForkJoinPool(threadCount);
+            sharedPools.put(threadCount, pool);
+        }
+        return pool;
+    }
+
+    // below this the cost of handing the updates to other threads outweighs the gain
+    private static final int MIN_UPDATES_PER_BLOCK = 2;
+
+    private final Workspace[] workspaces;
+    private final ForkJoinPool pool;
+
+    private final int[] bufferLevels;
+    private int[] operationLevels;
+    private int[] levelStarts;
+    private int levelCount;
+    private int[] sortedOperations;
+    private TraitUpdate[] levelUpdates;
+
+    // the pools shared by the integrators, keyed by their number of threads
+    private static final Map<Integer, ForkJoinPool> sharedPools = new HashMap<Integer, ForkJoinPool>();
+}
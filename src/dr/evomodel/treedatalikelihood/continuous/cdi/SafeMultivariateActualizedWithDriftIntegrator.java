@@ -539,7 +539,8 @@ public class SafeMultivariateActualizedWithDriftIntegrator extends SafeMultivari
     void computeWeightedSum(final double[] ipartial,
                             final double[] jpartial,
                             final int dimTrait,
-                            final double[] out) {
+                            final double[] out,
+                            final Workspace workspace) {
         weightedSum(ipartial, 0, matrixQdiPip, jpartial, 0, matrixQdjPjp, dimTrait, out);
     }
 
@@ -351,9 +351,10 @@ public class SafeMultivariateDiagonalActualizedWithDriftIntegrator extends SafeM
     void computeWeightedSum(final double[] ipartial,
                             final double[] jpartial,
                             final int dimTrait,
-                            final double[] out) {
-        weightedSumActualized(ipartial, 0, matrixPip, vectorDiagQdi, 0,
-                jpartial, 0, matrixPjp, vectorDiagQdj, 0,
+                            final double[] out,
+                            final Workspace workspace) {
+        weightedSumActualized(ipartial, 0, workspace.matrixPip, vectorDiagQdi, 0,
+                jpartial, 0, workspace.matrixPjp, vectorDiagQdj, 0,
                 dimTrait, out);
     }
 
@@ -38,6 +38,60 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
         vectorDelta = new double[dimTrait];
         vectorPMk = new double[dimTrait];
         matrixQjPjp = new DenseMatrix64F(dimTrait, dimTrait);
+
+        workspace = new Workspace(matrix0, matrix1, matrixPip, matrixPjp, matrixPk, matrixQjPjp,
+                vectorDelta, vectorPMk);
+    }
+
+    /**
+     * The scratch matrices and vectors used to update one trait. The default workspace shares the
+     * storage of the integrator; several traits can be updated at once by giving each thread its
+     * own workspace.
+     */
+    static final class Workspace {
+
+        Workspace(int dimTrait) {
+            this(new DenseMatrix64F(dimTrait, dimTrait), new DenseMatrix64F(dimTrait, dimTrait),
+                    new DenseMatrix64F(dimTrait, dimTrait), new DenseMatrix64F(dimTrait, dimTrait),
+                    new DenseMatrix64F(dimTrait, dimTrait), new DenseMatrix64F(dimTrait, dimTrait),
+                    new double[dimTrait], new double[dimTrait]);
+        }
+
+        Workspace(DenseMatrix64F matrix0, DenseMatrix64F matrix1,
+                  DenseMatrix64F matrixPip, DenseMatrix64F matrixPjp, DenseMatrix64F matrixPk,
+                  DenseMatrix64F matrixQjPjp, double[] vectorDelta, double[] vectorPMk) {
+            this.matrix0 = matrix0;
+            this.matrix1 = matrix1;
+            this.matrixPip = matrixPip;
+            this.matrixPjp = matrixPjp;
+            this.matrixPk = matrixPk;
+            this.matrixQjPjp = matrixQjPjp;
+            this.vectorDelta = vectorDelta;
+            this.vectorPMk = vectorPMk;
+        }
+
+        final DenseMatrix64F matrix0;
+        final DenseMatrix64F matrix1;
+        final DenseMatrix64F matrixPip;
+        final DenseMatrix64F matrixPjp;
+        final DenseMatrix64F matrixPk;
+        final DenseMatrix64F matrixQjPjp;
+        final double[] vectorDelta;
+        final double[] vectorPMk;
+    }
+
+    interface TraitUpdate {
+        void update(int trait, Workspace workspace);
+    }
+
+    /**
+     * Applies the update to each trait in turn using the default workspace. The update of one
+     * trait only touches the partials of that trait so the traits can be done in any order.
+     */
+    void updateTraits(TraitUpdate update) {
+        for (int trait = 0; trait < numTraits; ++trait) {
+            update.update(trait, workspace);
+        }
     }
 
     private static final boolean TIMING = false;
@@ -174,10 +228,23 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
             final int jBuffer, // sibling
             final int jMatrix) {
 
+        updateTraits(getPreOrderUpdate(kBuffer, iBuffer, iMatrix, jBuffer, jMatrix));
+    }
+
+    /**
+     * @return the update of the pre-order partial of node i for a single trait
+     */
+    TraitUpdate getPreOrderUpdate(
+            final int kBuffer, // parent
+            final int iBuffer, // node
+            final int iMatrix,
+            final int jBuffer, // sibling
+            final int jMatrix) {
+
         // Determine buffer offsets
-        int kbo = dimPartial * kBuffer;
-        int ibo = dimPartial * iBuffer;
-        int jbo = dimPartial * jBuffer;
+        final int kbo = dimPartial * kBuffer;
+        final int ibo = dimPartial * iBuffer;
+        final int jbo = dimPartial * jBuffer;
 
         // Determine matrix offsets
         final int imo = dimTrait * dimTrait * iMatrix;
@@ -202,87 +269,94 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
             System.err.println("\tVdi: " + Vdi);
         }
 
-        // For each trait // TODO in parallel
-        for (int trait = 0; trait < numTraits; ++trait) {
+        return (trait, traitWorkspace) -> updatePreOrderPartialForTrait(trait,
+                kbo + trait * dimPartialForTrait,
+                ibo + trait * dimPartialForTrait,
+                jbo + trait * dimPartialForTrait,
+                jBuffer, imo, jmo, ido, jdo, Vdi, Vdj, Pdj, traitWorkspace);
+    }
 
-            // A. Get current precision of k and j
-            final DenseMatrix64F Pk = wrap(preOrderPartials, kbo + dimTrait, dimTrait, dimTrait);
+    private void updatePreOrderPartialForTrait(final int trait,
+                                               final int kbo, final int ibo, final int jbo,
+                                               final int jBuffer,
+                                               final int imo, final int jmo,
+                                               final int ido, final int jdo,
+                                               final DenseMatrix64F Vdi,
+                                               final DenseMatrix64F Vdj,
+                                               final DenseMatrix64F Pdj,
+                                               final Workspace workspace) {
+        // A. Get current precision of k and j
+        final DenseMatrix64F Pk = wrap(preOrderPartials, kbo + dimTrait, dimTrait, dimTrait);
 //            final DenseMatrix64F Pj = wrap(partials, jbo + dimTrait, dimTrait, dimTrait);
 
 //            final DenseMatrix64F Vk = wrap(preOrderPartials, kbo + dimTrait + dimTrait * dimTrait, dimTrait, dimTrait);
 //            final DenseMatrix64F Vj = wrap(partials, jbo + dimTrait + dimTrait * dimTrait, dimTrait, dimTrait);
 
-            // B. Inflate variance along sibling branch using matrix inversion
+        // B. Inflate variance along sibling branch using matrix inversion
 //            final DenseMatrix64F Vjp = matrix0;
-            final DenseMatrix64F Pjp = matrixPjp;
-            increaseVariances(jbo, jBuffer, Vdj, Pdj, Pjp, false);
+        final DenseMatrix64F Pjp = workspace.matrixPjp;
+        increaseVariances(jbo, jBuffer, Vdj, Pdj, Pjp, false, workspace);
 
-            // Actualize
-            final DenseMatrix64F QjPjp = matrixQjPjp;
-            actualizePrecision(Pjp, QjPjp, jbo, jmo, jdo);
+        // Actualize
+        final DenseMatrix64F QjPjp = workspace.matrixQjPjp;
+        actualizePrecision(Pjp, QjPjp, jbo, jmo, jdo);
 
-            // C. Compute prePartial mean
-            final DenseMatrix64F Pip = matrixPip;
-            CommonOps.add(Pk, Pjp, Pip);
+        // C. Compute prePartial mean
+        final DenseMatrix64F Pip = workspace.matrixPip;
+        CommonOps.add(Pk, Pjp, Pip);
 
-            final DenseMatrix64F Vip = matrix1;
-            safeInvert2(Pip, Vip, false);
+        final DenseMatrix64F Vip = workspace.matrix1;
+        safeInvert2(Pip, Vip, false);
 
-            final double[] delta = vectorDelta;
-            computeDelta(jbo, jdo, delta);
+        final double[] delta = workspace.vectorDelta;
+        computeDelta(jbo, jdo, delta);
 
 //            final double[] tmp = vector0;
 //            weightedAverage(preOrderPartials, kbo, Pk,
 //                    delta, 0, QjPjp,
 //                    preOrderPartials, ibo, Vip,
 //                    dimTrait, tmp);
-            safeWeightedAverage(
-                    new WrappedVector.Raw(preOrderPartials, kbo, dimTrait),
-                    Pk,
-                    new WrappedVector.Raw(delta, 0, dimTrait),
-                    QjPjp,
-                    new WrappedVector.Raw(preOrderPartials, ibo, dimTrait),
-                    Vip,
-                    dimTrait);
-
-            scaleAndDriftMean(ibo, imo, ido);
+        safeWeightedAverage(
+                new WrappedVector.Raw(preOrderPartials, kbo, dimTrait),
+                Pk,
+                new WrappedVector.Raw(delta, 0, dimTrait),
+                QjPjp,
+                new WrappedVector.Raw(preOrderPartials, ibo, dimTrait),
+                Vip,
+                dimTrait);
 
-            // C. Inflate variance along node branch
-            final DenseMatrix64F Vi = Vip;
-            actualizeVariance(Vip, ibo, imo, ido);
-            inflateBranch(Vdi, Vip, Vi);
+        scaleAndDriftMean(ibo, imo, ido);
 
-            final DenseMatrix64F Pi = matrixPk;
-            safeInvert2(Vi, Pi, false);
+        // C. Inflate variance along node branch
+        final DenseMatrix64F Vi = Vip;
+        actualizeVariance(Vip, ibo, imo, ido);
+        inflateBranch(Vdi, Vip, Vi);
 
-            // X. Store precision results for node
-            unwrap(Pi, preOrderPartials, ibo + dimTrait);
-            unwrap(Vi, preOrderPartials, ibo + dimTrait + dimTrait * dimTrait);
+        final DenseMatrix64F Pi = workspace.matrixPk;
+        safeInvert2(Vi, Pi, false);
 
-            if (DEBUG) {
-                System.err.println("trait: " + trait);
-                System.err.println("pM: " + new WrappedVector.Raw(preOrderPartials, kbo, dimTrait));
-                System.err.println("pP: " + Pk);
-                System.err.println("sM: " + new WrappedVector.Raw(partials, jbo, dimTrait));
-                DenseMatrix64F Pj = wrap(partials, jbo + dimTrait, dimTrait, dimTrait);
-                DenseMatrix64F Vj = new DenseMatrix64F(dimTrait, dimTrait);
-                CommonOps.invert(Pj, Vj);
-                System.err.println("sP: " + Vj);
-                System.err.println("sP: " + Pj);
-                DenseMatrix64F Vjp = new DenseMatrix64F(dimTrait, dimTrait);
-                CommonOps.invert(Pjp, Vjp);
-                System.err.println("sVp: " + Vjp);
-                System.err.println("sPp: " + Pjp);
-                System.err.println("Pip: " + Pip);
-                System.err.println("QiPip: " + QjPjp);
-                System.err.println("cM: " + new WrappedVector.Raw(preOrderPartials, ibo, dimTrait));
-                System.err.println("cV: " + Vi);
-            }
+        // X. Store precision results for node
+        unwrap(Pi, preOrderPartials, ibo + dimTrait);
+        unwrap(Vi, preOrderPartials, ibo + dimTrait + dimTrait * dimTrait);
 
-            // Get ready for next trait
-            kbo += dimPartialForTrait;
-            ibo += dimPartialForTrait;
-            jbo += dimPartialForTrait;
+        if (DEBUG) {
+            System.err.println("trait: " + trait);
+            System.err.println("pM: " + new WrappedVector.Raw(preOrderPartials, kbo, dimTrait));
+            System.err.println("pP: " + Pk);
+            System.err.println("sM: " + new WrappedVector.Raw(partials, jbo, dimTrait));
+            DenseMatrix64F Pj = wrap(partials, jbo + dimTrait, dimTrait, dimTrait);
+            DenseMatrix64F Vj = new DenseMatrix64F(dimTrait, dimTrait);
+            CommonOps.invert(Pj, Vj);
+            System.err.println("sP: " + Vj);
+            System.err.println("sP: " + Pj);
+            DenseMatrix64F Vjp = new DenseMatrix64F(dimTrait, dimTrait);
+            CommonOps.invert(Pjp, Vjp);
+            System.err.println("sVp: " + Vjp);
+            System.err.println("sPp: " + Pjp);
+            System.err.println("Pip: " + Pip);
+            System.err.println("QiPip: " + QjPjp);
+            System.err.println("cM: " + new WrappedVector.Raw(preOrderPartials, ibo, dimTrait));
+            System.err.println("cV: " + Vi);
         }
     }
 
@@ -325,10 +399,28 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
             startTime("total");
         }
 
+        updateTraits(getPostOrderUpdate(kBuffer, iBuffer, iMatrix, jBuffer, jMatrix, computeRemainders));
+
+        if (TIMING) {
+            endTime("total");
+        }
+    }
+
+    /**
+     * @return the update of the post-order partial of node k for a single trait
+     */
+    TraitUpdate getPostOrderUpdate(
+            final int kBuffer,
+            final int iBuffer,
+            final int iMatrix,
+            final int jBuffer,
+            final int jMatrix,
+            final boolean computeRemainders) {
+
         // Determine buffer offsets
-        int kbo = dimPartial * kBuffer;
-        int ibo = dimPartial * iBuffer;
-        int jbo = dimPartial * jBuffer;
+        final int kbo = dimPartial * kBuffer;
+        final int ibo = dimPartial * iBuffer;
+        final int jbo = dimPartial * jBuffer;
 
         // Determine matrix offsets
         final int imo = dimTrait * dimTrait * iMatrix;
@@ -352,122 +444,126 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
             System.err.println("\tVdj: " + Vdj);
         }
 
-        // For each trait // TODO in parallel
-        for (int trait = 0; trait < numTraits; ++trait) {
-
-            // Layout, offset, dim
-            // trait, 0, dT
-            // precision, dT, dT * dT
-            // variance, dT + dT * dT, dT * dT
-            // scalar, dT + 2 * dT * dT, 1
+        return (trait, traitWorkspace) -> updatePartialForTrait(trait,
+                kBuffer, iBuffer, jBuffer,
+                kbo + trait * dimPartialForTrait,
+                ibo + trait * dimPartialForTrait,
+                jbo + trait * dimPartialForTrait,
+                imo, jmo, ido, jdo, Vdi, Vdj, Pdi, Pdj, computeRemainders, traitWorkspace);
+    }
 
-            // Increase variance along the branches i -> k and j -> k
+    private void updatePartialForTrait(final int trait,
+                                       final int kBuffer, final int iBuffer, final int jBuffer,
+                                       final int kbo, final int ibo, final int jbo,
+                                       final int imo, final int jmo,
+                                       final int ido, final int jdo,
+                                       final DenseMatrix64F Vdi, final DenseMatrix64F Vdj,
+                                       final DenseMatrix64F Pdi, final DenseMatrix64F Pdj,
+                                       final boolean computeRemainders,
+                                       final Workspace workspace) {
+        // Layout, offset, dim
+        // trait, 0, dT
+        // precision, dT, dT * dT
+        // variance, dT + dT * dT, dT * dT
+        // scalar, dT + 2 * dT * dT, 1
 
-            final DenseMatrix64F Pip = matrixPip;
-            final DenseMatrix64F Pjp = matrixPjp;
+        // Increase variance along the branches i -> k and j -> k
 
+        final DenseMatrix64F Pip = workspace.matrixPip;
+        final DenseMatrix64F Pjp = workspace.matrixPjp;
 
-            InversionResult ci = increaseVariances(ibo, iBuffer, Vdi, Pdi, Pip, computeRemainders);
-            InversionResult cj = increaseVariances(jbo, jBuffer, Vdj, Pdj, Pjp, computeRemainders);
 
-            if (TIMING) {
-                endTime("peel2");
-                startTime("peel3");
-            }
+        InversionResult ci = increaseVariances(ibo, iBuffer, Vdi, Pdi, Pip, computeRemainders, workspace);
+        InversionResult cj = increaseVariances(jbo, jBuffer, Vdj, Pdj, Pjp, computeRemainders, workspace);
 
-            // Compute partial mean and precision at node k
-
-            // A. Partial precision and variance (for later use) using one matrix inversion
-            final DenseMatrix64F Pk = matrixPk;
-            computePartialPrecision(ido, jdo, imo, jmo, Pip, Pjp, Pk);
-
-            if (TIMING) {
-                endTime("peel3");
-            }
+        if (TIMING) {
+            endTime("peel2");
+            startTime("peel3");
+        }
 
-            // B. Partial mean
-            partialMean(ibo, jbo, kbo, ido, jdo);
+        // Compute partial mean and precision at node k
 
-            if (TIMING) {
-                startTime("peel5");
-            }
+        // A. Partial precision and variance (for later use) using one matrix inversion
+        final DenseMatrix64F Pk = workspace.matrixPk;
+        computePartialPrecision(ido, jdo, imo, jmo, Pip, Pjp, Pk);
 
-            // C. Store precision
-            unwrap(Pk, partials, kbo + dimTrait);
+        if (TIMING) {
+            endTime("peel3");
+        }
 
-            if (TIMING) {
-                endTime("peel5");
-            }
+        // B. Partial mean
+        partialMean(ibo, jbo, kbo, ido, jdo, workspace);
 
-            if (DEBUG) {
-                final DenseMatrix64F Pi = wrap(partials, ibo + dimTrait, dimTrait, dimTrait);
-                final DenseMatrix64F Pj = wrap(partials, jbo + dimTrait, dimTrait, dimTrait);
-                reportMeansAndPrecisions(trait, ibo, jbo, kbo, Pi, Pj, Pk);
-            }
+        if (TIMING) {
+            startTime("peel5");
+        }
 
-            // Computer remainder at node k
-            double remainder = 0.0;
+        // C. Store precision
+        unwrap(Pk, partials, kbo + dimTrait);
 
-            if (computeRemainders) {
+        if (TIMING) {
+            endTime("peel5");
+        }
 
-                if (DEBUG) {
-                    reportInversions(ci, cj, Pip, Pjp);
-                }
+        if (DEBUG) {
+            final DenseMatrix64F Pi = wrap(partials, ibo + dimTrait, dimTrait, dimTrait);
+            final DenseMatrix64F Pj = wrap(partials, jbo + dimTrait, dimTrait, dimTrait);
+            reportMeansAndPrecisions(trait, ibo, jbo, kbo, Pi, Pj, Pk);
+        }
 
-                if (TIMING) {
-                    startTime("remain");
-                }
+        // Computer remainder at node k
+        double remainder = 0.0;
 
-                if (!(ci.getReturnCode() == NOT_OBSERVED || cj.getReturnCode() == NOT_OBSERVED)) {
+        if (computeRemainders) {
 
-                    // Inner products
-                    double SS = computeSS(ibo, Pip, jbo, Pjp, kbo, Pk, dimTrait);
+            if (DEBUG) {
+                reportInversions(ci, cj, Pip, Pjp);
+            }
 
-                    remainder += -0.5 * SS;
+            if (TIMING) {
+                startTime("remain");
+            }
 
-                    if (DEBUG) {
-                        System.err.println("\t\t\tSS = " + (SS));
-                    }
-                } // End if remainder
+            if (!(ci.getReturnCode() == NOT_OBSERVED || cj.getReturnCode() == NOT_OBSERVED)) {
 
-                double effectiveDimension = getEffectiveDimension(iBuffer) + getEffectiveDimension(jBuffer);
-                remainder += -effectiveDimension * LOG_SQRT_2_PI;
+                // Inner products
+                double SS = computeSS(ibo, Pip, jbo, Pjp, kbo, Pk, dimTrait, workspace);
 
-                double deti = 0;
-                double detj = 0;
-                if (!(ci.getReturnCode() == NOT_OBSERVED)) {
-                    deti = ci.getLogDeterminant(); // TODO: for OU, use det(exp(M)) = exp(tr(M)) ? (Qdi = exp(-A l_i))
-                }
-                if (!(cj.getReturnCode() == NOT_OBSERVED)) {
-                    detj = cj.getLogDeterminant();
-                }
-                remainder += -0.5 * (deti + detj);
+                remainder += -0.5 * SS;
 
                 if (DEBUG) {
-                    System.err.println("\t\t\tdeti = " + ci.getLogDeterminant());
-                    System.err.println("\t\t\tdetj = " + cj.getLogDeterminant());
-                    System.err.println("\t\tremainder: " + remainder);
+                    System.err.println("\t\t\tSS = " + (SS));
                 }
+            } // End if remainder
 
-                if (TIMING) {
-                    endTime("remain");
-                }
-            }
+            double effectiveDimension = getEffectiveDimension(iBuffer) + getEffectiveDimension(jBuffer);
+            remainder += -effectiveDimension * LOG_SQRT_2_PI;
 
-            // Accumulate remainder up tree and store
+            double deti = 0;
+            double detj = 0;
+            if (!(ci.getReturnCode() == NOT_OBSERVED)) {
+                deti = ci.getLogDeterminant(); // TODO: for OU, use det(exp(M)) = exp(tr(M)) ? (Qdi = exp(-A l_i))
+            }
+            if (!(cj.getReturnCode() == NOT_OBSERVED)) {
+                detj = cj.getLogDeterminant();
+            }
+            remainder += -0.5 * (deti + detj);
 
-            remainders[kBuffer * numTraits + trait] = remainder
-                    + remainders[iBuffer * numTraits + trait] + remainders[jBuffer * numTraits + trait];
+            if (DEBUG) {
+                System.err.println("\t\t\tdeti = " + ci.getLogDeterminant());
+                System.err.println("\t\t\tdetj = " + cj.getLogDeterminant());
+                System.err.println("\t\tremainder: " + remainder);
+            }
 
-            // Get ready for next trait
-            kbo += dimPartialForTrait;
-            ibo += dimPartialForTrait;
-            jbo += dimPartialForTrait;
+            if (TIMING) {
+                endTime("remain");
+            }
         }
 
-        if (TIMING) {
-            endTime("total");
-        }
+        // Accumulate remainder up tree and store
+
+        remainders[kBuffer * numTraits + trait] = remainder
+                + remainders[iBuffer * numTraits + trait] + remainders[jBuffer * numTraits + trait];
     }
 
     private void reportInversions(InversionResult ci, InversionResult cj,
@@ -483,7 +579,8 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
                                               final DenseMatrix64F Vdi,
                                               final DenseMatrix64F Pdi,
                                               final DenseMatrix64F Pip,
-                                              final boolean getDeterminant) {
+                                              final boolean getDeterminant,
+                                              final Workspace workspace) {
 
         if (TIMING) {
             startTime("peel1");
@@ -504,7 +601,7 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
 
         if (useVariancei) {
 
-            final DenseMatrix64F Vip = matrix0;
+            final DenseMatrix64F Vip = workspace.matrix0;
             final DenseMatrix64F Vi = wrap(partials, ibo + dimTrait + dimTrait * dimTrait, dimTrait, dimTrait);
             CommonOps.add(Vi, Vdi, Vip);
             if (allZeroOrInfinite(Vip)) {
@@ -514,9 +611,9 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
 
         } else {
 
-            final DenseMatrix64F tmp1 = matrix0;
+            final DenseMatrix64F tmp1 = workspace.matrix0;
             CommonOps.add(Pi, Pdi, tmp1);
-            final DenseMatrix64F tmp2 = matrix1;
+            final DenseMatrix64F tmp2 = workspace.matrix1;
             safeInvert2(tmp1, tmp2, false);
             CommonOps.mult(tmp2, Pi, tmp1);
             idMinusA(tmp1);
@@ -566,19 +663,19 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
     }
 
     void partialMean(int ibo, int jbo, int kbo,
-                     int ido, int jdo) {
+                     int ido, int jdo, Workspace workspace) {
         if (TIMING) {
             startTime("peel4");
         }
 
-        final double[] tmp = vectorPMk;
-        weightedSum(partials, ibo, matrixPip, partials, jbo, matrixPjp, dimTrait, tmp);
+        final double[] tmp = workspace.vectorPMk;
+        weightedSum(partials, ibo, workspace.matrixPip, partials, jbo, workspace.matrixPjp, dimTrait, tmp);
 
 
         final WrappedVector kPartials = new WrappedVector.Raw(partials, kbo, dimTrait);
         final WrappedVector wrapTmp = new WrappedVector.Raw(tmp, 0, dimTrait);
 
-        safeSolve(matrixPk, wrapTmp, kPartials, false);
+        safeSolve(workspace.matrixPk, wrapTmp, kPartials, false);
 
         if (TIMING) {
             endTime("peel4");
@@ -637,7 +734,7 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
             final DenseMatrix64F PTotal = new DenseMatrix64F(dimTrait, dimTrait);
             CommonOps.invert(VTotal, PTotal);  // TODO Does this do anything?
 
-            InversionResult ctot = increaseVariances(rootOffset, rootBufferIndex, VPrior, PPrior, PTotal, true);
+            InversionResult ctot = increaseVariances(rootOffset, rootBufferIndex, VPrior, PPrior, PTotal, true, workspace);
 
             double SS = weightedInnerProductOfDifferences(
                     partials, rootOffset,
@@ -713,17 +810,20 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
                      final DenseMatrix64F Pjp,
                      final int kbo,
                      final DenseMatrix64F Pk,
-                     final int dimTrait) {
+                     final int dimTrait,
+                     final Workspace workspace) {
         return weightedThreeInnerProductNormalized(partials, ibo, Pip,
                 partials, jbo, Pjp,
                 partials, kbo,
-                vectorPMk, 0,
+                workspace.vectorPMk, 0,
                 dimTrait);
     }
 
     private final int effectiveDimensionOffset;
     private final int determinantOffset;
 
+    Workspace workspace;
+
     private DenseMatrix64F matrixQjPjp;
     private double[] vectorDelta;
     double[] vectorPMk;
@@ -136,7 +136,7 @@ public class SafeMultivariateWithDriftIntegrator extends SafeMultivariateIntegra
 
     @Override
     void partialMean(int ibo, int jbo, int kbo,
-                     int ido, int jdo) {
+                     int ido, int jdo, Workspace workspace) {
         if (TIMING) {
             startTime("peel4");
         }
@@ -149,14 +149,14 @@ public class SafeMultivariateWithDriftIntegrator extends SafeMultivariateIntegra
             displacementj[g] = partials[jbo + g] - displacements[jdo + g];
         }
 
-        final double[] tmp = vectorPMk;
+        final double[] tmp = workspace.vectorPMk;
 
-        computeWeightedSum(displacementi, displacementj, dimTrait, tmp);
+        computeWeightedSum(displacementi, displacementj, dimTrait, tmp, workspace);
 
         final WrappedVector kPartials = new WrappedVector.Raw(partials, kbo, dimTrait);
         final WrappedVector wrapTmp = new WrappedVector.Raw(tmp, 0, dimTrait);
 
-        safeSolve(matrixPk, wrapTmp, kPartials, false);
+        safeSolve(workspace.matrixPk, wrapTmp, kPartials, false);
 
         if (TIMING) {
             endTime("peel4");
@@ -183,19 +183,21 @@ public class SafeMultivariateWithDriftIntegrator extends SafeMultivariateIntegra
                      final DenseMatrix64F Pjp,
                      final int kbo,
                      final DenseMatrix64F Pk,
-                     final int dimTrait) {
+                     final int dimTrait,
+                     final Workspace workspace) {
         return weightedThreeInnerProductNormalized(vectorDispi, 0, Pip,
                 vectorDispj, 0, Pjp,
                 partials, kbo,
-                vectorPMk, 0,
+                workspace.vectorPMk, 0,
                 dimTrait);
     }
 
     void computeWeightedSum(final double[] ipartial,
                             final double[] jpartial,
                             final int dimTrait,
-                            final double[] out) {
-        weightedSum(ipartial, 0, matrixPip, jpartial, 0, matrixPjp, dimTrait, out);
+                            final double[] out,
+                            final Workspace workspace) {
+        weightedSum(ipartial, 0, workspace.matrixPip, jpartial, 0, workspace.matrixPjp, dimTrait, out);
     }
 
     double[] displacements;
@@ -66,6 +66,23 @@ public abstract class AbstractFullConditionalDistributionDelegate
         }
     }
 
+    @Override
+    public void simulate(final int[] operations, final int operationCount,
+                         final int rootNodeNumber) {
+
+        if (DEBUG) {
+            super.simulate(operations, operationCount, rootNodeNumber);
+            return;
+        }
+
+        setupStatistics();
+
+        simulateRoot(rootNodeNumber);
+
+        // the whole traversal at once so the integrator can update independent nodes together
+        cdi.updatePreOrderPartials(operations, operationCount);
+    }
+
     @Override
     protected void simulateNode(final int parentNumber,
                                 final int nodeNumber,
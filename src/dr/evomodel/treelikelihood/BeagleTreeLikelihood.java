@@ -83,7 +83,8 @@ import static dr.evomodel.treedatalikelihood.BeagleFunctionality.*;
 
 @SuppressWarnings("serial")
 @Deprecated // Switching to TreeDataLikelihood
-public class BeagleTreeLikelihood extends AbstractSinglePartitionTreeLikelihood implements ThreadAwareLikelihood, Citable {
+public class BeagleTreeLikelihood extends AbstractSinglePartitionTreeLikelihood implements ThreadAwareLikelihood,
+        PatternLogLikelihoodProvider, Citable {
 
     // This property is a comma-delimited list of resource numbers (0 == CPU) to
     // allocate each BEAGLE instance to. If less than the number of instances then
@@ -796,6 +797,8 @@ public class BeagleTreeLikelihood extends AbstractSinglePartitionTreeLikelihood
 //            storedRescalingCount = rescalingCount;
         }
 
+        storedPatternLogLikelihoods = patternLogLikelihoods;
+
         super.storeState();
 
     }
@@ -817,6 +820,11 @@ public class BeagleTreeLikelihood extends AbstractSinglePartitionTreeLikelihood
 //            rescalingCount = storedRescalingCount;
         }
 
+        if (storedPatternLogLikelihoods != null && patternLogLikelihoods != storedPatternLogLikelihoods) {
+            sparePatternLogLikelihoods = patternLogLikelihoods;
+            patternLogLikelihoods = storedPatternLogLikelihoods;
+        }
+
         updateRestrictedNodePartials = true;
 
         super.restoreState();
@@ -837,6 +845,12 @@ public class BeagleTreeLikelihood extends AbstractSinglePartitionTreeLikelihood
 
         if (patternLogLikelihoods == null) {
             patternLogLikelihoods = new double[patternCount];
+            sparePatternLogLikelihoods = new double[patternCount];
+        }
+        if (patternLogLikelihoods == storedPatternLogLikelihoods) {
+            // write into the spare buffer so the stored state's values are kept for a restore
+            patternLogLikelihoods = sparePatternLogLikelihoods;
+            sparePatternLogLikelihoods = storedPatternLogLikelihoods;
         }
 
         if (branchUpdateIndices == null) {
@@ -1024,7 +1038,6 @@ public class BeagleTreeLikelihood extends AbstractSinglePartitionTreeLikelihood
 
             if (ascertainedSitePatterns) {
                 // Need to correct for ascertainedSitePatterns
-                beagle.getSiteLogLikelihoods(patternLogLikelihoods);
                 logL = getAscertainmentCorrectedLogLikelihood((AscertainedSitePatterns) patternList,
                         patternLogLikelihoods, patternWeights);
             }
@@ -1370,6 +1383,13 @@ public class BeagleTreeLikelihood extends AbstractSinglePartitionTreeLikelihood
      */
     protected double[] patternLogLikelihoods = null;
 
+    /**
+     * the pattern likelihoods of the stored state and a buffer for calculating new ones without
+     * overwriting them
+     */
+    private double[] storedPatternLogLikelihoods = null;
+    private double[] sparePatternLogLikelihoods = null;
+
     /**
      * the number of rate categories
      */
@@ -1524,9 +1544,15 @@ public class BeagleTreeLikelihood extends AbstractSinglePartitionTreeLikelihood
 
     public double[] getSiteLogLikelihoods() {
         getLogLikelihood();
-        double[] siteLogLikelihoods = new double[patternCount];
-        beagle.getSiteLogLikelihoods(siteLogLikelihoods);
-        return siteLogLikelihoods;
+        return patternLogLikelihoods.clone();
+    }
+
+    public void cachePatternLogLikelihoods() {
+        // the pattern log likelihoods are always kept
+    }
+
+    public double[] getPatternLogLikelihoods() {
+        return patternLogLikelihoods;
     }
 
     @Override
@@ -0,0 +1,82 @@
+/*
+ * PatternLogLikelihoodBuffers.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.evomodel.treelikelihood;
+
+/**
+ * The double buffered pattern log likelihoods of a PatternLogLikelihoodProvider. Storing the state
+ * marks the current buffer, a calculation after that writes into the spare one and restoring
+ * switches back, so the values are never copied. Caching may start at any point in the
+ * store/restore cycle; if the state is restored before any values were stored for it then the
+ * values are unknown until the likelihood is calculated again.
+ */
+public class PatternLogLikelihoodBuffers {
+
+    public PatternLogLikelihoodBuffers(int patternCount) {
+        current = new double[patternCount];
+        spare = new double[patternCount];
+    }
+
+    /**
+     * @return the buffer to write the values of a new calculation into, which is never the
+     * stored state's
+     */
+    public double[] getBufferForCalculation() {
+        if (current == stored) {
+            current = spare;
+            spare = stored;
+        }
+        known = true;
+        return current;
+    }
+
+    /**
+     * @return the values of the last calculation or of the restored state, or null if they are
+     * not known
+     */
+    public double[] getValues() {
+        return (known ? current : null);
+    }
+
+    public void storeState() {
+        stored = current;
+        storedKnown = known;
+    }
+
+    public void restoreState() {
+        if (stored != null && current != stored) {
+            spare = current;
+            current = stored;
+        }
+        known = storedKnown;
+    }
+
+    private double[] current;
+    private double[] spare;
+    private double[] stored = null;
+
+    private boolean known = false;
+    private boolean storedKnown = false;
+}
@@ -0,0 +1,51 @@
+/*
+ * PatternLogLikelihoodProvider.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.evomodel.treelikelihood;
+
+/**
+ * A likelihood that keeps the log likelihood of each pattern from its regular calculation so that
+ * they can be read (e.g., by a logger) without calculating them again.
+ */
+public interface PatternLogLikelihoodProvider {
+
+    int getPatternCount();
+
+    double[] getPatternWeights();
+
+    /**
+     * Asks for the pattern log likelihoods to be kept from now on. This may force the likelihood to
+     * be recalculated once.
+     */
+    void cachePatternLogLikelihoods();
+
+    /**
+     * @return the log likelihoods of the patterns for the last calculated state, or null if they
+     * are not known (caching started after the state was stored and it has since been restored)
+     * in which case the likelihood must be calculated again. The array is owned by the likelihood
+     * and should not be modified or kept past the next calculation.
+     */
+    double[] getPatternLogLikelihoods();
+}
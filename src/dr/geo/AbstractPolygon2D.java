@@ -116,6 +116,8 @@ public abstract class AbstractPolygon2D {
             x[i] = point.getX();
             y[i] = point.getY();
         }
+        gridIndex = null;
+        gridIndexKnown = false;
     }
 
     public void addPoint2D(Point2D point2D) {
@@ -204,6 +206,15 @@ public abstract class AbstractPolygon2D {
 
         final double inX = Point2D.getX();
         final double inY = Point2D.getY();
+
+        if (!gridIndexKnown) {
+            gridIndex = PolygonGridIndex.create(x, y, length);
+            gridIndexKnown = true;
+        }
+        if (gridIndex != null) {
+            return gridIndex.contains(inX, inY);
+        }
+
         boolean contains = false;
 
         // Take a horizontal ray from (inX,inY) to the right.
@@ -667,4 +678,8 @@ public abstract class AbstractPolygon2D {
     protected double[] max;
     protected double[] min;
 
+    // built when first needed and dropped whenever the vertices are replaced
+    private PolygonGridIndex gridIndex = null;
+    private boolean gridIndexKnown = false;
+
 }
@@ -37,7 +37,8 @@ import java.util.List;
  *         <p/>
  *         Provides a GeoSpatialDistribution over multiple points in multiple polygon.
  *         Uses AbstractModelLikelihood to cache 'contains' to reduce recalculations
- *         when only a single point is updated
+ *         when only a single point is updated. Only the points changed since the last
+ *         store are saved and put back on a restore.
  */
 
 public class GeoSpatialCollectionModel extends AbstractModelLikelihood {
@@ -55,6 +56,8 @@ public class GeoSpatialCollectionModel extends AbstractModelLikelihood {
         storedCachedPointLogLikelihood = new double[dim];
         validPointLogLikelihood = new boolean[dim];
         storedValidPointLogLikelihood = new boolean[dim];
+        changedPoints = new int[dim];
+        pointChanged = new boolean[dim];
         likelihoodKnown = false;
 
         addVariable(points);
@@ -67,15 +70,38 @@ public class GeoSpatialCollectionModel extends AbstractModelLikelihood {
     }
 
     protected void handleVariableChangedEvent(Variable variable, int index, Parameter.ChangeType type) {
-        // Mark appropriate dim as invalid
-        validPointLogLikelihood[index / GeoSpatialDistribution.dimPoint] = false;
-        likelihoodKnown = false;
+        if (index == -1) {
+            // the whole parameter has changed
+            makeDirty();
+        } else {
+            // Mark appropriate dim as invalid
+            invalidatePoint(index / GeoSpatialDistribution.dimPoint);
+            likelihoodKnown = false;
+        }
+    }
+
+    private void invalidatePoint(int i) {
+        if (!pointChanged[i]) {
+            storedCachedPointLogLikelihood[i] = cachedPointLogLikelihood[i];
+            storedValidPointLogLikelihood[i] = validPointLogLikelihood[i];
+            pointChanged[i] = true;
+            changedPoints[changedPointCount] = i;
+            changedPointCount++;
+        }
+        validPointLogLikelihood[i] = false;
+    }
+
+    private void clearChangedPoints() {
+        for (int k = 0; k < changedPointCount; k++) {
+            pointChanged[changedPoints[k]] = false;
+        }
+        changedPointCount = 0;
     }
 
     protected void storeState() {
 
-        System.arraycopy(cachedPointLogLikelihood, 0, storedCachedPointLogLikelihood, 0, dim);
-        System.arraycopy(validPointLogLikelihood, 0, storedValidPointLogLikelihood, 0, dim);
+        // the cached values are already those to keep so only the record of changes is reset
+        clearChangedPoints();
 
         storedLikelihoodKnown = likelihoodKnown;
         storedLogLikelihood = logLikelihood;
@@ -83,13 +109,12 @@ public class GeoSpatialCollectionModel extends AbstractModelLikelihood {
 
     protected void restoreState() {
 
-        double[] tmp1 = cachedPointLogLikelihood;
-        cachedPointLogLikelihood = storedCachedPointLogLikelihood;
-        storedCachedPointLogLikelihood = tmp1;
-
-        boolean[] tmp2 = validPointLogLikelihood;
-        validPointLogLikelihood = storedValidPointLogLikelihood;
-        storedValidPointLogLikelihood = tmp2;
+        for (int k = 0; k < changedPointCount; k++) {
+            final int i = changedPoints[k];
+            cachedPointLogLikelihood[i] = storedCachedPointLogLikelihood[i];
+            validPointLogLikelihood[i] = storedValidPointLogLikelihood[i];
+        }
+        clearChangedPoints();
 
         likelihoodKnown = storedLikelihoodKnown;
         logLikelihood = storedLogLikelihood;
@@ -150,7 +175,7 @@ public class GeoSpatialCollectionModel extends AbstractModelLikelihood {
     public void makeDirty() {
         likelihoodKnown = false;
         for (int i = 0; i < dim; i++)
-            validPointLogLikelihood[i] = false;
+            invalidatePoint(i);
     }
 
     public Parameter getParameter() {
@@ -173,5 +198,10 @@ public class GeoSpatialCollectionModel extends AbstractModelLikelihood {
     private boolean[] validPointLogLikelihood;
     private boolean[] storedValidPointLogLikelihood;
 
+    // the points whose cached values have been saved since the last store
+    private int[] changedPoints;
+    private int changedPointCount = 0;
+    private boolean[] pointChanged;
+
     private final boolean isIntersection;
 }
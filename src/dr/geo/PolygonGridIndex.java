@@ -0,0 +1,216 @@
+/*
+ * PolygonGridIndex.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.geo;
+
+/**
+ * A uniform grid over the bounding box of a polygon that answers the same question as the
+ * ray-cast in AbstractPolygon2D.containsPoint2D without visiting every edge.
+ *
+ * Each grid row keeps the edges whose y-range reaches into it, which are the only edges the
+ * ray-cast from a point in that row can cross. Cells that no edge (or the bounding box of an edge,
+ * widened by a small margin) reaches are wholly inside or wholly outside and are classified once,
+ * so most points are answered by a single look up; points in the other cells are ray-cast
+ * against the edges of their row. Points outside the bounding box fall in the outer cells.
+ */
+class PolygonGridIndex {
+
+    // polygons with fewer edges than this are cheaper to ray-cast directly
+    static final int MIN_EDGE_COUNT = 32;
+
+    private static final int MAX_GRID_SIZE = 256;
+
+    private static final byte BOUNDARY = 0;
+    private static final byte INSIDE = 1;
+    private static final byte OUTSIDE = 2;
+
+    /**
+     * @return an index of the first length edges of the polygon or null if the polygon is too
+     *         small or has no area to index
+     */
+    static PolygonGridIndex create(double[] x, double[] y, int length) {
+        if (length < MIN_EDGE_COUNT) {
+            return null;
+        }
+
+        double minX = x[0];
+        double maxX = x[0];
+        double minY = y[0];
+        double maxY = y[0];
+        for (int i = 1; i < length; i++) {
+            minX = Math.min(minX, x[i]);
+            maxX = Math.max(maxX, x[i]);
+            minY = Math.min(minY, y[i]);
+            maxY = Math.max(maxY, y[i]);
+        }
+
+        // also fails for NaN or infinite coordinates
+        if (!(maxX - minX > 0 && maxY - minY > 0) || Double.isInfinite(maxX - minX) || Double.isInfinite(maxY - minY)) {
+            return null;
+        }
+
+        return new PolygonGridIndex(x, y, length, minX, maxX, minY, maxY);
+    }
+
+    private PolygonGridIndex(double[] x, double[] y, int length,
+                             double minX, double maxX, double minY, double maxY) {
+        this.x = x;
+        this.y = y;
+        this.length = length;
+        this.minX = minX;
+        this.minY = minY;
+
+        gridSize = Math.min(MAX_GRID_SIZE, (int) Math.ceil(Math.sqrt(length)));
+        cellWidth = (maxX - minX) / gridSize;
+        cellHeight = (maxY - minY) / gridSize;
+
+        // far larger than the rounding error of the ray-cast's intersection
+        final double scale = Math.max(Math.max(Math.abs(minX), Math.abs(maxX)), Math.max(Math.abs(minY), Math.abs(maxY)));
+        final double margin = scale * 1E-9;
+
+        // edge i joins vertex i to the vertex before it, as in the ray-cast
+        int[] rowCounts = new int[gridSize];
+        for (int i = 0; i < length; i++) {
+            final int j = previous(i);
+            final int lastRow = row(Math.max(y[i], y[j]));
+            for (int r = row(Math.min(y[i], y[j])); r <= lastRow; r++) {
+                rowCounts[r]++;
+            }
+        }
+
+        rowEdges = new int[gridSize][];
+        for (int r = 0; r < gridSize; r++) {
+            rowEdges[r] = new int[rowCounts[r]];
+            rowCounts[r] = 0;
+        }
+
+        cellStates = new byte[gridSize * gridSize];
+        for (int i = 0; i < length; i++) {
+            final int j = previous(i);
+            final int lastRow = row(Math.max(y[i], y[j]));
+            for (int r = row(Math.min(y[i], y[j])); r <= lastRow; r++) {
+                rowEdges[r][rowCounts[r]] = i;
+                rowCounts[r]++;
+            }
+        }
+
+        // cells start as boundary cells and those no edge reaches are classified below
+        boolean[] reached = new boolean[gridSize * gridSize];
+        for (int i = 0; i < length; i++) {
+            final int j = previous(i);
+            final int firstRow = row(Math.min(y[i], y[j]) - margin);
+            final int lastRow = row(Math.max(y[i], y[j]) + margin);
+            final int firstColumn = column(Math.min(x[i], x[j]) - margin);
+            final int lastColumn = column(Math.max(x[i], x[j]) + margin);
+            for (int r = firstRow; r <= lastRow; r++) {
+                for (int c = firstColumn; c <= lastColumn; c++) {
+                    reached[r * gridSize + c] = true;
+                }
+            }
+        }
+
+        for (int r = 0; r < gridSize; r++) {
+            final double centreY = minY + (r + 0.5) * cellHeight;
+            for (int c = 0; c < gridSize; c++) {
+                final double centreX = minX + (c + 0.5) * cellWidth;
+                final int cell = r * gridSize + c;
+                if (!reached[cell] && row(centreY) == r && column(centreX) == c) {
+                    cellStates[cell] = (crosses(rowEdges[r], centreX, centreY) ? INSIDE : OUTSIDE);
+                } else {
+                    cellStates[cell] = BOUNDARY;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the same answer as the ray-cast over all the edges of the polygon
+     */
+    boolean contains(double inX, double inY) {
+        if (Double.isNaN(inX) || Double.isNaN(inY)) {
+            return false;
+        }
+
+        final int r = row(inY);
+        switch (cellStates[r * gridSize + column(inX)]) {
+            case INSIDE:
+                return true;
+            case OUTSIDE:
+                return false;
+            default:
+                return crosses(rowEdges[r], inX, inY);
+        }
+    }
+
+    private boolean crosses(int[] edges, double inX, double inY) {
+        boolean contains = false;
+        for (int i : edges) {
+            final int j = previous(i);
+            if ((((y[i] <= inY) && (inY < y[j])) ||
+                    ((y[j] <= inY) && (inY < y[i]))) &&
+                    (inX < (x[j] - x[i]) * (inY - y[i]) / (y[j] - y[i]) + x[i]))
+                contains = !contains;
+        }
+        return contains;
+    }
+
+    private int previous(int i) {
+        return (i == 0 ? length - 1 : i - 1);
+    }
+
+    // rows and columns are monotone in the coordinate and points beyond the grid are clamped to
+    // its outer cells, so a point always falls in a cell that every edge near it has reached
+
+    private int row(double value) {
+        return clamp(Math.floor((value - minY) / cellHeight));
+    }
+
+    private int column(double value) {
+        return clamp(Math.floor((value - minX) / cellWidth));
+    }
+
+    private int clamp(double index) {
+        if (index < 0) {
+            return 0;
+        }
+        if (index >= gridSize) {
+            return gridSize - 1;
+        }
+        return (int) index;
+    }
+
+    private final double[] x;
+    private final double[] y;
+    private final int length;
+
+    private final double minX;
+    private final double minY;
+    private final double cellWidth;
+    private final double cellHeight;
+    private final int gridSize;
+
+    private final int[][] rowEdges;
+    private final byte[] cellStates;
+}
@@ -0,0 +1,176 @@
+/*
+ * AsyncLogWriter.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.loggers;
+
+import dr.util.ThreadHelpers;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A background thread that does the formatting and writing of logs so that the chain thread only
+ * has to take a snapshot of the values being logged. Loggers hand over their snapshots as tasks
+ * through a bounded queue: when the writer falls behind, submitting blocks until there is room so
+ * the snapshots waiting in memory stay bounded. Tasks are run in the order they are submitted,
+ * across all the loggers sharing the writer, so the logs come out as they would synchronously.
+ *
+ * An exception thrown while writing is passed back to the chain thread on the next call.
+ */
+public class AsyncLogWriter {
+
+    public static final String ASYNC_LOGGING = "log.async";
+    public static final String ASYNC_LOGGING_CAPACITY = "log.async.capacity";
+
+    public static final int DEFAULT_CAPACITY = 64;
+
+    /**
+     * A snapshot of a logged state that is written on the writer thread.
+     */
+    public interface Task {
+        void write();
+    }
+
+    public AsyncLogWriter() {
+        this(Integer.getInteger(ASYNC_LOGGING_CAPACITY, DEFAULT_CAPACITY));
+    }
+
+    public AsyncLogWriter(int capacity) {
+        queue = new ArrayBlockingQueue<Task>(Math.max(capacity, 1));
+
+        thread = ThreadHelpers.newDaemonThread(new Runnable() {
+            public void run() {
+                writeTasks();
+            }
+        }, "log-writer");
+        thread.start();
+    }
+
+    /**
+     * @return true if asynchronous logging has been asked for with the log.async property
+     */
+    public static boolean isAsyncLoggingRequested() {
+        return Boolean.getBoolean(ASYNC_LOGGING);
+    }
+
+    /**
+     * Queues a task, waiting for room if the queue is full.
+     */
+    public void submit(Task task) {
+        checkFailure();
+        if (closed) {
+            throw new IllegalStateException("The log writer has been closed");
+        }
+        try {
+            queue.put(task);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting to log");
+        }
+    }
+
+    /**
+     * Waits until every task submitted so far has been written.
+     */
+    public void flush() {
+        if (closed) {
+            return;
+        }
+        FlushTask flush = new FlushTask();
+        submit(flush);
+        try {
+            flush.latch.await();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the logs to be written");
+        }
+        checkFailure();
+    }
+
+    /**
+     * Writes any outstanding tasks and stops the writer thread.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        flush();
+        closed = true;
+        queue.offer(STOP);
+        try {
+            thread.join();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeTasks() {
+        try {
+            while (true) {
+                Task task = queue.take();
+                if (task == STOP) {
+                    return;
+                }
+                // once writing has failed only the flushes are released
+                if (failure == null || task instanceof FlushTask) {
+                    try {
+                        task.write();
+                    } catch (Throwable t) {
+                        failure = t;
+                    }
+                }
+            }
+        } catch (InterruptedException ie) {
+            // the writer is being shut down
+        }
+    }
+
+    private void checkFailure() {
+        final Throwable t = failure;
+        if (t != null) {
+            throw new RuntimeException("Error writing log: " + t.getMessage(), t);
+        }
+    }
+
+    private static class FlushTask implements Task {
+        public void write() {
+            latch.countDown();
+        }
+
+        final CountDownLatch latch = new CountDownLatch(1);
+    }
+
+    private static final Task STOP = new Task() {
+        public void write() {
+        }
+    };
+
+    private final BlockingQueue<Task> queue;
+    private final Thread thread;
+
+    private volatile Throwable failure = null;
+    private volatile boolean closed = false;
+}
@@ -0,0 +1,435 @@
+/*
+ * BinaryLogFormatter.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.loggers;
+
+import dr.inference.trace.BinaryLogFile;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * A class that writes a log in the binary columnar format read by dr.inference.trace.BinaryLogFile.
+ *
+ * Rows are collected into blocks which are written column by column. Values from number columns
+ * are stored as raw doubles without being formatted; other values are stored as ints or longs if
+ * they are integers, doubles if they are numbers and otherwise as codes into a dictionary of the
+ * text values of the column. A block is written when it is full, when logging stops (at which point
+ * an index of the blocks is added to the end of the file) and, from a background timer, whenever
+ * its first row has been waiting for more than a few seconds. So a running log can be followed and
+ * a run that is killed loses at most the last few seconds of rows; the reader finds the blocks of
+ * a file without an index by scanning.
+ */
+public class BinaryLogFormatter implements ColumnLogFormatter {
+
+    public static final int DEFAULT_BLOCK_SIZE = 256;
+
+    // the longest time (in milliseconds) a row waits in memory before its block is written
+    public static final long DEFAULT_FLUSH_INTERVAL = 10000;
+
+    public BinaryLogFormatter(OutputStream stream) {
+        this(stream, DEFAULT_BLOCK_SIZE);
+    }
+
+    public BinaryLogFormatter(OutputStream stream, int blockSize) {
+        this(stream, blockSize, DEFAULT_FLUSH_INTERVAL);
+    }
+
+    public BinaryLogFormatter(OutputStream stream, int blockSize, long flushInterval) {
+        this.out = new DataOutputStream(new BufferedOutputStream(stream));
+        this.blockSize = blockSize;
+        this.flushInterval = flushInterval;
+        states = new long[blockSize];
+    }
+
+    public void startLogging(String title) {
+        // DO NOTHING
+    }
+
+    public void logHeading(String heading) {
+        if (heading != null) {
+            String[] lines = heading.split("[\r\n]");
+            for (String line : lines) {
+                logLine(line);
+            }
+        }
+    }
+
+    public void logLine(String line) {
+        // lines can only be kept in the header so any after the labels are dropped
+        if (columns == null) {
+            headings.add(line);
+        }
+    }
+
+    public void logLabels(String[] labels) {
+        if (columns != null) {
+            throw new IllegalStateException("The labels have already been logged");
+        }
+
+        // the first label is for the state
+        columns = new ColumnBuffer[Math.max(labels.length - 1, 0)];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = new ColumnBuffer(labels[i + 1], blockSize);
+        }
+
+        try {
+            writeHeader();
+        } catch (IOException ioe) {
+            throw new RuntimeException("Unable to write binary log: " + ioe.getMessage());
+        }
+
+        // a daemon thread so an unfinished log does not keep the program running
+        flushTimer = new Timer("binary log flush", true);
+        flushTimer.schedule(new TimerTask() {
+            public void run() {
+                flushWaitingRows();
+            }
+        }, flushInterval, flushInterval);
+    }
+
+    public synchronized void logValues(String[] values) {
+        // states are parsed as doubles to allow scientific notation
+        final long state = (long) Double.parseDouble(values[0]);
+
+        // any values after the labelled columns (e.g., the screen log's performance) are dropped
+        for (int i = 0; i < columns.length; i++) {
+            columns[i].addText(rowCount, values[i + 1].trim());
+        }
+        endRow(state);
+    }
+
+    public synchronized void logColumns(long state, double[] numbers, String[] text) {
+        for (int i = 0; i < columns.length; i++) {
+            if (text[i] == null) {
+                columns[i].addDouble(rowCount, numbers[i]);
+            } else {
+                columns[i].addText(rowCount, text[i]);
+            }
+        }
+        endRow(state);
+    }
+
+    public synchronized void stopLogging() {
+        if (flushTimer != null) {
+            flushTimer.cancel();
+            flushTimer = null;
+        }
+        try {
+            if (columns == null) {
+                columns = new ColumnBuffer[0];
+                writeHeader();
+            }
+            if (rowCount > 0) {
+                writeBlock();
+            }
+            writeIndex();
+            out.close();
+        } catch (IOException ioe) {
+            throw new RuntimeException("Unable to write binary log: " + ioe.getMessage());
+        }
+    }
+
+    private void endRow(long state) {
+        if (rowCount == 0) {
+            blockStartTime = System.currentTimeMillis();
+        }
+        states[rowCount] = state;
+        rowCount++;
+
+        if (rowCount == blockSize || System.currentTimeMillis() - blockStartTime > flushInterval) {
+            try {
+                writeBlock();
+            } catch (IOException ioe) {
+                throw new RuntimeException("Unable to write binary log: " + ioe.getMessage());
+            }
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        out.write(BinaryLogFile.MAGIC);
+        out.writeInt(BinaryLogFile.VERSION);
+
+        out.writeInt(headings.size());
+        for (String heading : headings) {
+            writeString(out, heading);
+        }
+
+        out.writeInt(columns.length);
+        for (ColumnBuffer column : columns) {
+            writeString(out, column.label);
+        }
+
+        out.flush();
+        position = out.size();
+    }
+
+    private void writeBlock() throws IOException {
+        final int columnCount = columns.length;
+        final int dataStart = BinaryLogFile.BLOCK_HEADER_SIZE + 4 * columnCount + 8 * rowCount;
+
+        blockBytes.reset();
+        int[] offsets = new int[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            offsets[i] = dataStart + blockBytes.size();
+            columns[i].writeChunk(blockOut, rowCount);
+        }
+        blockOut.flush();
+
+        final int blockLength = dataStart + blockBytes.size();
+
+        out.writeInt(BinaryLogFile.BLOCK_MARKER);
+        out.writeInt(rowCount);
+        out.writeInt(blockLength);
+        for (int offset : offsets) {
+            out.writeInt(offset);
+        }
+        for (int i = 0; i < rowCount; i++) {
+            out.writeLong(states[i]);
+        }
+        blockBytes.writeTo(out);
+        out.flush();
+
+        blockOffsets.add(position);
+        blockRowCounts.add(rowCount);
+        position += blockLength;
+
+        rowCount = 0;
+    }
+
+    private void writeIndex() throws IOException {
+        final long indexOffset = position;
+
+        out.writeInt(BinaryLogFile.INDEX_MARKER);
+        out.writeInt(blockOffsets.size());
+        for (int i = 0; i < blockOffsets.size(); i++) {
+            out.writeLong(blockOffsets.get(i));
+            out.writeInt(blockRowCounts.get(i));
+        }
+        out.writeLong(indexOffset);
+        out.writeInt(BinaryLogFile.END_MARKER);
+        out.flush();
+    }
+
+    /**
+     * Called by the timer to write the current block if its first row has waited long enough.
+     */
+    private synchronized void flushWaitingRows() {
+        if (flushTimer == null || rowCount == 0 || System.currentTimeMillis() - blockStartTime < flushInterval) {
+            return;
+        }
+        try {
+            writeBlock();
+        } catch (IOException ioe) {
+            // the next row logged will report the problem
+            flushTimer.cancel();
+            flushTimer = null;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(BinaryLogFile.CHARSET);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * The values of one column in the current block. The chunk starts as integers and is widened to
+     * doubles and then to text as values need it; each block starts afresh. Integers are kept as
+     * longs so they are written exactly, and values given as text keep that text in case the
+     * block becomes text.
+     */
+    private static class ColumnBuffer {
+
+        ColumnBuffer(String label, int blockSize) {
+            this.label = label;
+            integers = new long[blockSize];
+            numbers = new double[blockSize];
+        }
+
+        void addDouble(int row, double value) {
+            if (type == BinaryLogFile.STRING) {
+                text[row] = Double.toString(value);
+            } else {
+                widenToDouble(row);
+                numbers[row] = value;
+                if (text != null) {
+                    text[row] = null;
+                }
+            }
+        }
+
+        void addText(int row, String value) {
+            if (text == null) {
+                text = new String[numbers.length];
+            }
+            text[row] = value;
+
+            if (type == BinaryLogFile.STRING) {
+                return;
+            }
+
+            if (isIntegerText(value)) {
+                final long integer = Long.parseLong(value);
+                if (type == BinaryLogFile.DOUBLE) {
+                    numbers[row] = integer;
+                } else {
+                    integers[row] = integer;
+                    if (type == BinaryLogFile.INT && (integer < Integer.MIN_VALUE || integer > Integer.MAX_VALUE)) {
+                        type = BinaryLogFile.LONG;
+                    }
+                }
+                return;
+            }
+
+            try {
+                final double number = Double.parseDouble(value);
+                widenToDouble(row);
+                numbers[row] = number;
+            } catch (NumberFormatException nfe) {
+                // once text, the rest of the block is kept as text
+                for (int i = 0; i < row; i++) {
+                    if (text[i] == null) {
+                        // only values given as doubles have no text
+                        text[i] = Double.toString(numbers[i]);
+                    }
+                }
+                type = BinaryLogFile.STRING;
+            }
+        }
+
+        /**
+         * changes an integer chunk to doubles, converting the rows before this one
+         */
+        private void widenToDouble(int row) {
+            if (type == BinaryLogFile.INT || type == BinaryLogFile.LONG) {
+                for (int i = 0; i < row; i++) {
+                    numbers[i] = integers[i];
+                }
+                type = BinaryLogFile.DOUBLE;
+            }
+        }
+
+        void writeChunk(DataOutputStream out, int rowCount) throws IOException {
+            out.writeByte(type);
+            switch (type) {
+                case BinaryLogFile.DOUBLE:
+                    for (int i = 0; i < rowCount; i++) {
+                        out.writeDouble(numbers[i]);
+                    }
+                    break;
+                case BinaryLogFile.INT:
+                    for (int i = 0; i < rowCount; i++) {
+                        out.writeInt((int) integers[i]);
+                    }
+                    break;
+                case BinaryLogFile.LONG:
+                    for (int i = 0; i < rowCount; i++) {
+                        out.writeLong(integers[i]);
+                    }
+                    break;
+                case BinaryLogFile.STRING:
+                    writeTextChunk(out, rowCount);
+                    break;
+            }
+            type = BinaryLogFile.INT;
+        }
+
+        private void writeTextChunk(DataOutputStream out, int rowCount) throws IOException {
+            if (dictionary == null) {
+                dictionary = new HashMap<String, Integer>();
+            }
+
+            List<String> newEntries = new ArrayList<String>();
+            int[] codes = new int[rowCount];
+            for (int i = 0; i < rowCount; i++) {
+                Integer code = dictionary.get(text[i]);
+                if (code == null) {
+                    code = dictionary.size();
+                    dictionary.put(text[i], code);
+                    newEntries.add(text[i]);
+                }
+                codes[i] = code;
+            }
+
+            out.writeInt(newEntries.size());
+            for (String entry : newEntries) {
+                writeString(out, entry);
+            }
+            for (int code : codes) {
+                out.writeInt(code);
+            }
+        }
+
+        /**
+         * @return true if the text is a decimal integer that fits in a long
+         */
+        private static boolean isIntegerText(String value) {
+            final int length = value.length();
+            int start = (length > 0 && (value.charAt(0) == '-' || value.charAt(0) == '+') ? 1 : 0);
+            if (length == start || length - start > 18) {
+                return false;
+            }
+            for (int i = start; i < length; i++) {
+                final char c = value.charAt(i);
+                if (c < '0' || c > '9') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        final String label;
+        private byte type = BinaryLogFile.INT;
+        private final long[] integers;
+        private final double[] numbers;
+        private String[] text = null;
+        private Map<String, Integer> dictionary = null;
+    }
+
+    private final DataOutputStream out;
+    private final int blockSize;
+    private final long flushInterval;
+    private Timer flushTimer = null;
+
+    private final List<String> headings = new ArrayList<String>();
+    private ColumnBuffer[] columns = null;
+
+    private final long[] states;
+    private int rowCount = 0;
+    private long blockStartTime;
+
+    private final ByteArrayOutputStream blockBytes = new ByteArrayOutputStream();
+    private final DataOutputStream blockOut = new DataOutputStream(blockBytes);
+
+    private long position;
+    private final List<Long> blockOffsets = new ArrayList<Long>();
+    private final List<Integer> blockRowCounts = new ArrayList<Integer>();
+}
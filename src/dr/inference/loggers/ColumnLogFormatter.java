@@ -0,0 +1,44 @@
+/*
+ * ColumnLogFormatter.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.loggers;
+
+/**
+ * A log formatter that can take the values of the columns as numbers so that they do not have to
+ * be formatted as text. MCLogger uses logColumns in place of logValues for these formatters.
+ */
+public interface ColumnLogFormatter extends LogFormatter {
+
+    /**
+     * The values are in the same order as the labels (after the state). Each value is either text,
+     * already trimmed, or, if the text is null, a number.
+     *
+     * @param state   the state number
+     * @param numbers the values of the number columns
+     * @param text    the values of the other columns
+     */
+    void logColumns(long state, double[] numbers, String[] text);
+
+}
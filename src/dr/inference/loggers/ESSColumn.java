@@ -0,0 +1,58 @@
+/*
+ * ESSColumn.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.loggers;
+
+import dr.inference.trace.OnlineBatchMeans;
+
+/**
+ * Logs the effective sample size of another column so far in the run. Each state the logger
+ * logs adds the other column's value to a batch means estimate, so the samples are not kept.
+ * A state logged by more than one log is only added once.
+ */
+public class ESSColumn extends NumberColumn implements LoggedStateListener {
+    private static final long serialVersionUID = 1L;
+
+    private final NumberColumn column;
+    private final OnlineBatchMeans batchMeans = new OnlineBatchMeans(1);
+    private long lastState = -1;
+
+    public ESSColumn(NumberColumn column) {
+        super(column.getLabel() + ".ESS");
+        this.column = column;
+        setDecimalPlaces(1);
+    }
+
+    public void stateLogged(long state) {
+        if (state != lastState) {
+            batchMeans.addValue(column.getDoubleValue());
+            lastState = state;
+        }
+    }
+
+    public double getDoubleValue() {
+        return batchMeans.getESS();
+    }
+}
@@ -86,15 +86,7 @@ public interface LogColumn extends Serializable {
         }
 
         public String getLabel() {
-            StringBuffer buffer = new StringBuffer(label);
-
-            if (minimumWidth > 0) {
-                while (buffer.length() < minimumWidth) {
-                    buffer.append(' ');
-                }
-            }
-
-            return buffer.toString();
+            return pad(label, minimumWidth);
         }
 
         public void setMinimumWidth(int minimumWidth) {
@@ -106,18 +98,26 @@ public interface LogColumn extends Serializable {
         }
 
         public final String getFormatted() {
-            StringBuffer buffer = new StringBuffer(getFormattedValue());
+            return pad(getFormattedValue(), minimumWidth);
+        }
 
-            if (minimumWidth > 0) {
-                while (buffer.length() < minimumWidth) {
-                    buffer.append(' ');
-                }
+        protected abstract String getFormattedValue();
+
+        /**
+         * Pads a value with spaces to the minimum width.
+         */
+        public static String pad(String value, int minimumWidth) {
+            if (value.length() >= minimumWidth) {
+                return value;
+            }
+
+            StringBuffer buffer = new StringBuffer(value);
+            while (buffer.length() < minimumWidth) {
+                buffer.append(' ');
             }
 
             return buffer.toString();
         }
-
-        protected abstract String getFormattedValue();
     }
 
     public class Default extends Abstract {
@@ -34,7 +34,9 @@ import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * A class for a general purpose logger.
@@ -139,6 +141,10 @@ public class MCLogger implements Logger {
             keywords.addAll(((Keywordable)column).getKeywords());
         }
 
+        if (column instanceof LoggedStateListener) {
+            listeners.add((LoggedStateListener) column);
+        }
+
         columns.add(column);
     }
 
@@ -180,6 +186,24 @@ public class MCLogger implements Logger {
         }
     }
 
+    /**
+     * Logs a line held in a buffer, which can be reused once this returns. Formatters that can
+     * write it directly are given the buffer; the others are given it as a String.
+     */
+    protected void logLine(CharSequence line) {
+        String text = null;
+        for (LogFormatter formatter : formatters) {
+            if (formatter instanceof LineLogFormatter) {
+                ((LineLogFormatter) formatter).logLine(line);
+            } else {
+                if (text == null) {
+                    text = line.toString();
+                }
+                formatter.logLine(text);
+            }
+        }
+    }
+
     protected void logLabels(String[] labels) {
         for (LogFormatter formatter : formatters) {
             formatter.logLabels(labels);
@@ -238,57 +262,192 @@ public class MCLogger implements Logger {
         }
 
         if (logEvery > 0 && (state % logEvery == 0)) {
+            for (LoggedStateListener listener : listeners) {
+                listener.stateLogged(state);
+            }
 
-            final int columnCount = getColumnCount();
+            if (asyncWriter != null) {
+                LogRecord record = freeRecords.poll();
+                if (record == null) {
+                    record = new LogRecord(true);
+                }
+                record.capture(state);
+                asyncWriter.submit(record);
+            } else {
+                syncRecord.capture(state);
+                syncRecord.write();
+            }
+        }
 
-            String[] values = new String[columnCount + (performanceReport ? 2 : 1)];
+        if (performanceReport && !performanceReportStarted && state >= performanceReportDelay) {
+            performanceReportStarted = true;
+        }
 
-            values[0] = Long.toString(state);
+    }
 
-            for (int i = 0; i < columnCount; i++) {
-                values[i + 1] = getColumnFormatted(i);
+    private String getPerformanceReport(long state) {
+        if (performanceReportStarted) {
+
+            long time = System.currentTimeMillis();
+
+            double hoursPerMillionStates = (double) (time - startTime) / (3.6 * (double) (state - startState));
+
+            String timePerMillion = formatter.format(hoursPerMillionStates);
+            String units = " hours/million states";
+            if (hoursPerMillionStates < 0.1) {
+                double minutesPerMillionStates = hoursPerMillionStates * 60;
+                timePerMillion = formatter.format(minutesPerMillionStates);
+                units = " minutes/million states";
+                if (minutesPerMillionStates < 0.1) {
+                    double secondsPerMillionStates = minutesPerMillionStates * 60;
+                    timePerMillion = formatter.format(secondsPerMillionStates);
+                    units = " seconds/million states";
+                }
             }
+            return timePerMillion + units;
 
-            if (performanceReport) {
-                if (performanceReportStarted) {
+        } else {
+            return "-";
+        }
+    }
 
-                    long time = System.currentTimeMillis();
+    public void stopLogging() {
 
-                    double hoursPerMillionStates = (double) (time - startTime) / (3.6 * (double) (state - startState));
+        flushAsyncWriter();
 
-                    String timePerMillion = formatter.format(hoursPerMillionStates);
-                    String units = " hours/million states";
-                    if (hoursPerMillionStates < 0.1) {
-                        double minutesPerMillionStates = hoursPerMillionStates * 60;
-                        timePerMillion = formatter.format(minutesPerMillionStates);
-                        units = " minutes/million states";
-                        if (minutesPerMillionStates < 0.1) {
-                            double secondsPerMillionStates = minutesPerMillionStates * 60;
-                            timePerMillion = formatter.format(secondsPerMillionStates);
-                            units = " seconds/million states";
-                        }
-                    }
-                    values[columnCount + 1] = timePerMillion + units;
+        for (LogFormatter formatter : formatters) {
+            formatter.stopLogging();
+        }
+    }
+
+    /**
+     * @return true if this logger can hand its output to an AsyncLogWriter. Subclasses that
+     * change what is logged have to capture their own snapshots so by default they cannot.
+     */
+    public boolean supportsAsyncLogging() {
+        return getClass() == MCLogger.class;
+    }
+
+    /**
+     * Sets a writer thread to format and write the log, or null to write it on the calling thread.
+     */
+    public void setAsyncWriter(AsyncLogWriter asyncWriter) {
+        if (asyncWriter != null && !supportsAsyncLogging()) {
+            throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support asynchronous logging");
+        }
+        this.asyncWriter = asyncWriter;
+    }
+
+    protected AsyncLogWriter getAsyncWriter() {
+        return asyncWriter;
+    }
 
+    /**
+     * Waits for the writer thread to write everything logged so far.
+     */
+    protected void flushAsyncWriter() {
+        if (asyncWriter != null) {
+            asyncWriter.flush();
+        }
+    }
+
+    /**
+     * The values of the columns at one state. Number columns at full precision are kept as doubles
+     * and only formatted when the record is written; everything else is formatted when captured
+     * as the columns may not be safe to read from another thread.
+     */
+    private final class LogRecord implements AsyncLogWriter.Task {
+
+        LogRecord(boolean pooled) {
+            this.pooled = pooled;
+        }
+
+        void capture(long state) {
+            this.state = state;
+
+            formatColumns = false;
+            formatText = false;
+            for (LogFormatter formatter : formatters) {
+                if (formatter instanceof ColumnLogFormatter) {
+                    formatColumns = true;
                 } else {
-                    values[columnCount + 1] = "-";
+                    formatText = true;
                 }
             }
 
-            logValues(values);
-        }
+            final int columnCount = getColumnCount();
+            if (numbers == null || numbers.length != columnCount) {
+                numbers = new double[columnCount];
+                text = new String[columnCount];
+                formatted = new String[columnCount];
+                widths = new int[columnCount];
+            }
 
-        if (performanceReport && !performanceReportStarted && state >= performanceReportDelay) {
-            performanceReportStarted = true;
+            for (int i = 0; i < columnCount; i++) {
+                LogColumn column = columns.get(i);
+                if (column instanceof NumberColumn) {
+                    NumberColumn numberColumn = (NumberColumn) column;
+                    numbers[i] = numberColumn.getDoubleValue();
+                    text[i] = null;
+                    formatted[i] = (formatText && !numberColumn.isFormattedAtFullPrecision() ?
+                            numberColumn.getFormatted(numbers[i]) : null);
+                    widths[i] = numberColumn.getMinimumWidth();
+                } else {
+                    String value = column.getFormatted();
+                    text[i] = (formatColumns ? value.trim() : null);
+                    formatted[i] = value;
+                }
+            }
+
+            performance = (formatText && performanceReport ? getPerformanceReport(state) : null);
         }
 
-    }
+        public void write() {
+            // formatters that take the column values directly do not need them formatted as text
+            for (LogFormatter formatter : formatters) {
+                if (formatter instanceof ColumnLogFormatter) {
+                    ((ColumnLogFormatter) formatter).logColumns(state, numbers, text);
+                }
+            }
 
-    public void stopLogging() {
+            if (formatText) {
+                final int columnCount = numbers.length;
 
-        for (LogFormatter formatter : formatters) {
-            formatter.stopLogging();
+                String[] values = new String[columnCount + (performanceReport ? 2 : 1)];
+
+                values[0] = Long.toString(state);
+
+                for (int i = 0; i < columnCount; i++) {
+                    values[i + 1] = (formatted[i] != null ? formatted[i] :
+                            LogColumn.Abstract.pad(Double.toString(numbers[i]), widths[i]));
+                }
+
+                if (performanceReport) {
+                    values[columnCount + 1] = performance;
+                }
+
+                for (LogFormatter formatter : formatters) {
+                    if (!(formatter instanceof ColumnLogFormatter)) {
+                        formatter.logValues(values);
+                    }
+                }
+            }
+
+            if (pooled) {
+                freeRecords.offer(this);
+            }
         }
+
+        private final boolean pooled;
+
+        private long state;
+        private boolean formatColumns;
+        private boolean formatText;
+        private double[] numbers = null;
+        private String[] text = null;
+        private String[] formatted = null;
+        private int[] widths = null;
+        private String performance;
     }
 
     private String title = null;
@@ -297,6 +456,8 @@ public class MCLogger implements Logger {
 
     private List<LogColumn> columns = new ArrayList<LogColumn>();
 
+    private List<LoggedStateListener> listeners = new ArrayList<LoggedStateListener>();
+
     protected long logEvery = 0;
 
     public List<LogFormatter> getFormatters() {
@@ -315,4 +476,8 @@ public class MCLogger implements Logger {
 
     private final NumberFormat formatter = NumberFormat.getNumberInstance();
 
+    private AsyncLogWriter asyncWriter = null;
+    private final LogRecord syncRecord = new LogRecord(false);
+    private final Queue<LogRecord> freeRecords = new ConcurrentLinkedQueue<LogRecord>();
+
 }
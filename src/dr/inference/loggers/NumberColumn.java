@@ -142,6 +142,24 @@ public abstract class NumberColumn extends LogColumn.Abstract {
 		return formatValue(getDoubleValue());
 	}
 	
+	/**
+	 * Returns a value already got from getDoubleValue formatted and padded as getFormatted
+	 * would, so the column is not evaluated again. Columns whose formatted text is not made
+	 * from formatValue of their double value should override this.
+	 */
+	public String getFormatted(double value) {
+		return pad(formatValue(value), getMinimumWidth());
+	}
+
+	/**
+	 * Returns true if the formatted value is just the double value at full precision
+	 * (Double.toString) so that a copy of the value can be formatted later. Columns that
+	 * format their values in some other way must override this to return false.
+	 */
+	public boolean isFormattedAtFullPrecision() {
+		return dp < 0 && sf < 0;
+	}
+
 	private int getNumFractionDigits(double value) {
 		value = Math.abs(value);
 		for (int i = 0; i < cutoffTable.length; i++) {
@@ -58,12 +58,15 @@ public class PercentColumn extends NumberColumn {
         return column.getMinimumWidth();
     }
 
-    public String getFormattedValue() {
-        double val = column.getDoubleValue();
+    public String formatValue(double val) {
         if( val >= 0 && val <= 1 ) {
             return column.formatValue(val * 100) + "%";
         }
-        return column.getFormattedValue();
+        return column.formatValue(val);
+    }
+
+    public boolean isFormattedAtFullPrecision() {
+        return false;
     }
 
     public double getDoubleValue() {
@@ -36,11 +36,14 @@ import java.io.PrintWriter;
  * @author Alexei Drummond
  * @version $Id: TabDelimitedFormatter.java,v 1.5 2005/05/24 20:25:59 rambaut Exp $
  */
-public class TabDelimitedFormatter implements LogFormatter {
+public class TabDelimitedFormatter implements LineLogFormatter {
+
+    private static final int CHAR_BUFFER_SIZE = 8192;
 
     protected final PrintWriter printWriter;
     private final boolean outputLabels;
     private final boolean closeFile;
+    private char[] chars = null;
 
 
     public TabDelimitedFormatter(PrintWriter printWriter) {
@@ -81,6 +84,26 @@ public class TabDelimitedFormatter implements LogFormatter {
         printWriter.flush();
     }
 
+    public void logLine(CharSequence line) {
+        if (line instanceof StringBuilder) {
+            // copied through a reusable array rather than a new String
+            StringBuilder builder = (StringBuilder) line;
+            if (chars == null) {
+                chars = new char[CHAR_BUFFER_SIZE];
+            }
+            final int length = builder.length();
+            for (int start = 0; start < length; start += chars.length) {
+                final int end = Math.min(start + chars.length, length);
+                builder.getChars(start, end, chars, 0);
+                printWriter.write(chars, 0, end - start);
+            }
+            printWriter.println();
+        } else {
+            printWriter.println(line);
+        }
+        printWriter.flush();
+    }
+
     public void logLabels(String[] labels) {
         if (outputLabels) {
             if (labels.length > 0) {
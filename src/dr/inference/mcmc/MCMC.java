@@ -27,14 +27,17 @@ package dr.inference.mcmc;
 
 import dr.inference.state.Factory;
 import dr.inference.state.StateLoader;
+import dr.inference.loggers.AsyncLogWriter;
 import dr.inference.loggers.LogColumn;
 import dr.inference.loggers.Loggable;
 import dr.inference.loggers.Logger;
+import dr.inference.loggers.MCLogger;
 import dr.inference.markovchain.MarkovChain;
 import dr.inference.markovchain.MarkovChainListener;
 import dr.inference.model.Likelihood;
 import dr.inference.model.Model;
 import dr.inference.operators.*;
+import dr.inference.parallel.DistributedLikelihood;
 import dr.util.Identifiable;
 import dr.util.NumberFormatter;
 import dr.xml.Spawnable;
@@ -147,6 +150,9 @@ public class MCMC implements Identifiable, Spawnable, Loggable {
         timer.start();
 
         if (loggers != null) {
+            if (AsyncLogWriter.isAsyncLoggingRequested()) {
+                startAsyncLogging();
+            }
             for (Logger logger : loggers) {
                 logger.startLogging();
             }
@@ -267,7 +273,15 @@ public class MCMC implements Identifiable, Spawnable, Loggable {
                     logger.log(currentState);
                     logger.stopLogging();
                 }
+                stopAsyncLogging();
             }
+
+            for (Likelihood likelihood : markovChain.getLikelihood().getLikelihoodSet()) {
+                if (likelihood instanceof DistributedLikelihood) {
+                    ((DistributedLikelihood) likelihood).stopWorkers();
+                }
+            }
+
             // OperatorAnalysisPrinter class can do the job now
             if (showOperatorAnalysis) {
                 OperatorAnalysisPrinter.showOperatorAnalysis(System.out, getOperatorSchedule(), options.useAdaptation());
@@ -289,6 +303,30 @@ public class MCMC implements Identifiable, Spawnable, Loggable {
 
     };
 
+    /**
+     * Moves the formatting and writing of the loggers that support it onto a background thread.
+     */
+    private void startAsyncLogging() {
+        asyncWriter = new AsyncLogWriter();
+        for (Logger logger : loggers) {
+            if (logger instanceof MCLogger && ((MCLogger) logger).supportsAsyncLogging()) {
+                ((MCLogger) logger).setAsyncWriter(asyncWriter);
+            }
+        }
+    }
+
+    private void stopAsyncLogging() {
+        if (asyncWriter != null) {
+            asyncWriter.close();
+            for (Logger logger : loggers) {
+                if (logger instanceof MCLogger && ((MCLogger) logger).supportsAsyncLogging()) {
+                    ((MCLogger) logger).setAsyncWriter(null);
+                }
+            }
+            asyncWriter = null;
+        }
+    }
+
     /**
      * @return the likelihood function.
      */
@@ -421,5 +459,7 @@ public class MCMC implements Identifiable, Spawnable, Loggable {
     protected Logger[] loggers;
     protected OperatorSchedule schedule;
 
+    private AsyncLogWriter asyncWriter = null;
+
     private String id = null;
 }
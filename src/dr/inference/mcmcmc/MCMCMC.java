@@ -42,8 +42,8 @@ import dr.inference.operators.OperatorSchedule;
 import dr.math.MathUtils;
 import dr.util.NumberFormatter;
 
-import java.util.Collections;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * An MCMC analysis that estimates parameters of a probabilistic model.
@@ -118,7 +118,7 @@ public class MCMCMC implements Runnable {
 //        }
 
         MCLogger[] coldChainLoggers = mcLoggers[coldChain];
-        List<LogFormatter>[] logFormatters = new List[coldChainLoggers.length];
+        logFormatters = new List[coldChainLoggers.length];
 
         for (int i = 0; i < coldChainLoggers.length; i++) {
             // Start the logging for the cold chain
@@ -139,68 +139,192 @@ public class MCMCMC implements Runnable {
 
         chains[coldChain].addMarkovChainListener(chainListener);
 
-        MCMCMCRunner[] threads = new MCMCMCRunner[chains.length];
-        for (int i = 0; i < chains.length; i++) {
-            threads[i] = new MCMCMCRunner(chains[i], mcmcmcOptions.getSwapChainsEvery(), getChainLength(), false);
-            threads[i].start();
+        int threadCount = mcmcmcOptions.getThreadCount();
+        if (threadCount <= 0) {
+            threadCount = Math.min(chains.length, Runtime.getRuntime().availableProcessors());
         }
+        // the chains are multiplexed onto a bounded pool so there can be more chains than cores
+        ExecutorService pool = Executors.newFixedThreadPool(threadCount);
 
-        while (chains[coldChain].getCurrentLength() < getChainLength()) {
+        final long swapChainsEvery = mcmcmcOptions.getSwapChainsEvery();
+        final long rounds = (getChainLength() + swapChainsEvery - 1) / swapChainsEvery;
 
-            // wait for all the threads to complete their alloted chain length
-            boolean allDone;
-            do {
-                try {
-                    Thread.sleep(10);
-                } catch (InterruptedException e) {
-                    //
-                }
+        try {
+            if (mcmcmcOptions.isNeighbourSwapsOnly()) {
+                runNeighbourSwapRounds(pool, rounds, swapChainsEvery);
+            } else {
+                runSynchronousRounds(pool, rounds, swapChainsEvery);
+            }
+        } finally {
+            pool.shutdown();
+        }
 
-                allDone = true;
-                for (int i = 0; i < chains.length; i++) {
-                    if (!threads[i].isChainDone()) {
-                        allDone = false;
-                    }
+        finish();
+
+        timer.stop();
+    }
+
+    /**
+     * Runs all the chains for swapChainsEvery states and then attempts a swap between a random pair
+     * of chains. All chains wait at the sync point for the swap to be made.
+     */
+    private void runSynchronousRounds(ExecutorService pool, long rounds, final long swapChainsEvery) {
+        List<Callable<Long>> tasks = new ArrayList<Callable<Long>>();
+        for (final MarkovChain chain : chains) {
+            tasks.add(new Callable<Long>() {
+                public Long call() {
+                    return chain.runChain(swapChainsEvery, false);
                 }
-            } while (!allDone);
+            });
+        }
 
-            if (chains[coldChain].getCurrentLength() < getChainLength()) {
-                int oldColdChain = coldChain;
+        for (long round = 0; round < rounds && !stopRequested; round++) {
+            try {
+                for (Future<Long> result : pool.invokeAll(tasks)) {
+                    result.get();
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
 
+            if (round < rounds - 1) {
                 // attempt to swap two chains' temperatures
-                coldChain = swapChainTemperatures();
+                setColdChain(swapChainTemperatures());
+            }
+        }
+    }
 
-                // if the cold chain was involved in a swap then we need to change the
-                // listener that does the logging and the destinations for the coldChainLoggers.
-                if (coldChain != oldColdChain) {
+    /**
+     * Runs the chains in rounds of swapChainsEvery states but only attempts swaps between chains that are
+     * neighbours in the temperature ladder, alternating between even and odd pairs each round. Each pair
+     * swaps as soon as both its chains have reached the sync point and they then carry on without waiting
+     * for the rest of the chains.
+     */
+    private void runNeighbourSwapRounds(final ExecutorService pool, long rounds, final long swapChainsEvery) {
+        final int n = chains.length;
 
-                    chains[oldColdChain].removeMarkovChainListener(chainListener);
+        // order the chains by decreasing temperature so position 0 is the cold chain
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer i1, Integer i2) {
+                return Double.compare(getTemperature(i2), getTemperature(i1));
+            }
+        });
+        ladder = new int[n];
+        for (int i = 0; i < n; i++) {
+            ladder[i] = order[i];
+        }
 
-                    // Set the new cold chain's loggers with the formatters (destinations) of
-                    // the original cold chain
-                    for (int i = 0; i < mcLoggers[coldChain].length; i++) {
-                        mcLoggers[coldChain][i].setFormatters(logFormatters[i]);
-                    }
+        CompletableFuture<?>[] done = new CompletableFuture<?>[n];
+        for (int position = 0; position < n; position++) {
+            done[position] = CompletableFuture.runAsync(ladderRunner(position, swapChainsEvery), pool);
+        }
 
-                    // Set the old cold chain to have null log formatters...
-                    for (int i = 0; i < mcLoggers[oldColdChain].length; i++) {
-                        mcLoggers[oldColdChain][i].setFormatters(Collections.EMPTY_LIST);
-                    }
+        final LinkedList<CompletableFuture<Void>> inFlight = new LinkedList<CompletableFuture<Void>>();
 
-                    chains[coldChain].addMarkovChainListener(chainListener);
+        try {
+            for (long round = 1; round < rounds && !stopRequested; round++) {
+                CompletableFuture<?>[] next = new CompletableFuture<?>[n];
 
+                int position = 0;
+                if (round % 2 == 0) {
+                    // the cold chain sits out on even rounds
+                    next[0] = done[0].thenRunAsync(ladderRunner(0, swapChainsEvery), pool);
+                    position = 1;
+                }
+                for (; position < n; position += 2) {
+                    if (position + 1 < n) {
+                        final int lower = position;
+                        CompletableFuture<Void> swapped = done[lower].runAfterBoth(done[lower + 1], new Runnable() {
+                            public void run() {
+                                swapNeighbours(lower);
+                            }
+                        });
+                        next[lower] = swapped.thenRunAsync(ladderRunner(lower, swapChainsEvery), pool);
+                        next[lower + 1] = swapped.thenRunAsync(ladderRunner(lower + 1, swapChainsEvery), pool);
+                    } else {
+                        next[position] = done[position].thenRunAsync(ladderRunner(position, swapChainsEvery), pool);
+                    }
                 }
 
-                for (int i = 0; i < chains.length; i++) {
-                    threads[i].continueChain();
+                // bound the number of rounds that have been scheduled but not completed
+                inFlight.add(CompletableFuture.allOf(next));
+                if (inFlight.size() > MAX_ROUNDS_IN_FLIGHT) {
+                    inFlight.removeFirst().join();
                 }
+
+                done = next;
             }
 
+            CompletableFuture.allOf(done).join();
+        } catch (CompletionException e) {
+            throw new RuntimeException(e.getCause());
         }
+    }
 
-        finish();
+    private Runnable ladderRunner(final int position, final long length) {
+        return new Runnable() {
+            public void run() {
+                final int chain;
+                synchronized (MCMCMC.this) {
+                    chain = ladder[position];
+                }
+                chains[chain].runChain(length, false);
+            }
+        };
+    }
 
-        timer.stop();
+    private synchronized void swapNeighbours(int lower) {
+        int index1 = ladder[lower];
+        int index2 = ladder[lower + 1];
+
+        if (swapChains(index1, index2)) {
+            ladder[lower] = index2;
+            ladder[lower + 1] = index1;
+
+            if (index1 == coldChain) {
+                setColdChain(index2);
+            } else if (index2 == coldChain) {
+                setColdChain(index1);
+            }
+        }
+    }
+
+    private double getTemperature(int index) {
+        return ((MCMCCriterion) chains[index].getAcceptor()).getTemperature();
+    }
+
+    /**
+     * If the cold chain was involved in a swap then we need to change the listener that
+     * does the logging and the destinations for the coldChainLoggers.
+     */
+    private void setColdChain(int newColdChain) {
+        if (newColdChain == coldChain) {
+            return;
+        }
+
+        int oldColdChain = coldChain;
+        coldChain = newColdChain;
+
+        chains[oldColdChain].removeMarkovChainListener(chainListener);
+
+        // Set the new cold chain's loggers with the formatters (destinations) of
+        // the original cold chain
+        for (int i = 0; i < mcLoggers[coldChain].length; i++) {
+            mcLoggers[coldChain][i].setFormatters(logFormatters[i]);
+        }
+
+        // Set the old cold chain to have null log formatters...
+        for (int i = 0; i < mcLoggers[oldColdChain].length; i++) {
+            mcLoggers[oldColdChain][i].setFormatters(Collections.EMPTY_LIST);
+        }
+
+        chains[coldChain].addMarkovChainListener(chainListener);
     }
 
     private void runChains(long length, boolean disableCoerce) {
@@ -250,6 +374,22 @@ public class MCMCMC implements Runnable {
             index2 = MathUtils.nextInt(chains.length);
         }
 
+        if (swapChains(index1, index2)) {
+            if (index1 == coldChain) {
+                newColdChain = index2;
+            } else if (index2 == coldChain) {
+                newColdChain = index1;
+            }
+        }
+
+        return newColdChain;
+    }
+
+    /**
+     * Attempts to swap the temperatures (and operator tuning) of two chains.
+     * @return true if the swap was accepted
+     */
+    private boolean swapChains(int index1, int index2) {
         double score1 = chains[index1].getCurrentScore();
         MCMCCriterion acceptor1 = ((MCMCCriterion) chains[index1].getAcceptor());
         double temperature1 = acceptor1.getTemperature();
@@ -293,15 +433,9 @@ public class MCMCMC implements Runnable {
                     ((AdaptableMCMCOperator) operator2).setAdaptableParameter(tmp2);
                 }
             }
-
-            if (index1 == coldChain) {
-                newColdChain = index2;
-            } else if (index2 == coldChain) {
-                newColdChain = index1;
-            }
         }
 
-        return newColdChain;
+        return swap;
     }
 
     private void resetChains() {
@@ -438,6 +572,7 @@ public class MCMCMC implements Runnable {
      * Requests that the MCMC chain stop prematurely.
      */
     public void pleaseStop() {
+        stopRequested = true;
         for (MarkovChain chain : chains) {
             chain.pleaseStop();
         }
@@ -459,6 +594,12 @@ public class MCMCMC implements Runnable {
     private final MarkovChain[] chains;
     private final MCLogger[][] mcLoggers;
     private final OperatorSchedule[] schedules;
-    private int coldChain;
+    private volatile int coldChain;
+
+    private List<LogFormatter>[] logFormatters;
+    private int[] ladder;
+    private volatile boolean stopRequested = false;
+
+    private static final int MAX_ROUNDS_IN_FLIGHT = 2;
 }
 
@@ -39,8 +39,22 @@ package dr.inference.mcmcmc;
 public class MCMCMCOptions {
 
     public MCMCMCOptions(final double[] temperatures, final int swapChainsEvery) {
+        this(temperatures, swapChainsEvery, 0, false);
+    }
+
+    /**
+     * @param temperatures the chain temperatures (the first should be 1.0)
+     * @param swapChainsEvery the number of states between swap attempts
+     * @param threadCount the number of threads to run the chains on (0 for one per chain up to the number of cores)
+     * @param neighbourSwapsOnly if true, only chains adjacent in the temperature ladder are swapped and each
+     *                           pair does so as soon as both have reached the sync point
+     */
+    public MCMCMCOptions(final double[] temperatures, final int swapChainsEvery, final int threadCount,
+                         final boolean neighbourSwapsOnly) {
         this.temperatures = temperatures;
         this.swapChainsEvery = swapChainsEvery;
+        this.threadCount = threadCount;
+        this.neighbourSwapsOnly = neighbourSwapsOnly;
     }
 
 
@@ -52,6 +66,16 @@ public class MCMCMCOptions {
         return swapChainsEvery;
     }
 
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    public boolean isNeighbourSwapsOnly() {
+        return neighbourSwapsOnly;
+    }
+
     private final double[] temperatures;
     private final int swapChainsEvery;
+    private final int threadCount;
+    private final boolean neighbourSwapsOnly;
 }
@@ -177,6 +177,17 @@ public class AdaptableSizeFastMatrixParameter extends FastMatrixParameter {
             return fullMatrix;
         }
 
+        // the matrix is not formatted from the double value
+        @Override
+        public String getFormatted(double value) {
+            return getFormatted();
+        }
+
+        @Override
+        public boolean isFormattedAtFullPrecision() {
+            return false;
+        }
+
         @Override
         public double getDoubleValue() {
             return 0;
@@ -48,6 +48,17 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
     public final int[] evaluationCounts;
 
     public CompoundLikelihood(int threads, Collection<Likelihood> likelihoods) {
+        this(threads, likelihoods, false);
+    }
+
+    /**
+     * @param threads the number of threads (-1 for automatic sizing, 0 for serial evaluation)
+     * @param likelihoods the component likelihoods
+     * @param workStealing if true, the late likelihoods are evaluated on a work-stealing pool that is shared
+     *                     by all compound likelihoods with the same number of threads and only those whose models have changed since the last
+     *                     evaluation are dispatched to it (most expensive first).
+     */
+    public CompoundLikelihood(int threads, Collection<Likelihood> likelihoods, boolean workStealing) {
 
         int i = 0;
         for (Likelihood l : likelihoods) {
@@ -66,14 +77,28 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
             threadCount = 0;
         }
 
-        if (threadCount > 0) {
+        if (workStealing && threadCount != 0) {
+            // the work-stealing pool replaces the per-instance thread pool
+            pool = null;
+            sharedPool = getSharedPool(threadCount);
+            setupDirtyTracking();
+        } else if (threadCount > 0) {
             pool = Executors.newFixedThreadPool(threadCount);
+            sharedPool = null;
         } else if (threadCount < 0) {
             // create a cached thread pool which should create one thread per likelihood...
             pool = Executors.newCachedThreadPool();
+            sharedPool = null;
         } else {
             // don't use a threadpool (i.e., compute serially)
             pool = null;
+            sharedPool = null;
+        }
+
+        if (sharedPool == null) {
+            lateDirty = null;
+            lateLogLikelihoods = null;
+            lateCosts = null;
         }
 
         if (EVALUATION_TIMERS) {
@@ -88,7 +113,11 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
     public CompoundLikelihood(Collection<Likelihood> likelihoods) {
 
         pool = null;
+        sharedPool = null;
         threadCount = 0;
+        lateDirty = null;
+        lateLogLikelihoods = null;
+        lateCosts = null;
 
         int i = 0;
         for (Likelihood l : likelihoods) {
@@ -198,7 +227,9 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
             return Double.NEGATIVE_INFINITY;
         }
 
-        if (pool == null) {
+        if (sharedPool != null) {
+            logLikelihood += evaluateDirtyLikelihoods();
+        } else if (pool == null) {
             // Single threaded
             logLikelihood += evaluateLikelihoods(lateLikelihoods);
         } else {
@@ -261,10 +292,111 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
         return logLikelihood;
     }
 
+    /**
+     * Evaluates the late likelihoods using the shared work-stealing pool. Likelihoods whose models
+     * have not fired a change event since the last evaluation are evaluated on the calling thread
+     * (they will normally just return a cached value) and only the dirty ones are dispatched, in
+     * order of their last measured evaluation time so that the most expensive start first. The
+     * values are summed in the order of the likelihoods so the total is the same as a serial evaluation.
+     */
+    private double evaluateDirtyLikelihoods() {
+        final int count = lateLikelihoods.size();
+        final int[] order = new int[count];
+        int dirtyCount = 0;
+
+        for (int i = 0; i < count; i++) {
+            if (lateDirty[i]) {
+                // insertion sort on the last measured cost (descending)
+                int j = dirtyCount;
+                while (j > 0 && lateCosts[order[j - 1]] < lateCosts[i]) {
+                    order[j] = order[j - 1];
+                    j--;
+                }
+                order[j] = i;
+                dirtyCount++;
+            } else {
+                final double l = lateLikelihoods.get(i).getLogLikelihood();
+                if (l == Double.NEGATIVE_INFINITY) {
+                    return Double.NEGATIVE_INFINITY;
+                }
+                lateLogLikelihoods[i] = l;
+            }
+        }
+
+        // clear the flags before evaluation so any change events fired during it are not lost
+        for (int k = 0; k < dirtyCount; k++) {
+            lateDirty[order[k]] = false;
+        }
+
+        if (dirtyCount == 0) {
+            // nothing to evaluate
+        } else if (dirtyCount == 1) {
+            // no point handing a single likelihood to another thread
+            new DirtyLikelihoodTask(order, 0, 1).compute();
+        } else {
+            DirtyLikelihoodTask task = new DirtyLikelihoodTask(order, 0, dirtyCount);
+            if (ForkJoinTask.inForkJoinPool()) {
+                // nested compound likelihood being evaluated by a worker - join the work-stealing
+                task.invoke();
+            } else {
+                sharedPool.invoke(task);
+            }
+        }
+
+        double logLikelihood = 0.0;
+        for (int i = 0; i < count; i++) {
+            logLikelihood += lateLogLikelihoods[i];
+        }
+
+        return logLikelihood;
+    }
+
+    private void setupDirtyTracking() {
+        final int count = lateLikelihoods.size();
+        lateDirty = new boolean[count];
+        lateLogLikelihoods = new double[count];
+        lateCosts = new double[count];
+
+        for (int i = 0; i < count; i++) {
+            lateDirty[i] = true;
+
+            final Model model = lateLikelihoods.get(i).getModel();
+            if (model != null) {
+                final int index = i;
+                model.addModelListener(new ModelListener() {
+                    public void modelChangedEvent(Model model, Object object, int idx) {
+                        lateDirty[index] = true;
+                    }
+
+                    public void modelRestored(Model model) {
+                        lateDirty[index] = true;
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * @return the work-stealing pool with the given number of threads, which is shared by all the
+     * compound likelihoods that ask for that number
+     */
+    private static synchronized ForkJoinPool getSharedPool(int threads) {
+        final int parallelism = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        ForkJoinPool pool = workStealingPools.get(parallelism);
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism);
+            workStealingPools.put(parallelism, pool);
+        }
+        return pool;
+    }
+
     public void makeDirty() {
         for( Likelihood likelihood : likelihoods ) {
             likelihood.makeDirty();
         }
+        if (lateDirty != null) {
+            Arrays.fill(lateDirty, true);
+        }
     }
 
     public boolean evaluateEarly() {
@@ -534,6 +666,15 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
 
     private final ExecutorService pool;
 
+    private final ForkJoinPool sharedPool;
+
+    private static final Map<Integer, ForkJoinPool> workStealingPools = new HashMap<Integer, ForkJoinPool>();
+
+    // state for the work-stealing dirty-only dispatch, indexed as lateLikelihoods
+    private boolean[] lateDirty;
+    private double[] lateLogLikelihoods;
+    private double[] lateCosts;
+
     private final ArrayList<Likelihood> likelihoods = new ArrayList<Likelihood>();
     private final CompoundModel compoundModel = new CompoundModel("compoundModel");
 
@@ -567,6 +708,45 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
         private final int index;
     }
 
+    /**
+     * Evaluates a range of the dirty late likelihoods. The range is split until a single likelihood
+     * remains; the first half is forked so that idle workers steal the more expensive likelihoods first.
+     */
+    private class DirtyLikelihoodTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        DirtyLikelihoodTask(int[] order, int from, int to) {
+            this.order = order;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                final int i = order[from];
+                long time = System.nanoTime();
+                try {
+                    lateLogLikelihoods[i] = likelihoodCallers.get(i).call();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                lateCosts[i] = System.nanoTime() - time;
+            } else {
+                final int mid = (from + to) >>> 1;
+                DirtyLikelihoodTask first = new DirtyLikelihoodTask(order, from, mid);
+                first.fork();
+                new DirtyLikelihoodTask(order, mid, to).compute();
+                first.join();
+            }
+        }
+
+        private final int[] order;
+        private final int from;
+        private final int to;
+    }
+
     public static final boolean DEBUG_PARALLEL_EVALUATION = false;
 
 }
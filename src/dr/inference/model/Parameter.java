@@ -690,6 +690,8 @@ public interface Parameter extends Statistic, Variable<Double> {
         public void addDimension(int index, double value) {
             assert bounds == null;
 
+            saveAllValues();
+
             final int n = values.length;
             double[] newValues = new double[n + 1];
             System.arraycopy(values, 0, newValues, 0, index);
@@ -708,6 +710,8 @@ public interface Parameter extends Statistic, Variable<Double> {
         public double removeDimension(int index) {
             assert bounds == null;
 
+            saveAllValues();
+
             final int n = values.length;
             final double value = values[index];
 
@@ -721,6 +725,7 @@ public interface Parameter extends Statistic, Variable<Double> {
 
 
         public void setParameterValue(int i, double val) {
+            saveValue(i);
             values[i] = val;
             fireParameterChangedEvent(i, Parameter.ChangeType.VALUE_CHANGED);
         }
@@ -732,9 +737,21 @@ public interface Parameter extends Statistic, Variable<Double> {
          * @param value the value to set
          */
         public void setParameterValueQuietly(int dim, double value) {
+            saveValue(dim);
             values[dim] = value;
         }
 
+        /**
+         * Sets all the values of the parameter from an array without firing a changed event.
+         *
+         * @param values the array holding the new values
+         * @param offset the position of the first value in the array
+         */
+        public void setAllParameterValuesQuietly(double[] values, int offset) {
+            saveAllValues();
+            System.arraycopy(values, offset, this.values, 0, this.values.length);
+        }
+
 
         /**
          * Sets the values of the parameter and notify that all values of the parameter have changed.
@@ -743,35 +760,91 @@ public interface Parameter extends Statistic, Variable<Double> {
          * @param val to value to set
          */
         public void setParameterValueNotifyChangedAll(int i, double val) {
+            saveValue(i);
             values[i] = val;
             fireParameterChangedEvent(-1, Parameter.ChangeType.ALL_VALUES_CHANGED);
         }
 
+        /**
+         * The values are copied on write: nothing is copied when the values are stored and each
+         * value is saved the first time it is set afterwards, so a restore only puts back the
+         * values that changed. Once a good part of the values have changed they are all saved
+         * and a restore swaps the arrays.
+         */
         protected final void storeValues() {
             // no need to pay a price in a very common call for one-time rare usage
             //hasBeenStored = true;
             if (storedValues == null || storedValues.length != values.length) {
                 storedValues = new double[values.length];
+                isSaved = new boolean[values.length];
+                savedIndices = new int[values.length];
             }
-            System.arraycopy(values, 0, storedValues, 0, storedValues.length);
+            clearSaved();
+            isStored = true;
         }
 
         protected final void restoreValues() {
 
-            //swap the arrays
-            double[] temp = storedValues;
-            storedValues = values;
-            values = temp;
+            if (allSaved) {
+                //swap the arrays
+                double[] temp = storedValues;
+                storedValues = values;
+                values = temp;
+            } else {
+                for (int i = 0; i < savedCount; i++) {
+                    final int index = savedIndices[i];
+                    values[index] = storedValues[index];
+                }
+            }
+            clearSaved();
+            isStored = false;
+        }
 
-            //if (storedValues != null) {
-            //	System.arraycopy(storedValues, 0, values, 0, values.length);
-            //} else throw new RuntimeException("restore called before store!");
+        protected final void acceptValues() {
+            clearSaved();
+            isStored = false;
         }
 
         /**
-         * Nothing to do
+         * Saves a value before it is first changed after a store.
          */
-        protected final void acceptValues() {
+        private void saveValue(int i) {
+            if (isStored && !allSaved && !isSaved[i]) {
+                if (savedCount >= (values.length >> 2)) {
+                    saveAllValues();
+                } else {
+                    storedValues[i] = values[i];
+                    isSaved[i] = true;
+                    savedIndices[savedCount] = i;
+                    savedCount++;
+                }
+            }
+        }
+
+        /**
+         * Saves all the values that have not been saved since the last store.
+         */
+        private void saveAllValues() {
+            if (isStored && !allSaved) {
+                for (int i = 0; i < values.length; i++) {
+                    if (!isSaved[i]) {
+                        storedValues[i] = values[i];
+                    }
+                }
+                allSaved = true;
+            }
+        }
+
+        private void clearSaved() {
+            if (allSaved) {
+                Arrays.fill(isSaved, false);
+            } else {
+                for (int i = 0; i < savedCount; i++) {
+                    isSaved[savedIndices[i]] = false;
+                }
+            }
+            savedCount = 0;
+            allSaved = false;
         }
 
         protected final void adoptValues(Parameter source) {
@@ -781,6 +854,7 @@ public interface Parameter extends Statistic, Variable<Double> {
                 throw new RuntimeException("The two parameters don't have the same number of dimensions");
             }
 
+            saveAllValues();
             for (int i = 0, n = getDimension(); i < n; i++) {
                 values[i] = source.getParameterValue(i);
             }
@@ -790,6 +864,13 @@ public interface Parameter extends Statistic, Variable<Double> {
 
         private double[] storedValues;
 
+        // the values saved since the last store
+        private boolean isStored = false;
+        private boolean allSaved = false;
+        private boolean[] isSaved;
+        private int[] savedIndices;
+        private int savedCount = 0;
+
         // same as !storedValues && !bounds
         //private boolean hasBeenStored = false;
         private Bounds<Double> bounds = null;
@@ -9,7 +9,10 @@ import dr.inference.operators.SimpleMCMCOperator;
 import dr.math.MathUtils;
 import dr.math.matrixAlgebra.WrappedVector;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 public class NoUTurnOperator extends SimpleMCMCOperator implements GibbsOperator, Loggable {
 
@@ -71,22 +74,24 @@ public class NoUTurnOperator extends SimpleMCMCOperator implements GibbsOperator
 
     private double[] takeOneStep(long m, double[] initialPosition) {
 
-        double[] endPosition = Arrays.copyOf(initialPosition, initialPosition.length);
+        resetPools(initialPosition.length);
+
         final WrappedVector initialMomentum = hmcProvider.drawMomentum();
 
         final double initialJointDensity = hmcProvider.getJointProbability(initialMomentum);
         double logSliceU = Math.log(getUniform()) + initialJointDensity;
 
-        TreeState trajectoryTree = new TreeState(initialPosition, initialMomentum.getBuffer(),
-                hmcProvider.getGradientProvider().getGradientLogDensity(), 1, true);
+        Point initialPoint = acquirePoint();
+        initialPoint.set(initialPosition, initialMomentum.getBuffer(),
+                hmcProvider.getGradientProvider().getGradientLogDensity());
+
+        TreeState trajectoryTree = acquireTreeState(initialPoint, 1, true, 0.0, 0);
+        setEndPoint(initialPoint);
 
         int height = 0;
 
         while (trajectoryTree.flagContinue) {
-            double[] tmp = updateTrajectoryTree(trajectoryTree, height, logSliceU, initialJointDensity);
-            if (tmp != null) {
-                endPosition = tmp;
-            }
+            updateTrajectoryTree(trajectoryTree, height, logSliceU, initialJointDensity);
 
             height++;
 
@@ -98,19 +103,15 @@ public class NoUTurnOperator extends SimpleMCMCOperator implements GibbsOperator
             stepSizeInformation.update(m, trajectoryTree.cumAcceptProb, trajectoryTree.numAcceptProbStates);
             if (printStepsize) System.err.println("step size is " + stepSizeInformation.getStepSize());
         }
-        return endPosition;
+        return endPoint.position;
     }
 
-    private double[] updateTrajectoryTree(TreeState trajectoryTree, int depth, double logSliceU,
-                                          double initialJointDensity) {
-
-        double[] endPosition = null;
+    private void updateTrajectoryTree(TreeState trajectoryTree, int depth, double logSliceU,
+                                      double initialJointDensity) {
 
         final double uniform1 = getUniform();
         int direction = (uniform1 < 0.5) ? -1 : 1;
-        TreeState nextTrajectoryTree = buildTree(
-                trajectoryTree.getPosition(direction), trajectoryTree.getMomentum(direction),
-                trajectoryTree.getGradient(direction),
+        TreeState nextTrajectoryTree = buildTree(trajectoryTree.getPoint(direction),
                 direction, logSliceU, depth, stepSizeInformation.getStepSize(), initialJointDensity);
 
         if (nextTrajectoryTree.flagContinue) {
@@ -118,43 +119,41 @@ public class NoUTurnOperator extends SimpleMCMCOperator implements GibbsOperator
             final double uniform = getUniform();
             final double acceptProb = (double) nextTrajectoryTree.numNodes / (double) trajectoryTree.numNodes;
             if (uniform < acceptProb) {
-                endPosition = nextTrajectoryTree.getSample();
+                setEndPoint(nextTrajectoryTree.getSample());
             }
         }
 
         trajectoryTree.mergeNextTree(nextTrajectoryTree, direction);
-
-        return endPosition;
+        nextTrajectoryTree.release();
     }
 
-    private TreeState buildTree(double[] position, double[] momentum, double[] gradient, int direction,
+    private TreeState buildTree(Point point, int direction,
                                 double logSliceU, int height, double stepSize, double initialJointDensity) {
 
         if (height == 0) {
-            return buildBaseCase(position, momentum, gradient, direction, logSliceU, stepSize, initialJointDensity);
+            return buildBaseCase(point, direction, logSliceU, stepSize, initialJointDensity);
         } else {
-            return buildRecursiveCase(position, momentum, gradient, direction, logSliceU, height, stepSize,
-                    initialJointDensity);
+            return buildRecursiveCase(point, direction, logSliceU, height, stepSize, initialJointDensity);
         }
     }
 
 
-    private TreeState buildBaseCase(double[] inPosition, double[] inMomentum, double[] inGradient, int direction,
+    private TreeState buildBaseCase(Point inPoint, int direction,
                                     double logSliceU, double stepSize, double initialJointDensity) {
         recordOneBaseCall();
-        // Make deep copy of position and momentum
-        WrappedVector position = new WrappedVector.Raw(Arrays.copyOf(inPosition, inPosition.length));
-        WrappedVector momentum = new WrappedVector.Raw(Arrays.copyOf(inMomentum, inMomentum.length));
-        WrappedVector gradient = new WrappedVector.Raw(Arrays.copyOf(inGradient, inGradient.length));
+        // Copy position, momentum and gradient into buffers from the pool
+        Point point = acquirePoint();
+        point.set(inPoint.position, inPoint.momentum, inPoint.gradient);
 
-        hmcProvider.setParameter(position.getBuffer());
+        hmcProvider.setParameter(point.position);
 
         // "one reversibleHMC integral
-        hmcProvider.reversiblePositionMomentumUpdate(position, momentum, gradient, direction, stepSize);
+        hmcProvider.reversiblePositionMomentumUpdate(point.positionVector, point.momentumVector,
+                point.gradientVector, direction, stepSize);
 
         recordEvents();
 
-        double logJointProbAfter = hmcProvider.getJointProbability(momentum);
+        double logJointProbAfter = hmcProvider.getJointProbability(point.momentumVector);
 
         final int numNodes = (logSliceU <= logJointProbAfter ? 1 : 0);
 
@@ -164,27 +163,26 @@ public class NoUTurnOperator extends SimpleMCMCOperator implements GibbsOperator
         final double acceptProb = Math.min(1.0, Math.exp(logJointProbAfter - initialJointDensity));
         final int numAcceptProbStates = 1;
 
-        hmcProvider.setParameter(inPosition);
+        // the parameter is not reset to the starting position here: every base case sets it before
+        // integrating and doOperation sets the chosen position at the end
 
-        return new TreeState(position.getBuffer(), momentum.getBuffer(), gradient.getBuffer(), numNodes, flagContinue
-                , acceptProb,
-                numAcceptProbStates);
+        return acquireTreeState(point, numNodes, flagContinue, acceptProb, numAcceptProbStates);
     }
 
-    private TreeState buildRecursiveCase(double[] inPosition, double[] inMomentum, double[] gradient, int direction,
+    private TreeState buildRecursiveCase(Point inPoint, int direction,
                                          double logSliceU, int height, double stepSize, double initialJointDensity) {
 
-        TreeState subtree = buildTree(inPosition, inMomentum, gradient, direction, logSliceU,
+        TreeState subtree = buildTree(inPoint, direction, logSliceU,
                 height - 1, // Recursion
                 stepSize, initialJointDensity);
 
         if (subtree.flagContinue) {
 
-            TreeState nextSubtree = buildTree(subtree.getPosition(direction), subtree.getMomentum(direction),
-                    subtree.getGradient(direction), direction,
+            TreeState nextSubtree = buildTree(subtree.getPoint(direction), direction,
                     logSliceU, height - 1, stepSizeInformation.getStepSize(), initialJointDensity);
 
             subtree.mergeNextTree(nextSubtree, direction);
+            nextSubtree.release();
 
         }
         return subtree;
@@ -192,8 +190,8 @@ public class NoUTurnOperator extends SimpleMCMCOperator implements GibbsOperator
 
     private static boolean computeStopCriterion(boolean flagContinue, TreeState state) {
         return computeStopCriterion(flagContinue,
-                state.getPosition(1), state.getPosition(-1),
-                state.getMomentum(1), state.getMomentum(-1));
+                state.getPoint(1).position, state.getPoint(-1).position,
+                state.getPoint(1).momentum, state.getPoint(-1).momentum);
     }
 
     private StepSize findReasonableStepSize(double[] initialPosition, double[] initialGradient,
@@ -246,36 +244,23 @@ public class NoUTurnOperator extends SimpleMCMCOperator implements GibbsOperator
                                                 double[] positionPlus, double[] positionMinus,
                                                 double[] momentumPlus, double[] momentumMinus) {
 
-        double[] positionDifference = subtractArray(positionPlus, positionMinus);
-
-        return flagContinue &&
-                getDotProduct(positionDifference, momentumMinus) >= 0 &&
-                getDotProduct(positionDifference, momentumPlus) >= 0;
-    }
-
-    private static double getDotProduct(double[] x, double[] y) {
-
-        assert (x.length == y.length);
-        final int dim = x.length;
-
-        double total = 0.0;
-        for (int i = 0; i < dim; i++) {
-            total += x[i] * y[i];
+        if (!flagContinue) {
+            return false;
         }
-        return total;
-    }
-
-    private static double[] subtractArray(double[] a, double[] b) {
 
-        assert (a.length == b.length);
-        final int dim = a.length;
+        assert (positionPlus.length == positionMinus.length);
+        final int dim = positionPlus.length;
 
-        double[] result = new double[dim];
+        // both dot products with the position difference in one pass, each summed in index order
+        double totalMinus = 0.0;
+        double totalPlus = 0.0;
         for (int i = 0; i < dim; i++) {
-            result[i] = a[i] - b[i];
+            final double difference = positionPlus[i] - positionMinus[i];
+            totalMinus += difference * momentumMinus[i];
+            totalPlus += difference * momentumPlus[i];
         }
 
-        return result;
+        return totalMinus >= 0 && totalPlus >= 0;
     }
 
 
@@ -294,24 +279,106 @@ public class NoUTurnOperator extends SimpleMCMCOperator implements GibbsOperator
         return tmp;
     }
 
-    private class TreeState {
+    private void resetPools(int dim) {
+        if (dim != poolDimension) {
+            points.clear();
+            poolDimension = dim;
+        }
 
-        private TreeState(double[] position, double[] moment, double[] gradient,
-                          int numNodes, boolean flagContinue) {
-            this(position, moment, gradient, numNodes, flagContinue, 0.0, 0);
+        freePoints.clear();
+        for (Point point : points) {
+            point.refCount = 0;
+            freePoints.push(point);
         }
 
-        private TreeState(double[] position, double[] moment, double[] gradient,
-                          int numNodes, boolean flagContinue,
-                          double cumAcceptProb, int numAcceptProbStates) {
-            this.position = new double[3][];
-            this.momentum = new double[3][];
-            this.gradient = new double[3][]; //todo: (for gradient) no need for 3 but 2? If changed to 2, getIndex should also be changed
+        freeTreeStates.clear();
+        freeTreeStates.addAll(treeStates);
+
+        endPoint = null;
+    }
+
+    private Point acquirePoint() {
+        Point point = freePoints.poll();
+        if (point == null) {
+            point = new Point(poolDimension);
+            points.add(point);
+        }
+        return point;
+    }
+
+    private TreeState acquireTreeState(Point point, int numNodes, boolean flagContinue,
+                                       double cumAcceptProb, int numAcceptProbStates) {
+        TreeState state = freeTreeStates.poll();
+        if (state == null) {
+            state = new TreeState();
+            treeStates.add(state);
+        }
+        state.set(point, numNodes, flagContinue, cumAcceptProb, numAcceptProbStates);
+        return state;
+    }
+
+    private void setEndPoint(Point point) {
+        point.retain();
+        if (endPoint != null) {
+            endPoint.release();
+        }
+        endPoint = point;
+    }
+
+    /**
+     * A position along the trajectory with its momentum and gradient. Points are pooled and reused
+     * once no tree state (or the chosen end point) refers to them; the values of a point in use are
+     * never changed.
+     */
+    private class Point {
+
+        private Point(int dim) {
+            position = new double[dim];
+            momentum = new double[dim];
+            gradient = new double[dim];
+
+            positionVector = new WrappedVector.Raw(position);
+            momentumVector = new WrappedVector.Raw(momentum);
+            gradientVector = new WrappedVector.Raw(gradient);
+        }
+
+        private void set(double[] position, double[] momentum, double[] gradient) {
+            System.arraycopy(position, 0, this.position, 0, this.position.length);
+            System.arraycopy(momentum, 0, this.momentum, 0, this.momentum.length);
+            System.arraycopy(gradient, 0, this.gradient, 0, this.gradient.length);
+        }
+
+        private void retain() {
+            refCount++;
+        }
+
+        private void release() {
+            assert (refCount > 0);
+            refCount--;
+            if (refCount == 0) {
+                freePoints.push(this);
+            }
+        }
+
+        final private double[] position;
+        final private double[] momentum;
+        final private double[] gradient;
+
+        final private WrappedVector positionVector;
+        final private WrappedVector momentumVector;
+        final private WrappedVector gradientVector;
+
+        private int refCount;
+    }
+
+    private class TreeState {
+
+        private void set(Point point, int numNodes, boolean flagContinue,
+                         double cumAcceptProb, int numAcceptProbStates) {
 
             for (int i = 0; i < 3; ++i) {
-                this.position[i] = position;
-                this.momentum[i] = moment;
-                this.gradient[i] = gradient;
+                point.retain();
+                this.points[i] = point;
             }
 
             // Recursion variables
@@ -323,40 +390,35 @@ public class NoUTurnOperator extends SimpleMCMCOperator implements GibbsOperator
             this.numAcceptProbStates = numAcceptProbStates;
         }
 
-        private double[] getPosition(int direction) {
-            return position[getIndex(direction)];
-        }
-
-        private double[] getMomentum(int direction) {
-            return momentum[getIndex(direction)];
+        private void release() {
+            for (int i = 0; i < 3; ++i) {
+                points[i].release();
+                points[i] = null;
+            }
+            freeTreeStates.push(this);
         }
 
-        private double[] getGradient(int direction) {
-            return gradient[getIndex(direction)];
+        private Point getPoint(int direction) {
+            return points[getIndex(direction)];
         }
 
-        private double[] getSample() {
+        private Point getSample() {
             /*
             Returns a state chosen uniformly from the acceptable states along a hamiltonian dynamics trajectory tree.
             The sample is updated recursively while building trees.
             */
-            return position[getIndex(0)];
-        }
-
-        private void setPosition(int direction, double[] position) {
-            this.position[getIndex(direction)] = position;
+            return points[getIndex(0)];
         }
 
-        private void setMomentum(int direction, double[] momentum) {
-            this.momentum[getIndex(direction)] = momentum;
+        private void setPoint(int direction, Point point) {
+            final int index = getIndex(direction);
+            point.retain();
+            points[index].release();
+            points[index] = point;
         }
 
-        private void setGradient(int direction, double[] gradient) {
-            this.gradient[getIndex(direction)] = gradient;
-        }
-
-        private void setSample(double[] position) {
-            setPosition(0, position);
+        private void setSample(Point point) {
+            setPoint(0, point);
         }
 
         private int getIndex(int direction) { // valid directions: -1, 0, +1
@@ -366,9 +428,7 @@ public class NoUTurnOperator extends SimpleMCMCOperator implements GibbsOperator
 
         private void mergeNextTree(TreeState nextTree, int direction) {
 
-            setPosition(direction, nextTree.getPosition(direction));
-            setMomentum(direction, nextTree.getMomentum(direction));
-            setGradient(direction, nextTree.getGradient(direction));
+            setPoint(direction, nextTree.getPoint(direction));
 
             updateSample(nextTree);
 
@@ -387,9 +447,7 @@ public class NoUTurnOperator extends SimpleMCMCOperator implements GibbsOperator
             }
         }
 
-        final private double[][] position;
-        final private double[][] momentum;
-        final private double[][] gradient;
+        final private Point[] points = new Point[3];
 
         private int numNodes;
         private boolean flagContinue;
@@ -470,5 +528,13 @@ public class NoUTurnOperator extends SimpleMCMCOperator implements GibbsOperator
 
     final private boolean randomFlg = true;
     private int count;
+
+    // trajectory buffers reused from one step to the next
+    private final List<Point> points = new ArrayList<Point>();
+    private final ArrayDeque<Point> freePoints = new ArrayDeque<Point>();
+    private final List<TreeState> treeStates = new ArrayList<TreeState>();
+    private final ArrayDeque<TreeState> freeTreeStates = new ArrayDeque<TreeState>();
+    private int poolDimension = -1;
+    private Point endPoint;
 }
 
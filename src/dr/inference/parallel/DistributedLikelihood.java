@@ -0,0 +1,518 @@
+/*
+ * DistributedLikelihood.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+
+package dr.inference.parallel;
+
+import dr.inference.model.*;
+import dr.math.MathUtils;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A likelihood which is the product of a set of partition likelihoods that are calculated by
+ * worker processes. Each worker is a separate JVM on the same host that parses its own copy of
+ * the partitions it has been assigned (see LikelihoodWorker) and is connected to this process
+ * by a local socket.
+ *
+ * At each evaluation the changes to the parameters and trees that a worker's partitions depend
+ * on are sent to it in one message together with the store, restore and accept calls that have
+ * been made since it was last contacted. All the workers are sent their messages before any
+ * reply is read so that they calculate at the same time. Workers whose partitions have not
+ * changed are not contacted at all.
+ *
+ * With no workers the partitions are simply calculated in this process; this is how the workers
+ * themselves calculate their share.
+ */
+public class DistributedLikelihood extends AbstractModelLikelihood {
+
+    public static final String DISTRIBUTED_LIKELIHOOD = "distributedLikelihood";
+
+    // messages to a worker
+    static final byte EVALUATE = 1;
+    static final byte FINISH = 2;
+
+    // operations passed on with an evaluation
+    static final byte STORE = 1;
+    static final byte RESTORE = 2;
+    static final byte ACCEPT = 3;
+    static final byte MAKE_DIRTY = 4;
+
+    // replies from a worker
+    static final byte SUCCESS = 0;
+    static final byte FAILURE = 1;
+
+    // how often to check that the worker processes are still running while waiting for them to connect
+    private static final int CONNECT_POLL_TIME = 1000;
+
+    private static final long serialVersionUID = 4530174227651920184L;
+
+    /**
+     * Calculates all the partitions in this process.
+     */
+    public DistributedLikelihood(List<Likelihood> partitions) {
+        this(partitions, null);
+    }
+
+    /**
+     * @param partitions       the partition likelihoods
+     * @param workerDocuments  the XML document to be parsed by each worker, or null to calculate
+     *                         the partitions in this process
+     */
+    public DistributedLikelihood(List<Likelihood> partitions, File[] workerDocuments) {
+        super(DISTRIBUTED_LIKELIHOOD);
+
+        this.partitions = partitions;
+        for (Likelihood likelihood : partitions) {
+            addModel(likelihood.getModel());
+        }
+
+        if (workerDocuments != null && workerDocuments.length > 0) {
+            workers = new Worker[workerDocuments.length];
+            for (int i = 0; i < workers.length; i++) {
+                List<Model> models = new ArrayList<Model>();
+                for (int j = 0; j < partitions.size(); j++) {
+                    if (getWorker(j, workers.length) == i) {
+                        models.add(partitions.get(j).getModel());
+                    }
+                }
+                workers[i] = new Worker(i, workerDocuments[i], new PartitionState(models));
+            }
+        } else {
+            workers = null;
+        }
+    }
+
+    /**
+     * @return the worker that calculates a partition; partitions are dealt out in turn
+     */
+    public static int getWorker(int partition, int workerCount) {
+        return partition % workerCount;
+    }
+
+    public int getWorkerCount() {
+        return (workers != null ? workers.length : 0);
+    }
+
+    public List<Likelihood> getPartitions() {
+        return partitions;
+    }
+
+    List<Model> getPartitionModels() {
+        List<Model> models = new ArrayList<Model>();
+        for (Likelihood likelihood : partitions) {
+            models.add(likelihood.getModel());
+        }
+        return models;
+    }
+
+    // **************************************************************
+    // Likelihood IMPLEMENTATION
+    // **************************************************************
+
+    public Model getModel() {
+        return this;
+    }
+
+    /**
+     * The partitions are not followed by model events (a likelihood does not pass on the changes
+     * it hears about) so this is not cached; the changes are looked for in the state instead and
+     * a worker with nothing to do is not contacted.
+     */
+    public double getLogLikelihood() {
+        return calculateLogLikelihood();
+    }
+
+    public void makeDirty() {
+        if (workers == null) {
+            for (Likelihood likelihood : partitions) {
+                likelihood.makeDirty();
+            }
+        } else {
+            for (Worker worker : workers) {
+                worker.makeDirty();
+            }
+        }
+    }
+
+    public Set<Likelihood> getLikelihoodSet() {
+        Set<Likelihood> set = new HashSet<Likelihood>();
+        set.add(this);
+        for (Likelihood likelihood : partitions) {
+            set.add(likelihood);
+            set.addAll(likelihood.getLikelihoodSet());
+        }
+        return set;
+    }
+
+    public void setUsed() {
+        super.setUsed();
+        for (Likelihood likelihood : partitions) {
+            likelihood.setUsed();
+        }
+    }
+
+    private double calculateLogLikelihood() {
+        if (workers == null) {
+            double logL = 0.0;
+            for (Likelihood likelihood : partitions) {
+                logL += likelihood.getLogLikelihood();
+            }
+            return logL;
+        }
+
+        if (!workersStarted) {
+            startWorkers();
+        }
+
+        try {
+            for (Worker worker : workers) {
+                worker.sendChanges();
+            }
+
+            double logL = 0.0;
+            for (Worker worker : workers) {
+                worker.receiveLogLikelihood();
+                logL += worker.logLikelihood;
+            }
+            return logL;
+        } catch (IOException ioe) {
+            throw new RuntimeException("Lost contact with a likelihood worker process: " + ioe.getMessage());
+        }
+    }
+
+    // **************************************************************
+    // Model IMPLEMENTATION
+    // **************************************************************
+
+    protected void handleModelChangedEvent(Model model, Object object, int index) {
+        // nothing is cached
+    }
+
+    protected void handleVariableChangedEvent(@SuppressWarnings("rawtypes") Variable variable, int index,
+                                              Parameter.ChangeType type) {
+        // no variables of its own
+    }
+
+    protected void storeState() {
+        if (workers != null) {
+            for (Worker worker : workers) {
+                worker.store();
+            }
+        }
+    }
+
+    protected void restoreState() {
+        if (workers != null) {
+            for (Worker worker : workers) {
+                worker.restore();
+            }
+        }
+    }
+
+    protected void acceptState() {
+        if (workers != null) {
+            for (Worker worker : workers) {
+                worker.accept();
+            }
+        }
+    }
+
+    // **************************************************************
+    // Worker processes
+    // **************************************************************
+
+    private void startWorkers() {
+        workersStarted = true;
+
+        try {
+            ServerSocket server = new ServerSocket(0, workers.length, InetAddress.getLoopbackAddress());
+            server.setSoTimeout(CONNECT_POLL_TIME);
+
+            for (Worker worker : workers) {
+                worker.launch(server.getInetAddress().getHostAddress(), server.getLocalPort());
+            }
+
+            // in case the chain does not finish normally
+            shutdownHook = new Thread() {
+                public void run() {
+                    finishWorkers();
+                }
+            };
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+
+            int connectedCount = 0;
+            while (connectedCount < workers.length) {
+                try {
+                    Socket socket = server.accept();
+                    DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                    final int index = in.readInt();
+                    workers[index].connect(socket, in);
+                    connectedCount++;
+                } catch (SocketTimeoutException ste) {
+                    for (Worker worker : workers) {
+                        if (worker.socket == null && !worker.process.isAlive()) {
+                            throw new RuntimeException("Likelihood worker process " + worker.index +
+                                    " stopped (exit code " + worker.process.exitValue() + ") before it connected");
+                        }
+                    }
+                }
+            }
+            server.close();
+        } catch (IOException ioe) {
+            throw new RuntimeException("Unable to start likelihood worker processes: " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Stops the worker processes, if they are running; the MCMC calls this when the chain
+     * finishes. They are started again if the likelihood is calculated after this.
+     */
+    public void stopWorkers() {
+        if (!workersStarted) {
+            return;
+        }
+        if (shutdownHook != null) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException ise) {
+                // already shutting down
+            }
+            shutdownHook = null;
+        }
+        finishWorkers();
+        workersStarted = false;
+    }
+
+    private void finishWorkers() {
+        for (Worker worker : workers) {
+            worker.finish();
+        }
+    }
+
+    /**
+     * The command that starts a worker: the same java and class path as this process, with its
+     * JVM options (apart from debugging agents), choice of parsers and BEAGLE settings.
+     */
+    private static List<String> getWorkerCommand(String host, int port, int index, File document) {
+        List<String> command = new ArrayList<String>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (!argument.startsWith("-agentlib") && !argument.startsWith("-javaagent") &&
+                    !argument.startsWith("-Xdebug") && !argument.startsWith("-Xrunjdwp")) {
+                command.add(argument);
+            }
+        }
+        for (Map.Entry<Object, Object> property : System.getProperties().entrySet()) {
+            final String name = property.getKey().toString();
+            if (name.equals("parsers") || name.startsWith("beagle.")) {
+                command.add("-D" + property.getKey() + "=" + property.getValue());
+            }
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(LikelihoodWorker.class.getName());
+        command.add(host);
+        command.add(Integer.toString(port));
+        command.add(Integer.toString(index));
+        command.add(Long.toString(MathUtils.getSeed()));
+        command.add(document.getAbsolutePath());
+        return command;
+    }
+
+    /**
+     * The leader's view of one worker process: what it was last sent, the operations that are
+     * still to be passed on and its last reported log likelihood.
+     */
+    private static class Worker {
+
+        Worker(int index, File document, PartitionState state) {
+            this.index = index;
+            this.document = document;
+            this.state = state;
+            this.shadow = state.new Shadow();
+        }
+
+        void launch(String host, int port) throws IOException {
+            ProcessBuilder builder = new ProcessBuilder(getWorkerCommand(host, port, index, document));
+            builder.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+            builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+            process = builder.start();
+        }
+
+        void connect(Socket socket, DataInputStream in) throws IOException {
+            socket.setTcpNoDelay(true);
+
+            byte[] signature = new byte[in.readInt()];
+            in.readFully(signature);
+            if (!Arrays.equals(signature, state.getSignature())) {
+                throw new RuntimeException("Likelihood worker process " + index +
+                        " does not have the same parameters and trees as its partitions in this process");
+            }
+
+            this.socket = socket;
+            this.in = in;
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        void sendChanges() throws IOException {
+            changes.reset();
+            final boolean changed = state.writeChanges(shadow, changesOut);
+            changesOut.flush();
+
+            if (changed || !logLikelihoodKnown) {
+                out.writeByte(EVALUATE);
+                out.writeInt(operationCount);
+                out.write(operations, 0, operationCount);
+                changes.writeTo(out);
+                out.flush();
+
+                operationCount = 0;
+                awaitingReply = true;
+            }
+        }
+
+        void receiveLogLikelihood() throws IOException {
+            if (!awaitingReply) {
+                return;
+            }
+            awaitingReply = false;
+
+            if (in.readByte() != SUCCESS) {
+                throw new RuntimeException("Likelihood worker process " + index + " failed: " + in.readUTF());
+            }
+            logLikelihood = in.readDouble();
+            logLikelihoodKnown = true;
+        }
+
+        void store() {
+            shadow.store();
+            storedLogLikelihood = logLikelihood;
+            storedLogLikelihoodKnown = logLikelihoodKnown;
+            addOperation(STORE);
+        }
+
+        void restore() {
+            shadow.restore();
+            logLikelihood = storedLogLikelihood;
+            logLikelihoodKnown = storedLogLikelihoodKnown;
+            addOperation(RESTORE);
+        }
+
+        void accept() {
+            addOperation(ACCEPT);
+        }
+
+        void makeDirty() {
+            logLikelihoodKnown = false;
+            addOperation(MAKE_DIRTY);
+        }
+
+        private void addOperation(byte operation) {
+            // a store that the worker has not been sent yet is matched by this restore or accept
+            // and neither is needed as the worker has not changed in between
+            if ((operation == RESTORE || operation == ACCEPT) &&
+                    operationCount > 0 && operations[operationCount - 1] == STORE) {
+                operationCount--;
+                return;
+            }
+            if (operationCount == operations.length) {
+                operations = Arrays.copyOf(operations, operations.length * 2);
+            }
+            operations[operationCount] = operation;
+            operationCount++;
+        }
+
+        void finish() {
+            if (socket != null) {
+                try {
+                    out.writeByte(FINISH);
+                    out.flush();
+                    socket.close();
+                } catch (IOException ioe) {
+                    // the worker has already gone
+                }
+            }
+            if (process != null) {
+                try {
+                    if (!process.waitFor(5, TimeUnit.SECONDS)) {
+                        process.destroy();
+                    }
+                } catch (InterruptedException ie) {
+                    process.destroy();
+                }
+            }
+
+            // a worker started again begins from scratch
+            process = null;
+            socket = null;
+            in = null;
+            out = null;
+            shadow = state.new Shadow();
+            operationCount = 0;
+            awaitingReply = false;
+            logLikelihoodKnown = false;
+            storedLogLikelihoodKnown = false;
+        }
+
+        final int index;
+        private final File document;
+        private final PartitionState state;
+        private PartitionState.Shadow shadow;
+
+        private Process process = null;
+        private Socket socket = null;
+        private DataInputStream in;
+        private DataOutputStream out;
+
+        private final ByteArrayOutputStream changes = new ByteArrayOutputStream();
+        private final DataOutputStream changesOut = new DataOutputStream(changes);
+        private byte[] operations = new byte[8];
+        private int operationCount = 0;
+        private boolean awaitingReply = false;
+
+        private double logLikelihood;
+        private boolean logLikelihoodKnown = false;
+        private double storedLogLikelihood;
+        private boolean storedLogLikelihoodKnown = false;
+    }
+
+    private final List<Likelihood> partitions;
+    private final Worker[] workers;
+    private boolean workersStarted = false;
+    private Thread shutdownHook = null;
+}
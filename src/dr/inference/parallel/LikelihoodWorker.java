@@ -0,0 +1,184 @@
+/*
+ * LikelihoodWorker.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+
+package dr.inference.parallel;
+
+import dr.app.beast.BeastParser;
+import dr.app.beast.BeastVersion;
+import dr.math.MathUtils;
+import dr.xml.XMLObject;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The main class of a worker process started by a DistributedLikelihood. It parses the XML
+ * document written for it, which holds its share of the partitions in a distributedLikelihood
+ * element with the id WORKER_LIKELIHOOD_ID, connects back to the leader and then calculates
+ * the log likelihood of its partitions each time the leader sends it the changes to the state.
+ *
+ * Arguments: host port workerIndex seed documentFileName
+ */
+public class LikelihoodWorker {
+
+    public static final String WORKER_LIKELIHOOD_ID = "distributedLikelihood.worker";
+
+    public LikelihoodWorker(DistributedLikelihood likelihood) {
+        this.likelihood = likelihood;
+        this.state = new PartitionState(likelihood.getPartitionModels());
+    }
+
+    /**
+     * Sends the worker's index and signature and then answers evaluations until the leader
+     * finishes or goes away.
+     */
+    public void run(int index, Socket socket) throws IOException {
+        socket.setTcpNoDelay(true);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+        byte[] signature = state.getSignature();
+        out.writeInt(index);
+        out.writeInt(signature.length);
+        out.write(signature);
+        out.flush();
+
+        while (true) {
+            final byte message;
+            try {
+                message = in.readByte();
+            } catch (EOFException eofe) {
+                break;
+            }
+            if (message == DistributedLikelihood.FINISH) {
+                break;
+            }
+
+            try {
+                final int operationCount = in.readInt();
+                for (int i = 0; i < operationCount; i++) {
+                    applyOperation(in.readByte());
+                }
+                state.readChanges(in);
+
+                final double logL = likelihood.getLogLikelihood();
+                out.writeByte(DistributedLikelihood.SUCCESS);
+                out.writeDouble(logL);
+                out.flush();
+            } catch (RuntimeException re) {
+                // the rest of the message can not be trusted so the worker stops after reporting the error
+                out.writeByte(DistributedLikelihood.FAILURE);
+                out.writeUTF(re.toString());
+                out.flush();
+                break;
+            }
+        }
+
+        socket.close();
+    }
+
+    private void applyOperation(byte operation) {
+        switch (operation) {
+            case DistributedLikelihood.STORE:
+                likelihood.storeModelState();
+                break;
+            case DistributedLikelihood.RESTORE:
+                likelihood.restoreModelState();
+                break;
+            case DistributedLikelihood.ACCEPT:
+                likelihood.acceptModelState();
+                break;
+            case DistributedLikelihood.MAKE_DIRTY:
+                likelihood.makeDirty();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown operation: " + operation);
+        }
+    }
+
+    private final DistributedLikelihood likelihood;
+    private final PartitionState state;
+
+    public static void main(String[] args) {
+
+        if (args.length != 5) {
+            System.err.println("Usage: LikelihoodWorker <host> <port> <worker-index> <seed> <xml-file>");
+            System.exit(1);
+        }
+
+        final String host = args[0];
+        final int port = Integer.parseInt(args[1]);
+        final int index = Integer.parseInt(args[2]);
+        final long seed = Long.parseLong(args[3]);
+        final String fileName = args[4];
+
+        // the leader reports the analysis so the worker's own messages are only noise
+        System.setOut(new PrintStream(new OutputStream() {
+            public void write(int b) {
+            }
+        }));
+        Logger.getLogger("dr").setLevel(Level.WARNING);
+
+        MathUtils.setSeed(seed);
+
+        DistributedLikelihood likelihood;
+        try {
+            List<String> additionalParsers = new ArrayList<String>();
+            additionalParsers.add("beagle");
+            BeastParser parser = new BeastParser(new String[]{fileName}, additionalParsers,
+                    false, false, false, BeastVersion.INSTANCE);
+
+            Reader reader = new BufferedReader(new FileReader(fileName));
+            Map<String, XMLObject> objects = parser.parse(reader, false);
+            reader.close();
+
+            XMLObject xo = objects.get(WORKER_LIKELIHOOD_ID);
+            if (xo == null || !(xo.getNativeObject() instanceof DistributedLikelihood)) {
+                throw new IllegalArgumentException("The document does not contain a " +
+                        DistributedLikelihood.DISTRIBUTED_LIKELIHOOD + " with the id " + WORKER_LIKELIHOOD_ID);
+            }
+            likelihood = (DistributedLikelihood) xo.getNativeObject();
+        } catch (Exception e) {
+            System.err.println("Likelihood worker " + index + " could not parse " + fileName + ": " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        try {
+            new LikelihoodWorker(likelihood).run(index, new Socket(host, port));
+        } catch (IOException ioe) {
+            System.err.println("Likelihood worker " + index + " lost contact with the leader: " + ioe.getMessage());
+            System.exit(1);
+        }
+
+        System.exit(0);
+    }
+}
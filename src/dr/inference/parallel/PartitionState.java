@@ -0,0 +1,414 @@
+/*
+ * PartitionState.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+
+package dr.inference.parallel;
+
+import dr.evolution.tree.NodeRef;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.model.CompoundParameter;
+import dr.inference.model.Model;
+import dr.inference.model.Parameter;
+import dr.inference.model.Variable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * The state that a set of partition likelihoods depends on: the parameters and trees found by
+ * walking their models. The leader writes the differences between this state and a Shadow of
+ * what a worker was last sent; the worker reads them into its own copy of the partitions.
+ * Both sides find the same parameters and trees in the same order because they are built from
+ * the same XML, which is checked by comparing signatures when a worker connects.
+ */
+class PartitionState {
+
+    private static final int END = -1;
+    private static final int ALL_VALUES = -1;
+
+    PartitionState(List<? extends Model> partitions) {
+        Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        for (Model model : partitions) {
+            addModel(model, visited);
+        }
+    }
+
+    private void addModel(Model model, Set<Object> visited) {
+        if (!visited.add(model)) {
+            return;
+        }
+
+        // trees are sent as a topology and node heights so their node parameters are not followed
+        if (model instanceof TreeModel) {
+            trees.add((TreeModel) model);
+            return;
+        }
+
+        for (int i = 0; i < model.getVariableCount(); i++) {
+            addVariable(model.getVariable(i), visited);
+        }
+        for (int i = 0; i < model.getModelCount(); i++) {
+            addModel(model.getModel(i), visited);
+        }
+    }
+
+    private void addVariable(Variable variable, Set<Object> visited) {
+        if (!visited.add(variable)) {
+            return;
+        }
+
+        if (variable instanceof CompoundParameter) {
+            CompoundParameter compound = (CompoundParameter) variable;
+            for (int i = 0; i < compound.getParameterCount(); i++) {
+                addVariable(compound.getParameter(i), visited);
+            }
+        } else if (variable instanceof Parameter.Default) {
+            parameters.add((Parameter) variable);
+        } else {
+            throw new IllegalArgumentException("The variable, " + variable.getVariableName() +
+                    ", can not be shared with a worker process");
+        }
+    }
+
+    int getParameterCount() {
+        return parameters.size();
+    }
+
+    int getTreeCount() {
+        return trees.size();
+    }
+
+    /**
+     * @return a description of the parameters and trees that two processes can compare to check
+     *         that they hold the same state in the same order
+     */
+    byte[] getSignature() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(parameters.size());
+            for (Parameter parameter : parameters) {
+                out.writeUTF(String.valueOf(parameter.getParameterName()));
+                out.writeInt(parameter.getDimension());
+            }
+            out.writeInt(trees.size());
+            for (TreeModel tree : trees) {
+                out.writeUTF(String.valueOf(tree.getId()));
+                out.writeInt(tree.getNodeCount());
+                for (int i = 0; i < tree.getExternalNodeCount(); i++) {
+                    out.writeUTF(tree.getNodeTaxon(tree.getExternalNode(i)).getId());
+                }
+            }
+            out.flush();
+        } catch (IOException ioe) {
+            throw new RuntimeException(ioe);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes the values that differ from the shadow and updates the shadow to match.
+     *
+     * @return true if anything was written
+     */
+    boolean writeChanges(Shadow shadow, DataOutputStream out) throws IOException {
+        boolean changed = false;
+
+        for (int i = 0; i < parameters.size(); i++) {
+            changed |= writeParameterChanges(i, shadow, out);
+        }
+        out.writeInt(END);
+
+        for (int i = 0; i < trees.size(); i++) {
+            changed |= writeTreeChanges(i, shadow, out);
+        }
+        out.writeInt(END);
+
+        return changed;
+    }
+
+    private boolean writeParameterChanges(int index, Shadow shadow, DataOutputStream out) throws IOException {
+        final Parameter parameter = parameters.get(index);
+        final int dim = parameter.getDimension();
+        final double[] sent = shadow.values[index];
+
+        if (sent == null || sent.length != dim) {
+            double[] values = new double[dim];
+            out.writeInt(index);
+            out.writeInt(ALL_VALUES);
+            out.writeInt(dim);
+            for (int j = 0; j < dim; j++) {
+                values[j] = parameter.getParameterValue(j);
+                out.writeDouble(values[j]);
+            }
+            shadow.values[index] = values;
+            return true;
+        }
+
+        int count = 0;
+        for (int j = 0; j < dim; j++) {
+            if (differs(sent[j], parameter.getParameterValue(j))) {
+                count++;
+            }
+        }
+        if (count == 0) {
+            return false;
+        }
+
+        // the shadow arrays are never changed in place so that storing a shadow is only a copy of references
+        double[] values = sent.clone();
+        out.writeInt(index);
+        out.writeInt(count);
+        for (int j = 0; j < dim; j++) {
+            final double value = parameter.getParameterValue(j);
+            if (differs(sent[j], value)) {
+                values[j] = value;
+                out.writeInt(j);
+                out.writeDouble(value);
+            }
+        }
+        shadow.values[index] = values;
+        return true;
+    }
+
+    private boolean writeTreeChanges(int index, Shadow shadow, DataOutputStream out) throws IOException {
+        final TreeModel tree = trees.get(index);
+        final int nodeCount = tree.getNodeCount();
+
+        int[] topology = getTopology(tree);
+        final boolean topologyChanged = !Arrays.equals(topology, shadow.topologies[index]);
+
+        final double[] sent = shadow.heights[index];
+        int count = 0;
+        if (sent != null) {
+            for (int j = 0; j < nodeCount; j++) {
+                if (differs(sent[j], tree.getNodeHeight(tree.getNode(j)))) {
+                    count++;
+                }
+            }
+        }
+
+        if (!topologyChanged && sent != null && count == 0) {
+            return false;
+        }
+
+        out.writeInt(index);
+        out.writeBoolean(topologyChanged);
+        if (topologyChanged) {
+            for (int node : topology) {
+                out.writeInt(node);
+            }
+            shadow.topologies[index] = topology;
+        }
+
+        double[] heights = new double[nodeCount];
+        if (sent == null) {
+            out.writeInt(ALL_VALUES);
+            for (int j = 0; j < nodeCount; j++) {
+                heights[j] = tree.getNodeHeight(tree.getNode(j));
+                out.writeDouble(heights[j]);
+            }
+        } else {
+            out.writeInt(count);
+            for (int j = 0; j < nodeCount; j++) {
+                heights[j] = tree.getNodeHeight(tree.getNode(j));
+                if (differs(sent[j], heights[j])) {
+                    out.writeInt(j);
+                    out.writeDouble(heights[j]);
+                }
+            }
+        }
+        shadow.heights[index] = heights;
+
+        return true;
+    }
+
+    /**
+     * Reads the changes written by writeChanges and sets them on the parameters and trees, which
+     * fire the usual change events.
+     */
+    void readChanges(DataInputStream in) throws IOException {
+
+        int index = in.readInt();
+        while (index != END) {
+            final Parameter parameter = parameters.get(index);
+            final int count = in.readInt();
+            if (count == ALL_VALUES) {
+                final int dim = in.readInt();
+                if (parameter.getDimension() != dim) {
+                    parameter.setDimension(dim);
+                }
+                for (int j = 0; j < dim; j++) {
+                    parameter.setParameterValueQuietly(j, in.readDouble());
+                }
+                parameter.fireParameterChangedEvent();
+            } else {
+                for (int k = 0; k < count; k++) {
+                    final int j = in.readInt();
+                    parameter.setParameterValue(j, in.readDouble());
+                }
+            }
+            index = in.readInt();
+        }
+
+        index = in.readInt();
+        while (index != END) {
+            final TreeModel tree = trees.get(index);
+            final int nodeCount = tree.getNodeCount();
+
+            int[] topology = null;
+            if (in.readBoolean()) {
+                topology = new int[1 + 2 * nodeCount];
+                for (int j = 0; j < topology.length; j++) {
+                    topology[j] = in.readInt();
+                }
+            }
+
+            final int count = in.readInt();
+            if (count == ALL_VALUES) {
+                for (int j = 0; j < nodeCount; j++) {
+                    tree.setNodeHeight(tree.getNode(j), in.readDouble());
+                }
+            } else {
+                for (int k = 0; k < count; k++) {
+                    final int j = in.readInt();
+                    tree.setNodeHeight(tree.getNode(j), in.readDouble());
+                }
+            }
+
+            if (topology != null) {
+                setTopology(tree, topology);
+            }
+
+            index = in.readInt();
+        }
+    }
+
+    /**
+     * @return the root number followed by the numbers of the (up to two) children of each node, -1 for none
+     */
+    private static int[] getTopology(TreeModel tree) {
+        final int nodeCount = tree.getNodeCount();
+        int[] topology = new int[1 + 2 * nodeCount];
+        topology[0] = tree.getRoot().getNumber();
+        for (int j = 0; j < nodeCount; j++) {
+            NodeRef node = tree.getNode(j);
+            final int childCount = tree.getChildCount(node);
+            if (childCount > 2) {
+                throw new IllegalArgumentException("Only binary trees can be shared with a worker process");
+            }
+            for (int k = 0; k < 2; k++) {
+                NodeRef child = (k < childCount ? tree.getChild(node, k) : null);
+                topology[1 + 2 * j + k] = (child != null ? child.getNumber() : -1);
+            }
+        }
+        return topology;
+    }
+
+    /**
+     * Changes the tree to the given topology in one edit, only touching the nodes whose children differ.
+     */
+    private static void setTopology(TreeModel tree, int[] topology) {
+        final int nodeCount = tree.getNodeCount();
+        final int[] current = getTopology(tree);
+
+        List<NodeRef> changedNodes = new ArrayList<NodeRef>();
+        for (int j = 0; j < nodeCount; j++) {
+            if (current[1 + 2 * j] != topology[1 + 2 * j] || current[2 + 2 * j] != topology[2 + 2 * j]) {
+                changedNodes.add(tree.getNode(j));
+            }
+        }
+        final boolean rootChanged = current[0] != topology[0];
+        if (changedNodes.size() == 0 && !rootChanged) {
+            return;
+        }
+
+        tree.beginTreeEdit();
+        for (NodeRef node : changedNodes) {
+            for (int k = 0; k < 2; k++) {
+                final int child = current[1 + 2 * node.getNumber() + k];
+                if (child >= 0) {
+                    tree.removeChild(node, tree.getNode(child));
+                }
+            }
+        }
+        for (NodeRef node : changedNodes) {
+            for (int k = 0; k < 2; k++) {
+                final int child = topology[1 + 2 * node.getNumber() + k];
+                if (child >= 0) {
+                    tree.addChild(node, tree.getNode(child));
+                }
+            }
+        }
+        if (rootChanged) {
+            tree.setRoot(tree.getNode(topology[0]));
+        }
+        tree.endTreeEdit();
+    }
+
+    private static boolean differs(double sent, double value) {
+        return Double.doubleToLongBits(sent) != Double.doubleToLongBits(value);
+    }
+
+    /**
+     * What the leader last sent to a worker. Arrays are replaced rather than changed when values
+     * are sent, so storing and restoring a shadow only copies the references.
+     */
+    class Shadow {
+
+        Shadow() {
+            values = new double[parameters.size()][];
+            topologies = new int[trees.size()][];
+            heights = new double[trees.size()][];
+            store();
+        }
+
+        void store() {
+            storedValues = values.clone();
+            storedTopologies = topologies.clone();
+            storedHeights = heights.clone();
+        }
+
+        void restore() {
+            values = storedValues.clone();
+            topologies = storedTopologies.clone();
+            heights = storedHeights.clone();
+        }
+
+        private double[][] values;
+        private int[][] topologies;
+        private double[][] heights;
+
+        private double[][] storedValues;
+        private int[][] storedTopologies;
+        private double[][] storedHeights;
+    }
+
+    private final List<Parameter> parameters = new ArrayList<Parameter>();
+    private final List<TreeModel> trees = new ArrayList<TreeModel>();
+}
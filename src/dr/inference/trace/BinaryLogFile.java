@@ -0,0 +1,444 @@
+/*
+ * BinaryLogFile.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.trace;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads a binary columnar log, as written by dr.inference.loggers.BinaryLogFormatter.
+ *
+ * The file starts with a header (the magic bytes, a version, the heading lines and the column
+ * labels) followed by blocks of rows. Each block holds the states of its rows and then, column by
+ * column, the values as raw doubles, ints, longs or dictionary codes for text. A table of offsets at
+ * the start of each block gives where each column starts so a single column can be read without
+ * decoding the others. An index of the blocks is written when the log is closed; if it is missing
+ * (e.g., the run is still going or was killed) the blocks are found by scanning and any incomplete
+ * last block is ignored.
+ *
+ * The file is memory mapped so the values are read without copying through a stream.
+ */
+public class BinaryLogFile implements Closeable {
+
+    public static final byte[] MAGIC = {'B', 'E', 'A', 'S', 'T', 'L', 'O', 'G'};
+    public static final int VERSION = 1;
+
+    public static final int BLOCK_MARKER = 0x424C4B31; // "BLK1"
+    public static final int INDEX_MARKER = 0x49445831; // "IDX1"
+    public static final int END_MARKER = 0x454E4431;   // "END1"
+
+    // the type of each column chunk in a block
+    public static final byte DOUBLE = 'D';
+    public static final byte INT = 'I';
+    public static final byte LONG = 'L';
+    public static final byte STRING = 'S';
+
+    public static final Charset CHARSET = Charset.forName("UTF-8");
+
+    // the size of the block header before the column offsets: marker, row count and length
+    public static final int BLOCK_HEADER_SIZE = 12;
+
+    // the size of the trailer: the index offset and end marker
+    public static final int TRAILER_SIZE = 12;
+
+    /**
+     * @return true if the file starts with the binary log magic bytes
+     */
+    public static boolean isBinaryLog(File file) throws IOException {
+        if (!file.isFile() || file.length() < MAGIC.length) {
+            return false;
+        }
+        byte[] bytes = new byte[MAGIC.length];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(bytes);
+        } finally {
+            in.close();
+        }
+        return Arrays.equals(bytes, MAGIC);
+    }
+
+    public BinaryLogFile(File file) throws IOException, TraceException {
+        randomAccessFile = new RandomAccessFile(file, "r");
+        channel = randomAccessFile.getChannel();
+        length = channel.size();
+
+        if (length <= Integer.MAX_VALUE) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            // a mapping stays valid after its channel is closed
+            close();
+        } else {
+            mapped = null;
+        }
+
+        ByteBuffer header = map(0, (int) Math.min(length, Integer.MAX_VALUE));
+
+        byte[] magic = new byte[MAGIC.length];
+        if (header.remaining() < MAGIC.length + 8) {
+            throw new TraceException("Binary log file is too short.");
+        }
+        header.get(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new TraceException("Not a binary log file.");
+        }
+        final int version = header.getInt();
+        if (version != VERSION) {
+            throw new TraceException("Unsupported binary log version: " + version);
+        }
+
+        final int headingCount = header.getInt();
+        for (int i = 0; i < headingCount; i++) {
+            headings.add(readString(header));
+        }
+
+        final int columnCount = header.getInt();
+        labels = new String[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            labels[i] = readString(header);
+        }
+
+        final long dataStart = header.position();
+
+        if (!readIndex(dataStart)) {
+            scanBlocks(dataStart);
+        }
+
+        for (int rows : blockRowCounts) {
+            rowCount += rows;
+        }
+    }
+
+    public List<String> getHeadings() {
+        return headings;
+    }
+
+    /**
+     * @return the labels of the value columns (not including the state)
+     */
+    public String[] getLabels() {
+        return labels;
+    }
+
+    public int getColumnCount() {
+        return labels.length;
+    }
+
+    public int getBlockCount() {
+        return blockOffsets.size();
+    }
+
+    public int getBlockRowCount(int block) {
+        return blockRowCounts.get(block);
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public long[] readStates() throws IOException {
+        long[] states = new long[rowCount];
+        int row = 0;
+        for (int block = 0; block < getBlockCount(); block++) {
+            long[] blockStates = readBlockStates(block);
+            System.arraycopy(blockStates, 0, states, row, blockStates.length);
+            row += blockStates.length;
+        }
+        return states;
+    }
+
+    public long[] readBlockStates(int block) throws IOException {
+        ByteBuffer buffer = getBlock(block);
+        final int rows = getBlockRowCount(block);
+        buffer.position(BLOCK_HEADER_SIZE + 4 * labels.length);
+        long[] states = new long[rows];
+        buffer.asLongBuffer().get(states);
+        return states;
+    }
+
+    /**
+     * @return true if any of the values of this column are text
+     */
+    public boolean isCategorical(int column) throws IOException {
+        for (int block = 0; block < getBlockCount(); block++) {
+            if (getChunkType(block, column) == STRING) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if all the values of this column are integers
+     */
+    public boolean isInteger(int column) throws IOException {
+        for (int block = 0; block < getBlockCount(); block++) {
+            final byte type = getChunkType(block, column);
+            if (type != INT && type != LONG) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public double[] readValues(int column) throws IOException, TraceException {
+        double[] values = new double[rowCount];
+        int row = 0;
+        for (int block = 0; block < getBlockCount(); block++) {
+            readBlockValues(block, column, values, row);
+            row += getBlockRowCount(block);
+        }
+        return values;
+    }
+
+    public String[] readText(int column) throws IOException, TraceException {
+        String[] text = new String[rowCount];
+        int row = 0;
+        for (int block = 0; block < getBlockCount(); block++) {
+            readBlockText(block, column, text, row);
+            row += getBlockRowCount(block);
+        }
+        return text;
+    }
+
+    /**
+     * Reads the values of a column in a block as numbers.
+     *
+     * @throws TraceException if the values are text
+     */
+    public void readBlockValues(int block, int column, double[] destination, int offset)
+            throws IOException, TraceException {
+        ByteBuffer buffer = getChunk(block, column);
+        final int rows = getBlockRowCount(block);
+        final byte type = buffer.get();
+        switch (type) {
+            case DOUBLE:
+                buffer.slice().asDoubleBuffer().get(destination, offset, rows);
+                break;
+            case INT:
+                for (int i = 0; i < rows; i++) {
+                    destination[offset + i] = buffer.getInt();
+                }
+                break;
+            case LONG:
+                for (int i = 0; i < rows; i++) {
+                    destination[offset + i] = buffer.getLong();
+                }
+                break;
+            case STRING:
+                throw new TraceException("Expected real values in column " + (column + 1) + " (" + labels[column] + ")");
+            default:
+                throw new TraceException("Unknown column type in block " + block);
+        }
+    }
+
+    /**
+     * Reads the values of a column in a block as text, numbers being written as they would be in
+     * a tab-delimited log.
+     */
+    public void readBlockText(int block, int column, String[] destination, int offset)
+            throws IOException, TraceException {
+        ByteBuffer buffer = getChunk(block, column);
+        final int rows = getBlockRowCount(block);
+        final byte type = buffer.get();
+        switch (type) {
+            case DOUBLE:
+                for (int i = 0; i < rows; i++) {
+                    destination[offset + i] = Double.toString(buffer.getDouble());
+                }
+                break;
+            case INT:
+                for (int i = 0; i < rows; i++) {
+                    destination[offset + i] = Integer.toString(buffer.getInt());
+                }
+                break;
+            case LONG:
+                for (int i = 0; i < rows; i++) {
+                    destination[offset + i] = Long.toString(buffer.getLong());
+                }
+                break;
+            case STRING:
+                List<String> dictionary = getDictionary(block, column);
+                buffer = getChunk(block, column);
+                buffer.get();
+                skipNewEntries(buffer);
+                for (int i = 0; i < rows; i++) {
+                    destination[offset + i] = dictionary.get(buffer.getInt());
+                }
+                break;
+            default:
+                throw new TraceException("Unknown column type in block " + block);
+        }
+    }
+
+    public void close() throws IOException {
+        if (randomAccessFile != null) {
+            randomAccessFile.close();
+            randomAccessFile = null;
+        }
+    }
+
+    private boolean readIndex(long dataStart) {
+        if (length < dataStart + TRAILER_SIZE) {
+            return false;
+        }
+        ByteBuffer trailer = map(length - TRAILER_SIZE, TRAILER_SIZE);
+        final long indexOffset = trailer.getLong();
+        if (trailer.getInt() != END_MARKER || indexOffset < dataStart || indexOffset > length - TRAILER_SIZE - 8) {
+            return false;
+        }
+
+        ByteBuffer index = map(indexOffset, (int) (length - TRAILER_SIZE - indexOffset));
+        if (index.getInt() != INDEX_MARKER) {
+            return false;
+        }
+        final int blockCount = index.getInt();
+        if (index.remaining() < blockCount * 12L) {
+            return false;
+        }
+        for (int i = 0; i < blockCount; i++) {
+            blockOffsets.add(index.getLong());
+            blockRowCounts.add(index.getInt());
+        }
+        return true;
+    }
+
+    private void scanBlocks(long dataStart) {
+        long position = dataStart;
+        while (position + BLOCK_HEADER_SIZE <= length) {
+            ByteBuffer header = map(position, BLOCK_HEADER_SIZE);
+            if (header.getInt() != BLOCK_MARKER) {
+                break;
+            }
+            final int rows = header.getInt();
+            final int blockLength = header.getInt();
+            if (blockLength < BLOCK_HEADER_SIZE || position + blockLength > length) {
+                // the last block was not completely written
+                break;
+            }
+            blockOffsets.add(position);
+            blockRowCounts.add(rows);
+            position += blockLength;
+        }
+    }
+
+    private ByteBuffer getBlock(int block) {
+        final long offset = blockOffsets.get(block);
+        final int blockLength = map(offset, BLOCK_HEADER_SIZE).getInt(8);
+        return map(offset, blockLength);
+    }
+
+    private ByteBuffer getChunk(int block, int column) {
+        ByteBuffer buffer = getBlock(block);
+        final int chunkOffset = buffer.getInt(BLOCK_HEADER_SIZE + 4 * column);
+        buffer.position(chunkOffset);
+        return buffer;
+    }
+
+    private byte getChunkType(int block, int column) {
+        ByteBuffer buffer = getChunk(block, column);
+        return buffer.get();
+    }
+
+    /**
+     * The text values of a column are coded by the order they first appear in the log, each block
+     * listing the ones new to it, so the dictionary for a block is built from the blocks up to it
+     * (entries from later blocks have higher codes so do no harm).
+     */
+    private List<String> getDictionary(int block, int column) {
+        if (dictionaries == null) {
+            dictionaries = new Dictionary[labels.length];
+        }
+        Dictionary dictionary = dictionaries[column];
+        if (dictionary == null) {
+            dictionary = new Dictionary();
+            dictionaries[column] = dictionary;
+        }
+        while (dictionary.nextBlock <= block) {
+            ByteBuffer buffer = getChunk(dictionary.nextBlock, column);
+            if (buffer.get() == STRING) {
+                final int newCount = buffer.getInt();
+                for (int i = 0; i < newCount; i++) {
+                    dictionary.entries.add(readString(buffer));
+                }
+            }
+            dictionary.nextBlock++;
+        }
+        return dictionary.entries;
+    }
+
+    private static void skipNewEntries(ByteBuffer buffer) {
+        final int newCount = buffer.getInt();
+        for (int i = 0; i < newCount; i++) {
+            final int size = buffer.getInt();
+            buffer.position(buffer.position() + size);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        final int size = buffer.getInt();
+        byte[] bytes = new byte[size];
+        buffer.get(bytes);
+        return new String(bytes, CHARSET);
+    }
+
+    private ByteBuffer map(long offset, int size) {
+        if (mapped != null) {
+            ByteBuffer buffer = mapped.duplicate();
+            buffer.position((int) offset);
+            buffer.limit((int) offset + size);
+            return buffer.slice();
+        }
+        try {
+            return channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+        } catch (IOException ioe) {
+            throw new RuntimeException("Unable to read binary log: " + ioe.getMessage());
+        }
+    }
+
+    private static class Dictionary {
+        final List<String> entries = new ArrayList<String>();
+        int nextBlock = 0;
+    }
+
+    private RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+    private final long length;
+    private final ByteBuffer mapped;
+
+    private final List<String> headings = new ArrayList<String>();
+    private final String[] labels;
+
+    private final List<Long> blockOffsets = new ArrayList<Long>();
+    private final List<Integer> blockRowCounts = new ArrayList<Integer>();
+    private int rowCount = 0;
+
+    private Dictionary[] dictionaries = null;
+}
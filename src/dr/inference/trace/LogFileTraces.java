@@ -209,6 +209,10 @@ public class LogFileTraces extends AbstractTraceList {
      * @throws IOException
      */
     public void loadTraces(File file) throws TraceException, IOException {
+        if (BinaryLogFile.isBinaryLog(file)) {
+            loadBinaryTraces(file);
+            return;
+        }
         final Reader reader = new FileReader(file);
         loadTraces(reader);
         reader.close();
@@ -338,16 +342,74 @@ public class LogFileTraces extends AbstractTraceList {
         if (num_samples == 0)
             throw new TraceException("Incorrect file format, no sample is found !");
 
+        setDefaultBurnIn();
+
+        tokens = reader.getStringTokenizer(lastLine);
+        // skip the state
+        tokens.nextToken();
+        validateTraceType(tokens);
+        validateUniqueValues();
+    }
+
+    /**
+     * Read a binary columnar log (see {@link BinaryLogFile}). The values are read column by column
+     * straight from the mapped file and the trace types come from the stored value types rather
+     * than being guessed from text.
+     *
+     * @param file the binary log file
+     * @throws TraceException
+     * @throws IOException
+     */
+    private void loadBinaryTraces(File file) throws TraceException, IOException {
+        final BinaryLogFile log = new BinaryLogFile(file);
+
+        try {
+            final long[] states = log.readStates();
+            if (states.length == 0)
+                throw new TraceException("Incorrect file format, no sample is found !");
+
+            for (int i = 0; i < states.length; i++) {
+                long state = states[i];
+                // MrBayes puts 1 as the first state, BEAST puts 0 (as for text logs)
+                if (i == 0 && state == 1) state = 0;
+
+                if (!addState(state, i + 1)) {
+                    throw new TraceException("State " + state + " is not consistent with previous spacing (Row " +
+                            (i + 1) + ")");
+                }
+            }
+
+            final String[] labels = log.getLabels();
+            for (int i = 0; i < labels.length; i++) {
+                final Trace trace;
+                if (log.isCategorical(i)) {
+                    trace = new Trace(labels[i], TraceType.CATEGORICAL);
+                    for (String value : log.readText(i)) {
+                        trace.add(value);
+                    }
+                } else {
+                    trace = new Trace(labels[i], log.isInteger(i) ? TraceType.INTEGER : TraceType.REAL);
+                    for (double value : log.readValues(i)) {
+                        trace.add(value);
+                    }
+                }
+                traces.add(trace);
+            }
+        } finally {
+            log.close();
+        }
+
+        setDefaultBurnIn();
+        validateUniqueValues();
+    }
+
+    private void setDefaultBurnIn() {
         burnIn =  lastState / 10;
 
         if (lastState < 0)
             lastState = firstState;
         if (stepSize < 0 && lastState > 0)
             stepSize = lastState;
-
-        tokens = reader.getStringTokenizer(lastLine);
-        validateTraceType(tokens);
-        validateUniqueValues();
     }
     public static final int MIN_SAMPLE = 5; // used in StatisticsModel
 
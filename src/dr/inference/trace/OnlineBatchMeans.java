@@ -0,0 +1,151 @@
+/*
+ * OnlineBatchMeans.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.trace;
+
+/**
+ * A streaming estimator of the ESS and ACT of a trace using batch means. Values are added
+ * one at a time in O(1) and the estimates can be requested at any point, so the ESS can be
+ * tracked as a chain runs or a log file is read without keeping the samples.
+ *
+ * The samples are grouped into at most 2 * maxBatchCount batches. When the batches are full
+ * adjacent pairs are merged and the batch size doubles, so the number of batches stays between
+ * maxBatchCount and 2 * maxBatchCount once enough samples have been seen.
+ */
+public class OnlineBatchMeans {
+
+    public OnlineBatchMeans(long stepSize) {
+        this(stepSize, DEFAULT_BATCH_COUNT);
+    }
+
+    public OnlineBatchMeans(long stepSize, int maxBatchCount) {
+        this.stepSize = stepSize;
+        this.maxBatchCount = maxBatchCount;
+        this.batchSums = new double[2 * maxBatchCount];
+    }
+
+    public void addValue(double value) {
+        count++;
+
+        // Welford's update of the mean and variance
+        final double delta = value - mean;
+        mean += delta / count;
+        sumOfSquares += delta * (value - mean);
+
+        currentBatchSum += value;
+        currentBatchCount++;
+        if (currentBatchCount == batchSize) {
+            batchSums[batchCount] = currentBatchSum;
+            batchCount++;
+            currentBatchSum = 0.0;
+            currentBatchCount = 0;
+
+            if (batchCount == batchSums.length) {
+                for (int i = 0; i < maxBatchCount; i++) {
+                    batchSums[i] = batchSums[2 * i] + batchSums[2 * i + 1];
+                }
+                batchCount = maxBatchCount;
+                batchSize *= 2;
+            }
+        }
+    }
+
+    public void addValues(double[] values) {
+        for (double value : values) {
+            addValue(value);
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public double getVariance() {
+        return count > 1 ? sumOfSquares / (count - 1) : 0.0;
+    }
+
+    /**
+     * @return the batch means estimate of the variance of the mean times the number of samples
+     * (i.e., the asymptotic variance)
+     */
+    public double getAsymptoticVariance() {
+        if (batchCount < 2) {
+            return Double.NaN;
+        }
+
+        double batchMean = 0.0;
+        for (int i = 0; i < batchCount; i++) {
+            batchMean += batchSums[i];
+        }
+        batchMean /= (batchCount * (double) batchSize);
+
+        double ss = 0.0;
+        for (int i = 0; i < batchCount; i++) {
+            final double del = batchSums[i] / batchSize - batchMean;
+            ss += del * del;
+        }
+        return batchSize * ss / (batchCount - 1);
+    }
+
+    public double getStdErrorOfMean() {
+        return Math.sqrt(getAsymptoticVariance() / count);
+    }
+
+    public double getACT() {
+        final double variance = getVariance();
+        if (variance == 0.0) {
+            return 0.0;
+        }
+        // the ACT can't be less than the sampling interval
+        return stepSize * Math.max(1.0, getAsymptoticVariance() / variance);
+    }
+
+    public double getESS() {
+        final double act = getACT();
+        if (act == 0.0) {
+            return 1.0;
+        }
+        return (stepSize * count) / act;
+    }
+
+    private static final int DEFAULT_BATCH_COUNT = 256;
+
+    private final long stepSize;
+    private final int maxBatchCount;
+
+    private long count = 0;
+    private double mean = 0.0;
+    private double sumOfSquares = 0.0;
+
+    private final double[] batchSums;
+    private int batchCount = 0;
+    private long batchSize = 1;
+    private double currentBatchSum = 0.0;
+    private long currentBatchCount = 0;
+}
@@ -25,6 +25,8 @@
 
 package dr.inference.trace;
 
+import dr.math.FastFourierTransform;
+
 import java.util.List;
 import java.util.Map;
 
@@ -87,6 +89,15 @@ public class TraceCorrelation extends TraceDistribution {
 
     private static final int MAX_LAG = 2000;
 
+    // the first lag at which the remaining lags may be computed in one go by FFT; the choice is
+    // made again each time the lag doubles
+    private static final int FFT_FIRST_CHECK_LAG = 32;
+
+    // the relative costs of one step of the direct sum (per sample per lag) and of the FFT (per
+    // element per level of the transform), measured by TraceCorrelationBenchmark
+    private static final double DIRECT_COST = 1.0;
+    private static final double FFT_COST = 5.0;
+
     private void analyseCorrelation(List<Double> values, long stepSize) {
 //        this.values = values; // move to TraceDistribution(T[] values)
 
@@ -136,15 +147,29 @@ public class TraceCorrelation extends TraceDistribution {
         //double assVarCor = 1.0;
         //double del1, del2;
 
+        double[] fftGammaStat = null;
+        int checkLag = FFT_FIRST_CHECK_LAG;
+
         for (int lag = 0; lag < maxLag; lag++) {
-            for (int j = 0; j < samples - lag; j++) {
-                final double del1 = values[j] - mean;
-                final double del2 = values[j + lag] - mean;
-                gammaStat[lag] += (del1 * del2);
-                //varGammaStat[lag] += (del1*del1*del2*del2);
+            if (fftGammaStat == null && lag == checkLag) {
+                if (isFFTCheaper(samples, lag, maxLag, gammaStat[lag - 1] / gammaStat[0])) {
+                    fftGammaStat = getAutoCovariance(values, mean, maxLag);
+                }
+                checkLag *= 2;
             }
 
-            gammaStat[lag] /= ((double) (samples - lag));
+            if (fftGammaStat != null) {
+                gammaStat[lag] = fftGammaStat[lag];
+            } else {
+                for (int j = 0; j < samples - lag; j++) {
+                    final double del1 = values[j] - mean;
+                    final double del2 = values[j + lag] - mean;
+                    gammaStat[lag] += (del1 * del2);
+                    //varGammaStat[lag] += (del1*del1*del2*del2);
+                }
+
+                gammaStat[lag] /= ((double) (samples - lag));
+            }
             //varGammaStat[lag] /= ((double) samples-lag);
             //varGammaStat[lag] -= (gammaStat[0] * gammaStat[0]);
 
@@ -189,4 +214,84 @@ public class TraceCorrelation extends TraceDistribution {
 //        minEqualToMax = true;
     }
 
+    /**
+     * Decides whether the remaining lags would be quicker to compute by FFT than by carrying on
+     * with the direct sum. The autocorrelation is assumed to decay exponentially, so from its value
+     * at the current lag the sum is expected to stop at about the lag where it falls to the noise
+     * level of the estimate, sqrt(2 * tau / n).
+     *
+     * @param samples     the number of samples
+     * @param lag         the current lag
+     * @param maxLag      the last lag that would be computed
+     * @param correlation the autocorrelation at the previous lag
+     * @return true if the FFT is expected to be cheaper
+     */
+    static boolean isFFTCheaper(int samples, int lag, int maxLag, double correlation) {
+        if (!(correlation > 0.0 && correlation < 1.0)) {
+            // the sum is about to stop (or the estimate is meaningless)
+            return false;
+        }
+
+        final double tau = -(lag - 1) / Math.log(correlation);
+        final double stopLag = Math.min(maxLag, tau * 0.5 * Math.log(samples / (2.0 * tau)));
+        if (stopLag <= lag) {
+            return false;
+        }
+
+        final int size = getTransformSize(samples);
+        final double directCost = DIRECT_COST * samples * (stopLag - lag);
+        final double fftCost = FFT_COST * size * (Integer.numberOfTrailingZeros(size) + 1);
+        return fftCost < directCost;
+    }
+
+    /**
+     * @return the size of the real transform, a power of 2 big enough for the values and their
+     * zero padding
+     */
+    private static int getTransformSize(int samples) {
+        int size = 4;
+        while (size < 2 * samples) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    /**
+     * Computes the autocovariance of the values for lags 0 to maxLag - 1 using the FFT
+     * (Wiener-Khinchin) in O(n log n) time. The values are zero padded to avoid wrap-around.
+     *
+     * @param values the values
+     * @param mean   the mean of the values
+     * @param maxLag the number of lags
+     * @return the autocovariance at each lag (normalized by the number of pairs at that lag)
+     */
+    public static double[] getAutoCovariance(double[] values, double mean, int maxLag) {
+        final int samples = values.length;
+        final int size = getTransformSize(samples);
+
+        final double[] data = new double[size];
+        for (int i = 0; i < samples; i++) {
+            data[i] = values[i] - mean;
+        }
+
+        FastFourierTransform.realFFT(data, size, false);
+
+        // the power spectrum, which is real
+        data[0] = data[0] * data[0];
+        data[1] = data[1] * data[1];
+        for (int k = 2; k < size; k += 2) {
+            data[k] = data[k] * data[k] + data[k + 1] * data[k + 1];
+            data[k + 1] = 0.0;
+        }
+
+        FastFourierTransform.realFFT(data, size, true);
+
+        // the inverse is scaled by half the size
+        final double[] gamma = new double[Math.min(maxLag, samples)];
+        for (int lag = 0; lag < gamma.length; lag++) {
+            gamma[lag] = data[lag] / (size / 2) / (samples - lag);
+        }
+        return gamma;
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,137 @@
+package dr.inference.trace;
+
+import dr.math.MathUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the costs that TraceCorrelation uses to choose between the direct sum of the
+ * autocovariance and the FFT, and times the ESS of AR(1) traces against the direct sum alone.
+ *
+ * The direct cost is per sample per lag and the FFT cost is per element of the real transform
+ * per level (size * (log2(size) + 1)); their ratio is the FFT_COST in TraceCorrelation.
+ */
+public class TraceCorrelationBenchmark {
+
+    public static void main(String[] args) {
+        MathUtils.setSeed(666);
+
+        System.out.println("samples\tdirect ns/step\tfft ns/step\tratio");
+        for (int samples : new int[]{10000, 100000, 1000000, 5000000}) {
+            double[] values = ar1(samples, 0.99);
+            double mean = getMean(values);
+
+            final int lags = 200;
+            long time = System.nanoTime();
+            double check = directAutoCovariance(values, mean, lags);
+            final double direct = (double) (System.nanoTime() - time) / ((double) samples * lags);
+
+            int size = 4;
+            while (size < 2 * samples) {
+                size <<= 1;
+            }
+            final int repeats = Math.max(1, 20000000 / samples);
+            time = System.nanoTime();
+            for (int i = 0; i < repeats; i++) {
+                check += TraceCorrelation.getAutoCovariance(values, mean, lags)[1];
+            }
+            final double fft = (double) (System.nanoTime() - time) / repeats /
+                    ((double) size * (Integer.numberOfTrailingZeros(size) + 1));
+
+            System.out.println(samples + "\t" + direct + "\t" + fft + "\t" + (fft / direct) +
+                    (check == 0.0 ? " " : ""));
+        }
+
+        // the time of the correlation analysis is that of TraceCorrelation less that of the
+        // TraceDistribution it extends, so it also includes the copying and standard error
+        // calculations that the bare direct sum does not; each case is run twice and the second timed
+        System.out.println();
+        System.out.println("samples\tphi\tESS\tms\tdirect ESS\tdirect ms");
+        double[][] cases = {{2000, 0.5}, {20000, 0.9}, {20000, 0.99}, {200000, 0.999}, {1000000, 0.99},
+                {1000000, 0.999}, {5000000, 0.9995}};
+        for (double[] c : cases) {
+            final int samples = (int) c[0];
+            double[] values = ar1(samples, c[1]);
+            List<Double> list = new ArrayList<Double>();
+            for (double value : values) {
+                list.add(value);
+            }
+
+            TraceCorrelation correlation = null;
+            double directESS = 0.0;
+            long ms = 0;
+            long directMs = 0;
+            for (int k = 0; k < 2; k++) {
+                long time = System.nanoTime();
+                new TraceDistribution(list, TraceType.REAL);
+                final long distributionTime = System.nanoTime() - time;
+
+                time = System.nanoTime();
+                correlation = new TraceCorrelation(list, TraceType.REAL, 1);
+                ms = (System.nanoTime() - time - distributionTime) / 1000000;
+
+                time = System.nanoTime();
+                directESS = directESS(values);
+                directMs = (System.nanoTime() - time) / 1000000;
+            }
+
+            System.out.println(samples + "\t" + c[1] + "\t" + correlation.getESS() + "\t" + ms + "\t" +
+                    directESS + "\t" + directMs);
+        }
+    }
+
+    // the ESS as TraceCorrelation computed it before the FFT (without the TraceDistribution statistics)
+    private static double directESS(double[] values) {
+        final int samples = values.length;
+        final double mean = getMean(values);
+        int maxLag = Math.min(samples - 1, 2000);
+        double[] gammaStat = new double[maxLag];
+        double varStat = 0.0;
+        for (int lag = 0; lag < maxLag; lag++) {
+            for (int j = 0; j < samples - lag; j++) {
+                gammaStat[lag] += (values[j] - mean) * (values[j + lag] - mean);
+            }
+            gammaStat[lag] /= ((double) (samples - lag));
+            if (lag == 0) {
+                varStat = gammaStat[0];
+            } else if (lag % 2 == 0) {
+                if (gammaStat[lag - 1] + gammaStat[lag] > 0) {
+                    varStat += 2.0 * (gammaStat[lag - 1] + gammaStat[lag]);
+                } else {
+                    maxLag = lag;
+                }
+            }
+        }
+        return samples / (varStat / gammaStat[0]);
+    }
+
+    private static double directAutoCovariance(double[] values, double mean, int lags) {
+        double total = 0.0;
+        for (int lag = 0; lag < lags; lag++) {
+            double gamma = 0.0;
+            for (int j = 0; j < values.length - lag; j++) {
+                gamma += (values[j] - mean) * (values[j + lag] - mean);
+            }
+            total += gamma / (values.length - lag);
+        }
+        return total;
+    }
+
+    private static double getMean(double[] values) {
+        double mean = 0.0;
+        for (double value : values) {
+            mean += value;
+        }
+        return mean / values.length;
+    }
+
+    private static double[] ar1(int length, double phi) {
+        double[] values = new double[length];
+        values[0] = MathUtils.nextGaussian();
+        for (int i = 1; i < length; i++) {
+            values[i] = phi * values[i - 1] + MathUtils.nextGaussian();
+        }
+        return values;
+    }
+}
@@ -25,6 +25,9 @@
 
 package dr.inference.trace;
 
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
 import java.io.Reader;
 import java.util.ArrayList;
 import java.util.List;
@@ -46,6 +49,65 @@ public class TracesReader {
         listeners.remove(listener);
     }
 
+    /**
+     * Reads all the traces in a file, either tab-delimited or binary, but does not store in memory.
+     *
+     * @param file the file to read traces from
+     * @throws TraceException      when trace contents is not valid
+     * @throws java.io.IOException low level problems with file
+     */
+    public void readTraces(File file) throws TraceException, IOException {
+        if (!BinaryLogFile.isBinaryLog(file)) {
+            Reader reader = new FileReader(file);
+            try {
+                readTraces(reader);
+            } finally {
+                reader.close();
+            }
+            return;
+        }
+
+        BinaryLogFile log = new BinaryLogFile(file);
+        try {
+            final String[] labels = log.getLabels();
+            for (TracesListener listener : listeners) {
+                listener.traceNames(labels);
+            }
+
+            boolean firstState = true;
+
+            for (int block = 0; block < log.getBlockCount(); block++) {
+                final int rowCount = log.getBlockRowCount(block);
+                final long[] states = log.readBlockStates(block);
+
+                final double[][] columns = new double[labels.length][rowCount];
+                for (int i = 0; i < labels.length; i++) {
+                    log.readBlockValues(block, i, columns[i], 0);
+                }
+
+                for (int row = 0; row < rowCount; row++) {
+                    int state = (int) states[row];
+                    if (firstState) {
+                        // MrBayes puts 1 as the first state, BEAST puts 0
+                        if (state == 1) state = 0;
+                        firstState = false;
+                    }
+
+                    double[] values = new double[labels.length];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = columns[i][row];
+                    }
+
+                    for (TracesListener listener : listeners) {
+                        listener.traceRow(state, values);
+                    }
+                }
+            }
+        } finally {
+            log.close();
+        }
+    }
+
     /**
      * Reads all the traces in a file, but does not store in memory.
      *
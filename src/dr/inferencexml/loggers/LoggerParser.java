@@ -35,6 +35,8 @@ import dr.util.Property;
 import dr.xml.*;
 
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.PrintWriter;
 import java.util.Date;
 
@@ -54,6 +56,7 @@ public class LoggerParser extends AbstractXMLObjectParser {
     public static final String TAB = "tab";
     public static final String HTML = "html";
     public static final String PRETTY = "pretty";
+    public static final String BINARY = "binary";
     public static final String LOG_EVERY = "logEvery";
     public static final String ALLOW_OVERWRITE_LOG = "overwrite";
 
@@ -76,9 +79,22 @@ public class LoggerParser extends AbstractXMLObjectParser {
         // You must say how often you want to log
         final int logEvery = xo.getIntegerAttribute(LOG_EVERY);
 
-        final PrintWriter pw = getLogFile(xo, getParserName());
-
-        final LogFormatter formatter = new TabDelimitedFormatter(pw);
+        final LogFormatter formatter;
+        if (xo.getAttribute(FORMAT, TAB).equalsIgnoreCase(BINARY)) {
+            if (!xo.hasAttribute(FILE_NAME)) {
+                throw new XMLParseException("A binary log needs a file name in the " + getParserName() + " element.");
+            }
+            final File logFile = XMLParser.getLogFile(xo, FILE_NAME);
+            try {
+                formatter = new BinaryLogFormatter(new FileOutputStream(logFile));
+            } catch (FileNotFoundException fnfe) {
+                throw new XMLParseException("File '" + logFile.getAbsolutePath() +
+                        "' can not be opened for " + getParserName() + " element.");
+            }
+        } else {
+            final PrintWriter pw = getLogFile(xo, getParserName());
+            formatter = new TabDelimitedFormatter(pw);
+        }
 
         boolean performanceReport = false;
 
@@ -160,6 +176,9 @@ public class LoggerParser extends AbstractXMLObjectParser {
             new StringAttributeRule(FILE_NAME,
                     "The name of the file to send log output to. " +
                             "If no file name is specified then log is sent to standard output", true),
+            new StringAttributeRule(FORMAT,
+                    "The format of the log file: tab-delimited text (the default) or binary columns",
+                    new String[]{TAB, BINARY}, true),
             new StringAttributeRule(TITLE,
                     "The title of the log", true),
             new StringAttributeRule(HEADER,
@@ -38,6 +38,7 @@ import java.util.logging.Logger;
 public class CompoundLikelihoodParser extends AbstractXMLObjectParser {
     public static final String COMPOUND_LIKELIHOOD = "compoundLikelihood";
     public static final String THREADS = "threads";
+    public static final String WORK_STEALING = "workStealing";
     @Deprecated public static final String POSTERIOR = "posterior"; // replaced with JOINT
     public static final String JOINT = "joint";
     public static final String PRIOR = "prior";
@@ -70,6 +71,12 @@ public class CompoundLikelihoodParser extends AbstractXMLObjectParser {
         }
 //        }
 
+        // evaluate only the changed likelihoods on a shared work-stealing pool
+        boolean workStealing = xo.getAttribute(WORK_STEALING, false);
+        if (System.getProperty("thread.work_stealing") != null) {
+            workStealing = Boolean.parseBoolean(System.getProperty("thread.work_stealing"));
+        }
+
         List<Likelihood> likelihoods = new ArrayList<Likelihood>();
         for (int i = 0; i < xo.getChildCount(); i++) {
             final Object child = xo.getChild(i);
@@ -95,8 +102,11 @@ public class CompoundLikelihoodParser extends AbstractXMLObjectParser {
         CompoundLikelihood compoundLikelihood;
 
         if (xo.getName().equalsIgnoreCase(LIKELIHOOD)) {
-            compoundLikelihood = new CompoundLikelihood(threads, likelihoods);
-            switch (threads) {
+            compoundLikelihood = new CompoundLikelihood(threads, likelihoods, workStealing);
+            if (workStealing && threads != 0) {
+                Logger.getLogger("dr.evomodel").info("\nLikelihood computation is using a shared work-stealing thread pool " +
+                        "(only changed likelihoods are dispatched).");
+            } else switch (threads) {
                 case -1:
                     Logger.getLogger("dr.evomodel").info("\nLikelihood computation is using an auto sizing thread pool.");
                     break;
@@ -132,6 +142,7 @@ public class CompoundLikelihoodParser extends AbstractXMLObjectParser {
 
     private final XMLSyntaxRule[] rules = {
             AttributeRule.newIntegerRule(THREADS, true),
+            AttributeRule.newBooleanRule(WORK_STEALING, true),
             new ElementRule(Likelihood.class, -1, Integer.MAX_VALUE)
     };
 
@@ -0,0 +1,234 @@
+/*
+ * DistributedLikelihoodParser.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+
+package dr.inferencexml.model;
+
+import dr.inference.model.Likelihood;
+import dr.inference.parallel.DistributedLikelihood;
+import dr.inference.parallel.LikelihoodWorker;
+import dr.xml.*;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Parses a distributedLikelihood. For each worker process a document is written holding the
+ * worker's share of the partition elements and the top-level elements that come before them.
+ */
+public class DistributedLikelihoodParser extends AbstractXMLObjectParser {
+
+    public static final String WORKERS = "workers";
+
+    public String getParserName() {
+        return DistributedLikelihood.DISTRIBUTED_LIKELIHOOD;
+    }
+
+    public Object parseXMLObject(XMLObject xo) throws XMLParseException {
+
+        List<Likelihood> partitions = new ArrayList<Likelihood>();
+        for (int i = 0; i < xo.getChildCount(); i++) {
+            Object child = xo.getChild(i);
+            if (!(child instanceof Likelihood) || ((Likelihood) child).getModel() == null) {
+                throw new XMLParseException("An element (" + child + ") which is not a likelihood model has been added to a " +
+                        DistributedLikelihood.DISTRIBUTED_LIKELIHOOD + " element");
+            }
+            partitions.add((Likelihood) child);
+        }
+
+        int workerCount = xo.getAttribute(WORKERS, 0);
+        if (workerCount < 0) {
+            throw new XMLParseException("The number of workers must be zero or more");
+        }
+        workerCount = Math.min(workerCount, partitions.size());
+
+        if (workerCount == 0) {
+            return new DistributedLikelihood(partitions);
+        }
+
+        File[] documents = new File[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            documents[i] = writeWorkerDocument(xo.getElement(), i, workerCount);
+        }
+
+        Logger.getLogger("dr.inference").info("Distributing " + partitions.size() + " partition likelihoods between " +
+                workerCount + " worker processes");
+
+        try {
+            return new DistributedLikelihood(partitions, documents);
+        } catch (IllegalArgumentException iae) {
+            throw new XMLParseException(iae.getMessage());
+        }
+    }
+
+    /**
+     * Writes the document for one worker: the top-level elements before the one holding this
+     * element, without those defining other workers' partitions, followed by a copy of this
+     * element with only the worker's partitions.
+     */
+    private File writeWorkerDocument(Element element, int worker, int workerCount) throws XMLParseException {
+
+        final Element root = element.getOwnerDocument().getDocumentElement();
+
+        Node top = element;
+        while (top.getParentNode() != root) {
+            top = top.getParentNode();
+        }
+
+        try {
+            Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+            Element beast = (Element) document.importNode(root, false);
+            document.appendChild(beast);
+
+            Element copy = (Element) document.importNode(element, true);
+            copy.setAttribute(XMLParser.ID, LikelihoodWorker.WORKER_LIKELIHOOD_ID);
+            copy.setAttribute(WORKERS, "0");
+
+            Set<String> otherPartitions = new HashSet<String>();
+            int partition = 0;
+            for (Node node = copy.getFirstChild(); node != null; ) {
+                final Node next = node.getNextSibling();
+                if (node instanceof Element) {
+                    if (DistributedLikelihood.getWorker(partition, workerCount) != worker) {
+                        if (((Element) node).hasAttribute(XMLParser.IDREF)) {
+                            otherPartitions.add(((Element) node).getAttribute(XMLParser.IDREF));
+                        }
+                        copy.removeChild(node);
+                    }
+                    partition++;
+                }
+                node = next;
+            }
+
+            // the definitions of other workers' partitions are left out unless something else refers to them
+            List<Element> topElements = new ArrayList<Element>();
+            Set<String> references = getReferences(copy);
+            for (Node node = root.getFirstChild(); node != top; node = node.getNextSibling()) {
+                if (node instanceof Element) {
+                    topElements.add((Element) node);
+                    if (!otherPartitions.contains(((Element) node).getAttribute(XMLParser.ID))) {
+                        references.addAll(getReferences((Element) node));
+                    }
+                }
+            }
+
+            for (Element topElement : topElements) {
+                if (!otherPartitions.contains(topElement.getAttribute(XMLParser.ID)) || isReferenced(topElement, references)) {
+                    beast.appendChild(document.importNode(topElement, true));
+                }
+            }
+            beast.appendChild(copy);
+
+            File file = File.createTempFile(DistributedLikelihood.DISTRIBUTED_LIKELIHOOD + worker + "_", ".xml");
+            file.deleteOnExit();
+
+            Transformer transformer = TransformerFactory.newInstance().newTransformer();
+            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+            transformer.transform(new DOMSource(document), new StreamResult(file));
+
+            return file;
+        } catch (ParserConfigurationException pce) {
+            throw new XMLParseException("Unable to create the document for a worker process: " + pce.getMessage());
+        } catch (TransformerException te) {
+            throw new XMLParseException("Unable to write the document for a worker process: " + te.getMessage());
+        } catch (IOException ioe) {
+            throw new XMLParseException("Unable to write the document for a worker process: " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * @return true if any id defined in the element is in the references
+     */
+    private static boolean isReferenced(Element element, Set<String> references) {
+        if (element.hasAttribute(XMLParser.ID) && references.contains(element.getAttribute(XMLParser.ID))) {
+            return true;
+        }
+        NodeList children = element.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            if (children.item(i) instanceof Element && isReferenced((Element) children.item(i), references)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Set<String> getReferences(Element element) {
+        Set<String> references = new HashSet<String>();
+        addReferences(element, references);
+        return references;
+    }
+
+    private static void addReferences(Element element, Set<String> references) {
+        if (element.hasAttribute(XMLParser.IDREF)) {
+            references.add(element.getAttribute(XMLParser.IDREF));
+        }
+        NodeList children = element.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            if (children.item(i) instanceof Element) {
+                addReferences((Element) children.item(i), references);
+            }
+        }
+    }
+
+    //************************************************************************
+    // AbstractXMLObjectParser implementation
+    //************************************************************************
+
+    public String getParserDescription() {
+        return "A likelihood function which is the product of its partition likelihoods, which are calculated " +
+                "in separate worker processes on this computer.";
+    }
+
+    public XMLSyntaxRule[] getSyntaxRules() {
+        return rules;
+    }
+
+    private final XMLSyntaxRule[] rules = {
+            AttributeRule.newIntegerRule(WORKERS, true, "The number of worker processes (zero to calculate the partitions in this process)"),
+            new ElementRule(Likelihood.class, 1, Integer.MAX_VALUE),
+    };
+
+    @SuppressWarnings("rawtypes")
+    public Class getReturnType() {
+        return DistributedLikelihood.class;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * AliasTable.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.math;
+
+/**
+ * A set of tables for Walker's alias method, each of which draws from a discrete distribution
+ * over the same number of states in constant time from a single uniform number, where
+ * MathUtils.randomChoicePDF scans the distribution. Setting a table takes time linear in the
+ * number of states so they pay when many draws are made from each, e.g., one table for each
+ * parent state of a branch when simulating sequences.
+ *
+ * Tables are set from one thread but, once set, can be sampled from several.
+ */
+public class AliasTable {
+
+    /**
+     * @param tableCount the number of distributions
+     * @param stateCount the number of states of each
+     */
+    public AliasTable(int tableCount, int stateCount) {
+        this.tableCount = tableCount;
+        this.stateCount = stateCount;
+
+        probabilities = new double[tableCount * stateCount];
+        aliases = new int[tableCount * stateCount];
+
+        scaled = new double[stateCount];
+        small = new int[stateCount];
+        large = new int[stateCount];
+    }
+
+    public int getTableCount() {
+        return tableCount;
+    }
+
+    public int getStateCount() {
+        return stateCount;
+    }
+
+    /**
+     * Sets a table from stateCount unnormalized probabilities.
+     *
+     * @param table  the index of the table
+     * @param pdf    an array holding the probabilities
+     * @param offset the position of the first probability in the array
+     */
+    public void setTable(int table, double[] pdf, int offset) {
+        double sum = 0.0;
+        for (int i = 0; i < stateCount; i++) {
+            final double p = pdf[offset + i];
+            if (!(p >= 0.0)) {
+                throw new IllegalArgumentException("Negative or NaN probability: " + p);
+            }
+            sum += p;
+        }
+        if (!(sum > 0.0) || Double.isInfinite(sum)) {
+            throw new IllegalArgumentException("Probabilities sum to " + sum);
+        }
+
+        // Vose's construction: pair each state with less than the average probability with one
+        // with more, which makes up the rest of its column
+        int smallCount = 0;
+        int largeCount = 0;
+        for (int i = 0; i < stateCount; i++) {
+            scaled[i] = pdf[offset + i] * stateCount / sum;
+            if (scaled[i] < 1.0) {
+                small[smallCount++] = i;
+            } else {
+                large[largeCount++] = i;
+            }
+        }
+
+        final int start = table * stateCount;
+        while (smallCount > 0 && largeCount > 0) {
+            final int less = small[--smallCount];
+            final int more = large[--largeCount];
+
+            probabilities[start + less] = scaled[less];
+            aliases[start + less] = more;
+
+            scaled[more] = (scaled[more] + scaled[less]) - 1.0;
+            if (scaled[more] < 1.0) {
+                small[smallCount++] = more;
+            } else {
+                large[largeCount++] = more;
+            }
+        }
+
+        // what is left over is only short of 1 by rounding
+        while (largeCount > 0) {
+            final int state = large[--largeCount];
+            probabilities[start + state] = 1.0;
+            aliases[start + state] = state;
+        }
+        while (smallCount > 0) {
+            final int state = small[--smallCount];
+            probabilities[start + state] = 1.0;
+            aliases[start + state] = state;
+        }
+    }
+
+    /**
+     * @param table the index of the table
+     * @param u     a uniform random number in [0, 1)
+     * @return a state drawn from the distribution of the table
+     */
+    public int sample(int table, double u) {
+        final double position = u * stateCount;
+        int column = (int) position;
+        if (column >= stateCount) {
+            // u * stateCount can round up to stateCount
+            column = stateCount - 1;
+        }
+        final int index = table * stateCount + column;
+        return (position - column < probabilities[index] ? column : aliases[index]);
+    }
+
+    private final int tableCount;
+    private final int stateCount;
+
+    private final double[] probabilities;
+    private final int[] aliases;
+
+    // work space for setting a table
+    private final double[] scaled;
+    private final int[] small;
+    private final int[] large;
+}
@@ -168,6 +168,67 @@ public class FastFourierTransform {
         }
     }
 
+    /**
+     * Computes the fast fourier transform of real values by a complex transform of half the length
+     * (Numerical Recipes' realft). The forward transform replaces the values with the first half of
+     * their (symmetric) transform: data[0] and data[1] hold the real parts of the zero and n/2
+     * frequencies and data[2k], data[2k+1] the real and imaginary parts of frequency k. The inverse
+     * takes a transform in that form back to the values multiplied by n/2.
+     *
+     * @param data    an array of real values
+     * @param n       data length, a power of 2 of at least 4
+     * @param inverse true if performing inverse FFT
+     */
+    public static void realFFT(double[] data, int n, boolean inverse) {
+        int i, i1, i2, i3, i4;
+        double c1 = 0.5, c2, h1r, h1i, h2r, h2i;
+        double wr, wi, wpr, wpi, wtemp, theta;
+
+        theta = Math.PI / (double) (n >> 1);
+        if (!inverse) {
+            c2 = -0.5;
+            theta = -theta;
+            fft(data, n >> 1, false);
+        } else {
+            c2 = 0.5;
+        }
+
+        wtemp = Math.sin(0.5 * theta);
+        wpr = -2.0 * wtemp * wtemp;
+        wpi = Math.sin(theta);
+        wr = 1.0 + wpr;
+        wi = wpi;
+        for (i = 1; i < (n >> 2); i++) {
+            i1 = i + i;
+            i2 = 1 + i1;
+            i3 = n - i1;
+            i4 = 1 + i3;
+            h1r = c1 * (data[i1] + data[i3]);
+            h1i = c1 * (data[i2] - data[i4]);
+            h2r = -c2 * (data[i2] + data[i4]);
+            h2i = c2 * (data[i1] - data[i3]);
+            data[i1] = h1r + wr * h2r - wi * h2i;
+            data[i2] = h1i + wr * h2i + wi * h2r;
+            data[i3] = h1r - wr * h2r + wi * h2i;
+            data[i4] = -h1i + wr * h2i + wi * h2r;
+            wtemp = wr;
+            wr += wr * wpr - wi * wpi;
+            wi += wi * wpr + wtemp * wpi;
+        }
+        // with this sign convention the n/4 frequency is the conjugate of its half length value
+        data[(n >> 1) + 1] = -data[(n >> 1) + 1];
+
+        h1r = data[0];
+        if (!inverse) {
+            data[0] = h1r + data[1];
+            data[1] = h1r - data[1];
+        } else {
+            data[0] = c1 * (h1r + data[1]);
+            data[1] = c1 * (h1r - data[1]);
+            fft(data, n >> 1, true);
+        }
+    }
+
     private static void swap(double[] x, int i, int j) {
         double tmp = x[i];
         x[i] = x[j];
@@ -162,13 +162,11 @@ public interface ReadableVector {
 
         public static void setParameter(WrappedVector position, Parameter.Default parameter) {
 
-            double[] par = parameter.inspectParameterValues();
             double[] pos = position.getBuffer();
             int posOffset = position.getOffset();
 
             for (int j = 0, dim = position.getDim(); j < dim; ++j) {
-                par[j] = pos[posOffset + j];
-//                parameter.setParameterValueQuietly(j, position.get(j));
+                parameter.setParameterValueQuietly(j, pos[posOffset + j]);
             }
             parameter.fireParameterChangedEvent();
         }        
@@ -0,0 +1,199 @@
+/*
+ * SampleReservoir.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.stats;
+
+import dr.math.MathUtils;
+
+import java.util.Arrays;
+
+/**
+ * Samples of one or more real values kept in growable primitive arrays.
+ *
+ * If a capacity is given, at most that many samples are kept and once it is reached each new
+ * sample replaces a random one (reservoir sampling) so the samples kept are a uniform random
+ * subset of all those added. The medians and HPDs of the kept samples are then estimates but the
+ * mean, minimum and maximum are always over all the samples added.
+ */
+public class SampleReservoir {
+
+    /**
+     * @param dimension the number of values in each sample
+     * @param capacity  the maximum number of samples kept, or zero to keep them all
+     */
+    public SampleReservoir(int dimension, int capacity) {
+        this.dimension = dimension;
+        this.capacity = capacity;
+
+        values = new double[dimension][INITIAL_CAPACITY];
+        sums = new double[dimension];
+        nanCounts = new long[dimension];
+        minima = new double[dimension];
+        maxima = new double[dimension];
+        Arrays.fill(minima, Double.POSITIVE_INFINITY);
+        Arrays.fill(maxima, Double.NEGATIVE_INFINITY);
+    }
+
+    public void add(double value) {
+        if (dimension != 1) {
+            throw new IllegalArgumentException("Sample should have " + dimension + " values");
+        }
+
+        addToSummaries(0, value);
+
+        final int slot = nextSlot();
+        if (slot >= 0) {
+            values[0][slot] = value;
+        }
+    }
+
+    public void add(double[] sample) {
+        if (sample.length != dimension) {
+            throw new IllegalArgumentException("Sample should have " + dimension + " values");
+        }
+
+        for (int i = 0; i < dimension; i++) {
+            addToSummaries(i, sample[i]);
+        }
+
+        final int slot = nextSlot();
+        if (slot >= 0) {
+            for (int i = 0; i < dimension; i++) {
+                values[i][slot] = sample[i];
+            }
+        }
+    }
+
+    /**
+     * puts the samples kept into the given order.
+     *
+     * @param order the index of the sample to go in each position
+     */
+    public void reorder(int[] order) {
+        final int n = getSampleCount();
+        if (order.length != n) {
+            throw new IllegalArgumentException("Order should have " + n + " indices");
+        }
+        for (int i = 0; i < dimension; i++) {
+            double[] reordered = new double[values[i].length];
+            for (int j = 0; j < n; j++) {
+                reordered[j] = values[i][order[j]];
+            }
+            values[i] = reordered;
+        }
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    /**
+     * @return the number of samples added
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the number of samples kept
+     */
+    public int getSampleCount() {
+        return (int) (capacity > 0 ? Math.min(count, capacity) : count);
+    }
+
+    /**
+     * @return true if some of the samples added have not been kept
+     */
+    public boolean isSubsampled() {
+        return count > getSampleCount();
+    }
+
+    /**
+     * @return a copy of the kept values of the given dimension
+     */
+    public double[] getValues(int dim) {
+        return Arrays.copyOf(values[dim], getSampleCount());
+    }
+
+    /**
+     * @return the mean of all the values added, ignoring NaNs (as DiscreteStatistics.mean does)
+     */
+    public double getMean(int dim) {
+        return sums[dim] / (count - nanCounts[dim]);
+    }
+
+    public double getMin(int dim) {
+        return minima[dim];
+    }
+
+    public double getMax(int dim) {
+        return maxima[dim];
+    }
+
+    private void addToSummaries(int dim, double value) {
+        if (Double.isNaN(value)) {
+            nanCounts[dim]++;
+        } else {
+            sums[dim] += value;
+        }
+        if (value < minima[dim]) minima[dim] = value;
+        if (value > maxima[dim]) maxima[dim] = value;
+    }
+
+    /**
+     * @return the position for the next sample or -1 if it is not to be kept
+     */
+    private int nextSlot() {
+        int slot = (int) Math.min(count, Integer.MAX_VALUE);
+        count++;
+
+        if (capacity > 0 && slot >= capacity) {
+            final long r = (long) (MathUtils.nextDouble() * count);
+            if (r >= capacity) {
+                return -1;
+            }
+            slot = (int) r;
+        } else if (slot == values[0].length) {
+            final int length = (capacity > 0 ? Math.min(slot * 2, capacity) : slot * 2);
+            for (int i = 0; i < dimension; i++) {
+                values[i] = Arrays.copyOf(values[i], length);
+            }
+        }
+        return slot;
+    }
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int dimension;
+    private final int capacity;
+
+    private double[][] values;
+    private long count = 0;
+
+    private final double[] sums;
+    private final long[] nanCounts;
+    private final double[] minima;
+    private final double[] maxima;
+}
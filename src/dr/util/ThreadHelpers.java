@@ -0,0 +1,105 @@
+/*
+ * ThreadHelpers.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.util;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The thread counts, pools and error handling shared by the classes that spread their work
+ * over a few threads of their own.
+ */
+public class ThreadHelpers {
+
+    /**
+     * @return the number of processors available
+     */
+    public static int getProcessorCount() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * @param property     the system property that sets the number of threads
+     * @param defaultCount the number of threads if the property isn't set
+     * @return the number of threads to use (at least one)
+     */
+    public static int getThreadCount(String property, int defaultCount) {
+        return Math.max(Integer.getInteger(property, defaultCount), 1);
+    }
+
+    /**
+     * @return a daemon thread, so a pool that is never shut down doesn't stop the JVM exiting
+     */
+    public static Thread newDaemonThread(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * @return a fixed size pool of daemon threads with the given name
+     */
+    public static ExecutorService newFixedThreadPool(int threadCount, final String name) {
+        return Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                return newDaemonThread(runnable, name);
+            }
+        });
+    }
+
+    /**
+     * Waits for the result of a task, rethrowing anything unchecked it threw as it is.
+     *
+     * @param activity what the task does, for the message if the wait is interrupted
+     */
+    public static <T> T getResult(Future<T> future, String activity) {
+        try {
+            return future.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while " + activity);
+        } catch (ExecutionException ee) {
+            throw getUncheckedCause(ee);
+        }
+    }
+
+    /**
+     * @return the exception a task threw if it is unchecked, or otherwise the exception wrapped
+     * in a RuntimeException. An Error is thrown as it is.
+     */
+    public static RuntimeException getUncheckedCause(ExecutionException ee) {
+        Throwable cause = ee.getCause();
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new RuntimeException(cause);
+    }
+}
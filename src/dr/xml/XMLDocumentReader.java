@@ -0,0 +1,169 @@
+/*
+ * XMLDocumentReader.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.xml;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.Reader;
+
+/**
+ * Reads an XML document into a DOM from a StAX stream reader. Comments, processing instructions
+ * and the DTD are dropped as they are read and runs of character data are joined into single,
+ * trimmed text nodes (CDATA sections are kept apart as a DOM parser would), so the tree holds
+ * only what XMLParser uses. Errors are reported through the error handler and thrown as SAXParseExceptions
+ * with the line and column.
+ */
+class XMLDocumentReader {
+
+    // the JDK's reader only reports CDATA sections apart from other text if asked to
+    private static final String REPORT_CDATA = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+    private XMLDocumentReader() {
+    }
+
+    static Document read(Reader reader, ErrorHandler errorHandler)
+            throws SAXException, ParserConfigurationException {
+
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+
+        XMLStreamReader stream = null;
+        try {
+            synchronized (INPUT_FACTORY) {
+                stream = INPUT_FACTORY.createXMLStreamReader(reader);
+            }
+
+            Node parent = document;
+            StringBuilder text = new StringBuilder();
+
+            while (stream.hasNext()) {
+                switch (stream.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        addText(document, parent, text);
+                        Element element = document.createElement(getName(stream.getPrefix(), stream.getLocalName()));
+                        for (int i = 0; i < stream.getAttributeCount(); i++) {
+                            element.setAttribute(getName(stream.getAttributePrefix(i), stream.getAttributeLocalName(i)),
+                                    stream.getAttributeValue(i));
+                        }
+                        parent.appendChild(element);
+                        parent = element;
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        addText(document, parent, text);
+                        parent = parent.getParentNode();
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.SPACE:
+                        // there is no text outside the root element in a DOM
+                        if (parent != document) {
+                            text.append(stream.getTextCharacters(), stream.getTextStart(), stream.getTextLength());
+                        }
+                        break;
+                    case XMLStreamConstants.CDATA:
+                        addText(document, parent, text);
+                        parent.appendChild(document.createCDATASection(stream.getText()));
+                        break;
+                    case XMLStreamConstants.COMMENT:
+                    case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                        // the text either side would be separate nodes in a DOM
+                        addText(document, parent, text);
+                        break;
+                    default:
+                        // DO NOTHING
+                }
+            }
+        } catch (XMLStreamException xse) {
+            Location location = xse.getLocation();
+            SAXParseException spe = new SAXParseException(getMessage(xse), null, null,
+                    location != null ? location.getLineNumber() : -1,
+                    location != null ? location.getColumnNumber() : -1);
+            errorHandler.fatalError(spe);
+            throw spe;
+        } finally {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (XMLStreamException xse) {
+                    // DO NOTHING
+                }
+            }
+        }
+
+        if (document.getDocumentElement() == null) {
+            throw new SAXParseException("Premature end of file.", null, null, -1, -1);
+        }
+        return document;
+    }
+
+    private static void addText(Document document, Node parent, StringBuilder text) {
+        if (text.length() > 0) {
+            // XMLParser only uses the trimmed text so trimming it here lets the XMLObject share
+            // the string with the DOM rather than hold a second copy of each sequence
+            parent.appendChild(document.createTextNode(text.toString().trim()));
+            text.setLength(0);
+        }
+    }
+
+    private static String getName(String prefix, String localName) {
+        return (prefix == null || prefix.length() == 0 ? localName : prefix + ":" + localName);
+    }
+
+    /**
+     * @return the message without the location that the StAX reader puts in front of it
+     */
+    private static String getMessage(XMLStreamException xse) {
+        String message = xse.getMessage();
+        if (message == null) {
+            return null;
+        }
+        int index = message.indexOf("Message: ");
+        return (index >= 0 ? message.substring(index + "Message: ".length()) : message);
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, Boolean.TRUE);
+        if (factory.isPropertySupported(REPORT_CDATA)) {
+            factory.setProperty(REPORT_CDATA, Boolean.TRUE);
+        }
+        return factory;
+    }
+}
@@ -425,6 +425,13 @@ public class XMLObject {
         return element.getTagName();
     }
 
+    /**
+     * @return the DOM element this XML object was constructed from.
+     */
+    public Element getElement() {
+        return element;
+    }
+
     public Object getNativeObject() {
         return nativeObject;
     }
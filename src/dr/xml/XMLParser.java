@@ -31,7 +31,6 @@ import dr.inference.model.Parameter;
 import dr.inferencexml.loggers.LoggerParser;
 import dr.util.*;
 import org.w3c.dom.*;
-import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 import org.xml.sax.helpers.DefaultHandler;
@@ -72,35 +71,111 @@ public class XMLParser {
         boolean replaced = false;
         String[] parserNames = parser.getParserNames();
 
-        for (String parserName : parserNames) {
-            XMLObjectParser oldParser = parserStore.get(parserName);
-            if (oldParser != null) {
-                if (!canReplace) {
-                    throw new IllegalArgumentException("New parser (" + parser.getParserName()
-                            + ") in {" + parser.getReturnType() + "} cannot replace existing parser ("
-                            + oldParser.getParserName() + ") in {" + oldParser.getReturnType() + "}");
-                } else {
+        synchronized (lazyParserStore) {
+            for (String parserName : parserNames) {
+                XMLObjectParser oldParser = getParser(parserName);
+                if (oldParser != null) {
+                    if (!canReplace) {
+                        throw new IllegalArgumentException("New parser (" + parser.getParserName()
+                                + ") in {" + parser.getReturnType() + "} cannot replace existing parser ("
+                                + oldParser.getParserName() + ") in {" + oldParser.getReturnType() + "}");
+                    } else {
+                        replaced = true;
+                    }
+                }
+                parserStore.put(parserName, parser);
+            }
+        }
+
+        return replaced;
+    }
+
+    /**
+     * Adds a parser that is only created when one of its elements is first met (or the parsers
+     * are listed). The names are taken on trust from the caller, so a lazy parser can't check
+     * them against the parser itself and always replaces any existing parsers with these names.
+     *
+     * @param parserNames the element names the parser will handle
+     * @param loader      creates the parser
+     * @return true if a parser with one of the names was replaced
+     */
+    public boolean addLazyXMLObjectParser(String[] parserNames, LazyParser loader) {
+        boolean replaced = false;
+
+        synchronized (lazyParserStore) {
+            for (String parserName : parserNames) {
+                if (parserStore.remove(parserName) != null) {
+                    replaced = true;
+                }
+                if (lazyParserStore.put(parserName, loader) != null) {
                     replaced = true;
                 }
             }
-            parserStore.put(parserName, parser);
         }
 
         return replaced;
     }
 
+    /**
+     * @return true if there is a parser for the given element name, without creating it if it
+     * has been added lazily
+     */
+    public boolean hasParser(String name) {
+        synchronized (lazyParserStore) {
+            return parserStore.containsKey(name) || lazyParserStore.containsKey(name);
+        }
+    }
+
     public Iterator getParserNames() {
+        resolveLazyParsers();
         return parserStore.keySet().iterator();
     }
 
     public XMLObjectParser getParser(String name) {
-        return parserStore.get(name);
+        synchronized (lazyParserStore) {
+            XMLObjectParser parser = parserStore.get(name);
+            if (parser == null) {
+                LazyParser loader = lazyParserStore.remove(name);
+                if (loader != null) {
+                    parser = loader.getParser();
+                    parserStore.put(name, parser);
+                }
+            }
+            return parser;
+        }
     }
 
     public Iterator getParsers() {
+        resolveLazyParsers();
         return parserStore.values().iterator();
     }
 
+    private void resolveLazyParsers() {
+        synchronized (lazyParserStore) {
+            for (String name : new ArrayList<String>(lazyParserStore.keySet())) {
+                getParser(name);
+            }
+        }
+    }
+
+    /**
+     * Creates a parser that was added with addLazyXMLObjectParser. The same parser should be
+     * returned for each of its names.
+     */
+    public static abstract class LazyParser {
+
+        protected abstract XMLObjectParser createParser();
+
+        public synchronized XMLObjectParser getParser() {
+            if (parser == null) {
+                parser = createParser();
+            }
+            return parser;
+        }
+
+        private XMLObjectParser parser = null;
+    }
+
     public Iterator getThreads() {
         return threads.iterator();
     }
@@ -131,11 +206,7 @@ public class XMLParser {
             dr.xml.XMLParseException,
             javax.xml.parsers.ParserConfigurationException {
 
-        InputSource in = new InputSource(reader);
-        javax.xml.parsers.DocumentBuilderFactory documentBuilderFactory = javax.xml.parsers.DocumentBuilderFactory.newInstance();
-
-        javax.xml.parsers.DocumentBuilder documentBuilder = documentBuilderFactory.newDocumentBuilder();
-        Document document = documentBuilder.parse(in);
+        Document document = XMLDocumentReader.read(reader, new MyErrorHandler());
 
         Element e = document.getDocumentElement();
         if (e.getTagName().equals("beast")) {
@@ -154,12 +225,7 @@ public class XMLParser {
             dr.xml.XMLParseException,
             javax.xml.parsers.ParserConfigurationException {
 
-        InputSource in = new InputSource(reader);
-        javax.xml.parsers.DocumentBuilderFactory documentBuilderFactory = javax.xml.parsers.DocumentBuilderFactory.newInstance();
-
-        javax.xml.parsers.DocumentBuilder documentBuilder = documentBuilderFactory.newDocumentBuilder();
-        documentBuilder.setErrorHandler(new MyErrorHandler());
-        Document document = documentBuilder.parse(in);
+        Document document = XMLDocumentReader.read(reader, new MyErrorHandler());
 
         Element e = document.getDocumentElement();
         if (e.getTagName().equals("beast")) {
@@ -245,7 +311,7 @@ public class XMLParser {
                 throw new XMLParseException("Object with idref=" + idref + " has not been parsed.");
             }
 
-            XMLObjectParser parser = parserStore.get(e.getTagName());
+            XMLObjectParser parser = getParser(e.getTagName());
             boolean classMatch = parser != null && parser.getReturnType().isAssignableFrom(restoredXMLObject.getNativeObject().getClass());
 
             if (!e.getTagName().equals(restoredXMLObject.getName()) && !classMatch) {
@@ -277,7 +343,7 @@ public class XMLParser {
 
             XMLObject xo = new XMLObject(e, parent);
 
-            final XMLObjectParser parser = doParse ? parserStore.get(xo.getName()) : null;
+            final XMLObjectParser parser = doParse ? getParser(xo.getName()) : null;
 
             String id = null;
             NodeList nodes = e.getChildNodes();
@@ -594,6 +660,7 @@ public class XMLParser {
 
     //    private final Hashtable<String, XMLObject> store = new Hashtable<String, XMLObject>();
     private final Map<String, XMLObjectParser> parserStore = new TreeMap<String, XMLObjectParser>(new ParserComparator());
+    private final Map<String, LazyParser> lazyParserStore = new HashMap<String, LazyParser>();
     private final Map<String, XMLObject> objectStore = new LinkedHashMap<String, XMLObject>();
     private final Map<Pair<String, String>, List<Citation>> citationStore = new LinkedHashMap<Pair<String, String>, List<Citation>>();
     private boolean concurrent = false;
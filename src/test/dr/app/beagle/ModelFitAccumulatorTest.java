@@ -0,0 +1,191 @@
+package test.dr.app.beagle;
+
+import dr.app.beagle.tools.ModelFitAccumulator;
+import dr.app.beagle.tools.SiteLogLikelihoodLogger;
+import dr.evomodel.treelikelihood.PatternLogLikelihoodProvider;
+import dr.inference.loggers.MCLogger;
+import dr.inference.loggers.NumberColumn;
+import dr.inference.loggers.TabDelimitedFormatter;
+import dr.inference.model.Likelihood;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Checks the streamed CPO, LPML and WAIC against the same statistics calculated from all the
+ * samples and that the site logger reads the cached pattern log likelihoods once per state,
+ * recalculating them if they are not known.
+ */
+public class ModelFitAccumulatorTest extends TestCase {
+
+    private static final double[] WEIGHTS = {3.0, 1.0, 2.0, 1.0, 5.0};
+
+    public ModelFitAccumulatorTest(String name) {
+        super(name);
+    }
+
+    public void testAgainstAllSamples() {
+        MathUtils.setSeed(11);
+
+        double[][] samples = randomSamples(200);
+        ModelFitAccumulator accumulator = new ModelFitAccumulator(WEIGHTS);
+        for (double[] sample : samples) {
+            accumulator.addSample(sample);
+        }
+
+        assertEquals(samples.length, accumulator.getSampleCount());
+        assertFit(samples, 0, accumulator);
+    }
+
+    public void testLogger() {
+        MathUtils.setSeed(12);
+
+        final int burnin = 3;
+        double[][] samples = randomSamples(50);
+        PatternLikelihood likelihood = new PatternLikelihood();
+        SiteLogLikelihoodLogger siteLogger = new SiteLogLikelihoodLogger(likelihood, likelihood, true, true, burnin);
+        assertTrue(likelihood.cached);
+
+        StringWriter output = new StringWriter();
+        MCLogger logger = new MCLogger(new TabDelimitedFormatter(new PrintWriter(output)), 1, false);
+        logger.add(siteLogger);
+        // a second log of the same states does not add them again
+        MCLogger screenLogger = new MCLogger(new TabDelimitedFormatter(new PrintWriter(new StringWriter())), 10, false);
+        screenLogger.add(siteLogger);
+        logger.startLogging();
+        screenLogger.startLogging();
+        for (int state = 0; state < samples.length; state++) {
+            likelihood.setNext(samples[state]);
+            logger.log((long) state);
+            screenLogger.log((long) state);
+        }
+        logger.stopLogging();
+        screenLogger.stopLogging();
+
+        // each state is calculated once and read from the cache by all its columns
+        assertEquals(samples.length, likelihood.calculationCount);
+        assertEquals(WEIGHTS.length + 3, siteLogger.getColumns().length);
+
+        String[] lines = output.toString().split("\n");
+        String[] last = lines[lines.length - 1].trim().split("\t");
+        for (int i = 0; i < WEIGHTS.length; i++) {
+            assertEquals(samples[samples.length - 1][i], Double.parseDouble(last[i + 1]));
+        }
+
+        ModelFitAccumulator accumulator = siteLogger.getModelFitAccumulator();
+        assertEquals(samples.length - burnin, accumulator.getSampleCount());
+        assertFit(samples, burnin, accumulator);
+        assertEquals(accumulator.getLPML(), Double.parseDouble(last[WEIGHTS.length + 1]));
+        assertEquals(accumulator.getWAIC(), Double.parseDouble(last[WEIGHTS.length + 2]));
+    }
+
+    public void testUnknownValuesRecalculated() {
+        PatternLikelihood likelihood = new PatternLikelihood();
+        SiteLogLikelihoodLogger siteLogger = new SiteLogLikelihoodLogger(likelihood, likelihood, true, false, 0);
+
+        double[] values = {-1.0, -2.0, -3.0, -4.0, -5.0};
+        likelihood.setNext(values);
+        likelihood.getLogLikelihood();
+
+        // as after restoring a state that was stored before caching started
+        likelihood.unknown = true;
+        siteLogger.getColumns()[0].getFormatted();
+
+        assertEquals(2, likelihood.calculationCount);
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i], ((NumberColumn) siteLogger.getColumns()[i]).getDoubleValue());
+        }
+    }
+
+    private void assertFit(double[][] samples, int start, ModelFitAccumulator accumulator) {
+        final int n = samples.length - start;
+        double lpml = 0.0;
+        double lppd = 0.0;
+        double pWAIC = 0.0;
+        for (int i = 0; i < WEIGHTS.length; i++) {
+            double sumInverse = 0.0;
+            double sum = 0.0;
+            double sumLog = 0.0;
+            for (int s = start; s < samples.length; s++) {
+                sumInverse += Math.exp(-samples[s][i]);
+                sum += Math.exp(samples[s][i]);
+                sumLog += samples[s][i];
+            }
+            double mean = sumLog / n;
+            double sumSquares = 0.0;
+            for (int s = start; s < samples.length; s++) {
+                sumSquares += (samples[s][i] - mean) * (samples[s][i] - mean);
+            }
+
+            double logCPO = -Math.log(sumInverse / n);
+            assertEquals(logCPO, accumulator.getLogCPO(i), 1E-10);
+            lpml += logCPO * WEIGHTS[i];
+            lppd += Math.log(sum / n) * WEIGHTS[i];
+            pWAIC += sumSquares / (n - 1) * WEIGHTS[i];
+        }
+
+        assertEquals(lpml, accumulator.getLPML(), 1E-9);
+        assertEquals(lppd, accumulator.getLogPointwisePredictiveDensity(), 1E-9);
+        assertEquals(pWAIC, accumulator.getEffectiveParameterCount(), 1E-9);
+        assertEquals(-2.0 * (lppd - pWAIC), accumulator.getWAIC(), 1E-8);
+    }
+
+    private double[][] randomSamples(int count) {
+        double[][] samples = new double[count][WEIGHTS.length];
+        for (int s = 0; s < count; s++) {
+            for (int i = 0; i < WEIGHTS.length; i++) {
+                samples[s][i] = -1.0 - i - MathUtils.nextDouble() * 4.0;
+            }
+        }
+        return samples;
+    }
+
+    private static class PatternLikelihood extends Likelihood.Abstract implements PatternLogLikelihoodProvider {
+
+        private static final long serialVersionUID = 1L;
+
+        PatternLikelihood() {
+            super(null);
+        }
+
+        void setNext(double[] values) {
+            next = values;
+            makeDirty();
+        }
+
+        protected double calculateLogLikelihood() {
+            calculationCount++;
+            unknown = false;
+            System.arraycopy(next, 0, patternLogLikelihoods, 0, next.length);
+            double logL = 0.0;
+            for (int i = 0; i < next.length; i++) {
+                logL += next[i] * WEIGHTS[i];
+            }
+            return logL;
+        }
+
+        public int getPatternCount() {
+            return WEIGHTS.length;
+        }
+
+        public double[] getPatternWeights() {
+            return WEIGHTS;
+        }
+
+        public void cachePatternLogLikelihoods() {
+            cached = true;
+        }
+
+        public double[] getPatternLogLikelihoods() {
+            return (unknown ? null : patternLogLikelihoods);
+        }
+
+        private final double[] patternLogLikelihoods = new double[WEIGHTS.length];
+        private double[] next;
+        int calculationCount = 0;
+        boolean cached = false;
+        boolean unknown = false;
+    }
+}
@@ -0,0 +1,78 @@
+package test.dr.app.beagle;
+
+import dr.app.beagle.tools.BeagleSequenceSimulator;
+import dr.app.beagle.tools.StreamingAlignmentWriter;
+import dr.app.bss.Utils;
+import dr.evolution.alignment.SimpleAlignment;
+import dr.evolution.datatype.Codons;
+import dr.evolution.datatype.DataType;
+import dr.evolution.datatype.Nucleotides;
+import dr.evolution.util.Taxon;
+import junit.framework.TestCase;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Checks that sequences written one at a time as they are simulated come out the same as the
+ * alignment compiled from them.
+ */
+public class StreamingAlignmentWriterTest extends TestCase {
+
+    private static final String[] TAXA = {"taxon1", "a long taxon name", "it's", "t4"};
+
+    public StreamingAlignmentWriterTest(String name) {
+        super(name);
+    }
+
+    public void testFasta() {
+        assertSameOutput(SimpleAlignment.OutputType.FASTA, Nucleotides.INSTANCE, "");
+        assertSameOutput(SimpleAlignment.OutputType.FASTA, Codons.UNIVERSAL, "");
+    }
+
+    public void testNexus() {
+        // the exporter leaves off the last line break
+        assertSameOutput(SimpleAlignment.OutputType.NEXUS, Nucleotides.INSTANCE, "\n");
+        assertSameOutput(SimpleAlignment.OutputType.NEXUS, Codons.UNIVERSAL, "\n");
+    }
+
+    public void testXmlNotStreamed() {
+        try {
+            new StreamingAlignmentWriter(new PrintWriter(new StringWriter()), SimpleAlignment.OutputType.XML,
+                    Nucleotides.INSTANCE);
+            fail("xml output accepted");
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+    }
+
+    private void assertSameOutput(SimpleAlignment.OutputType outputType, DataType dataType, String end) {
+        final int siteCount = 30;
+        int[][] sequences = new int[TAXA.length][siteCount];
+        for (int i = 0; i < TAXA.length; i++) {
+            for (int j = 0; j < siteCount; j++) {
+                sequences[i][j] = (j % 11 == i ? BeagleSequenceSimulator.gapFlag : (i * 7 + j * 3) % dataType.getStateCount());
+            }
+        }
+
+        SimpleAlignment alignment = new SimpleAlignment();
+        alignment.setReportCountStatistics(false);
+        alignment.setDataType(dataType);
+        for (int i = 0; i < TAXA.length; i++) {
+            alignment.addSequence(Utils.intArray2Sequence(new Taxon(TAXA[i]), sequences[i],
+                    BeagleSequenceSimulator.gapFlag, dataType));
+        }
+        alignment.setOutputType(outputType);
+
+        StringWriter output = new StringWriter();
+        StreamingAlignmentWriter writer = new StreamingAlignmentWriter(new PrintWriter(output), outputType, dataType);
+        writer.writeHeader(TAXA.length, siteCount);
+        for (int i = 0; i < TAXA.length; i++) {
+            writer.writeSequence(new Taxon(TAXA[i]), sequences[i]);
+        }
+        writer.close();
+
+        assertEquals(TAXA.length, writer.getSequenceCount());
+        assertEquals(alignment.toString() + end, output.toString());
+    }
+}
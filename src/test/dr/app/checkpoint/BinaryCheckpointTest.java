@@ -0,0 +1,268 @@
+package test.dr.app.checkpoint;
+
+import dr.app.checkpoint.BeastCheckpointer;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.TreeUtils;
+import dr.evolution.util.Units;
+import dr.evomodel.coalescent.CoalescentLikelihood;
+import dr.evomodel.coalescent.TreeIntervals;
+import dr.evomodel.coalescent.demographicmodel.ConstantPopulationModel;
+import dr.evomodel.operators.ExchangeOperator;
+import dr.inference.markovchain.MarkovChain;
+import dr.inference.mcmc.MCMCCriterion;
+import dr.inference.model.Model;
+import dr.inference.model.Parameter;
+import dr.inference.operators.AdaptableMCMCOperator;
+import dr.inference.operators.MCMCOperator;
+import dr.inference.operators.OperatorSchedule;
+import dr.inference.operators.ScaleOperator;
+import dr.inference.operators.SimpleOperatorSchedule;
+import dr.inference.state.Factory;
+import dr.math.MathUtils;
+import test.dr.inference.trace.TraceCorrelationAssert;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Writes binary checkpoints of a small coalescent model, changes the state and checks that
+ * reading them back restores it exactly, with and without compression and deltas. Deltas that
+ * were torn or corrupted when they were written are ignored and a damaged full checkpoint is
+ * not loaded.
+ */
+public class BinaryCheckpointTest extends TraceCorrelationAssert {
+
+    private static final String[] PROPERTIES = {
+            BeastCheckpointer.BINARY_CHECKPOINT, BeastCheckpointer.COMPRESS_CHECKPOINT,
+            BeastCheckpointer.DELTA_CHECKPOINT, BeastCheckpointer.CHECKPOINT_SEED
+    };
+
+    public BinaryCheckpointTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        MathUtils.setSeed(42);
+        factory = Factory.INSTANCE;
+
+        // the checkpoints hold everything that is connected so start with nothing else there
+        Parameter.CONNECTED_PARAMETER_SET.clear();
+        Model.CONNECTED_MODEL_SET.clear();
+
+        createSpecifiedTree("((((human:0.024003,(chimp:0.010772,bonobo:0.010772):0.013231):0.012035," +
+                "gorilla:0.036038):0.033087,orangutan:0.069125):0.030457,siamang:0.099582);");
+        popSize = new Parameter.Default("popSize", 0.1);
+        ConstantPopulationModel demographicModel = new ConstantPopulationModel(popSize, Units.Type.YEARS);
+        CoalescentLikelihood coalescent = new CoalescentLikelihood(new TreeIntervals(treeModel, null, null),
+                demographicModel);
+
+        OperatorSchedule schedule = new SimpleOperatorSchedule();
+        scaleOperator = new ScaleOperator(popSize, 0.75);
+        schedule.addOperator(scaleOperator);
+        exchangeOperator = new ExchangeOperator(ExchangeOperator.NARROW, treeModel, 1.0);
+        schedule.addOperator(exchangeOperator);
+
+        markovChain = new MarkovChain(coalescent, schedule, new MCMCCriterion(), 0, 0, 0.1, true, false);
+
+        file = File.createTempFile("binaryCheckpointTest", ".state");
+    }
+
+    public void tearDown() throws Exception {
+        for (String property : PROPERTIES) {
+            System.clearProperty(property);
+        }
+        Factory.INSTANCE = factory;
+
+        for (String suffix : new String[]{"", ".delta", ".tmp"}) {
+            new File(file.getPath() + suffix).delete();
+        }
+        super.tearDown();
+    }
+
+    public void testRoundTrip() throws IOException {
+        for (boolean compress : new boolean[]{false, true}) {
+            System.setProperty(BeastCheckpointer.BINARY_CHECKPOINT, "true");
+            System.setProperty(BeastCheckpointer.COMPRESS_CHECKPOINT, Boolean.toString(compress));
+            Checkpointer checkpointer = new Checkpointer();
+
+            change();
+            String expected = describe();
+            int[] randomState = MathUtils.getRandomState();
+            assertTrue(checkpointer.write(file, 100, -12.5));
+            assertEquals(compress, isCompressed(file));
+
+            change();
+            assertFalse(expected.equals(describe()));
+
+            double[] lnL = new double[1];
+            assertEquals(100, new Checkpointer().read(file, lnL));
+            assertEquals(-12.5, lnL[0], 0.0);
+            assertEquals(expected, describe());
+            assertTrue(Arrays.equals(randomState, MathUtils.getRandomState()));
+        }
+    }
+
+    public void testDeltas() throws IOException {
+        System.setProperty(BeastCheckpointer.DELTA_CHECKPOINT, "true");
+        Checkpointer checkpointer = new Checkpointer();
+
+        assertTrue(checkpointer.write(file, 1, -10.0));
+        File deltaFile = new File(file.getPath() + ".delta");
+        assertFalse(deltaFile.exists());
+
+        change();
+        assertTrue(checkpointer.write(file, 2, -11.0));
+        change();
+        String expected = describe();
+        assertTrue(checkpointer.write(file, 3, -12.0));
+        assertTrue(deltaFile.exists());
+
+        change();
+        double[] lnL = new double[1];
+        assertEquals(3, new Checkpointer().read(file, lnL));
+        assertEquals(-12.0, lnL[0], 0.0);
+        assertEquals(expected, describe());
+    }
+
+    public void testTornDelta() throws IOException {
+        String expected = writeDeltas();
+
+        // a crash part way through appending the last record
+        File deltaFile = new File(file.getPath() + ".delta");
+        RandomAccessFile delta = new RandomAccessFile(deltaFile, "rw");
+        delta.setLength(delta.length() - 3);
+        delta.close();
+
+        assertEquals(2, new Checkpointer().read(file, null));
+        assertEquals(expected, describe());
+    }
+
+    public void testCorruptDelta() throws IOException {
+        String expected = writeDeltas();
+
+        // a byte of the last record, before its CRC, is damaged
+        File deltaFile = new File(file.getPath() + ".delta");
+        RandomAccessFile delta = new RandomAccessFile(deltaFile, "rw");
+        delta.seek(delta.length() - 12);
+        final int b = delta.read();
+        delta.seek(delta.length() - 12);
+        delta.write(b ^ 0xff);
+        delta.close();
+
+        assertEquals(2, new Checkpointer().read(file, null));
+        assertEquals(expected, describe());
+    }
+
+    public void testTruncatedCheckpoint() throws IOException {
+        System.setProperty(BeastCheckpointer.BINARY_CHECKPOINT, "true");
+        Checkpointer checkpointer = new Checkpointer();
+        assertTrue(checkpointer.write(file, 1, -10.0));
+
+        RandomAccessFile full = new RandomAccessFile(file, "rw");
+        full.setLength(full.length() / 2);
+        full.close();
+
+        try {
+            checkpointer.read(file, null);
+            fail("a truncated checkpoint should not be loaded");
+        } catch (RuntimeException re) {
+            assertTrue(re.getMessage(), re.getMessage().startsWith("Unable to read file"));
+        }
+    }
+
+    public void testUnwritable() {
+        System.setProperty(BeastCheckpointer.BINARY_CHECKPOINT, "true");
+        File missing = new File(new File(file.getPath() + ".missing"), "checkpoint.state");
+        assertFalse(new Checkpointer().write(missing, 1, -10.0));
+    }
+
+    /**
+     * Writes a full checkpoint and two deltas, changing the state in between.
+     *
+     * @return the state written by the first delta
+     */
+    private String writeDeltas() throws IOException {
+        System.setProperty(BeastCheckpointer.DELTA_CHECKPOINT, "true");
+        Checkpointer checkpointer = new Checkpointer();
+
+        assertTrue(checkpointer.write(file, 1, -10.0));
+        change();
+        String expected = describe();
+        assertTrue(checkpointer.write(file, 2, -11.0));
+        change();
+        assertTrue(checkpointer.write(file, 3, -12.0));
+        change();
+        return expected;
+    }
+
+    /**
+     * Changes the parameters, the tree, the operators and the random number generator.
+     */
+    private void change() {
+        popSize.setParameterValue(0, popSize.getParameterValue(0) * 1.5);
+
+        NodeRef root = treeModel.getRoot();
+        treeModel.setNodeHeight(root, treeModel.getNodeHeight(root) + 0.01);
+        exchangeOperator.doOperation();
+
+        scaleOperator.setAcceptCount(scaleOperator.getAcceptCount() + 1);
+        scaleOperator.setAdaptableParameter(scaleOperator.getAdaptableParameter() + 0.1);
+        exchangeOperator.setRejectCount(exchangeOperator.getRejectCount() + 1);
+
+        MathUtils.nextDouble();
+    }
+
+    /**
+     * @return the text of everything a checkpoint holds apart from the random number generator
+     */
+    private String describe() {
+        StringBuilder builder = new StringBuilder();
+        for (Parameter parameter : Parameter.CONNECTED_PARAMETER_SET) {
+            builder.append(parameter.getParameterName()).append('=');
+            builder.append(Arrays.toString(parameter.getParameterValues())).append('\n');
+        }
+        builder.append(TreeUtils.newick(treeModel)).append('\n');
+        for (MCMCOperator operator : new MCMCOperator[]{scaleOperator, exchangeOperator}) {
+            builder.append(operator.getOperatorName()).append(' ').append(operator.getAcceptCount());
+            builder.append(' ').append(operator.getRejectCount());
+            if (operator instanceof AdaptableMCMCOperator) {
+                builder.append(' ').append(((AdaptableMCMCOperator) operator).getAdaptableParameter());
+                builder.append(' ').append(((AdaptableMCMCOperator) operator).getAdaptationCount());
+            }
+            builder.append('\n');
+        }
+        return builder.toString();
+    }
+
+    private static boolean isCompressed(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return in.read() == 0x1f && in.read() == 0x8b;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Gives the test the checkpointer's reading and writing of state files.
+     */
+    private class Checkpointer extends BeastCheckpointer {
+
+        boolean write(File file, long state, double lnL) {
+            return writeStateToFile(file, state, lnL, markovChain);
+        }
+
+        long read(File file, double[] lnL) {
+            return readStateFromFile(file, markovChain, lnL);
+        }
+    }
+
+    private Factory factory;
+    private Parameter popSize;
+    private ScaleOperator scaleOperator;
+    private ExchangeOperator exchangeOperator;
+    private MarkovChain markovChain;
+    private File file;
+}
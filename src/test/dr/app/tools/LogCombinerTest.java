@@ -0,0 +1,221 @@
+package test.dr.app.tools;
+
+import dr.app.tools.LogCombiner;
+import dr.app.tools.NumberReformatter;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+import java.io.*;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Checks that the number reformatter gives the same text as formatting the numbers matched by a
+ * regular expression and that the combined logs and trees do not depend on the number of threads.
+ */
+public class LogCombinerTest extends TestCase {
+
+    private static final int STATE_STEP = 10;
+
+    public LogCombinerTest(String name) {
+        super(name);
+    }
+
+    public void testReformatter() {
+        MathUtils.setSeed(17);
+
+        for (boolean decimal : new boolean[]{true, false}) {
+            NumberReformatter reformatter = new NumberReformatter(decimal);
+            for (int i = 0; i < 20000; i++) {
+                String line = "(1:" + randomNumber() + ",2:" + randomNumber() + ")[&rate=" + randomNumber() +
+                        ",E=" + randomNumber() + "]" + randomNumber();
+
+                assertEquals(line, reformatByPattern(line, decimal, false, 1.0), reformatter.reformat(line, false, 1.0));
+                assertEquals(line, reformatByPattern(line, decimal, true, 2.5), reformatter.reformat(line, true, 2.5));
+            }
+        }
+    }
+
+    public void testLogsWithThreads() throws IOException {
+        File[] inputs = new File[3];
+        for (int i = 0; i < inputs.length; i++) {
+            StringBuilder log = new StringBuilder("# BEAST log\nstate\tposterior\ttreeModel.rootHeight\tclock.rate\n");
+            for (int state = 0; state <= 100; state += STATE_STEP) {
+                log.append(state).append('\t').append(-100.0 - state / 3.0).append('\t')
+                        .append(1.0 + state / 7.0).append('\t').append(1.0E-3 * (i + 1)).append('\n');
+                if (i == 1 && state == 50) {
+                    // corrupt lines are skipped
+                    log.append("60\t-12\n");
+                    log.append("60\tabc\t1.0\t1.0\n");
+                }
+            }
+            inputs[i] = tempFile(".log", log.toString());
+        }
+
+        String combined = combine(inputs, false, 30, 20, false, false, 1);
+        assertEquals(combined, combine(inputs, false, 30, 20, false, false, 3));
+
+        // the first file's state 0 fixes nothing so is dropped, the burn-in of 30 leaves 8 states in each file
+        List<Long> states = getStates(combined, "");
+        assertEquals(12, states.size());
+        for (int i = 0; i < states.size(); i++) {
+            assertEquals(20L * (i + 1), (long) states.get(i));
+        }
+
+        String renumbered = combine(inputs, false, 0, 20, true, false, 1);
+        assertEquals(renumbered, combine(inputs, false, 0, 20, true, false, 3));
+        states = getStates(renumbered, "");
+        for (int i = 0; i < states.size(); i++) {
+            assertEquals(i, (long) states.get(i));
+        }
+
+        String scaled = combine(inputs, false, 0, -1, false, true, 1);
+        assertEquals(scaled, combine(inputs, false, 0, -1, false, true, 3));
+        // the root height is multiplied by the scale and the clock rate divided by it
+        assertTrue(scaled.contains("\n30\t-110.0\t10.571428571429\t0.0005\n"));
+        assertTrue(scaled.contains("\n110\t-100.0\t2\t0.001\n"));
+    }
+
+    public void testTreesWithThreads() throws IOException {
+        File[] inputs = writeTrees(true);
+
+        String combined = combine(inputs, true, 50, 20, false, false, 1);
+        assertEquals(combined, combine(inputs, true, 50, 20, false, false, 3));
+        assertTrue(combined.startsWith("#NEXUS\n"));
+        assertTrue(combined.endsWith("End;\n"));
+        List<Long> states = getStates(combined, "tree STATE_");
+        assertEquals(9, states.size());
+        for (int i = 0; i < states.size(); i++) {
+            assertEquals(20L * (i + 1), (long) states.get(i));
+        }
+
+        // reading and writing the trees gives the same states
+        inputs = writeTrees(false);
+        String decimal = combineDecimal(inputs, 50, 20, 1);
+        assertEquals(decimal, combineDecimal(inputs, 50, 20, 3));
+        assertEquals(states, getStates(decimal, "tree STATE_"));
+        assertTrue(decimal.contains("((1:0.56,2:0.125):0.5,3:1.06);"));
+    }
+
+    private File[] writeTrees(boolean withCorruptLines) throws IOException {
+        File[] inputs = new File[3];
+        for (int i = 0; i < inputs.length; i++) {
+            StringBuilder trees = new StringBuilder("#NEXUS\n\nBegin trees;\n\tTranslate\n\t\t1 A,\n\t\t2 B,\n\t\t3 C\n\t\t;\n");
+            for (int state = 0; state <= 100; state += STATE_STEP) {
+                trees.append("tree STATE_").append(state).append(" [&lnP=").append(-10.0 - state).append("] = [&R] ((1:")
+                        .append(0.5 + state / 1000.0).append(",2:1.25E-1):0.5,3:").append(1.0 + state / 1000.0).append(");\n");
+                if (withCorruptLines && state == 40) {
+                    trees.append("tree STATE_x = [&R] ((1:1,2:1):1,3:2);\n");
+                }
+            }
+            trees.append("End;\n");
+            inputs[i] = tempFile(".trees", trees.toString());
+        }
+        return inputs;
+    }
+
+    private String combine(File[] inputs, boolean trees, long burnin, long resample, boolean renumber,
+                           boolean useScale, int threadCount) throws IOException {
+        File output = tempFile(trees ? ".trees" : ".log", "");
+        new LogCombiner(new long[]{burnin}, resample, getNames(inputs), output.getPath(), trees, useScale,
+                false, renumber, useScale, 2.0, threadCount);
+        return read(output);
+    }
+
+    private String combineDecimal(File[] inputs, long burnin, long resample, int threadCount) throws IOException {
+        File output = tempFile(".trees", "");
+        new LogCombiner(new long[]{burnin}, resample, getNames(inputs), output.getPath(), true, true,
+                false, false, false, 1.0, threadCount);
+        return read(output);
+    }
+
+    private List<Long> getStates(String text, String prefix) {
+        List<Long> states = new ArrayList<Long>();
+        for (String line : text.split("\n")) {
+            if (line.startsWith(prefix) && line.length() > prefix.length() && Character.isDigit(line.charAt(prefix.length()))) {
+                int end = prefix.length();
+                while (end < line.length() && Character.isDigit(line.charAt(end))) {
+                    end++;
+                }
+                states.add(Long.parseLong(line.substring(prefix.length(), end)));
+            }
+        }
+        return states;
+    }
+
+    private String randomNumber() {
+        StringBuilder number = new StringBuilder();
+        final int intDigits = 1 + MathUtils.nextInt(4);
+        for (int i = 0; i < intDigits; i++) {
+            number.append(MathUtils.nextInt(i == 0 && MathUtils.nextBoolean() ? 2 : 10));
+        }
+        number.append('.');
+        final int fractionDigits = 1 + MathUtils.nextInt(18);
+        for (int i = 0; i < fractionDigits; i++) {
+            number.append(MathUtils.nextInt(10));
+        }
+        if (MathUtils.nextBoolean()) {
+            number.append('E');
+            if (MathUtils.nextBoolean()) {
+                number.append('-');
+            }
+            number.append(MathUtils.nextInt(MathUtils.nextBoolean() ? 20 : 320));
+        }
+        return number.toString();
+    }
+
+    // the way LogCombiner used to reformat numbers
+    private String reformatByPattern(String line, boolean decimal, boolean useScale, double scale) {
+        DecimalFormat format = (decimal ?
+                new DecimalFormat("#.############", new DecimalFormatSymbols(Locale.US)) :
+                new DecimalFormat("#.############E0", new DecimalFormatSymbols(Locale.US)));
+
+        StringBuffer outLine = new StringBuffer();
+        Matcher matcher = Pattern.compile("\\d+\\.\\d+(E[\\-\\d\\.]+)?").matcher(line);
+        int lastEnd = 0;
+        while (matcher.find()) {
+            double value = Double.parseDouble(matcher.group());
+            if (useScale) {
+                value *= scale;
+            }
+            outLine.append(line, lastEnd, matcher.start());
+            outLine.append(format.format(value));
+            lastEnd = matcher.end();
+        }
+        outLine.append(line.substring(lastEnd));
+        return outLine.toString();
+    }
+
+    private String[] getNames(File[] files) {
+        String[] names = new String[files.length];
+        for (int i = 0; i < files.length; i++) {
+            names[i] = files[i].getPath();
+        }
+        return names;
+    }
+
+    private String read(File file) throws IOException {
+        StringBuilder text = new StringBuilder();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            text.append(line).append('\n');
+        }
+        reader.close();
+        return text.toString();
+    }
+
+    private File tempFile(String suffix, String text) throws IOException {
+        File file = File.createTempFile("logCombinerTest", suffix);
+        file.deleteOnExit();
+        Writer writer = new FileWriter(file);
+        writer.write(text);
+        writer.close();
+        return file;
+    }
+}
@@ -0,0 +1,126 @@
+package test.dr.evolution;
+
+import dr.evolution.io.Importer;
+import dr.evolution.io.NewickImporter;
+import dr.evolution.tree.CladeStore;
+import dr.evolution.tree.Tree;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+
+/**
+ * Checks the clade counts, taxa, splits and topology comparison of CladeStore.
+ */
+public class CladeStoreTest extends TestCase {
+
+    public CladeStoreTest(String name) {
+        super(name);
+    }
+
+    public void testCladeCounts() throws IOException, Importer.ImportException {
+        Tree tree1 = tree("((A:1,B:1):1,(C:1,D:1):1)");
+        Tree tree2 = tree("((B:1,A:1):2,(C:1,D:1):1)");
+        Tree tree3 = tree("(((A:1,C:1):1,B:1):1,D:1)");
+
+        CladeStore store = new CladeStore(false, true, true);
+        int[] clades1 = store.add(tree1);
+        int[] clades2 = store.add(tree2);
+        store.add(tree3);
+
+        assertEquals(3, store.getTreeCount());
+        // root, {A,B}, {C,D}, {A,C} and {A,B,C}
+        assertEquals(5, store.getCladeCount());
+
+        int ab = clades1[tree1.getParent(tree1.getExternalNode(0)).getNumber()];
+        assertEquals(ab, clades2[tree2.getParent(tree2.getExternalNode(0)).getNumber()]);
+        assertEquals("{A, B}", store.getCladeString(ab));
+        assertEquals(2, store.getSize(ab));
+        assertEquals(2, store.getCount(ab));
+        assertEquals(2.0 / 3.0, store.getFrequency(ab), 1E-10);
+        assertEquals(1.0, store.getMeanHeight(ab), 1E-10);
+
+        int root = clades1[tree1.getRoot().getNumber()];
+        assertEquals(3, store.getCount(root));
+        assertEquals(root, store.getCladesByCount()[0]);
+        // ((A,B),(C,D)) and (((A,C),B),D)
+        assertEquals(2, store.getSplitCount(root));
+    }
+
+    public void testCountMissing() throws IOException, Importer.ImportException {
+        Tree tree1 = tree("((A:1,B:1):1,(C:1,D:1):1)");
+        Tree tree2 = tree("(((A:1,B:1):0.5,C:1):0.5,D:1)");
+
+        CladeStore store = new CladeStore(false, false, false);
+        int[] clades1 = CladeStore.getSortedInternalClades(tree1, store.add(tree1));
+        int[] clades2 = CladeStore.getSortedInternalClades(tree2, store.getCladeIndices(tree2));
+
+        // {C,D} is not in tree2 and {A,B,C} has not been added to the store
+        assertEquals(1, CladeStore.countMissing(clades1, clades2));
+        assertEquals(1, CladeStore.countMissing(clades2, clades1));
+        assertEquals(0, CladeStore.countMissing(clades1, clades1));
+    }
+
+    public void testConcurrentAdd() throws Exception {
+        final Tree[] trees = {
+                tree("((A:1,B:1):1,(C:1,D:1):1)"),
+                tree("(((A:1,C:1):1,B:1):1,D:1)"),
+                tree("((B:1,A:1):2,(D:1,C:1):0.5)")
+        };
+        final int addsPerThread = 300;
+
+        CladeStore expected = new CladeStore(true, true, true);
+        final CladeStore store = new CladeStore(true, true, true);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            for (int i = 0; i < addsPerThread; i++) {
+                expected.add(trees[i % trees.length]);
+            }
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < addsPerThread; i++) {
+                        store.add(trees[i % trees.length]);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(expected.getTreeCount(), store.getTreeCount());
+        assertEquals(expected.getCladeCount(), store.getCladeCount());
+        for (Tree tree : trees) {
+            int[] expectedClades = expected.getCladeIndices(tree);
+            int[] clades = store.getCladeIndices(tree);
+            for (int i = 0; i < tree.getInternalNodeCount(); i++) {
+                final int n = tree.getInternalNode(i).getNumber();
+                assertEquals(store.getCladeString(clades[n]), expected.getCladeString(expectedClades[n]));
+                assertEquals(expected.getCount(expectedClades[n]), store.getCount(clades[n]));
+                assertEquals(expected.getMeanHeight(expectedClades[n]), store.getMeanHeight(clades[n]), 1E-10);
+                assertEquals(expected.getSplitCount(expectedClades[n]), store.getSplitCount(clades[n]));
+            }
+        }
+    }
+
+    public void testClear() throws IOException, Importer.ImportException {
+        CladeStore store = new CladeStore(false, true, true);
+        store.add(tree("((A:1,B:1):1,(C:1,D:1):1)"));
+        store.clear();
+
+        // the taxa are taken from the next tree, which can have different taxa
+        Tree tree = tree("((E:2,F:2):1,G:1)");
+        int[] clades = store.add(tree);
+        assertEquals(1, store.getTreeCount());
+        assertEquals(2, store.getCladeCount());
+        int ef = clades[tree.getParent(tree.getExternalNode(0)).getNumber()];
+        assertEquals("{E, F}", store.getCladeString(ef));
+        assertEquals(1, store.getCount(ef));
+        assertEquals(2.0, store.getMeanHeight(ef), 1E-10);
+        assertEquals(1, store.getSplitCount(clades[tree.getRoot().getNumber()]));
+    }
+
+    private Tree tree(String newick) throws IOException, Importer.ImportException {
+        return new NewickImporter(newick).importNextTree();
+    }
+}
@@ -0,0 +1,202 @@
+package test.dr.evolution;
+
+import dr.evolution.io.Importer;
+import dr.evolution.io.NewickImporter;
+import dr.evolution.tree.*;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.text.NumberFormat;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Checks that NewickWriter gives the same text as TreeUtils.newick, with and without trait
+ * providers, taxon numbers and a format for the branch lengths.
+ */
+public class NewickWriterTest extends TestCase {
+
+    public NewickWriterTest(String name) {
+        super(name);
+    }
+
+    public void testSameAsTreeUtils() throws IOException, Importer.ImportException {
+        Tree tree = new NewickImporter(
+                "(((A:1.0,'B b':1.00049):1.25,C:2.3333333):1.0,(D:0.5,E:1234.5678):2.5);").importTree(null);
+
+        Map<String, Integer> idMap = new HashMap<String, Integer>();
+        for (int i = 0; i < tree.getTaxonCount(); i++) {
+            idMap.put(tree.getTaxonId(i), tree.getTaxonCount() - i);
+        }
+
+        BranchRates branchRates = new BranchRates() {
+            public double getBranchRate(Tree tree, NodeRef node) {
+                return 1.0 + node.getNumber() * 0.1;
+            }
+        };
+
+        TreeTraitProvider[] providers = new TreeTraitProvider[]{getTraits()};
+
+        for (TreeUtils.BranchLengthType lengths : TreeUtils.BranchLengthType.values()) {
+            for (NumberFormat format : new NumberFormat[]{null, getFormat(0), getFormat(3), getFormat(7)}) {
+                for (boolean labels : new boolean[]{false, true}) {
+                    for (TreeTraitProvider[] ttps : new TreeTraitProvider[][]{null, providers}) {
+                        StringBuffer expected = new StringBuffer();
+                        TreeUtils.newick(tree, tree.getRoot(), labels, lengths, format, branchRates, ttps,
+                                (labels ? null : idMap), expected);
+
+                        NewickWriter writer = new NewickWriter((labels ? null : idMap), labels, lengths, format,
+                                branchRates, ttps);
+                        StringBuilder buffer = new StringBuilder("tree = ");
+                        // the second tree is written after the first into the same buffer
+                        for (int k = 0; k < 2; k++) {
+                            buffer.setLength(7);
+                            writer.write(tree, buffer);
+                            assertEquals("tree = " + expected, buffer.toString());
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    public void testBranchLengths() {
+        MathUtils.setSeed(5);
+
+        for (int places = 0; places <= 12; places++) {
+            NumberFormat format = getFormat(places);
+            NewickWriter writer = new NewickWriter(null, true, TreeUtils.BranchLengthType.LENGTHS_AS_TIME,
+                    format, null, null);
+
+            StringBuilder buffer = new StringBuilder();
+            for (int i = 0; i < 20000; i++) {
+                double value;
+                switch (i % 4) {
+                    case 0:
+                        value = MathUtils.nextDouble() * 2.0;
+                        break;
+                    case 1:
+                        value = Math.exp(MathUtils.nextGaussian() * 5.0);
+                        break;
+                    case 2:
+                        // values half way between decimal places
+                        value = (MathUtils.nextInt(100000) + 0.5) / Math.pow(10, MathUtils.nextInt(6));
+                        break;
+                    default:
+                        value = (MathUtils.nextDouble() - 0.5) * 2400.0;
+                }
+
+                buffer.setLength(0);
+                writer.appendBranchLength(value, buffer);
+                assertEquals(Double.toString(value), format.format(value), buffer.toString());
+            }
+
+            for (double value : new double[]{0.0, -0.0, 999.9999999999, 1000.0, Double.NaN, Double.POSITIVE_INFINITY}) {
+                buffer.setLength(0);
+                writer.appendBranchLength(value, buffer);
+                assertEquals(format.format(value), buffer.toString());
+            }
+        }
+    }
+
+    private NumberFormat getFormat(int places) {
+        NumberFormat format = NumberFormat.getNumberInstance(Locale.ENGLISH);
+        format.setMaximumFractionDigits(places);
+        return format;
+    }
+
+    private TreeTraitProvider getTraits() {
+        TreeTraitProvider.Helper traits = new TreeTraitProvider.Helper();
+        traits.addTrait(new TreeTrait.D() {
+            public String getTraitName() {
+                return "height";
+            }
+
+            public Intent getIntent() {
+                return Intent.NODE;
+            }
+
+            public Double getTrait(Tree tree, NodeRef node) {
+                return (node.getNumber() == 1 ? null : tree.getNodeHeight(node));
+            }
+        });
+        traits.addTrait(new TreeTrait.DA() {
+            public String getTraitName() {
+                return "location";
+            }
+
+            public Intent getIntent() {
+                return Intent.NODE;
+            }
+
+            public double[] getTrait(Tree tree, NodeRef node) {
+                final int number = node.getNumber();
+                return (number % 3 == 0 ? new double[]{number / 7.0} : new double[]{number * 1E-8, -number, 0.1});
+            }
+        });
+        traits.addTrait(new TreeTrait.IA() {
+            public String getTraitName() {
+                return "counts";
+            }
+
+            public Intent getIntent() {
+                return Intent.BRANCH;
+            }
+
+            public int[] getTrait(Tree tree, NodeRef node) {
+                return (tree.isExternal(node) ? new int[0] : new int[]{node.getNumber(), 2});
+            }
+        });
+        traits.addTrait(new TreeTrait.S() {
+            public String getTraitName() {
+                return "side";
+            }
+
+            public Intent getIntent() {
+                return Intent.BRANCH;
+            }
+
+            public String getTrait(Tree tree, NodeRef node) {
+                return (tree.isExternal(node) ? null : (node.getNumber() % 2 == 0 ? "left" : "right"));
+            }
+        });
+        // a trait that changes only its text so cannot be written directly
+        traits.addTrait(new TreeTrait.D() {
+            public String getTraitName() {
+                return "rate";
+            }
+
+            public Intent getIntent() {
+                return Intent.BRANCH;
+            }
+
+            public Double getTrait(Tree tree, NodeRef node) {
+                return node.getNumber() * 0.25;
+            }
+
+            public String getTraitString(Tree tree, NodeRef node) {
+                return String.format("%.1f", getTrait(tree, node));
+            }
+        });
+        traits.addTrait(new TreeTrait.I() {
+            public String getTraitName() {
+                return "hidden";
+            }
+
+            public Intent getIntent() {
+                return Intent.NODE;
+            }
+
+            public Integer getTrait(Tree tree, NodeRef node) {
+                return node.getNumber();
+            }
+
+            public boolean getLoggable() {
+                return false;
+            }
+        });
+        return traits;
+    }
+}
@@ -0,0 +1,153 @@
+package test.dr.evolution.alignment;
+
+import dr.evolution.alignment.SimpleAlignment;
+import dr.evolution.alignment.SitePatterns;
+import dr.evolution.datatype.Nucleotides;
+import dr.evolution.sequence.Sequence;
+import dr.evolution.util.Taxon;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks the site patterns of an alignment against patterns found by comparing each site with
+ * all the patterns before it, reading the sites with one thread and with several.
+ */
+public class SitePatternsTest extends TestCase {
+
+    private static final int TAXON_COUNT = 8;
+    private static final int SITE_COUNT = 10000;
+
+    private SimpleAlignment alignment;
+
+    public SitePatternsTest(String name) {
+        super(name);
+    }
+
+    public void setUp() {
+        Random random = new Random(42);
+        final String chars = "ACGT-N";
+
+        char[][] sequences = new char[TAXON_COUNT][SITE_COUNT];
+        for (int j = 0; j < SITE_COUNT; j++) {
+            char base = chars.charAt(random.nextInt(4));
+            for (int i = 0; i < TAXON_COUNT; i++) {
+                sequences[i][j] = (random.nextDouble() < 0.05 ? chars.charAt(random.nextInt(6)) : base);
+            }
+        }
+
+        alignment = new SimpleAlignment();
+        alignment.setDataType(Nucleotides.INSTANCE);
+        for (int i = 0; i < TAXON_COUNT; i++) {
+            alignment.addSequence(new Sequence(new Taxon("taxon" + i), new String(sequences[i])));
+        }
+    }
+
+    public void tearDown() {
+        System.clearProperty(SitePatterns.THREAD_COUNT_PROPERTY);
+    }
+
+    public void testSerial() {
+        System.setProperty(SitePatterns.THREAD_COUNT_PROPERTY, "1");
+        checkPatterns();
+    }
+
+    public void testThreaded() {
+        System.setProperty(SitePatterns.THREAD_COUNT_PROPERTY, "3");
+        checkPatterns();
+    }
+
+    private void checkPatterns() {
+        assertSamePatterns(new SitePatterns(alignment, null, 0, -1, 1, true, true), 0, 1, null, true, true);
+        assertSamePatterns(new SitePatterns(alignment, null, 1, 8000, 3, true, true), 1, 3, null, true, true);
+        assertSamePatterns(new SitePatterns(alignment, null, 0, -1, 1, false, true), 0, 1, null, false, true);
+        assertSamePatterns(new SitePatterns(alignment, null, 0, -1, 1, true, false), 0, 1, null, true, false);
+
+        int[] constantSiteCounts = new int[]{10, 20, 30, 40};
+        assertSamePatterns(new SitePatterns(alignment, null, 0, -1, 1, true, true, constantSiteCounts),
+                0, 1, constantSiteCounts, true, true);
+
+        boolean[] mask = new boolean[SITE_COUNT];
+        for (int i = 0; i < SITE_COUNT; i++) {
+            mask[i] = (i % 5 != 2);
+        }
+        SitePatterns masked = new SitePatterns(alignment, mask);
+        List<Integer> maskedSites = new ArrayList<Integer>();
+        for (int i = 0; i < SITE_COUNT; i++) {
+            if (mask[i]) {
+                maskedSites.add(i);
+            }
+        }
+        assertSamePatterns(masked, maskedSites, null, true, true);
+    }
+
+    private void assertSamePatterns(SitePatterns patterns, int from, int every, int[] constantSiteCounts,
+                                    boolean strip, boolean unique) {
+        List<Integer> sites = new ArrayList<Integer>();
+        for (int i = from; i < SITE_COUNT; i += every) {
+            if (every == 3 && i > 8000) {
+                break;
+            }
+            sites.add(i);
+        }
+        assertSamePatterns(patterns, sites, constantSiteCounts, strip, unique);
+    }
+
+    private void assertSamePatterns(SitePatterns patterns, List<Integer> sites, int[] constantSiteCounts,
+                                    boolean strip, boolean unique) {
+        List<int[]> expectedPatterns = new ArrayList<int[]>();
+        List<Double> expectedWeights = new ArrayList<Double>();
+
+        if (constantSiteCounts != null) {
+            for (int state = 0; state < constantSiteCounts.length; state++) {
+                int[] pattern = new int[TAXON_COUNT];
+                Arrays.fill(pattern, state);
+                addPattern(expectedPatterns, expectedWeights, pattern, constantSiteCounts[state], unique);
+            }
+        }
+
+        for (int k = 0; k < sites.size(); k++) {
+            int[] pattern = alignment.getSitePattern(sites.get(k));
+            if (strip && isStripped(pattern)) {
+                assertEquals(-1, patterns.getPatternIndex(k));
+                assertNull(patterns.getSitePattern(k));
+            } else {
+                int index = addPattern(expectedPatterns, expectedWeights, pattern, 1, unique);
+                assertEquals(index, patterns.getPatternIndex(k));
+            }
+        }
+
+        assertEquals(expectedPatterns.size(), patterns.getPatternCount());
+        for (int i = 0; i < expectedPatterns.size(); i++) {
+            assertTrue(Arrays.equals(expectedPatterns.get(i), patterns.getPattern(i)));
+            assertEquals(expectedWeights.get(i), patterns.getPatternWeight(i), 0.0);
+        }
+    }
+
+    private int addPattern(List<int[]> patterns, List<Double> weights, int[] pattern, int weight, boolean unique) {
+        if (unique) {
+            for (int i = 0; i < patterns.size(); i++) {
+                if (Arrays.equals(patterns.get(i), pattern)) {
+                    weights.set(i, weights.get(i) + weight);
+                    return i;
+                }
+            }
+        }
+        patterns.add(pattern);
+        weights.add((double) weight);
+        return patterns.size() - 1;
+    }
+
+    private boolean isStripped(int[] pattern) {
+        for (int state : pattern) {
+            if (state != pattern[0]) {
+                return false;
+            }
+        }
+        return Nucleotides.INSTANCE.isGapState(pattern[0]) || Nucleotides.INSTANCE.isAmbiguousState(pattern[0])
+                || Nucleotides.INSTANCE.isUnknownState(pattern[0]);
+    }
+}
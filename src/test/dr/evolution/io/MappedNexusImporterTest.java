@@ -0,0 +1,167 @@
+package test.dr.evolution.io;
+
+import dr.evolution.io.Importer;
+import dr.evolution.io.MappedNexusImporter;
+import dr.evolution.io.NexusImporter;
+import dr.evolution.io.TreeImporter;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.util.Attributable;
+import junit.framework.TestCase;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Checks that MappedNexusImporter reads the same trees as NexusImporter, with one and with
+ * several parsing threads.
+ */
+public class MappedNexusImporterTest extends TestCase {
+
+    private static final String TRANSLATED =
+            "#NEXUS\n" +
+            "[a comment; with a semicolon]\n" +
+            "Begin taxa;\n\tDimensions ntax=4;\n\tTaxlabels\n\t\tA 'B c' C_1 D\n\t\t;\nEnd;\n\n" +
+            "Begin trees;\n" +
+            "\tTranslate\n\t\t1 A,\n\t\t2 'B c',\n\t\t3 C_1,\n\t\t4 D\n\t\t;\n" +
+            "[&comment before the first tree]\n" +
+            "tree STATE_0 [&lnP=-12.5,posterior=-20.25] = [&R] ((1[&rate=1.5,set={a,b}]:0.5,2:0.25)[&height_95%_HPD={0.1,0.9}]:1.0E-2," +
+            "(3:0.125,4[&x=\"some text\"]:0.5)[&y=2]:0.25);\n" +
+            "tree STATE_10 = [&W 0.5] ((1:0.5,3:0.5):1,(2:1,4:1):0.5);\n" +
+            "tree 'STATE 20' [&a=1][&b=2] = [&R] ((1:0.5,(2:0.25,3:0.25)label:0.25):0.5,4:1.0):0.0[&rootValue=3];\n" +
+            "tree STATE_30 = [&R] ((1:0.5,2:0.5)[not meta]:0.5,(3 [&z=1]:1,4:1):0.0);\n" +
+            "End;\n";
+
+    private static final String UNTRANSLATED =
+            "#NEXUS\n" +
+            "begin trees;\n" +
+            "tree one = ((A:1,B:1):1,C:2);\n" +
+            "tree two = ((A:1,C:1):1,B:2);\n" +
+            "tree three = ((B:1,C:1):1,A:2);\n";
+
+    public MappedNexusImporterTest(String name) {
+        super(name);
+    }
+
+    public void testTranslatedTrees() throws IOException, Importer.ImportException {
+        File file = writeFile(TRANSLATED);
+        assertSameTrees(file, 1, 4);
+        assertSameTrees(file, 3, 4);
+    }
+
+    public void testUntranslatedTrees() throws IOException, Importer.ImportException {
+        // without an END the last tree is not read by NexusImporter
+        File file = writeFile(UNTRANSLATED);
+        assertSameTrees(file, 1, 2);
+        assertSameTrees(file, 2, 2);
+    }
+
+    public void testManyTrees() throws IOException, Importer.ImportException {
+        StringBuilder builder = new StringBuilder("#NEXUS\nBegin trees;\n\tTranslate\n\t\t1 A,\n\t\t2 B,\n\t\t3 C\n;\n");
+        for (int i = 0; i < 200; i++) {
+            builder.append("tree STATE_").append(i).append(" [&lnP=").append(-i * 0.5).append("] = [&R] ((1[&rate=")
+                    .append(i).append("]:").append(1.0 / (i + 1)).append(",2:0.5):0.5,3:1.0);\n");
+        }
+        builder.append("End;\n");
+
+        File file = writeFile(builder.toString());
+        assertSameTrees(file, 4, 200);
+    }
+
+    public void testUnknownCommand() throws IOException {
+        File file = writeFile("#NEXUS\nbegin trees;\ntree one = ((A:1,B:1):1,C:2);\nbogus;\nend;\n");
+        MappedNexusImporter importer = new MappedNexusImporter(file, false, 2);
+        try {
+            assertNotNull(importer.importNextTree());
+            importer.importNextTree();
+            fail("Expected an unknown command error");
+        } catch (Importer.BadFormatException bfe) {
+            assertTrue(bfe.getMessage().contains("bogus"));
+        } catch (Importer.ImportException ie) {
+            fail(ie.getMessage());
+        } finally {
+            importer.close();
+        }
+    }
+
+    private void assertSameTrees(File file, int threadCount, int expectedCount) throws IOException, Importer.ImportException {
+        for (boolean ignoreMetaComments : new boolean[]{false, true}) {
+            List<Tree> expected = readAll(new NexusImporter(new FileReader(file), ignoreMetaComments));
+            MappedNexusImporter importer = new MappedNexusImporter(file, ignoreMetaComments, threadCount);
+            List<Tree> actual = readAll(importer);
+            importer.close();
+
+            assertEquals(expectedCount, expected.size());
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertSameTree(expected.get(i), actual.get(i));
+            }
+        }
+    }
+
+    private List<Tree> readAll(TreeImporter importer) throws IOException, Importer.ImportException {
+        List<Tree> trees = new ArrayList<Tree>();
+        while (importer.hasTree()) {
+            trees.add(importer.importNextTree());
+        }
+        return trees;
+    }
+
+    private void assertSameTree(Tree expected, Tree actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertSameAttributes(expected, actual);
+        assertEquals(expected.getNodeCount(), actual.getNodeCount());
+        assertEquals(expected.getRoot().getNumber(), actual.getRoot().getNumber());
+
+        for (int i = 0; i < expected.getNodeCount(); i++) {
+            NodeRef node = expected.getNode(i);
+            NodeRef other = actual.getNode(i);
+
+            assertEquals(expected.getNodeHeight(node), actual.getNodeHeight(other), 0.0);
+            assertEquals(expected.isRoot(node), actual.isRoot(other));
+            if (!expected.isRoot(node)) {
+                assertEquals(expected.getBranchLength(node), actual.getBranchLength(other), 0.0);
+                assertEquals(expected.getParent(node).getNumber(), actual.getParent(other).getNumber());
+            }
+            if (expected.isExternal(node)) {
+                assertEquals(expected.getNodeTaxon(node).getId(), actual.getNodeTaxon(other).getId());
+            }
+            assertEquals(attributeText(expected.getNodeAttributeNames(node), expected, node),
+                    attributeText(actual.getNodeAttributeNames(other), actual, other));
+        }
+    }
+
+    private void assertSameAttributes(Attributable expected, Attributable actual) {
+        assertEquals(attributeText(expected.getAttributeNames(), expected, null),
+                attributeText(actual.getAttributeNames(), actual, null));
+    }
+
+    private String attributeText(Iterator<?> names, Object item, NodeRef node) {
+        StringBuilder builder = new StringBuilder();
+        while (names != null && names.hasNext()) {
+            String name = (String) names.next();
+            Object value = (node == null ? ((Attributable) item).getAttribute(name) :
+                    ((Tree) item).getNodeAttribute(node, name));
+            builder.append(name).append('=');
+            if (value instanceof Object[]) {
+                builder.append(Arrays.deepToString((Object[]) value));
+            } else {
+                builder.append(value).append(value == null ? "" : value.getClass().getSimpleName());
+            }
+            builder.append(';');
+        }
+        return builder.toString();
+    }
+
+    private File writeFile(String text) throws IOException {
+        File file = File.createTempFile("mappedNexusImporterTest", ".trees");
+        file.deleteOnExit();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        writer.write(text);
+        writer.close();
+        return file;
+    }
+}
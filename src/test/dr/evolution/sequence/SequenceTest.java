@@ -0,0 +1,65 @@
+package test.dr.evolution.sequence;
+
+import dr.evolution.datatype.Nucleotides;
+import dr.evolution.sequence.Sequence;
+import junit.framework.TestCase;
+
+/**
+ * Checks that the characters of a sequence, which are kept as bytes while they fit, read back
+ * as they were given through each way of changing them.
+ */
+public class SequenceTest extends TestCase {
+
+    public SequenceTest(String name) {
+        super(name);
+    }
+
+    public void testEditing() {
+        Sequence sequence = new Sequence("acgt");
+        sequence.setDataType(Nucleotides.INSTANCE);
+        StringBuilder expected = new StringBuilder("ACGT");
+        assertSequence(sequence, expected);
+
+        sequence.appendSequenceString("N-?");
+        expected.append("N-?");
+        assertSequence(sequence, expected);
+
+        sequence.insertSequenceString(2, "TTTT");
+        expected.insert(2, "TTTT");
+        assertSequence(sequence, expected);
+
+        sequence.setState(0, Nucleotides.G_STATE);
+        expected.setCharAt(0, 'G');
+        assertSequence(sequence, expected);
+        assertEquals(Nucleotides.G_STATE, sequence.getState(0));
+
+        // a character that doesn't fit in a byte
+        sequence.insertSequenceString(1, "ā");
+        expected.insert(1, "ā");
+        assertSequence(sequence, expected);
+
+        sequence.setSequenceString("ac");
+        assertSequence(sequence, new StringBuilder("AC"));
+    }
+
+    public void testBounds() {
+        Sequence sequence = new Sequence("ACGT");
+        try {
+            sequence.getChar(4);
+            fail("read past the end");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    private void assertSequence(Sequence sequence, StringBuilder expected) {
+        assertEquals(expected.length(), sequence.getLength());
+        assertEquals(expected.toString(), sequence.getSequenceString());
+        for (int i = 0; i < expected.length(); i++) {
+            assertEquals(expected.charAt(i), sequence.getChar(i));
+        }
+        char[] chars = new char[expected.length() + 2];
+        sequence.getChars(1, expected.length(), chars, 2);
+        assertEquals(expected.substring(1), new String(chars, 2, expected.length() - 1));
+    }
+}
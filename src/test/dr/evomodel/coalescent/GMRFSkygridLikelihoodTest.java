@@ -0,0 +1,154 @@
+package test.dr.evomodel.coalescent;
+
+import dr.evolution.coalescent.IntervalList;
+import dr.evolution.io.Importer;
+import dr.evolution.io.NewickImporter;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.TreeUtils;
+import dr.evomodel.coalescent.GMRFSkygridLikelihood;
+import dr.evomodel.coalescent.TreeIntervals;
+import dr.evomodel.operators.SubtreeSlideOperator;
+import dr.evomodel.tree.DefaultTreeModel;
+import dr.inference.model.Parameter;
+import dr.inference.operators.AdaptationMode;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that the skygrid statistics kept per locus, and only recalculated for the loci whose trees change,
+ * are the same as those recalculated for every locus, through a run of accepted and rejected moves.
+ */
+public class GMRFSkygridLikelihoodTest extends TestCase {
+
+    private static final int LOCUS_COUNT = 4;
+    private static final int TAXON_COUNT = 12;
+    private static final int GRID_POINT_COUNT = 10;
+
+    public GMRFSkygridLikelihoodTest(String name) {
+        super(name);
+    }
+
+    public void testSerialLoci() throws IOException, Importer.ImportException, TreeUtils.MissingTaxonException {
+        runMoves("1");
+    }
+
+    public void testParallelLoci() throws IOException, Importer.ImportException, TreeUtils.MissingTaxonException {
+        runMoves("3");
+    }
+
+    private void runMoves(String threadCount) throws IOException, Importer.ImportException, TreeUtils.MissingTaxonException {
+        String oldThreadCount = System.setProperty(GMRFSkygridLikelihood.THREAD_COUNT_PROPERTY, threadCount);
+        try {
+            MathUtils.setSeed(666);
+
+            List<DefaultTreeModel> trees = new ArrayList<DefaultTreeModel>();
+            List<IntervalList> intervalsList = new ArrayList<IntervalList>();
+            for (int i = 0; i < LOCUS_COUNT; i++) {
+                DefaultTreeModel tree = new DefaultTreeModel("tree" + i, new NewickImporter(randomNewick()).importTree(null));
+                trees.add(tree);
+                intervalsList.add(new TreeIntervals(tree, null, null));
+            }
+
+            GMRFSkygridLikelihood likelihood = createLikelihood(intervalsList, new Parameter.Default(LOCUS_COUNT, 1.0));
+            Parameter referencePloidy = new Parameter.Default(LOCUS_COUNT, 1.0);
+            GMRFSkygridLikelihood reference = createLikelihood(intervalsList, referencePloidy);
+
+            for (int step = 0; step < 1000; step++) {
+                likelihood.storeModelState();
+                reference.storeModelState();
+
+                // usually one tree changes but sometimes they all do
+                final int changedCount = (step % 10 == 0 ? LOCUS_COUNT : 1);
+                final int first = MathUtils.nextInt(LOCUS_COUNT);
+                for (int k = 0; k < changedCount; k++) {
+                    DefaultTreeModel tree = trees.get((first + k) % LOCUS_COUNT);
+                    try {
+                        if (MathUtils.nextBoolean()) {
+                            new SubtreeSlideOperator(tree, 1.0, 0.5, true, false, false, false,
+                                    AdaptationMode.ADAPTATION_OFF, 0.234).doOperation();
+                        } else {
+                            moveNodeHeight(tree);
+                        }
+                    } catch (RuntimeException re) {
+                        // some moves are not possible on every tree
+                    }
+                }
+
+                // changing the ploidy factors makes the reference recalculate every locus
+                referencePloidy.setParameterValue(0, 1.0);
+                assertSameStatistics(reference, likelihood);
+
+                if (MathUtils.nextBoolean()) {
+                    likelihood.acceptModelState();
+                    reference.acceptModelState();
+                } else {
+                    likelihood.restoreModelState();
+                    reference.restoreModelState();
+                }
+            }
+        } finally {
+            if (oldThreadCount == null) {
+                System.clearProperty(GMRFSkygridLikelihood.THREAD_COUNT_PROPERTY);
+            } else {
+                System.setProperty(GMRFSkygridLikelihood.THREAD_COUNT_PROPERTY, oldThreadCount);
+            }
+        }
+    }
+
+    private GMRFSkygridLikelihood createLikelihood(List<IntervalList> intervalsList, Parameter ploidy) {
+        return new GMRFSkygridLikelihood(intervalsList,
+                new Parameter.Default(GRID_POINT_COUNT + 1, 0.5), null,
+                new Parameter.Default(1, 1.0), new Parameter.Default(1, 1.0), null, null, false,
+                4.0, GRID_POINT_COUNT, null, ploidy);
+    }
+
+    private void assertSameStatistics(GMRFSkygridLikelihood expected, GMRFSkygridLikelihood actual) {
+        assertEquals(expected.getLogLikelihood(), actual.getLogLikelihood(), 0.0);
+
+        double[] expectedEvents = expected.getNumCoalEvents();
+        double[] actualEvents = actual.getNumCoalEvents();
+        double[] expectedStatistics = expected.getSufficientStatistics();
+        double[] actualStatistics = actual.getSufficientStatistics();
+        for (int i = 0; i <= GRID_POINT_COUNT; i++) {
+            assertEquals(expectedEvents[i], actualEvents[i], 0.0);
+            assertEquals(expectedStatistics[i], actualStatistics[i], 0.0);
+        }
+    }
+
+    private void moveNodeHeight(DefaultTreeModel tree) {
+        NodeRef node = tree.getInternalNode(MathUtils.nextInt(tree.getInternalNodeCount()));
+        double lower = Math.max(tree.getNodeHeight(tree.getChild(node, 0)), tree.getNodeHeight(tree.getChild(node, 1)));
+        double upper = (tree.isRoot(node) ? lower + 1.0 : tree.getNodeHeight(tree.getParent(node)));
+        tree.setNodeHeight(node, lower + MathUtils.nextDouble() * (upper - lower));
+    }
+
+    /**
+     * A random coalescent tree with tips sampled through time.
+     */
+    private String randomNewick() {
+        List<String> lineages = new ArrayList<String>();
+        List<Double> heights = new ArrayList<Double>();
+        double time = 0.0;
+        int next = 0;
+        while (next < TAXON_COUNT || lineages.size() > 1) {
+            time += MathUtils.nextExponential(4.0);
+            if (next < TAXON_COUNT && (lineages.size() < 2 || MathUtils.nextBoolean())) {
+                lineages.add("t" + next);
+                heights.add(time);
+                next++;
+            } else {
+                int i = MathUtils.nextInt(lineages.size());
+                String first = lineages.remove(i) + ":" + (time - heights.remove(i));
+                int j = MathUtils.nextInt(lineages.size());
+                String second = lineages.remove(j) + ":" + (time - heights.remove(j));
+                lineages.add("(" + first + "," + second + ")");
+                heights.add(time);
+            }
+        }
+        return lineages.get(0) + ";";
+    }
+}
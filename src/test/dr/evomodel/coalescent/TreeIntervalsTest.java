@@ -0,0 +1,192 @@
+package test.dr.evomodel.coalescent;
+
+import dr.evolution.coalescent.Intervals;
+import dr.evolution.io.Importer;
+import dr.evolution.io.NewickImporter;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.evolution.tree.TreeUtils;
+import dr.evolution.util.Taxa;
+import dr.evolution.util.TaxonList;
+import dr.evomodel.coalescent.TreeIntervals;
+import dr.evomodel.operators.ExchangeOperator;
+import dr.evomodel.operators.SubtreeSlideOperator;
+import dr.evomodel.operators.WilsonBalding;
+import dr.evomodel.tree.DefaultTreeModel;
+import dr.inference.operators.AdaptationMode;
+import dr.inference.operators.SimpleMCMCOperator;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Checks that the intervals that TreeIntervals updates as node heights move are the same as intervals
+ * collected afresh from the tree, through a run of accepted and rejected tree moves.
+ */
+public class TreeIntervalsTest extends TestCase {
+
+    private static final int TAXON_COUNT = 30;
+
+    public TreeIntervalsTest(String name) {
+        super(name);
+    }
+
+    public void testWholeTree() throws IOException, Importer.ImportException, TreeUtils.MissingTaxonException {
+        runMoves(false, false);
+    }
+
+    public void testIncludedAndExcludedSubtrees() throws IOException, Importer.ImportException, TreeUtils.MissingTaxonException {
+        runMoves(true, false);
+    }
+
+    public void testOtherTreeModel() throws IOException, Importer.ImportException, TreeUtils.MissingTaxonException {
+        // the intervals of any tree other than a DefaultTreeModel are collected again after each change
+        runMoves(true, true);
+    }
+
+    private void runMoves(boolean restricted, boolean subclass) throws IOException, Importer.ImportException, TreeUtils.MissingTaxonException {
+        MathUtils.setSeed(666);
+
+        Tree newick = new NewickImporter(randomNewick()).importTree(null);
+        DefaultTreeModel tree = (subclass ? new DefaultTreeModel("tree", newick) {
+        } : new DefaultTreeModel("tree", newick));
+
+        TaxonList included = null;
+        List<TaxonList> excluded = null;
+        if (restricted) {
+            Taxa taxa = new Taxa();
+            for (int i = 0; i < TAXON_COUNT / 2; i++) {
+                taxa.addTaxon(tree.getTaxon(i));
+            }
+            included = taxa;
+
+            Taxa exclude = new Taxa();
+            exclude.addTaxon(taxa.getTaxon(0));
+            exclude.addTaxon(taxa.getTaxon(1));
+            excluded = new ArrayList<TaxonList>();
+            excluded.add(exclude);
+        }
+
+        TreeIntervals intervals = new TreeIntervals(tree, included, excluded);
+        Set<String> includedLeaves = (restricted ? TreeUtils.getLeavesForTaxa(tree, included) : null);
+        Set<String> excludedLeaves = (restricted ? TreeUtils.getLeavesForTaxa(tree, excluded.get(0)) : null);
+
+        SimpleMCMCOperator[] operators = new SimpleMCMCOperator[]{
+                new SubtreeSlideOperator(tree, 1.0, 0.5, true, false, false, false,
+                        AdaptationMode.ADAPTATION_OFF, 0.234),
+                new ExchangeOperator(ExchangeOperator.NARROW, tree, 1.0),
+                new WilsonBalding(tree, 1.0)
+        };
+
+        assertSameIntervals(collectIntervals(tree, includedLeaves, excludedLeaves), intervals);
+
+        for (int step = 0; step < 3000; step++) {
+            intervals.storeModelState();
+
+            try {
+                if (step % 4 == 3) {
+                    moveNodeHeight(tree);
+                } else {
+                    operators[step % 4].doOperation();
+                }
+            } catch (RuntimeException re) {
+                // some moves are not possible on every tree; the tree still has to be restored
+            }
+
+            if (MathUtils.nextBoolean()) {
+                assertSameIntervals(collectIntervals(tree, includedLeaves, excludedLeaves), intervals);
+            }
+
+            if (MathUtils.nextBoolean()) {
+                intervals.acceptModelState();
+            } else {
+                intervals.restoreModelState();
+            }
+            assertSameIntervals(collectIntervals(tree, includedLeaves, excludedLeaves), intervals);
+        }
+    }
+
+    private void moveNodeHeight(DefaultTreeModel tree) {
+        NodeRef node = tree.getInternalNode(MathUtils.nextInt(tree.getInternalNodeCount()));
+        double lower = Math.max(tree.getNodeHeight(tree.getChild(node, 0)), tree.getNodeHeight(tree.getChild(node, 1)));
+        double upper = (tree.isRoot(node) ? lower + 2.0 : tree.getNodeHeight(tree.getParent(node)));
+        tree.setNodeHeight(node, lower + MathUtils.nextDouble() * (upper - lower));
+    }
+
+    private void assertSameIntervals(Intervals expected, TreeIntervals actual) {
+        assertEquals(expected.getIntervalCount(), actual.getIntervalCount());
+        assertEquals(expected.getSampleCount(), actual.getSampleCount());
+        assertEquals(expected.getStartTime(), actual.getStartTime(), 0.0);
+        assertEquals(expected.getTotalDuration(), actual.getTotalDuration(), 0.0);
+        for (int i = 0; i < expected.getIntervalCount(); i++) {
+            assertEquals(expected.getInterval(i), actual.getInterval(i), 0.0);
+            assertEquals(expected.getIntervalTime(i), actual.getIntervalTime(i), 0.0);
+            assertEquals(expected.getLineageCount(i), actual.getLineageCount(i));
+            assertEquals(expected.getCoalescentEvents(i), actual.getCoalescentEvents(i));
+            assertEquals(expected.getIntervalType(i), actual.getIntervalType(i));
+        }
+    }
+
+    private Intervals collectIntervals(Tree tree, Set<String> includedLeaves, Set<String> excludedLeaves) {
+        Intervals intervals = new Intervals(tree.getNodeCount());
+        NodeRef mrca = (includedLeaves != null ? TreeUtils.getCommonAncestorNode(tree, includedLeaves) : tree.getRoot());
+        NodeRef excluded = (excludedLeaves != null ? TreeUtils.getCommonAncestorNode(tree, excludedLeaves) : null);
+        collectTimes(tree, mrca, excluded, intervals);
+        return intervals;
+    }
+
+    private void collectTimes(Tree tree, NodeRef node, NodeRef excluded, Intervals intervals) {
+        intervals.addCoalescentEvent(tree.getNodeHeight(node));
+        for (int i = 0; i < tree.getChildCount(node); i++) {
+            NodeRef child = tree.getChild(node, i);
+            if (child == excluded || tree.isExternal(child)) {
+                intervals.addSampleEvent(tree.getNodeHeight(child));
+            } else {
+                collectTimes(tree, child, excluded, intervals);
+            }
+        }
+    }
+
+    /**
+     * A random coalescent tree with tips sampled through time.
+     */
+    private String randomNewick() {
+        List<String> lineages = new ArrayList<String>();
+        List<Double> heights = new ArrayList<Double>();
+        List<Double> tipHeights = new ArrayList<Double>();
+        for (int i = 0; i < TAXON_COUNT; i++) {
+            tipHeights.add(i % 3 == 0 ? 0.0 : MathUtils.nextDouble());
+        }
+
+        List<Integer> order = new ArrayList<Integer>();
+        for (int i = 0; i < TAXON_COUNT; i++) {
+            order.add(i);
+        }
+        Collections.sort(order, (i, j) -> Double.compare(tipHeights.get(i), tipHeights.get(j)));
+
+        double time = 0.0;
+        int next = 0;
+        while (next < TAXON_COUNT || lineages.size() > 1) {
+            time += MathUtils.nextExponential(1.0);
+            while (next < TAXON_COUNT && tipHeights.get(order.get(next)) <= time) {
+                lineages.add("t" + order.get(next));
+                heights.add(tipHeights.get(order.get(next)));
+                next++;
+            }
+            if (lineages.size() > 1 && (next == TAXON_COUNT || MathUtils.nextBoolean())) {
+                int i = MathUtils.nextInt(lineages.size());
+                String first = lineages.remove(i) + ":" + (time - heights.remove(i));
+                int j = MathUtils.nextInt(lineages.size());
+                String second = lineages.remove(j) + ":" + (time - heights.remove(j));
+                lineages.add("(" + first + "," + second + ")");
+                heights.add(time);
+            }
+        }
+        return lineages.get(0) + ";";
+    }
+}
@@ -0,0 +1,138 @@
+package test.dr.evomodel.tree;
+
+import dr.evolution.io.Importer;
+import dr.evolution.io.NewickImporter;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.TreeUtils;
+import dr.evomodel.operators.ExchangeOperator;
+import dr.evomodel.operators.SubtreeSlideOperator;
+import dr.evomodel.operators.WilsonBalding;
+import dr.evomodel.tree.DefaultTreeModel;
+import dr.inference.model.Parameter;
+import dr.inference.operators.AdaptationMode;
+import dr.inference.operators.SimpleMCMCOperator;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+
+/**
+ * Checks that the journaled store and restore of DefaultTreeModel puts back the topology, the root
+ * and the node parameters after a mix of accepted and rejected tree moves.
+ */
+public class DefaultTreeModelStoreRestoreTest extends TestCase {
+
+    private static final int TAXON_COUNT = 20;
+
+    public DefaultTreeModelStoreRestoreTest(String name) {
+        super(name);
+    }
+
+    public void testStoreRestore() throws IOException, Importer.ImportException {
+        MathUtils.setSeed(666);
+
+        // a caterpillar tree with unit spaced heights
+        StringBuilder newick = new StringBuilder("t0:" + (TAXON_COUNT - 1));
+        for (int i = 1; i < TAXON_COUNT; i++) {
+            newick.insert(0, "(");
+            newick.append(",t").append(i).append(":").append(TAXON_COUNT - i).append("):1");
+        }
+        newick.append(";");
+        DefaultTreeModel tree = new DefaultTreeModel("tree",
+                new NewickImporter(newick.toString()).importTree(null));
+
+        SimpleMCMCOperator[] operators = new SimpleMCMCOperator[]{
+                new SubtreeSlideOperator(tree, 1.0, 1.0, true, false, false, false,
+                        AdaptationMode.ADAPTATION_OFF, 0.234),
+                new ExchangeOperator(ExchangeOperator.NARROW, tree, 1.0),
+                new ExchangeOperator(ExchangeOperator.WIDE, tree, 1.0),
+                new WilsonBalding(tree, 1.0)
+        };
+
+        int rootChanges = 0;
+        for (int step = 0; step < 5000; step++) {
+            tree.storeModelState();
+            TreeState stored = new TreeState(tree);
+
+            try {
+                operators[step % operators.length].doOperation();
+            } catch (RuntimeException re) {
+                // some moves are not possible on every tree; the tree still has to be restored
+            }
+
+            if (tree.getRoot().getNumber() != stored.root) {
+                rootChanges++;
+            }
+
+            if (MathUtils.nextBoolean()) {
+                tree.acceptModelState();
+                new TreeState(tree).assertValid(tree);
+            } else {
+                tree.restoreModelState();
+                stored.assertSameState(new TreeState(tree));
+                assertEquals(stored.newick, TreeUtils.newick(tree));
+            }
+        }
+
+        assertTrue("no moves changed the root", rootChanges > 0);
+    }
+
+    /**
+     * The links between the nodes and the node each height parameter belongs to.
+     */
+    private static class TreeState {
+
+        TreeState(DefaultTreeModel tree) {
+            final int nodeCount = tree.getNodeCount();
+            root = tree.getRoot().getNumber();
+            parents = new int[nodeCount];
+            children = new int[nodeCount][];
+            parameterNodes = new int[tree.getVariableCount()];
+            for (int i = 0; i < nodeCount; i++) {
+                NodeRef node = tree.getNode(i);
+                parents[i] = (tree.isRoot(node) ? -1 : tree.getParent(node).getNumber());
+                children[i] = new int[tree.getChildCount(node)];
+                for (int j = 0; j < children[i].length; j++) {
+                    children[i][j] = tree.getChild(node, j).getNumber();
+                }
+            }
+            for (int i = 0; i < parameterNodes.length; i++) {
+                NodeRef node = tree.getNodeOfParameter((Parameter) tree.getVariable(i));
+                parameterNodes[i] = node.getNumber();
+            }
+            rootHeight = tree.getRootHeightParameter();
+            newick = TreeUtils.newick(tree);
+        }
+
+        void assertSameState(TreeState other) {
+            assertEquals(root, other.root);
+            TestCase.assertSame(rootHeight, other.rootHeight);
+            for (int i = 0; i < parents.length; i++) {
+                assertEquals(parents[i], other.parents[i]);
+                assertEquals(children[i].length, other.children[i].length);
+                for (int j = 0; j < children[i].length; j++) {
+                    assertEquals(children[i][j], other.children[i][j]);
+                }
+            }
+            for (int i = 0; i < parameterNodes.length; i++) {
+                assertEquals(parameterNodes[i], other.parameterNodes[i]);
+            }
+        }
+
+        void assertValid(DefaultTreeModel tree) {
+            for (int i = 0; i < parents.length; i++) {
+                for (int child : children[i]) {
+                    assertEquals(i, parents[child]);
+                    assertTrue(tree.getNodeHeight(tree.getNode(child)) <= tree.getNodeHeight(tree.getNode(i)));
+                }
+            }
+        }
+
+        final int root;
+        final int[] parents;
+        final int[][] children;
+        final int[] parameterNodes;
+        final Parameter rootHeight;
+        final String newick;
+    }
+}
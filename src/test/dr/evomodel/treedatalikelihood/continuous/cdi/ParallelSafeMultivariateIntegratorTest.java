@@ -0,0 +1,178 @@
+package test.dr.evomodel.treedatalikelihood.continuous.cdi;
+
+import dr.evomodel.treedatalikelihood.continuous.cdi.ContinuousDiffusionIntegrator;
+import dr.evomodel.treedatalikelihood.continuous.cdi.ParallelSafeMultivariateIntegrator;
+import dr.evomodel.treedatalikelihood.continuous.cdi.PrecisionType;
+import dr.evomodel.treedatalikelihood.continuous.cdi.SafeMultivariateIntegrator;
+import dr.math.MathUtils;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that updating the traits in parallel gives exactly the same post-order partials,
+ * pre-order partials and log likelihoods as updating them one at a time, whether the operations
+ * are given node by node or as a whole traversal to be grouped into dependency levels.
+ */
+
+public class ParallelSafeMultivariateIntegratorTest {
+
+    private static final int NUM_TRAITS = 11;
+    private static final int DIM_TRAIT = 3;
+
+    // four tips (0-3), two cherries (4, 5), the root (6) and the root prior (7)
+    private static final int BUFFER_COUNT = 8;
+    private static final int ROOT = 6;
+    private static final int PRIOR = 7;
+
+    private static final int[] POST_ORDER = {
+            4, 0, 0, 1, 1,
+            5, 2, 2, 3, 3,
+            6, 4, 4, 5, 5
+    };
+
+    private static final int[] PRE_ORDER = {
+            6, 4, 4, 5, 5,
+            6, 5, 5, 4, 4,
+            4, 0, 0, 1, 1,
+            4, 1, 1, 0, 0,
+            5, 2, 2, 3, 3,
+            5, 3, 3, 2, 2
+    };
+
+    // the same pre-order operations depth first, so not grouped by level
+    private static final int[] DEPTH_FIRST_PRE_ORDER = {
+            6, 4, 4, 5, 5,
+            4, 0, 0, 1, 1,
+            4, 1, 1, 0, 0,
+            6, 5, 5, 4, 4,
+            5, 2, 2, 3, 3,
+            5, 3, 3, 2, 2
+    };
+
+    @Test
+    public void parallelTraitUpdates() throws Exception {
+        compareWithSerial(false);
+    }
+
+    @Test
+    public void parallelLevelUpdates() throws Exception {
+        compareWithSerial(true);
+    }
+
+    private void compareWithSerial(boolean batchPreOrder) {
+        ContinuousDiffusionIntegrator serial = new SafeMultivariateIntegrator(PrecisionType.FULL,
+                NUM_TRAITS, DIM_TRAIT, DIM_TRAIT, BUFFER_COUNT, 1);
+        ContinuousDiffusionIntegrator parallel = new ParallelSafeMultivariateIntegrator(PrecisionType.FULL,
+                NUM_TRAITS, DIM_TRAIT, DIM_TRAIT, BUFFER_COUNT, 1, 4);
+
+        MathUtils.setSeed(666);
+        double[][] tipPartials = new double[4][];
+        for (int tip = 0; tip < 4; tip++) {
+            tipPartials[tip] = getTipPartial();
+        }
+        double[] priorPartial = getPriorPartial();
+
+        double[] serialLogLikelihoods = evaluate(serial, tipPartials, priorPartial, false);
+        double[] parallelLogLikelihoods = evaluate(parallel, tipPartials, priorPartial, batchPreOrder);
+
+        assertIdentical(serialLogLikelihoods, parallelLogLikelihoods);
+
+        final int dimPartial = NUM_TRAITS * PrecisionType.FULL.getPartialsDimension(DIM_TRAIT);
+        for (int buffer = 0; buffer < BUFFER_COUNT - 1; buffer++) {
+            double[] serialPartial = new double[dimPartial];
+            double[] parallelPartial = new double[dimPartial];
+
+            serial.getPostOrderPartial(buffer, serialPartial);
+            parallel.getPostOrderPartial(buffer, parallelPartial);
+            assertIdentical(serialPartial, parallelPartial);
+
+            serial.getPreOrderPartial(buffer, serialPartial);
+            parallel.getPreOrderPartial(buffer, parallelPartial);
+            assertIdentical(serialPartial, parallelPartial);
+        }
+    }
+
+    private static void assertIdentical(double[] expected, double[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], actual[i], 0.0);
+        }
+    }
+
+    private double[] evaluate(ContinuousDiffusionIntegrator cdi, double[][] tipPartials, double[] priorPartial,
+                              boolean batchPreOrder) {
+        cdi.setDiffusionPrecision(0, new double[]{
+                1.0, 0.1, 0.2,
+                0.1, 2.0, 0.0,
+                0.2, 0.0, 3.0
+        }, Math.log(5.93));
+
+        for (int tip = 0; tip < tipPartials.length; tip++) {
+            cdi.setPostOrderPartial(tip, tipPartials[tip]);
+        }
+        cdi.setPostOrderPartial(PRIOR, priorPartial);
+
+        cdi.updateBrownianDiffusionMatrices(0, new int[]{0, 1, 2, 3, 4, 5},
+                new double[]{0.5, 1.0, 1.5, 0.25, 2.0, 0.75}, null, 6);
+
+        cdi.updatePostOrderPartials(POST_ORDER, POST_ORDER.length / ContinuousDiffusionIntegrator.OPERATION_TUPLE_SIZE,
+                0, true, false);
+
+        double[] logLikelihoods = new double[NUM_TRAITS];
+        cdi.calculateRootLogLikelihood(ROOT, PRIOR, 0, logLikelihoods, false, false);
+
+        cdi.calculatePreOrderRoot(PRIOR, ROOT, 0);
+        if (batchPreOrder) {
+            cdi.updatePreOrderPartials(DEPTH_FIRST_PRE_ORDER,
+                    DEPTH_FIRST_PRE_ORDER.length / ContinuousDiffusionIntegrator.OPERATION_TUPLE_SIZE);
+            return logLikelihoods;
+        }
+        for (int op = 0; op < PRE_ORDER.length; op += ContinuousDiffusionIntegrator.OPERATION_TUPLE_SIZE) {
+            cdi.updatePreOrderPartial(PRE_ORDER[op], PRE_ORDER[op + 1], PRE_ORDER[op + 2],
+                    PRE_ORDER[op + 3], PRE_ORDER[op + 4]);
+        }
+
+        return logLikelihoods;
+    }
+
+    private double[] getTipPartial() {
+        final PrecisionType type = PrecisionType.FULL;
+        final int dimPartial = type.getPartialsDimension(DIM_TRAIT);
+
+        double[] partial = new double[NUM_TRAITS * dimPartial];
+        for (int trait = 0; trait < NUM_TRAITS; trait++) {
+            final int offset = trait * dimPartial;
+            int effDim = 0;
+            for (int i = 0; i < DIM_TRAIT; i++) {
+                // about one value in five is missing
+                final boolean observed = MathUtils.nextDouble() > 0.2;
+                partial[offset + i] = observed ? MathUtils.nextGaussian() : 0.0;
+                type.fillPrecisionInPartials(partial, offset, i,
+                        observed ? Double.POSITIVE_INFINITY : 0.0, DIM_TRAIT);
+                if (observed) {
+                    effDim++;
+                }
+            }
+            type.fillEffDimInPartials(partial, offset, effDim, DIM_TRAIT);
+            type.fillNoDeterminantInPartials(partial, offset, DIM_TRAIT);
+        }
+        return partial;
+    }
+
+    private double[] getPriorPartial() {
+        final PrecisionType type = PrecisionType.FULL;
+        final int dimPartial = type.getPartialsDimension(DIM_TRAIT);
+
+        double[] partial = new double[NUM_TRAITS * dimPartial];
+        for (int trait = 0; trait < NUM_TRAITS; trait++) {
+            final int offset = trait * dimPartial;
+            for (int i = 0; i < DIM_TRAIT; i++) {
+                partial[offset + i] = MathUtils.nextGaussian();
+                type.fillPrecisionInPartials(partial, offset, i, 0.1, DIM_TRAIT);
+            }
+            type.fillNoDeterminantInPartials(partial, offset, DIM_TRAIT);
+        }
+        return partial;
+    }
+}
@@ -0,0 +1,99 @@
+package test.dr.evomodel.treelikelihood;
+
+import dr.evomodel.treelikelihood.PatternLogLikelihoodBuffers;
+import junit.framework.TestCase;
+
+/**
+ * Checks the double buffering of the pattern log likelihoods through the store, calculate and
+ * restore cycle of an MCMC step, as BeagleDataLikelihoodDelegate drives it, including caching
+ * started part way through a step.
+ */
+public class PatternLogLikelihoodBuffersTest extends TestCase {
+
+    private static final int PATTERN_COUNT = 4;
+
+    public PatternLogLikelihoodBuffersTest(String name) {
+        super(name);
+    }
+
+    public void testStoreCalculateRestore() {
+        PatternLogLikelihoodBuffers buffers = new PatternLogLikelihoodBuffers(PATTERN_COUNT);
+        assertNull(buffers.getValues());
+
+        calculate(buffers, 1.0);
+        double[] first = buffers.getValues();
+        assertValues(1.0, first);
+
+        // a rejected proposal
+        buffers.storeState();
+        calculate(buffers, 2.0);
+        assertValues(2.0, buffers.getValues());
+        assertNotSame(first, buffers.getValues());
+        buffers.restoreState();
+        assertSame(first, buffers.getValues());
+        assertValues(1.0, buffers.getValues());
+
+        // an accepted proposal, then a rejected one
+        buffers.storeState();
+        calculate(buffers, 3.0);
+        buffers.storeState();
+        calculate(buffers, 4.0);
+        buffers.restoreState();
+        assertValues(3.0, buffers.getValues());
+
+        // restoring again without a store keeps the same state
+        buffers.restoreState();
+        assertValues(3.0, buffers.getValues());
+
+        // a proposal that needed no calculation
+        buffers.storeState();
+        buffers.restoreState();
+        assertValues(3.0, buffers.getValues());
+    }
+
+    public void testCachingStartedAfterStore() {
+        // the state was stored before anything asked for the pattern log likelihoods, so the
+        // buffers only exist from part way through the step
+        PatternLogLikelihoodBuffers buffers = new PatternLogLikelihoodBuffers(PATTERN_COUNT);
+        calculate(buffers, 2.0);
+        assertValues(2.0, buffers.getValues());
+
+        // the proposal is rejected and there are no stored values to go back to
+        buffers.restoreState();
+        assertNull(buffers.getValues());
+
+        // so the restored state is calculated again, after which the cycle is as normal
+        calculate(buffers, 1.0);
+        assertValues(1.0, buffers.getValues());
+        buffers.storeState();
+        calculate(buffers, 3.0);
+        buffers.restoreState();
+        assertValues(1.0, buffers.getValues());
+    }
+
+    public void testCachingStartedAfterStoreAndAccepted() {
+        PatternLogLikelihoodBuffers buffers = new PatternLogLikelihoodBuffers(PATTERN_COUNT);
+        calculate(buffers, 2.0);
+
+        // an accepted proposal is kept and the next step stores it as usual
+        buffers.storeState();
+        calculate(buffers, 3.0);
+        buffers.restoreState();
+        assertValues(2.0, buffers.getValues());
+    }
+
+    private void calculate(PatternLogLikelihoodBuffers buffers, double value) {
+        double[] buffer = buffers.getBufferForCalculation();
+        for (int i = 0; i < buffer.length; i++) {
+            buffer[i] = -value * (i + 1);
+        }
+    }
+
+    private void assertValues(double value, double[] values) {
+        assertNotNull(values);
+        assertEquals(PATTERN_COUNT, values.length);
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(-value * (i + 1), values[i], 0.0);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package test.dr.geo;
+
+import dr.geo.GeoSpatialCollectionModel;
+import dr.geo.GeoSpatialDistribution;
+import dr.geo.Polygon2D;
+import dr.inference.model.Parameter;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that polygon containment through the grid index gives the same answers as the ray-cast
+ * over every edge, and that the per-point cache of GeoSpatialCollectionModel agrees with a full
+ * recalculation through a run of accepted and rejected moves.
+ */
+public class Polygon2DTest extends TestCase {
+
+    public Polygon2DTest(String name) {
+        super(name);
+    }
+
+    public void testIndexMatchesRayCast() {
+        MathUtils.setSeed(17);
+
+        double[][] vertices = wigglyPolygon(0.3, -0.2, 2.0, 3000);
+        Polygon2D polygon = new Polygon2D(vertices[0], vertices[1]);
+
+        // random points in and around the polygon
+        for (int i = 0; i < 100000; i++) {
+            final double x = MathUtils.uniform(-3, 3);
+            final double y = MathUtils.uniform(-3, 3);
+            assertContains(polygon, vertices, x, y);
+        }
+
+        // points on the vertices and edges, where the ray-cast is most delicate
+        final int n = vertices[0].length - 1;
+        for (int i = 0; i < n; i++) {
+            assertContains(polygon, vertices, vertices[0][i], vertices[1][i]);
+            assertContains(polygon, vertices, (vertices[0][i] + vertices[0][i + 1]) / 2, vertices[1][i]);
+            assertContains(polygon, vertices, vertices[0][i], (vertices[1][i] + vertices[1][i + 1]) / 2);
+            assertContains(polygon, vertices, Math.nextUp(vertices[0][i]), vertices[1][i]);
+        }
+
+        // points far from the polygon
+        assertContains(polygon, vertices, Double.POSITIVE_INFINITY, 0.0);
+        assertContains(polygon, vertices, Double.NEGATIVE_INFINITY, 0.0);
+        assertContains(polygon, vertices, 0.3, 1E6);
+        assertContains(polygon, vertices, Double.NaN, 0.0);
+    }
+
+    public void testIndexOfStaircase() {
+        // many horizontal and vertical edges on the grid lines of the index
+        final int steps = 50;
+        double[][] vertices = new double[2][2 * steps + 3];
+        for (int i = 0; i < steps; i++) {
+            vertices[0][2 * i] = i;
+            vertices[1][2 * i] = i;
+            vertices[0][2 * i + 1] = i + 1;
+            vertices[1][2 * i + 1] = i;
+        }
+        vertices[0][2 * steps] = steps;
+        vertices[1][2 * steps] = steps;
+        vertices[0][2 * steps + 1] = 0;
+        vertices[1][2 * steps + 1] = steps;
+        // closed
+        vertices[0][2 * steps + 2] = 0;
+        vertices[1][2 * steps + 2] = 0;
+        Polygon2D polygon = new Polygon2D(vertices[0], vertices[1]);
+
+        for (int i = 0; i <= 4 * steps; i++) {
+            for (int j = 0; j <= 4 * steps; j++) {
+                assertContains(polygon, vertices, i * 0.25 - 0.5, j * 0.25 - 0.5);
+            }
+        }
+    }
+
+    public void testCollectionModelCache() {
+        MathUtils.setSeed(23);
+
+        final int pointCount = 20;
+        List<double[][]> regions = new ArrayList<double[][]>();
+        regions.add(wigglyPolygon(0.0, 0.0, 1.4, 500));
+        regions.add(wigglyPolygon(0.8, 0.8, 0.6, 200));
+        List<GeoSpatialDistribution> distributions = new ArrayList<GeoSpatialDistribution>();
+        for (double[][] vertices : regions) {
+            distributions.add(new GeoSpatialDistribution("region", new Polygon2D(vertices[0], vertices[1]), true));
+        }
+
+        Parameter points = new Parameter.Default(pointCount * 2, 0.0);
+        GeoSpatialCollectionModel model = new GeoSpatialCollectionModel("union", points, distributions, false);
+        assertEquals(0.0, model.getLogLikelihood());
+
+        int finiteCount = 0;
+        for (int step = 0; step < 5000; step++) {
+            model.storeModelState();
+
+            if (step % 100 == 0) {
+                // move every point at once
+                for (int i = 0; i < pointCount * 2; i++) {
+                    points.setParameterValueQuietly(i, MathUtils.uniform(-1, 1));
+                }
+                points.fireParameterChangedEvent();
+            } else {
+                final int i = MathUtils.nextInt(pointCount);
+                points.setParameterValue(2 * i, MathUtils.uniform(-1.3, 1.3));
+                points.setParameterValue(2 * i + 1, MathUtils.uniform(-1.3, 1.3));
+            }
+
+            final double logL = model.getLogLikelihood();
+            assertEquals(unionLogLikelihood(points, regions), logL);
+
+            if (logL == 0.0) {
+                model.acceptModelState();
+                finiteCount++;
+            } else {
+                model.restoreModelState();
+                assertEquals(unionLogLikelihood(points, regions), model.getLogLikelihood());
+            }
+        }
+        assertTrue(finiteCount > 100);
+    }
+
+    private double unionLogLikelihood(Parameter points, List<double[][]> regions) {
+        for (int i = 0; i < points.getDimension(); i += 2) {
+            boolean inside = false;
+            for (double[][] vertices : regions) {
+                inside |= rayCast(vertices, points.getParameterValue(i), points.getParameterValue(i + 1));
+            }
+            if (!inside) {
+                return Double.NEGATIVE_INFINITY;
+            }
+        }
+        return 0.0;
+    }
+
+    private void assertContains(Polygon2D polygon, double[][] vertices, double x, double y) {
+        assertEquals("(" + x + ", " + y + ")", rayCast(vertices, x, y),
+                polygon.containsPoint2D(new Point2D.Double(x, y)));
+    }
+
+    // a star shaped polygon with a jagged edge so that it has many concave vertices
+    private double[][] wigglyPolygon(double centreX, double centreY, double radius, int vertexCount) {
+        double[][] vertices = new double[2][vertexCount + 1];
+        for (int i = 0; i < vertexCount; i++) {
+            final double angle = 2 * Math.PI * i / vertexCount;
+            final double r = radius * (0.7 + 0.2 * Math.sin(7 * angle) + 0.1 * MathUtils.nextDouble());
+            vertices[0][i] = centreX + r * Math.cos(angle);
+            vertices[1][i] = centreY + r * Math.sin(angle);
+        }
+        // the closing vertex repeats the first
+        vertices[0][vertexCount] = vertices[0][0];
+        vertices[1][vertexCount] = vertices[1][0];
+        return vertices;
+    }
+
+    // the ray-cast over every edge, as in AbstractPolygon2D
+    private boolean rayCast(double[][] vertices, double inX, double inY) {
+        final double[] x = vertices[0];
+        final double[] y = vertices[1];
+        final int length = x.length - 1;
+        boolean contains = false;
+        for (int i = 0, j = length - 1; i < length; j = i++) {
+            if ((((y[i] <= inY) && (inY < y[j])) ||
+                    ((y[j] <= inY) && (inY < y[i]))) &&
+                    (inX < (x[j] - x[i]) * (inY - y[i]) / (y[j] - y[i]) + x[i]))
+                contains = !contains;
+        }
+        return contains;
+    }
+}
@@ -0,0 +1,236 @@
+package test.dr.inference.loggers;
+
+import dr.evolution.io.Importer;
+import dr.evolution.io.NewickImporter;
+import dr.evolution.tree.*;
+import dr.evomodel.tree.DefaultTreeModel;
+import dr.evomodel.tree.TreeLogger;
+import dr.inference.loggers.*;
+import dr.inference.trace.OnlineBatchMeans;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.text.DecimalFormat;
+
+/**
+ * Checks that logs written through an AsyncLogWriter are identical to those written on the
+ * chain thread.
+ */
+public class AsyncLoggingTest extends TestCase {
+
+    private static final int STATE_COUNT = 200;
+
+    public AsyncLoggingTest(String name) {
+        super(name);
+    }
+
+    public void testLogger() {
+        final double[] value = new double[1];
+
+        StringWriter[] output = new StringWriter[2];
+        for (int k = 0; k < 2; k++) {
+            output[k] = new StringWriter();
+            MCLogger logger = new MCLogger(new TabDelimitedFormatter(new PrintWriter(output[k])), 1, false);
+            logger.setTitle("async test");
+
+            logger.addColumn(new NumberColumn("full") {
+                public double getDoubleValue() {
+                    return value[0];
+                }
+            });
+            NumberColumn rounded = new NumberColumn("rounded", 4) {
+                public double getDoubleValue() {
+                    return value[0] * 1000;
+                }
+            };
+            rounded.setMinimumWidth(12);
+            logger.addColumn(rounded);
+            logger.addColumn(new NumberColumn("custom") {
+                public double getDoubleValue() {
+                    return value[0];
+                }
+
+                public String formatValue(double value) {
+                    return value > 0 ? "positive" : "negative";
+                }
+
+                public boolean isFormattedAtFullPrecision() {
+                    return false;
+                }
+            });
+            logger.addColumn(new LogColumn.Default("text", new Object() {
+                public String toString() {
+                    return "v" + (int) (value[0] * 10);
+                }
+            }));
+
+            AsyncLogWriter writer = (k == 1 ? new AsyncLogWriter(4) : null);
+            logger.setAsyncWriter(writer);
+
+            logger.startLogging();
+            for (long state = 0; state < STATE_COUNT; state++) {
+                value[0] = Math.sin(state);
+                logger.log(state);
+            }
+            logger.stopLogging();
+
+            if (writer != null) {
+                writer.close();
+            }
+        }
+
+        assertTrue(output[0].toString().contains("positive"));
+        assertEquals(output[0].toString(), output[1].toString());
+    }
+
+    public void testColumnsEvaluatedOnce() {
+        final int[] evaluations = new int[1];
+
+        StringWriter output = new StringWriter();
+        MCLogger logger = new MCLogger(new TabDelimitedFormatter(new PrintWriter(output)), 1, false);
+        // a rounded column is formatted as text so must be formatted from the value captured
+        logger.addColumn(new NumberColumn("rounded", 4) {
+            public double getDoubleValue() {
+                evaluations[0]++;
+                return evaluations[0] * 0.5;
+            }
+        });
+
+        logger.startLogging();
+        for (long state = 0; state < STATE_COUNT; state++) {
+            logger.log(state);
+        }
+        logger.stopLogging();
+
+        assertEquals(STATE_COUNT, evaluations[0]);
+        assertTrue(output.toString().contains("\t" + STATE_COUNT / 2 + ".0"));
+    }
+
+    public void testESSColumnFedOncePerState() {
+        final double[] value = new double[1];
+        NumberColumn column = new NumberColumn("x") {
+            public double getDoubleValue() {
+                return value[0];
+            }
+        };
+        ESSColumn ess = new ESSColumn(column);
+
+        // the same column in two logs only sees each state once
+        MCLogger[] loggers = new MCLogger[2];
+        for (int k = 0; k < loggers.length; k++) {
+            loggers[k] = new MCLogger(new TabDelimitedFormatter(new PrintWriter(new StringWriter())), 1, false);
+            loggers[k].addColumn(ess);
+            loggers[k].startLogging();
+        }
+
+        OnlineBatchMeans expected = new OnlineBatchMeans(1);
+        for (long state = 0; state < STATE_COUNT; state++) {
+            value[0] = Math.sin(state);
+            expected.addValue(value[0]);
+            for (MCLogger logger : loggers) {
+                logger.log(state);
+            }
+            // reading the column has no effect on the estimate
+            ess.getFormatted();
+            assertEquals(expected.getESS(), ess.getDoubleValue(), 0.0);
+        }
+    }
+
+    public void testTreeLogger() throws IOException, Importer.ImportException {
+        for (boolean substitutions : new boolean[]{false, true}) {
+            for (boolean nexus : new boolean[]{false, true}) {
+                StringWriter[] output = new StringWriter[2];
+                for (int k = 0; k < 2; k++) {
+                    output[k] = new StringWriter();
+                    writeTrees(new PrintWriter(output[k]), substitutions, nexus, k == 1);
+                }
+                assertTrue(output[0].toString().contains("[&rootHeight="));
+                assertTrue(output[0].toString().contains(":[&side=left]"));
+                assertEquals(output[0].toString(), output[1].toString());
+            }
+        }
+    }
+
+    private void writeTrees(PrintWriter printWriter, boolean substitutions, boolean nexus, boolean async)
+            throws IOException, Importer.ImportException {
+        NewickImporter importer = new NewickImporter(
+                "(((A:1.0,'B b':1.0):1.0,C:2.0):1.0,(D:0.5,E:0.5):2.5);");
+        final DefaultTreeModel tree = new DefaultTreeModel("tree", importer.importTree(null));
+
+        BranchRates branchRates = (substitutions ? new BranchRates() {
+            public double getBranchRate(Tree tree, NodeRef node) {
+                return 1.0 + node.getNumber() * 0.1;
+            }
+        } : null);
+
+        TreeTraitProvider.Helper traits = new TreeTraitProvider.Helper();
+        traits.addTrait(new TreeTrait.D() {
+            public String getTraitName() {
+                return "height";
+            }
+
+            public Intent getIntent() {
+                return Intent.NODE;
+            }
+
+            public Double getTrait(Tree tree, NodeRef node) {
+                return tree.getNodeHeight(node);
+            }
+        });
+        traits.addTrait(new TreeTrait.S() {
+            public String getTraitName() {
+                return "side";
+            }
+
+            public Intent getIntent() {
+                return Intent.BRANCH;
+            }
+
+            public String getTrait(Tree tree, NodeRef node) {
+                return (tree.isExternal(node) ? null : (node.getNumber() % 2 == 0 ? "left" : "right"));
+            }
+        });
+
+        TreeAttributeProvider attributes = new TreeAttributeProvider() {
+            public String[] getTreeAttributeLabel() {
+                return new String[]{"rootHeight"};
+            }
+
+            public String[] getAttributeForTree(Tree tree) {
+                return new String[]{Double.toString(tree.getNodeHeight(tree.getRoot()))};
+            }
+        };
+
+        TreeLogger logger = new TreeLogger(tree, branchRates, new TreeAttributeProvider[]{attributes},
+                new TreeTraitProvider[]{traits}, new TabDelimitedFormatter(printWriter), 1, nexus, true, true,
+                (nexus ? new DecimalFormat("0.###") : null), null);
+
+        AsyncLogWriter writer = (async ? new AsyncLogWriter(2) : null);
+        logger.setAsyncWriter(writer);
+
+        logger.startLogging();
+        for (long state = 0; state < STATE_COUNT; state++) {
+            // scale the tree and swap the children of the root so both heights and topology change
+            NodeRef root = tree.getRoot();
+            for (int i = 0; i < tree.getInternalNodeCount(); i++) {
+                NodeRef node = tree.getInternalNode(i);
+                tree.setNodeHeight(node, tree.getNodeHeight(node) * (state % 2 == 0 ? 1.1 : 0.95));
+            }
+            if (state % 3 == 0) {
+                NodeRef child = tree.getChild(root, 0);
+                tree.beginTreeEdit();
+                tree.removeChild(root, child);
+                tree.addChild(root, child);
+                tree.endTreeEdit();
+            }
+            logger.log(state);
+        }
+        logger.stopLogging();
+
+        if (writer != null) {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package test.dr.inference.model;
+
+import dr.inference.model.*;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that a compound likelihood evaluating only its changed components on a work-stealing
+ * pool gives the same values as a serial one through store, accept and restore cycles, and that
+ * it does not calculate any component more often.
+ */
+public class CompoundLikelihoodTest extends TestCase {
+
+    private static final int COMPONENT_COUNT = 7;
+    private static final int DIMENSION = 3;
+
+    public CompoundLikelihoodTest(String name) {
+        super(name);
+    }
+
+    public void testWorkStealingMatchesSerial() {
+        MathUtils.setSeed(21);
+
+        List<Component> serialComponents = createComponents();
+        List<Component> parallelComponents = createComponents();
+        CompoundLikelihood serial = new CompoundLikelihood(0, new ArrayList<Likelihood>(serialComponents));
+        CompoundLikelihood parallel = new CompoundLikelihood(3, new ArrayList<Likelihood>(parallelComponents), true);
+
+        assertEquals(serial.getLogLikelihood(), parallel.getLogLikelihood());
+
+        for (int step = 0; step < 500; step++) {
+            serial.getModel().storeModelState();
+            parallel.getModel().storeModelState();
+
+            // change a few of the components, sometimes none
+            final int changeCount = MathUtils.nextInt(4);
+            for (int k = 0; k < changeCount; k++) {
+                final int component = MathUtils.nextInt(COMPONENT_COUNT);
+                final int index = MathUtils.nextInt(DIMENSION);
+                final double value = MathUtils.nextGaussian();
+                serialComponents.get(component).parameter.setParameterValue(index, value);
+                parallelComponents.get(component).parameter.setParameterValue(index, value);
+            }
+
+            final double proposed = serial.getLogLikelihood();
+            assertEquals(proposed, parallel.getLogLikelihood());
+            assertEquals(getSum(serialComponents), proposed);
+
+            if (MathUtils.nextBoolean()) {
+                serial.getModel().acceptModelState();
+                parallel.getModel().acceptModelState();
+            } else {
+                serial.getModel().restoreModelState();
+                parallel.getModel().restoreModelState();
+            }
+
+            assertEquals(serial.getLogLikelihood(), parallel.getLogLikelihood());
+            assertEquals(getSum(parallelComponents), parallel.getLogLikelihood());
+        }
+
+        for (int i = 0; i < COMPONENT_COUNT; i++) {
+            assertEquals(serialComponents.get(i).calculationCount, parallelComponents.get(i).calculationCount);
+        }
+    }
+
+    private List<Component> createComponents() {
+        List<Component> components = new ArrayList<Component>();
+        for (int i = 0; i < COMPONENT_COUNT; i++) {
+            components.add(new Component(i));
+        }
+        return components;
+    }
+
+    // the sum in the order of the components
+    private double getSum(List<Component> components) {
+        double sum = 0.0;
+        for (Component component : components) {
+            sum += component.calculate();
+        }
+        return sum;
+    }
+
+    private static class Component extends AbstractModelLikelihood {
+
+        Component(int number) {
+            super("component" + number);
+            this.number = number;
+            parameter = new Parameter.Default(DIMENSION, number * 0.1);
+            addVariable(parameter);
+        }
+
+        public Model getModel() {
+            return this;
+        }
+
+        public double getLogLikelihood() {
+            if (!likelihoodKnown) {
+                logLikelihood = calculate();
+                likelihoodKnown = true;
+                calculationCount++;
+            }
+            return logLikelihood;
+        }
+
+        double calculate() {
+            double logL = 0.0;
+            for (int i = 0; i < DIMENSION; i++) {
+                final double x = parameter.getParameterValue(i) - number;
+                logL -= x * x / (i + 1.5);
+            }
+            return logL;
+        }
+
+        public void makeDirty() {
+            likelihoodKnown = false;
+        }
+
+        protected void handleModelChangedEvent(Model model, Object object, int index) {
+        }
+
+        protected void handleVariableChangedEvent(Variable variable, int index, Parameter.ChangeType type) {
+            likelihoodKnown = false;
+        }
+
+        protected void storeState() {
+            storedLogLikelihood = logLikelihood;
+            storedLikelihoodKnown = likelihoodKnown;
+        }
+
+        protected void restoreState() {
+            logLikelihood = storedLogLikelihood;
+            likelihoodKnown = storedLikelihoodKnown;
+        }
+
+        protected void acceptState() {
+        }
+
+        private final int number;
+        final Parameter parameter;
+
+        private boolean likelihoodKnown = false;
+        private boolean storedLikelihoodKnown = false;
+        private double logLikelihood;
+        private double storedLogLikelihood;
+        int calculationCount = 0;
+    }
+}
@@ -0,0 +1,104 @@
+package test.dr.inference.model;
+
+import dr.inference.model.Parameter;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+/**
+ * Checks that the copy-on-write store and restore of Parameter.Default puts back the values after
+ * a few changes, after enough changes for all the values to be saved, after dimension changes and
+ * across repeated store, accept and restore cycles.
+ */
+public class ParameterStoreRestoreTest extends TestCase {
+
+    private static final int DIMENSION = 100;
+
+    public ParameterStoreRestoreTest(String name) {
+        super(name);
+    }
+
+    public void testRandomChanges() {
+        MathUtils.setSeed(666);
+
+        Parameter.Default parameter = new Parameter.Default(DIMENSION, 0.0);
+        for (int i = 0; i < DIMENSION; i++) {
+            parameter.setParameterValue(i, i);
+        }
+
+        for (int step = 0; step < 2000; step++) {
+            parameter.storeParameterValues();
+            double[] stored = parameter.getParameterValues();
+
+            // mostly a few changes but sometimes most of the values
+            final int changeCount = (step % 10 == 0 ? MathUtils.nextInt(DIMENSION) : MathUtils.nextInt(4));
+            for (int k = 0; k < changeCount; k++) {
+                final int index = MathUtils.nextInt(DIMENSION);
+                final double value = MathUtils.nextDouble();
+                switch (k % 3) {
+                    case 0:
+                        parameter.setParameterValue(index, value);
+                        break;
+                    case 1:
+                        parameter.setParameterValueQuietly(index, value);
+                        break;
+                    default:
+                        parameter.setParameterValueNotifyChangedAll(index, value);
+                }
+            }
+            double[] proposed = parameter.getParameterValues();
+
+            if (MathUtils.nextBoolean()) {
+                parameter.acceptParameterValues();
+                assertValues(proposed, parameter);
+            } else {
+                parameter.restoreParameterValues();
+                assertValues(stored, parameter);
+            }
+        }
+    }
+
+    public void testSetAllValues() {
+        Parameter.Default parameter = new Parameter.Default(new double[]{1.0, 2.0, 3.0, 4.0, 5.0, 6.0});
+
+        parameter.storeParameterValues();
+        parameter.setParameterValue(2, 30.0);
+        parameter.setAllParameterValuesQuietly(new double[]{0.0, 10.0, 20.0, 30.0, 40.0, 50.0, 60.0}, 1);
+        assertValues(new double[]{10.0, 20.0, 30.0, 40.0, 50.0, 60.0}, parameter);
+        parameter.restoreParameterValues();
+        assertValues(new double[]{1.0, 2.0, 3.0, 4.0, 5.0, 6.0}, parameter);
+
+        // a single change after a restore is still undone
+        parameter.storeParameterValues();
+        parameter.setParameterValue(5, 0.0);
+        parameter.restoreParameterValues();
+        assertValues(new double[]{1.0, 2.0, 3.0, 4.0, 5.0, 6.0}, parameter);
+    }
+
+    public void testDimensionChanges() {
+        Parameter.Default parameter = new Parameter.Default(new double[]{1.0, 2.0, 3.0, 4.0, 5.0, 6.0, 7.0, 8.0});
+
+        parameter.storeParameterValues();
+        parameter.setParameterValue(0, 10.0);
+        parameter.addDimension(3, 3.5);
+        parameter.setParameterValue(8, 80.0);
+        assertEquals(9, parameter.getDimension());
+        parameter.restoreParameterValues();
+        assertValues(new double[]{1.0, 2.0, 3.0, 4.0, 5.0, 6.0, 7.0, 8.0}, parameter);
+
+        parameter.storeParameterValues();
+        parameter.addDimension(8, 9.0);
+        parameter.acceptParameterValues();
+
+        parameter.storeParameterValues();
+        parameter.setParameterValue(8, 90.0);
+        parameter.restoreParameterValues();
+        assertValues(new double[]{1.0, 2.0, 3.0, 4.0, 5.0, 6.0, 7.0, 8.0, 9.0}, parameter);
+    }
+
+    private void assertValues(double[] expected, Parameter parameter) {
+        assertEquals(expected.length, parameter.getDimension());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], parameter.getParameterValue(i), 0.0);
+        }
+    }
+}
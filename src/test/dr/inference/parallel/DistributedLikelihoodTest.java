@@ -0,0 +1,205 @@
+package test.dr.inference.parallel;
+
+import dr.evomodel.operators.ExchangeOperator;
+import dr.evomodel.operators.SubtreeSlideOperator;
+import dr.evomodel.operators.WilsonBalding;
+import dr.evomodel.tree.DefaultTreeModel;
+import dr.inference.model.Likelihood;
+import dr.inference.model.Parameter;
+import dr.inference.operators.AdaptationMode;
+import dr.inference.operators.SimpleMCMCOperator;
+import dr.inference.parallel.DistributedLikelihood;
+import dr.math.MathUtils;
+import dr.xml.AttributeParser;
+import dr.xml.XMLObject;
+import dr.xml.XMLObjectParser;
+import dr.xml.XMLParser;
+import test.dr.inference.trace.TraceCorrelationAssert;
+
+import java.io.File;
+import java.io.StringReader;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks that a distributedLikelihood calculated by worker processes follows the sum of its
+ * partitions (here coalescent likelihoods sharing a tree) calculated in this process through parameter and tree changes, stores, restores
+ * and accepts.
+ */
+public class DistributedLikelihoodTest extends TraceCorrelationAssert {
+
+    private static final int PARTITION_COUNT = 3;
+    private static final int STEP_COUNT = 200;
+
+    private static final String[] PARSERS = {
+            "dr.evoxml.TaxonParser",
+            "dr.evoxml.TaxaParser",
+            "dr.evoxml.NewickParser",
+            "dr.evomodelxml.tree.TreeModelParser",
+            "dr.evomodelxml.coalescent.demographicmodel.ConstantPopulationModelParser",
+            "dr.evomodelxml.coalescent.demographicmodel.ExponentialGrowthModelParser",
+            "dr.evomodelxml.coalescent.CoalescentLikelihoodParser",
+            "dr.inferencexml.model.DistributedLikelihoodParser"
+    };
+
+    public DistributedLikelihoodTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        // the tests may be run with only the compiled classes on the class path but the workers
+        // parse with a BeastParser, which needs the lists of parsers kept with the sources
+        classPath = System.getProperty("java.class.path");
+        if (ClassLoader.getSystemResource("dr/app/beast/beast.properties") == null) {
+            File sources = new File("src");
+            assertTrue("the tests should be run from the project directory", sources.isDirectory());
+            System.setProperty("java.class.path", classPath + File.pathSeparator + sources.getAbsolutePath());
+        }
+    }
+
+    public void tearDown() throws Exception {
+        System.setProperty("java.class.path", classPath);
+        super.tearDown();
+    }
+
+    public void testWorkersFollowLocalPartitions() throws Exception {
+        MathUtils.setSeed(666);
+
+        Map<String, XMLObject> objects = parse(getXML(2));
+
+        DistributedLikelihood distributed = (DistributedLikelihood) objects.get("distributed").getNativeObject();
+        assertEquals(2, distributed.getWorkerCount());
+        List<Likelihood> partitions = distributed.getPartitions();
+
+        DefaultTreeModel tree = (DefaultTreeModel) objects.get("treeModel").getNativeObject();
+        List<Parameter> parameters = new ArrayList<Parameter>();
+        for (String id : new String[]{"popSize1", "popSize2", "popSize3", "growthRate3"}) {
+            parameters.add((Parameter) objects.get(id).getNativeObject());
+        }
+
+        SimpleMCMCOperator[] operators = {
+                new ExchangeOperator(ExchangeOperator.NARROW, tree, 1.0),
+                new ExchangeOperator(ExchangeOperator.WIDE, tree, 1.0),
+                new WilsonBalding(tree, 1.0),
+                new SubtreeSlideOperator(tree, 1.0, 0.01, true, false, false, false, AdaptationMode.ADAPTATION_OFF, 0.23)
+        };
+
+        assertEquals(sum(partitions), distributed.getLogLikelihood(), 1E-10);
+
+        for (int step = 0; step < STEP_COUNT; step++) {
+            distributed.storeModelState();
+
+            boolean failed = false;
+            if (MathUtils.nextBoolean()) {
+                Parameter parameter = parameters.get(MathUtils.nextInt(parameters.size()));
+                final int dim = MathUtils.nextInt(parameter.getDimension());
+                parameter.setParameterValue(dim, parameter.getParameterValue(dim) * Math.exp(0.2 * MathUtils.nextGaussian()));
+            } else {
+                try {
+                    operators[MathUtils.nextInt(operators.length)].doOperation();
+                } catch (RuntimeException re) {
+                    failed = true;
+                }
+            }
+
+            if (!failed) {
+                assertEquals("step " + step, sum(partitions), distributed.getLogLikelihood(), 1E-10);
+            }
+
+            if (failed || MathUtils.nextBoolean()) {
+                distributed.restoreModelState();
+            } else {
+                distributed.acceptModelState();
+            }
+
+            if (step % 50 == 0) {
+                distributed.makeDirty();
+            }
+
+            assertEquals("step " + step, sum(partitions), distributed.getLogLikelihood(), 1E-10);
+        }
+
+        // the workers are started again from the current state if needed after they are stopped
+        distributed.stopWorkers();
+        distributed.stopWorkers();
+        assertEquals(sum(partitions), distributed.getLogLikelihood(), 1E-10);
+        distributed.stopWorkers();
+    }
+
+    public void testWithoutWorkers() throws Exception {
+        Map<String, XMLObject> objects = parse(getXML(0));
+
+        DistributedLikelihood distributed = (DistributedLikelihood) objects.get("distributed").getNativeObject();
+        assertEquals(0, distributed.getWorkerCount());
+        assertEquals(sum(distributed.getPartitions()), distributed.getLogLikelihood(), 1E-10);
+    }
+
+    private Map<String, XMLObject> parse(String xml) throws Exception {
+        XMLParser parser = new XMLParser(false, false, false, null);
+        parser.addXMLObjectParser(new AttributeParser());
+        parser.addXMLObjectParser(new dr.inference.model.ParameterParser());
+        for (String name : PARSERS) {
+            Class<?> parserClass = Class.forName(name);
+            if (XMLObjectParser.class.isAssignableFrom(parserClass)) {
+                parser.addXMLObjectParser((XMLObjectParser) parserClass.getDeclaredConstructor().newInstance());
+            } else {
+                for (Field field : parserClass.getDeclaredFields()) {
+                    if (XMLObjectParser.class.isAssignableFrom(field.getType())) {
+                        parser.addXMLObjectParser((XMLObjectParser) field.get(null));
+                    }
+                }
+            }
+        }
+        return parser.parse(new StringReader(xml), false);
+    }
+
+    private double sum(List<Likelihood> partitions) {
+        double logL = 0.0;
+        for (Likelihood likelihood : partitions) {
+            logL += likelihood.getLogLikelihood();
+        }
+        return logL;
+    }
+
+    /**
+     * Coalescent likelihoods of a shared tree of the primates under three population models.
+     */
+    private String getXML(int workerCount) {
+        StringBuilder xml = new StringBuilder("<beast>\n<taxa id=\"taxa\">\n");
+        for (String taxon : PRIMATES_TAXON_SEQUENCE[0]) {
+            xml.append("<taxon id=\"").append(taxon).append("\"/>\n");
+        }
+        xml.append("</taxa>\n");
+
+        xml.append("<newick id=\"startingTree\">");
+        xml.append("((((human:0.02,(chimp:0.01,bonobo:0.01):0.01):0.01,gorilla:0.03):0.02,orangutan:0.05):0.01,siamang:0.06);");
+        xml.append("</newick>\n");
+        xml.append("<treeModel id=\"treeModel\"><newick idref=\"startingTree\"/>");
+        xml.append("<rootHeight><parameter id=\"treeModel.rootHeight\"/></rootHeight>");
+        xml.append("<nodeHeights internalNodes=\"true\"><parameter id=\"treeModel.internalNodeHeights\"/></nodeHeights></treeModel>\n");
+
+        xml.append("<constantSize id=\"demographic1\" units=\"years\"><populationSize><parameter id=\"popSize1\" value=\"0.1\"/></populationSize></constantSize>\n");
+        xml.append("<constantSize id=\"demographic2\" units=\"years\"><populationSize><parameter id=\"popSize2\" value=\"0.05\"/></populationSize></constantSize>\n");
+        xml.append("<exponentialGrowth id=\"demographic3\" units=\"years\"><populationSize><parameter id=\"popSize3\" value=\"0.1\"/></populationSize>");
+        xml.append("<growthRate><parameter id=\"growthRate3\" value=\"2.0\"/></growthRate></exponentialGrowth>\n");
+
+        for (int i = 1; i <= PARTITION_COUNT; i++) {
+            xml.append("<coalescentLikelihood id=\"coalescent").append(i).append("\"><model>");
+            xml.append("<").append(i < 3 ? "constantSize" : "exponentialGrowth").append(" idref=\"demographic").append(i).append("\"/>");
+            xml.append("</model><populationTree><treeModel idref=\"treeModel\"/></populationTree></coalescentLikelihood>\n");
+        }
+
+        xml.append("<distributedLikelihood id=\"distributed\" workers=\"").append(workerCount).append("\">\n");
+        for (int i = 1; i <= PARTITION_COUNT; i++) {
+            xml.append("<coalescentLikelihood idref=\"coalescent").append(i).append("\"/>\n");
+        }
+        xml.append("</distributedLikelihood>\n</beast>\n");
+        return xml.toString();
+    }
+
+    private String classPath;
+}
@@ -0,0 +1,243 @@
+package test.dr.inference.trace;
+
+import dr.app.tools.LogConverter;
+import dr.inference.loggers.BinaryLogFormatter;
+import dr.inference.loggers.LogColumn;
+import dr.inference.loggers.MCLogger;
+import dr.inference.loggers.NumberColumn;
+import dr.inference.loggers.TabDelimitedFormatter;
+import dr.inference.trace.BinaryLogFile;
+import dr.inference.trace.LogFileTraces;
+import dr.inference.trace.Trace;
+import dr.inference.trace.TraceException;
+import junit.framework.TestCase;
+
+import java.io.*;
+
+/**
+ * Checks that a binary log reads back as the same traces as the tab-delimited log written
+ * alongside it, that an unfinished binary log can still be read, that waiting rows are written
+ * by the timer and that the converters round trip.
+ */
+public class BinaryLogFileTest extends TestCase {
+
+    private static final int STATE_COUNT = 25;
+    private static final int BLOCK_SIZE = 4;
+
+    public BinaryLogFileTest(String name) {
+        super(name);
+    }
+
+    public void testSameTracesAsText() throws IOException, TraceException {
+        File text = tempFile(".log");
+        File binary = tempFile(".blog");
+        writeLogs(text, binary);
+
+        assertTrue(BinaryLogFile.isBinaryLog(binary));
+        assertFalse(BinaryLogFile.isBinaryLog(text));
+
+        assertSameTraces(load(text), load(binary));
+    }
+
+    public void testUnfinishedLog() throws IOException, TraceException {
+        File text = tempFile(".log");
+        File binary = tempFile(".blog");
+        writeLogs(text, binary);
+
+        BinaryLogFile complete = new BinaryLogFile(binary);
+        final int blockCount = complete.getBlockCount();
+        assertEquals(STATE_COUNT, complete.getRowCount());
+        complete.close();
+
+        // lose just the index, then cut the file part way through the last block as well
+        byte[] bytes = readAll(binary);
+        final int indexSize = 8 + 12 * blockCount + 12;
+        File withoutIndex = tempFile(".blog");
+        OutputStream out = new FileOutputStream(withoutIndex);
+        out.write(bytes, 0, bytes.length - indexSize);
+        out.close();
+
+        BinaryLogFile log = new BinaryLogFile(withoutIndex);
+        assertEquals(blockCount, log.getBlockCount());
+        assertEquals(STATE_COUNT, log.getRowCount());
+        log.close();
+
+        File truncated = tempFile(".blog");
+        out = new FileOutputStream(truncated);
+        out.write(bytes, 0, bytes.length - indexSize - 10);
+        out.close();
+
+        log = new BinaryLogFile(truncated);
+        assertEquals(blockCount - 1, log.getBlockCount());
+        assertEquals((blockCount - 1) * BLOCK_SIZE, log.getRowCount());
+        long[] states = log.readStates();
+        for (int i = 0; i < states.length; i++) {
+            assertEquals(i * 10L, states[i]);
+        }
+        log.close();
+    }
+
+    public void testTimedFlush() throws IOException, TraceException, InterruptedException {
+        // a few rows of a big block, left waiting as they would be when a slow run is killed
+        File binary = tempFile(".blog");
+        BinaryLogFormatter formatter = new BinaryLogFormatter(new FileOutputStream(binary), 100, 50);
+        formatter.logLabels(new String[]{"state", "value"});
+        for (int i = 0; i < 5; i++) {
+            formatter.logColumns(i * 10L, new double[]{i}, new String[1]);
+        }
+
+        // the timer writes the partial block without any more rows being logged
+        int rowCount = 0;
+        for (int wait = 0; wait < 100 && rowCount == 0; wait++) {
+            Thread.sleep(50);
+            BinaryLogFile log = new BinaryLogFile(binary);
+            rowCount = log.getRowCount();
+            log.close();
+        }
+        assertEquals(5, rowCount);
+
+        formatter.logColumns(50L, new double[]{5}, new String[1]);
+        formatter.stopLogging();
+
+        BinaryLogFile log = new BinaryLogFile(binary);
+        assertEquals(6, log.getRowCount());
+        double[] values = log.readValues(0);
+        for (int i = 0; i < values.length; i++) {
+            assertEquals((double) i, values[i], 0.0);
+        }
+        log.close();
+    }
+
+    public void testTextKeptExactly() throws IOException, TraceException {
+        final long big = (1L << 53) + 1;
+        String[][] rows = {
+                {Long.toString(big), "5", "5"},
+                {Long.toString(big + 2), "7", "2.5"},
+                {Long.toString(big + 4), "red", "-3"},
+                {Long.toString(big + 6), "1.50", "1"}
+        };
+
+        File binary = tempFile(".blog");
+        BinaryLogFormatter formatter = new BinaryLogFormatter(new FileOutputStream(binary), rows.length);
+        formatter.logLabels(new String[]{"state", "big", "text", "real"});
+        for (int i = 0; i < rows.length; i++) {
+            formatter.logColumns(i * 10L, new double[rows[i].length], rows[i]);
+        }
+        formatter.stopLogging();
+
+        BinaryLogFile log = new BinaryLogFile(binary);
+        // longs beyond the precision of a double are written exactly
+        assertTrue(log.isInteger(0));
+        String[] text = log.readText(0);
+        for (int i = 0; i < rows.length; i++) {
+            assertEquals(rows[i][0], text[i]);
+        }
+        // integers logged before a block becomes text keep their text
+        assertTrue(log.isCategorical(1));
+        text = log.readText(1);
+        for (int i = 0; i < rows.length; i++) {
+            assertEquals(rows[i][1], text[i]);
+        }
+        // and integers logged before a block becomes real keep their values
+        double[] values = log.readValues(2);
+        for (int i = 0; i < rows.length; i++) {
+            assertEquals(Double.parseDouble(rows[i][2]), values[i], 0.0);
+        }
+        log.close();
+    }
+
+    public void testConverters() throws IOException, TraceException {
+        File text = tempFile(".log");
+        File binary = tempFile(".blog");
+        writeLogs(text, binary);
+
+        File converted = tempFile(".blog");
+        LogConverter.textToBinary(text, converted);
+        assertSameTraces(load(text), load(converted));
+
+        File back = tempFile(".log");
+        LogConverter.binaryToText(binary, back);
+        assertSameTraces(load(text), load(back));
+    }
+
+    private void writeLogs(File text, File binary) throws IOException {
+        final double[] value = new double[1];
+        final int[] count = new int[1];
+
+        MCLogger logger = new MCLogger(new TabDelimitedFormatter(new PrintWriter(new FileWriter(text)), true),
+                10, false);
+        logger.addFormatter(new BinaryLogFormatter(new FileOutputStream(binary), BLOCK_SIZE));
+        logger.setTitle("test log\nsecond line");
+
+        logger.addColumn(new NumberColumn("value") {
+            public double getDoubleValue() {
+                return value[0];
+            }
+        });
+        logger.addColumn(new LogColumn.Abstract("count") {
+            protected String getFormattedValue() {
+                return Integer.toString(count[0]);
+            }
+        });
+        logger.addColumn(new LogColumn.Abstract("category") {
+            protected String getFormattedValue() {
+                return (count[0] % 3 == 0 ? "red" : "blue");
+            }
+        });
+        // an integer for the first few states, then real
+        logger.addColumn(new LogColumn.Abstract("mixed") {
+            protected String getFormattedValue() {
+                return (count[0] < 6 ? Integer.toString(count[0]) : Double.toString(count[0] / 4.0));
+            }
+        });
+
+        logger.startLogging();
+        for (long state = 0; state < STATE_COUNT * 10; state++) {
+            value[0] = Math.sin(state) * 1E-3 + state;
+            count[0] = (int) (state / 10);
+            logger.log(state);
+        }
+        logger.stopLogging();
+    }
+
+    private void assertSameTraces(LogFileTraces expected, LogFileTraces actual) {
+        assertEquals(expected.getTraceCount(), actual.getTraceCount());
+        assertEquals(expected.getStateCount(), actual.getStateCount());
+        assertEquals(expected.getStepSize(), actual.getStepSize());
+        assertEquals(expected.getMaxState(), actual.getMaxState());
+
+        for (int i = 0; i < expected.getTraceCount(); i++) {
+            Trace expectedTrace = expected.getTrace(i);
+            Trace actualTrace = actual.getTrace(i);
+            assertEquals(expectedTrace.getName(), actualTrace.getName());
+            assertEquals(expectedTrace.getTraceType(), actualTrace.getTraceType());
+            assertEquals(expectedTrace.getValueCount(), actualTrace.getValueCount());
+            for (int j = 0; j < expectedTrace.getValueCount(); j++) {
+                assertEquals(expectedTrace.getValue(j), actualTrace.getValue(j), 0.0);
+                if (expectedTrace.getTraceType().isCategorical()) {
+                    assertEquals(expectedTrace.getCategoryLabel(j), actualTrace.getCategoryLabel(j));
+                }
+            }
+        }
+    }
+
+    private LogFileTraces load(File file) throws IOException, TraceException {
+        LogFileTraces traces = new LogFileTraces(file.getName(), file);
+        traces.loadTraces();
+        return traces;
+    }
+
+    private byte[] readAll(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        in.readFully(bytes);
+        in.close();
+        return bytes;
+    }
+
+    private File tempFile(String suffix) throws IOException {
+        File file = File.createTempFile("binaryLogTest", suffix);
+        file.deleteOnExit();
+        return file;
+    }
+}
@@ -0,0 +1,78 @@
+package test.dr.inference.trace;
+
+import dr.inference.trace.OnlineBatchMeans;
+import dr.inference.trace.TraceCorrelation;
+import dr.inference.trace.TraceType;
+import dr.math.MathUtils;
+import test.dr.math.MathTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks the FFT autocovariance against the direct sum and the streaming batch means
+ * ESS against the known value for an AR(1) process.
+ */
+public class TraceCorrelationTest extends MathTestCase {
+
+    public TraceCorrelationTest(String name) {
+        super(name);
+    }
+
+    public void testAutoCovariance() {
+        // odd, even, tiny and power of 2 lengths all go through the packed real transform
+        for (int length : new int[]{5000, 4999, 1024, 7, 2, 1}) {
+            double[] values = ar1(length, 0.9);
+            checkAutoCovariance(values, Math.min(200, length));
+        }
+    }
+
+    private void checkAutoCovariance(double[] values, int maxLag) {
+        double mean = 0.0;
+        for (double value : values) {
+            mean += value;
+        }
+        mean /= values.length;
+
+        double[] fft = TraceCorrelation.getAutoCovariance(values, mean, maxLag);
+
+        for (int lag = 0; lag < maxLag; lag++) {
+            double gamma = 0.0;
+            for (int j = 0; j < values.length - lag; j++) {
+                gamma += (values[j] - mean) * (values[j + lag] - mean);
+            }
+            gamma /= (values.length - lag);
+            assertEquals(gamma, fft[lag], 1E-10);
+        }
+    }
+
+    public void testBatchMeansESS() {
+        // the ACT of an AR(1) process is (1 + phi) / (1 - phi)
+        double phi = 0.9;
+        double[] values = ar1(200000, phi);
+
+        OnlineBatchMeans batchMeans = new OnlineBatchMeans(1);
+        batchMeans.addValues(values);
+
+        List<Double> list = new ArrayList<Double>();
+        for (double value : values) {
+            list.add(value);
+        }
+        TraceCorrelation correlation = new TraceCorrelation(list, TraceType.REAL, 1);
+
+        double act = (1 + phi) / (1 - phi);
+        assertEquals(act, correlation.getACT(), act * 0.1);
+        assertEquals(act, batchMeans.getACT(), act * 0.2);
+        assertEquals(correlation.getMean(), batchMeans.getMean(), 1E-10);
+    }
+
+    private double[] ar1(int length, double phi) {
+        MathUtils.setSeed(666);
+        double[] values = new double[length];
+        values[0] = MathUtils.nextGaussian();
+        for (int i = 1; i < length; i++) {
+            values[i] = phi * values[i - 1] + MathUtils.nextGaussian();
+        }
+        return values;
+    }
+}
@@ -0,0 +1,102 @@
+package test.dr.math;
+
+import dr.math.AliasTable;
+import junit.framework.TestCase;
+
+/**
+ * Checks that alias tables give each state its probability, taking evenly spaced uniform numbers
+ * so that the proportions are exact up to the spacing.
+ */
+public class AliasTableTest extends TestCase {
+
+    private static final int DRAW_COUNT = 1000000;
+
+    public AliasTableTest(String name) {
+        super(name);
+    }
+
+    public void testProportions() {
+        double[][] pdfs = new double[][]{
+                {0.25, 0.25, 0.25, 0.25},
+                {0.7, 0.1, 0.15, 0.05},
+                {0.0, 0.5, 0.0, 0.5},
+                {1.0, 0.0, 0.0, 0.0},
+                // unnormalized
+                {3.0, 1.0, 2.0, 2.0}
+        };
+
+        AliasTable table = new AliasTable(pdfs.length, 4);
+        for (int i = 0; i < pdfs.length; i++) {
+            table.setTable(i, pdfs[i], 0);
+        }
+
+        for (int i = 0; i < pdfs.length; i++) {
+            assertProportions(table, i, pdfs[i]);
+        }
+    }
+
+    public void testOffsetsAndCodons() {
+        // tables laid out as the rows of a matrix, as for transition probabilities
+        final int stateCount = 61;
+        double[] matrix = new double[stateCount * stateCount];
+        for (int i = 0; i < stateCount; i++) {
+            for (int j = 0; j < stateCount; j++) {
+                matrix[i * stateCount + j] = (i == j ? 10.0 : (i + j) % 7);
+            }
+        }
+
+        AliasTable table = new AliasTable(stateCount, stateCount);
+        for (int i = 0; i < stateCount; i++) {
+            table.setTable(i, matrix, i * stateCount);
+        }
+
+        for (int i = 0; i < stateCount; i += 10) {
+            double[] pdf = new double[stateCount];
+            System.arraycopy(matrix, i * stateCount, pdf, 0, stateCount);
+            assertProportions(table, i, pdf);
+        }
+
+        // the largest uniform number must still give a state
+        final double u = Math.nextAfter(1.0, 0.0);
+        for (int i = 0; i < stateCount; i++) {
+            final int state = table.sample(i, u);
+            assertTrue(state >= 0 && state < stateCount);
+        }
+    }
+
+    public void testInvalidProbabilities() {
+        AliasTable table = new AliasTable(1, 2);
+        try {
+            table.setTable(0, new double[]{0.0, 0.0}, 0);
+            fail("zero probabilities accepted");
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+        try {
+            table.setTable(0, new double[]{-0.5, 1.5}, 0);
+            fail("negative probability accepted");
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+    }
+
+    private void assertProportions(AliasTable table, int index, double[] pdf) {
+        double sum = 0.0;
+        for (double p : pdf) {
+            sum += p;
+        }
+
+        int[] counts = new int[pdf.length];
+        for (int i = 0; i < DRAW_COUNT; i++) {
+            counts[table.sample(index, (i + 0.5) / DRAW_COUNT)]++;
+        }
+
+        for (int i = 0; i < pdf.length; i++) {
+            if (pdf[i] == 0.0) {
+                assertEquals(0, counts[i]);
+            } else {
+                assertEquals(pdf[i] / sum, (double) counts[i] / DRAW_COUNT, 2.0 * pdf.length / DRAW_COUNT);
+            }
+        }
+    }
+}
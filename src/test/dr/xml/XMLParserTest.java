@@ -0,0 +1,145 @@
+package test.dr.xml;
+
+import dr.xml.*;
+import junit.framework.TestCase;
+import org.xml.sax.SAXParseException;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks that lazily added parsers are only created when their elements are met and that the
+ * text of a document reaches the parsers as it did when it was read by a DOM parser.
+ */
+public class XMLParserTest extends TestCase {
+
+    public XMLParserTest(String name) {
+        super(name);
+    }
+
+    public void testLazyParser() throws Exception {
+        XMLParser parser = new XMLParser(false, false, true, null);
+
+        CountingLoader used = new CountingLoader(new String[]{"text", "words"});
+        CountingLoader unused = new CountingLoader(new String[]{"unused"});
+        parser.addLazyXMLObjectParser(used.names, used);
+        parser.addLazyXMLObjectParser(unused.names, unused);
+
+        assertTrue(parser.hasParser("words"));
+        assertTrue(parser.hasParser("unused"));
+        assertFalse(parser.hasParser("missing"));
+
+        Map<String, XMLObject> store = parser.parse(new StringReader(
+                "<beast><text id=\"a\">one</text><words id=\"b\">two</words></beast>"), false);
+
+        assertEquals(1, used.count);
+        assertEquals(0, unused.count);
+        assertEquals("one", store.get("a").getNativeObject());
+        assertEquals("two", store.get("b").getNativeObject());
+        assertSame(parser.getParser("text"), parser.getParser("words"));
+
+        // listing the parsers creates the rest
+        List<String> names = new ArrayList<String>();
+        for (Iterator<?> i = parser.getParserNames(); i.hasNext(); ) {
+            names.add((String) i.next());
+        }
+        assertTrue(names.contains("unused"));
+        assertEquals(1, unused.count);
+
+        // a parser that is added later can't replace a lazy one unless asked to
+        try {
+            parser.addXMLObjectParser(new TextParser(new String[]{"unused"}));
+            fail("parser replaced");
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+        CountingLoader replacement = new CountingLoader(new String[]{"text"});
+        assertTrue(parser.addLazyXMLObjectParser(replacement.names, replacement));
+        assertSame(replacement.getParser(), parser.getParser("text"));
+    }
+
+    public void testText() throws Exception {
+        XMLParser parser = new XMLParser(false, false, true, null);
+        parser.addXMLObjectParser(new TextParser(new String[]{"text"}));
+
+        Map<String, XMLObject> store = parser.parse(new StringReader(
+                "<?xml version=\"1.0\"?>\n<!-- comment -->\n<beast>\n" +
+                        "  <text id=\"a\">\n    one &amp; two\n  </text>\n" +
+                        "  <text id=\"b\">one<!-- comment -->two</text>\n" +
+                        "  <text id=\"c\">one <![CDATA[<two>]]> three</text>\n" +
+                        "</beast>"), false);
+
+        assertEquals("one & two", store.get("a").getNativeObject());
+        assertEquals("one|two", store.get("b").getNativeObject());
+        assertEquals("one|<two>|three", store.get("c").getNativeObject());
+    }
+
+    public void testBadDocument() throws Exception {
+        XMLParser parser = new XMLParser(false, false, true, null);
+        try {
+            parser.parse(new StringReader("<beast>\n<text>\n</beast>"), false);
+            fail("badly formed document parsed");
+        } catch (SAXParseException spe) {
+            assertEquals(3, spe.getLineNumber());
+        }
+    }
+
+    private static class CountingLoader extends XMLParser.LazyParser {
+
+        CountingLoader(String[] names) {
+            this.names = names;
+        }
+
+        protected XMLObjectParser createParser() {
+            count++;
+            return new TextParser(names);
+        }
+
+        final String[] names;
+        int count = 0;
+    }
+
+    /**
+     * Joins the text children of an element with bars.
+     */
+    private static class TextParser extends AbstractXMLObjectParser {
+
+        TextParser(String[] names) {
+            this.names = names;
+        }
+
+        public String getParserName() {
+            return names[0];
+        }
+
+        public String[] getParserNames() {
+            return names;
+        }
+
+        public Object parseXMLObject(XMLObject xo) throws XMLParseException {
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < xo.getChildCount(); i++) {
+                builder.append(i > 0 ? "|" : "").append(xo.getChild(i));
+            }
+            return builder.toString();
+        }
+
+        public XMLSyntaxRule[] getSyntaxRules() {
+            return new XMLSyntaxRule[0];
+        }
+
+        public String getParserDescription() {
+            return "Joins text";
+        }
+
+        @SuppressWarnings("rawtypes")
+        public Class getReturnType() {
+            return String.class;
+        }
+
+        private final String[] names;
+    }
+}